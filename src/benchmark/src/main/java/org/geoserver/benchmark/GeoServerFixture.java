@@ -0,0 +1,215 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogBuilder;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.data.test.SystemTestData;
+import org.geoserver.logging.LoggingUtils;
+import org.geoserver.platform.ContextLoadedEvent;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geoserver.test.GeoServerTestApplicationContext;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.FeatureWriter;
+import org.geotools.data.Transaction;
+import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.feature.NameImpl;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.util.logging.Log4JLoggerFactory;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.springframework.web.context.WebApplicationContext;
+import org.vfny.geoserver.global.GeoserverDataDirectory;
+
+import com.mockrunner.mock.web.MockServletContext;
+
+/**
+ * An in process GeoServer, running off a temporary data directory with the default CITE vector
+ * layers backed by property files, plus shapefile copies of some of them, so that the benchmarks
+ * can exercise the real service beans without a servlet container.
+ * <p>
+ * The shapefile copies are named after the original layer, with the {@link #SHAPEFILE_SUFFIX}
+ * appended, and use the same default style.
+ * </p>
+ */
+public class GeoServerFixture {
+
+    public static final String SHAPEFILE_SUFFIX = "_shp";
+
+    SystemTestData testData;
+
+    GeoServerTestApplicationContext applicationContext;
+
+    /**
+     * Sets up the data directory and starts GeoServer
+     *
+     * @param shapefileLayers the layers that should also be available as shapefiles
+     */
+    public void setUp(QName... shapefileLayers) throws Exception {
+        // keep the logs quiet, they would skew the results
+        Logging.ALL.setLoggerFactory(Log4JLoggerFactory.getInstance());
+        System.setProperty(LoggingUtils.RELINQUISH_LOG4J_CONTROL, "true");
+
+        testData = new SystemTestData();
+        testData.setUp();
+        GeoServerResourceLoader loader = new GeoServerResourceLoader(
+                testData.getDataDirectoryRoot());
+        LoggingUtils.configureGeoServerLogging(loader,
+                getClass().getResourceAsStream("/QUIET_LOGGING.properties"), true, true, null);
+        testData.setUpDefault();
+
+        MockServletContext servletContext = new MockServletContext();
+        servletContext.setInitParameter("GEOSERVER_DATA_DIR", testData.getDataDirectoryRoot()
+                .getPath());
+        servletContext.setInitParameter("serviceStrategy", "SPEED");
+        File webinf = new File(testData.getDataDirectoryRoot(), "WEB-INF");
+        webinf.mkdir();
+        servletContext.setRealPath("WEB-INF", webinf.getAbsolutePath());
+
+        applicationContext = new GeoServerTestApplicationContext(new String[] {
+                "classpath*:/applicationContext.xml", "classpath*:/applicationSecurityContext.xml" },
+                servletContext);
+        applicationContext.setUseLegacyGeoServerLoader(false);
+        applicationContext.refresh();
+        applicationContext.publishEvent(new ContextLoadedEvent(applicationContext));
+        servletContext.setAttribute(WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE,
+                applicationContext);
+
+        for (QName layer : shapefileLayers) {
+            addShapefileLayer(layer);
+        }
+    }
+
+    /**
+     * Shuts down GeoServer and removes the data directory
+     */
+    public void tearDown() throws Exception {
+        try {
+            if (applicationContext != null) {
+                applicationContext.destroy();
+                new GeoServerExtensions().setApplicationContext(null);
+                GeoserverDataDirectory.destroy();
+            }
+        } finally {
+            applicationContext = null;
+            if (testData != null) {
+                testData.tearDown();
+                testData = null;
+            }
+        }
+    }
+
+    public Catalog getCatalog() {
+        return (Catalog) applicationContext.getBean("catalog");
+    }
+
+    public Object getBean(String name) {
+        return applicationContext.getBean(name);
+    }
+
+    /**
+     * Returns the prefixed name of the layer, or of its shapefile copy
+     */
+    public static String getLayerName(QName layer, boolean shapefile) {
+        return layer.getPrefix() + ":" + layer.getLocalPart()
+                + (shapefile ? SHAPEFILE_SUFFIX : "");
+    }
+
+    /**
+     * Copies the features of a property layer into a shapefile, and publishes it as a new layer
+     * in the same workspace
+     */
+    void addShapefileLayer(QName source) throws Exception {
+        Catalog catalog = getCatalog();
+        FeatureTypeInfo sourceInfo = catalog.getFeatureTypeByName(source.getNamespaceURI(),
+                source.getLocalPart());
+        SimpleFeatureSource features = (SimpleFeatureSource) sourceInfo.getFeatureSource(null,
+                null);
+        String name = source.getLocalPart() + SHAPEFILE_SUFFIX;
+
+        File directory = new File(testData.getDataDirectoryRoot(), "shapefiles");
+        directory.mkdirs();
+        File file = new File(directory, name + ".shp");
+        ShapefileDataStore shapefile = new ShapefileDataStore(DataUtilities.fileToURL(file));
+        try {
+            SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+            tb.init(features.getSchema());
+            tb.setName(name);
+            shapefile.createSchema(tb.buildFeatureType());
+            copyFeatures(features, shapefile);
+        } finally {
+            shapefile.dispose();
+        }
+
+        CatalogBuilder cb = new CatalogBuilder(catalog);
+        cb.setWorkspace(catalog.getWorkspaceByName(source.getPrefix()));
+        DataStoreInfo store = cb.buildDataStore(name);
+        store.setType("Shapefile");
+        store.getConnectionParameters().put("url", DataUtilities.fileToURL(file).toExternalForm());
+        catalog.add(store);
+
+        cb.setStore(store);
+        FeatureTypeInfo featureType = cb.buildFeatureType(new NameImpl(name));
+        cb.lookupSRS(featureType, true);
+        cb.setupBounds(featureType);
+        catalog.add(featureType);
+
+        LayerInfo layer = cb.buildLayer(featureType);
+        layer.setDefaultStyle(catalog.getLayerByName(sourceInfo.prefixedName()).getDefaultStyle());
+        catalog.add(layer);
+    }
+
+    /**
+     * Copies the features, the shapefile moves the geometry first and might truncate the
+     * attribute names, so the values are copied by position, skipping the geometries
+     */
+    void copyFeatures(SimpleFeatureSource source, ShapefileDataStore shapefile) throws Exception {
+        List<Integer> attributes = new ArrayList<Integer>();
+        SimpleFeatureType sourceType = source.getSchema();
+        for (int i = 0; i < sourceType.getAttributeCount(); i++) {
+            AttributeDescriptor descriptor = sourceType.getDescriptor(i);
+            if (!(descriptor instanceof GeometryDescriptor)) {
+                attributes.add(i);
+            }
+        }
+
+        FeatureWriter<SimpleFeatureType, SimpleFeature> writer = shapefile
+                .getFeatureWriterAppend(Transaction.AUTO_COMMIT);
+        SimpleFeatureIterator it = source.getFeatures().features();
+        try {
+            while (it.hasNext()) {
+                SimpleFeature feature = it.next();
+                SimpleFeature copy = writer.next();
+                int next = 0;
+                for (int i = 0; i < copy.getAttributeCount(); i++) {
+                    if (copy.getFeatureType().getDescriptor(i) instanceof GeometryDescriptor) {
+                        copy.setAttribute(i, feature.getDefaultGeometry());
+                    } else {
+                        copy.setAttribute(i, feature.getAttribute(attributes.get(next++)));
+                    }
+                }
+                writer.write();
+            }
+        } finally {
+            it.close();
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmark.monitor;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.geoserver.monitor.MemoryMonitorDAO;
+import org.geoserver.monitor.MonitorConfig;
+import org.geoserver.monitor.MonitorDAO;
+import org.geoserver.monitor.Query;
+import org.geoserver.monitor.Query.Comparison;
+import org.geoserver.monitor.RequestData;
+import org.geoserver.monitor.RequestData.Category;
+import org.geoserver.monitor.RequestData.Status;
+import org.geoserver.monitor.RequestDataVisitor;
+import org.geoserver.monitor.mapped.MappedMonitorDAO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the monitoring storages, the {@code ingest} benchmark records a request going
+ * through its whole life cycle (init, add, update, save) as the monitor filter does, the
+ * {@code aggregate} and {@code count} ones run the queries of the activity reports against the
+ * requests recorded so far.
+ * <p>
+ * The {@code storage} parameter selects the storage, the mapped one should sustain well over
+ * 10k requests per second. The memory storage only keeps the last 100 requests, its query
+ * figures are given for reference only.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MonitorDAOBenchmark {
+
+    static final String[] SERVICES = { "WMS", "WFS", "WCS" };
+
+    static final String[] OPERATIONS = { "GetMap", "GetFeature", "GetCoverage" };
+
+    @Param({ "memory", "mapped" })
+    String storage;
+
+    File directory;
+
+    MonitorDAO dao;
+
+    long counter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (MappedMonitorDAO.NAME.equals(storage)) {
+            directory = File.createTempFile("monitor", "benchmark");
+            directory.delete();
+            directory.mkdirs();
+            dao = new MappedMonitorDAO(directory);
+        } else {
+            dao = new MemoryMonitorDAO();
+        }
+        dao.init(new MonitorConfig());
+
+        // some history for the queries to chew on
+        for (int i = 0; i < 100000; i++) {
+            ingest();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dao.dispose();
+        if (directory != null) {
+            FileUtils.deleteQuietly(directory);
+        }
+    }
+
+    @Benchmark
+    public RequestData ingest() {
+        long i = counter++;
+        int type = (int) (i % SERVICES.length);
+
+        RequestData data = dao.init(new RequestData());
+        data.setStatus(Status.RUNNING);
+        data.setCategory(Category.OWS);
+        data.setStartTime(new Date());
+        data.setPath("/geoserver/ows");
+        data.setQueryString("service=" + SERVICES[type] + "&request=" + OPERATIONS[type]
+                + "&layers=topp:states&bbox=-180,-90,180,90");
+        data.setHttpMethod("GET");
+        data.setRemoteAddr("192.168.1." + (i % 256));
+        data.setHost("localhost");
+        dao.add(data);
+
+        data.setService(SERVICES[type]);
+        data.setOperation(OPERATIONS[type]);
+        data.setOwsVersion("1.1.1");
+        data.setResources(Arrays.asList("topp:states", "topp:roads"));
+        dao.update(data);
+
+        data.setStatus(Status.FINISHED);
+        data.setEndTime(new Date());
+        data.setTotalTime(data.getEndTime().getTime() - data.getStartTime().getTime());
+        data.setResponseLength(10000 + i % 1000);
+        data.setResponseContentType("image/png");
+        data.setResponseStatus(200);
+        dao.save(data);
+        return data;
+    }
+
+    @Benchmark
+    public long count() {
+        return dao.getCount(new Query().filter("service", "WMS", Comparison.EQ).and(
+                "operation", "GetMap", Comparison.EQ));
+    }
+
+    @Benchmark
+    public int aggregate() {
+        final int[] groups = new int[1];
+        dao.getRequests(new Query().properties("service").aggregate("count()")
+                .group("service"), new RequestDataVisitor() {
+            public void visit(RequestData data, Object... aggregates) {
+                groups[0]++;
+            }
+        });
+        return groups[0];
+    }
+}
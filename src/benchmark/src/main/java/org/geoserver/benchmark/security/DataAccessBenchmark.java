@@ -0,0 +1,209 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmark.security;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.geoserver.benchmark.GeoServerFixture;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogFactory;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.security.AccessMode;
+import org.geoserver.security.impl.DataAccessRule;
+import org.geoserver.security.impl.DataAccessRuleDAO;
+import org.geoserver.security.impl.GeoServerRole;
+import org.geoserver.wms.GetCapabilitiesRequest;
+import org.geoserver.wms.WebMapService;
+import org.geotools.xml.transform.TransformerBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Measures the cost of the data access rules on a large catalog, the {@code listLayers}
+ * benchmark filters all the layers through the secure catalog as the capabilities documents
+ * do, the {@code capabilities} one produces a whole WMS 1.1.1 capabilities document.
+ * <p>
+ * The catalog is extended with copies of a CITE layer spread over {@link #WORKSPACES}
+ * workspaces, a tenth of the workspaces is restricted to a role of its own and a few layers in
+ * each of the others are restricted to a common role, so that every user sees a different
+ * subset of the layers. The {@code user} parameter selects who is asking.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DataAccessBenchmark {
+
+    static final int WORKSPACES = 100;
+
+    static final int ROLES = 40;
+
+    @Param({ "1000", "10000" })
+    int layers;
+
+    @Param({ "anonymous", "reader", "admin" })
+    String user;
+
+    GeoServerFixture fixture;
+
+    Catalog catalog;
+
+    WebMapService wms;
+
+    Authentication authentication;
+
+    GetCapabilitiesRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new GeoServerFixture();
+        fixture.setUp();
+        catalog = fixture.getCatalog();
+        wms = (WebMapService) fixture.getBean("wmsServiceTarget");
+
+        Catalog rawCatalog = (Catalog) fixture.getBean("rawCatalog");
+        DataAccessRuleDAO dao = (DataAccessRuleDAO) fixture.getBean("accessRulesDao");
+        addLayers(rawCatalog, dao);
+
+        if ("anonymous".equals(user)) {
+            authentication = new AnonymousAuthenticationToken("benchmark", "anonymous",
+                    Arrays.<GrantedAuthority> asList(GeoServerRole.ANONYMOUS_ROLE));
+        } else if ("admin".equals(user)) {
+            authentication = new UsernamePasswordAuthenticationToken("admin", null,
+                    Arrays.<GrantedAuthority> asList(GeoServerRole.ADMIN_ROLE,
+                            GeoServerRole.AUTHENTICATED_ROLE));
+        } else {
+            // a user with many roles, as found with LDAP groups
+            GrantedAuthority[] roles = new GrantedAuthority[ROLES + 1];
+            for (int i = 0; i < ROLES; i++) {
+                roles[i] = new GeoServerRole("ROLE_GROUP_" + i);
+            }
+            roles[ROLES] = GeoServerRole.AUTHENTICATED_ROLE;
+            authentication = new UsernamePasswordAuthenticationToken("reader", null,
+                    Arrays.asList(roles));
+        }
+
+        request = new GetCapabilitiesRequest();
+        request.setVersion("1.1.1");
+        request.setBaseUrl("http://localhost:8080/geoserver");
+    }
+
+    /**
+     * Publishes copies of the buildings layer in the benchmark workspaces, and sets up the rules
+     */
+    void addLayers(Catalog rawCatalog, DataAccessRuleDAO dao) {
+        FeatureTypeInfo template = rawCatalog.getFeatureTypeByName(MockData.BUILDINGS
+                .getNamespaceURI(), MockData.BUILDINGS.getLocalPart());
+        LayerInfo templateLayer = rawCatalog.getLayerByName(template.prefixedName());
+        CatalogFactory factory = rawCatalog.getFactory();
+
+        WorkspaceInfo[] workspaces = new WorkspaceInfo[WORKSPACES];
+        NamespaceInfo[] namespaces = new NamespaceInfo[WORKSPACES];
+        DataStoreInfo[] stores = new DataStoreInfo[WORKSPACES];
+        for (int i = 0; i < WORKSPACES; i++) {
+            WorkspaceInfo ws = factory.createWorkspace();
+            ws.setName("bench" + i);
+            rawCatalog.add(ws);
+            NamespaceInfo ns = factory.createNamespace();
+            ns.setPrefix(ws.getName());
+            ns.setURI("http://geoserver.org/benchmark/" + ws.getName());
+            rawCatalog.add(ns);
+            // the rules look up the workspace through the store
+            DataStoreInfo store = factory.createDataStore();
+            store.setName(template.getStore().getName());
+            store.setWorkspace(ws);
+            store.setType(template.getStore().getType());
+            store.getConnectionParameters().putAll(
+                    template.getStore().getConnectionParameters());
+            store.setEnabled(true);
+            rawCatalog.add(store);
+            workspaces[i] = ws;
+            namespaces[i] = ns;
+            stores[i] = store;
+
+            if (i % 10 == 0) {
+                dao.addRule(new DataAccessRule(ws.getName(), DataAccessRule.ANY,
+                        AccessMode.READ, "ROLE_GROUP_" + (i % ROLES)));
+            }
+        }
+
+        for (int i = 0; i < layers; i++) {
+            int w = i % WORKSPACES;
+            FeatureTypeInfo ft = factory.createFeatureType();
+            ft.setName("layer" + i);
+            ft.setNativeName(template.getNativeName());
+            ft.setNamespace(namespaces[w]);
+            ft.setStore(stores[w]);
+            ft.setSRS(template.getSRS());
+            ft.setNativeCRS(template.getNativeCRS());
+            ft.setNativeBoundingBox(template.getNativeBoundingBox());
+            ft.setLatLonBoundingBox(template.getLatLonBoundingBox());
+            ft.setProjectionPolicy(template.getProjectionPolicy());
+            ft.setEnabled(true);
+            rawCatalog.add(ft);
+
+            LayerInfo layer = factory.createLayer();
+            layer.setResource(ft);
+            layer.setDefaultStyle(templateLayer.getDefaultStyle());
+            layer.setEnabled(true);
+            rawCatalog.add(layer);
+
+            if (w % 10 != 0 && i % 50 == 1) {
+                dao.addRule(new DataAccessRule(workspaces[w].getName(), ft.getName(),
+                        AccessMode.READ, "ROLE_RESTRICTED"));
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.tearDown();
+    }
+
+    @Benchmark
+    public int listLayers() {
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+        try {
+            List<LayerInfo> result = catalog.getLayers();
+            return result.size();
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    @Benchmark
+    public void capabilities() throws Exception {
+        SecurityContextHolder.getContext().setAuthentication(authentication);
+        try {
+            TransformerBase transformer = (TransformerBase) wms.getCapabilities(request);
+            OutputStream out = new NullOutputStream();
+            transformer.transform(request, out);
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+}
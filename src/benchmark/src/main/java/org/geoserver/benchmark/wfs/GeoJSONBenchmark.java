@@ -0,0 +1,152 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmark.wfs;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.opengis.wfs.FeatureCollectionType;
+import net.opengis.wfs.WfsFactory;
+
+import org.geoserver.benchmark.GeoServerFixture;
+import org.geoserver.config.GeoServer;
+import org.geoserver.wfs.json.GeoJSONGetFeatureResponse;
+import org.geoserver.wfs.json.StreamingGeoJSONGetFeatureResponse;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Compares the GeoJSON GetFeature encoders, the one based on the json-lib builder and the
+ * streaming one, on an in memory collection of polygons. The data is not read from a store so
+ * that the results only depend on the encoding.
+ * <p>
+ * The output is sent to a stream that just counts the bytes, run with {@code -prof gc} to compare
+ * the allocation rates as well.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GeoJSONBenchmark {
+
+    @Param({ "1000", "10000" })
+    int features;
+
+    @Param({ "10", "100" })
+    int vertices;
+
+    GeoServerFixture fixture;
+
+    GeoJSONGetFeatureResponse legacy;
+
+    StreamingGeoJSONGetFeatureResponse streaming;
+
+    FeatureCollectionType response;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new GeoServerFixture();
+        fixture.setUp();
+        GeoServer gs = (GeoServer) fixture.getBean("geoServer");
+        legacy = new GeoJSONGetFeatureResponse(gs, "application/json");
+        streaming = new StreamingGeoJSONGetFeatureResponse(gs, "application/json");
+
+        response = WfsFactory.eINSTANCE.createFeatureCollectionType();
+        response.getFeature().add(buildFeatures());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.tearDown();
+    }
+
+    ListFeatureCollection buildFeatures() {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("polygons");
+        tb.add("the_geom", Polygon.class, DefaultGeographicCRS.WGS84);
+        tb.add("name", String.class);
+        tb.add("population", Integer.class);
+        tb.add("area", Double.class);
+        SimpleFeatureType schema = tb.buildFeatureType();
+
+        GeometryFactory gf = new GeometryFactory();
+        SimpleFeatureBuilder fb = new SimpleFeatureBuilder(schema);
+        Random random = new Random(0);
+        List<SimpleFeature> list = new ArrayList<SimpleFeature>();
+        for (int i = 0; i < features; i++) {
+            // a random star shaped polygon
+            double cx = random.nextDouble() * 340 - 170;
+            double cy = random.nextDouble() * 160 - 80;
+            Coordinate[] ring = new Coordinate[vertices + 1];
+            for (int j = 0; j < vertices; j++) {
+                double angle = 2 * Math.PI * j / vertices;
+                double radius = 0.5 + random.nextDouble() * 5;
+                ring[j] = new Coordinate(cx + Math.cos(angle) * radius, cy + Math.sin(angle)
+                        * radius);
+            }
+            ring[vertices] = ring[0];
+            Polygon polygon = gf.createPolygon(gf.createLinearRing(ring), null);
+
+            fb.add(polygon);
+            fb.add("Feature number " + i);
+            fb.add(random.nextInt(1000000));
+            fb.add(polygon.getArea());
+            list.add(fb.buildFeature("polygons." + i));
+        }
+        return new ListFeatureCollection(schema, list);
+    }
+
+    @Benchmark
+    public long legacy() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        legacy.write(response, out, null);
+        return out.count;
+    }
+
+    @Benchmark
+    public long streaming() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        streaming.write(response, out, null);
+        return out.count;
+    }
+
+    /**
+     * Discards the output, just counting the bytes
+     */
+    static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
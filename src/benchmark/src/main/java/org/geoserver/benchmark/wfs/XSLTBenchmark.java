@@ -0,0 +1,157 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmark.wfs;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.opengis.wfs.FeatureCollectionType;
+import net.opengis.wfs.GetFeatureType;
+import net.opengis.wfs.QueryType;
+import net.opengis.wfs.WfsFactory;
+
+import org.geoserver.benchmark.GeoServerFixture;
+import org.geoserver.benchmark.wfs.GeoJSONBenchmark.CountingOutputStream;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+import org.geoserver.wfs.xslt.XSLTOutputFormat;
+import org.geoserver.wfs.xslt.config.TransformInfo;
+import org.geoserver.wfs.xslt.config.TransformRepository;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.util.Version;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * Measures the XSLT WFS output format on large in memory collections of the CITE buildings.
+ * <p>
+ * The same stylesheet is applied either to GML 3, whose SAX events are fed straight into the
+ * transformation, or to GML 2, which is written on another thread and parsed back through a
+ * pipe, depending on the {@code source} parameter. Run with {@code -prof gc} to compare the
+ * allocation rates as well.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class XSLTBenchmark {
+
+    static final String STYLESHEET = "<xsl:stylesheet version=\"1.0\" "
+            + "xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:gml=\"http://www.opengis.net/gml\" "
+            + "xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+            + "<xsl:template match=\"/\"><html><body>"
+            + "<xsl:for-each select=\"wfs:FeatureCollection/gml:featureMember/* | "
+            + "wfs:FeatureCollection/gml:featureMembers/*\">"
+            + "<h2><xsl:value-of select=\"@fid | @gml:id\"/></h2><table>"
+            + "<xsl:for-each select=\"./*[not(*)]\">"
+            + "<tr><td><xsl:value-of select=\"name()\"/></td><td><xsl:value-of select=\".\"/></td></tr>"
+            + "</xsl:for-each></table></xsl:for-each>"
+            + "</body></html></xsl:template></xsl:stylesheet>";
+
+    @Param({ "1000", "100000" })
+    int features;
+
+    @Param({ "gml2", "gml3" })
+    String source;
+
+    GeoServerFixture fixture;
+
+    XSLTOutputFormat format;
+
+    FeatureCollectionType response;
+
+    Operation operation;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new GeoServerFixture();
+        fixture.setUp();
+        Catalog catalog = fixture.getCatalog();
+        FeatureTypeInfo buildings = catalog.getFeatureTypeByName(MockData.BUILDINGS
+                .getNamespaceURI(), MockData.BUILDINGS.getLocalPart());
+
+        TransformRepository repository = (TransformRepository) fixture
+                .getBean("transformRepository");
+        TransformInfo info = new TransformInfo();
+        info.setName("benchmark");
+        info.setSourceFormat("gml2".equals(source) ? "text/xml; subtype=gml/2.1.2"
+                : "text/xml; subtype=gml/3.1.1");
+        info.setOutputFormat("text/html; subtype=benchmark");
+        info.setXslt("benchmark.xslt");
+        repository.putTransformSheet(info, new ByteArrayInputStream(STYLESHEET.getBytes("UTF-8")));
+        repository.putTransformInfo(info);
+        format = (XSLTOutputFormat) fixture.getBean("xsltOutputFormat");
+
+        response = WfsFactory.eINSTANCE.createFeatureCollectionType();
+        response.getFeature().add(buildFeatures(buildings));
+
+        GetFeatureType request = WfsFactory.eINSTANCE.createGetFeatureType();
+        request.setService("WFS");
+        request.setVersion("1.1.0");
+        request.setBaseUrl("http://localhost:8080/geoserver");
+        request.setOutputFormat(info.getOutputFormat());
+        QueryType query = WfsFactory.eINSTANCE.createQueryType();
+        query.setTypeName(Collections.singletonList(MockData.BUILDINGS));
+        request.getQuery().add(query);
+        Service service = new Service("wfs", null, new Version("1.1.0"), null);
+        operation = new Operation("GetFeature", service, null, new Object[] { request });
+    }
+
+    /**
+     * Replicates the buildings up to the desired number of features
+     */
+    ListFeatureCollection buildFeatures(FeatureTypeInfo buildings) throws Exception {
+        SimpleFeatureType schema = (SimpleFeatureType) buildings.getFeatureType();
+        List<SimpleFeature> templates = new ArrayList<SimpleFeature>();
+        SimpleFeatureSource fs = (SimpleFeatureSource) buildings.getFeatureSource(null, null);
+        SimpleFeatureIterator it = fs.getFeatures().features();
+        try {
+            while (it.hasNext()) {
+                templates.add(it.next());
+            }
+        } finally {
+            it.close();
+        }
+
+        List<SimpleFeature> list = new ArrayList<SimpleFeature>();
+        for (int i = 0; i < features; i++) {
+            SimpleFeature template = templates.get(i % templates.size());
+            list.add(SimpleFeatureBuilder.build(schema, template.getAttributes(), "Buildings."
+                    + i));
+        }
+        return new ListFeatureCollection(schema, list);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.tearDown();
+    }
+
+    @Benchmark
+    public long transform() throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        format.write(response, out, operation);
+        return out.count;
+    }
+}
@@ -0,0 +1,138 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmark.wms;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.geoserver.benchmark.GeoServerFixture;
+import org.geoserver.data.test.MockData;
+import org.geoserver.gwc.GWC;
+import org.geoserver.gwc.wms.CachedTileFilter;
+import org.geoserver.ows.Dispatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpServletResponse;
+
+/**
+ * Compares the cost of serving an already cached tile through the regular dispatcher, where the
+ * direct WMS integration kicks in only after the GetMap request has been fully parsed, against the
+ * {@link CachedTileFilter} fast path that works off the raw KVP parameters.
+ * <p>
+ * The tile is cached during the setup, so both paths measure the per request overhead only.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CachedTileBenchmark {
+
+    GeoServerFixture fixture;
+
+    Dispatcher dispatcher;
+
+    CachedTileFilter filter;
+
+    Map<String, String> kvp;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new GeoServerFixture();
+        fixture.setUp();
+        dispatcher = (Dispatcher) fixture.getBean("dispatcher");
+        filter = (CachedTileFilter) fixture.getBean("gwcCachedTileFilter");
+
+        GWC gwc = (GWC) fixture.getBean("gwcFacade");
+        gwc.getConfig().setDirectWMSIntegrationEnabled(true);
+
+        kvp = new LinkedHashMap<String, String>();
+        kvp.put("SERVICE", "WMS");
+        kvp.put("VERSION", "1.1.1");
+        kvp.put("REQUEST", "GetMap");
+        kvp.put("LAYERS", GeoServerFixture.getLayerName(MockData.BASIC_POLYGONS, false));
+        kvp.put("STYLES", "");
+        kvp.put("FORMAT", "image/png");
+        kvp.put("SRS", "EPSG:4326");
+        kvp.put("BBOX", "-180,-90,0,90");
+        kvp.put("WIDTH", "256");
+        kvp.put("HEIGHT", "256");
+        kvp.put("TILED", "true");
+
+        // seed the cache, and make sure the fast path actually hits it
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        dispatcher.handleRequest(createRequest(), response);
+        if (response.getStatusCode() != 200) {
+            throw new IllegalStateException("Failed to seed the tile, status code "
+                    + response.getStatusCode());
+        }
+        serveCachedTile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.tearDown();
+    }
+
+    MockHttpServletRequest createRequest() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod("GET");
+        request.setScheme("http");
+        request.setServerName("localhost");
+        request.setServerPort(8080);
+        request.setContextPath("/geoserver");
+        request.setRequestURI("/geoserver/wms");
+        request.setServletPath("/wms");
+        request.setRemoteAddr("127.0.0.1");
+        StringBuilder queryString = new StringBuilder();
+        for (Map.Entry<String, String> entry : kvp.entrySet()) {
+            request.setupAddParameter(entry.getKey(), entry.getValue());
+            if (queryString.length() > 0) {
+                queryString.append("&");
+            }
+            queryString.append(entry.getKey()).append("=").append(entry.getValue());
+        }
+        request.setQueryString(queryString.toString());
+        return request;
+    }
+
+    @Benchmark
+    public int dispatcher() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        dispatcher.handleRequest(createRequest(), response);
+        return response.getOutputStreamContent().length();
+    }
+
+    @Benchmark
+    public int fastPath() throws Exception {
+        return serveCachedTile();
+    }
+
+    int serveCachedTile() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(createRequest(), response, new FilterChain() {
+            public void doFilter(ServletRequest request, ServletResponse response)
+                    throws IOException, ServletException {
+                throw new IllegalStateException("The cached tile was not served by the filter");
+            }
+        });
+        return response.getOutputStreamContent().length();
+    }
+}
@@ -0,0 +1,154 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmark.wms;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.geoserver.benchmark.GeoServerFixture;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogFactory;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.Predicates;
+import org.geoserver.catalog.ReadOnlyListing;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.geoserver.data.test.MockData;
+import org.geoserver.wms.GetCapabilitiesRequest;
+import org.geoserver.wms.WebMapService;
+import org.geotools.xml.transform.TransformerBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the catalog overhead of the WMS capabilities documents on a large catalog, extended
+ * with copies of a CITE layer. Run with {@code -prof gc} to get the allocation rate.
+ * <p>
+ * The {@code listLayers} benchmark walks the layers reading the properties the capabilities
+ * documents use, with or without the {@link ReadOnlyListing} mode depending on the
+ * {@code readOnly} parameter, isolating the cost of the modification proxies. The
+ * {@code capabilities} one produces a whole document of the given {@code version}, the
+ * transformers always enable the read only mode so the parameter has no effect on it.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CapabilitiesBenchmark {
+
+    @Param({ "10000" })
+    int layers;
+
+    @Param({ "false", "true" })
+    boolean readOnly;
+
+    @Param({ "1.1.1", "1.3.0" })
+    String version;
+
+    GeoServerFixture fixture;
+
+    Catalog catalog;
+
+    WebMapService wms;
+
+    GetCapabilitiesRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new GeoServerFixture();
+        fixture.setUp();
+        catalog = fixture.getCatalog();
+        wms = (WebMapService) fixture.getBean("wmsServiceTarget");
+        addLayers((Catalog) fixture.getBean("rawCatalog"));
+
+        request = new GetCapabilitiesRequest();
+        request.setVersion(version);
+        request.setBaseUrl("http://localhost:8080/geoserver");
+    }
+
+    /**
+     * Publishes copies of the buildings layer in its own store
+     */
+    void addLayers(Catalog rawCatalog) {
+        FeatureTypeInfo template = rawCatalog.getFeatureTypeByName(MockData.BUILDINGS
+                .getNamespaceURI(), MockData.BUILDINGS.getLocalPart());
+        LayerInfo templateLayer = rawCatalog.getLayerByName(template.prefixedName());
+        CatalogFactory factory = rawCatalog.getFactory();
+
+        for (int i = 0; i < layers; i++) {
+            FeatureTypeInfo ft = factory.createFeatureType();
+            ft.setName("layer" + i);
+            ft.setTitle("Copy " + i + " of " + template.getTitle());
+            ft.setNativeName(template.getNativeName());
+            ft.setNamespace(template.getNamespace());
+            ft.setStore(template.getStore());
+            ft.setSRS(template.getSRS());
+            ft.setNativeCRS(template.getNativeCRS());
+            ft.setNativeBoundingBox(template.getNativeBoundingBox());
+            ft.setLatLonBoundingBox(template.getLatLonBoundingBox());
+            ft.setProjectionPolicy(template.getProjectionPolicy());
+            ft.getKeywords().addAll(template.getKeywords());
+            ft.setEnabled(true);
+            rawCatalog.add(ft);
+
+            LayerInfo layer = factory.createLayer();
+            layer.setResource(ft);
+            layer.setDefaultStyle(templateLayer.getDefaultStyle());
+            layer.setEnabled(true);
+            rawCatalog.add(layer);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.tearDown();
+    }
+
+    @Benchmark
+    public void listLayers(Blackhole bh) {
+        if (readOnly) {
+            ReadOnlyListing.start();
+        }
+        try {
+            CloseableIterator<LayerInfo> it = catalog.list(LayerInfo.class,
+                    Predicates.acceptAll(), null, null, Predicates.asc("name"));
+            try {
+                while (it.hasNext()) {
+                    LayerInfo layer = it.next();
+                    bh.consume(layer.getName());
+                    bh.consume(layer.getResource().getTitle());
+                    bh.consume(layer.getResource().getKeywords());
+                    bh.consume(layer.getResource().getLatLonBoundingBox());
+                    for (StyleInfo style : layer.getStyles()) {
+                        bh.consume(style.getName());
+                    }
+                    bh.consume(layer.getDefaultStyle().getName());
+                }
+            } finally {
+                it.close();
+            }
+        } finally {
+            ReadOnlyListing.finish();
+        }
+    }
+
+    @Benchmark
+    public void capabilities() throws Exception {
+        TransformerBase transformer = (TransformerBase) wms.getCapabilities(request);
+        OutputStream out = new NullOutputStream();
+        transformer.transform(request, out);
+    }
+}
@@ -0,0 +1,146 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmark.wms;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.wms.map.quantize.CachingColorIndexer;
+import org.geoserver.wms.map.quantize.ColorIndexer;
+import org.geoserver.wms.map.quantize.ColorIndexerDescriptor;
+import org.geoserver.wms.map.quantize.LRUColorIndexer;
+import org.geoserver.wms.map.quantize.Quantizer;
+import org.geoserver.wms.map.quantize.ThreadLocalColorIndexer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Compares the color indexers used to turn RGBA maps into paletted ones, both with a single
+ * thread and with several threads sharing the same indexer, as it happens when the tiles of a
+ * quantized image are computed in parallel.
+ * <p>
+ * The {@code indexer} parameter selects the implementation:
+ * <ul>
+ * <li>{@code lru}: the synchronized LRU cache previously used for user provided palettes</li>
+ * <li>{@code threadLocal}: the thread local indexer now used for user provided palettes</li>
+ * <li>{@code quantizer}: the indexer built by the {@link Quantizer}, which also knows the colors
+ * of the histogram</li>
+ * </ul>
+ * The {@code histogram} benchmark measures the palette construction, which builds the histogram
+ * in parallel on large images.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ColorIndexerBenchmark {
+
+    @Param({ "lru", "threadLocal", "quantizer" })
+    String indexer;
+
+    @Param({ "256", "1024" })
+    int size;
+
+    BufferedImage image;
+
+    int[] pixels;
+
+    ColorIndexer colorIndexer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        image = buildImage(size);
+        pixels = image.getRGB(0, 0, size, size, null, 0, size);
+
+        ColorIndexer quantized = new Quantizer(256).subsample().buildColorIndexer(image);
+        IndexColorModel icm = quantized.toIndexColorModel();
+        if ("lru".equals(indexer)) {
+            colorIndexer = new CachingColorIndexer(new LRUColorIndexer(icm, 1024));
+        } else if ("threadLocal".equals(indexer)) {
+            colorIndexer = new ThreadLocalColorIndexer(icm);
+        } else if ("quantizer".equals(indexer)) {
+            colorIndexer = quantized;
+        } else {
+            throw new IllegalArgumentException("Unknown indexer " + indexer);
+        }
+    }
+
+    /**
+     * Builds an antialiased map-like image, with a few thousands of colors
+     */
+    static BufferedImage buildImage(int size) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+            Random random = new Random(0);
+            for (int i = 0; i < 200; i++) {
+                graphics.setColor(new Color(random.nextInt(256), random.nextInt(256),
+                        random.nextInt(256), 128 + random.nextInt(128)));
+                graphics.setStroke(new BasicStroke(1 + random.nextInt(4)));
+                int x = random.nextInt(size);
+                int y = random.nextInt(size);
+                int w = random.nextInt(size / 4) + 1;
+                int h = random.nextInt(size / 4) + 1;
+                if (i % 2 == 0) {
+                    graphics.fillOval(x, y, w, h);
+                } else {
+                    graphics.drawLine(x, y, x + w, y + h);
+                }
+            }
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+
+    int lookupAll(ColorIndexer ci) {
+        int sum = 0;
+        for (int pixel : pixels) {
+            sum += ci.getClosestIndex((pixel >> 16) & 0xFF, (pixel >> 8) & 0xFF, pixel & 0xFF,
+                    (pixel >>> 24));
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int lookup() {
+        return lookupAll(colorIndexer);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int lookupConcurrent() {
+        return lookupAll(colorIndexer);
+    }
+
+    /**
+     * Indexes the whole image through the JAI operation, as the PNG8 output does
+     */
+    @Benchmark
+    public Object indexImage() {
+        return ColorIndexerDescriptor.create(image, colorIndexer, null).getTiles();
+    }
+
+    @Benchmark
+    public ColorIndexer histogram() {
+        return new Quantizer(256).buildColorIndexer(image);
+    }
+}
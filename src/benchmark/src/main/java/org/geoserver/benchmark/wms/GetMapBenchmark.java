@@ -0,0 +1,225 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmark.wms;
+
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.benchmark.GeoServerFixture;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.ows.util.KvpMap;
+import org.geoserver.ows.util.KvpUtils;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
+import org.geoserver.wms.WebMapService;
+import org.geoserver.wms.map.GetMapKvpRequestReader;
+import org.geoserver.wms.map.JPEGMapResponse;
+import org.geoserver.wms.map.PNGMapResponse;
+import org.geoserver.wms.map.RenderedImageMap;
+import org.geoserver.wms.map.quantize.ColorIndexer;
+import org.geoserver.wms.map.quantize.ColorIndexerDescriptor;
+import org.geoserver.wms.map.quantize.Quantizer;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.image.ImageWorker;
+import org.geotools.styling.Style;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures the stages of a WMS GetMap request separately: KVP parsing, style resolution,
+ * rendering, quantization and encoding. Each stage works off the output of the previous ones,
+ * computed once during the setup, so that a regression can be pinned to a single stage.
+ * <p>
+ * The map is a composite of the CITE vector layers, read either from property files or from
+ * their shapefile copies depending on the {@code shapefile} parameter. Run with {@code -prof gc}
+ * to get the allocation rate of each stage along with its throughput.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GetMapBenchmark {
+
+    static final QName[] LAYERS = new QName[] { MockData.FORESTS, MockData.LAKES,
+            MockData.STREAMS, MockData.ROAD_SEGMENTS, MockData.BUILDINGS, MockData.BRIDGES };
+
+    @Param({ "false", "true" })
+    boolean shapefile;
+
+    @Param({ "256", "768" })
+    int size;
+
+    GeoServerFixture fixture;
+
+    Catalog catalog;
+
+    GetMapKvpRequestReader reader;
+
+    WebMapService wms;
+
+    PNGMapResponse pngResponse;
+
+    JPEGMapResponse jpegResponse;
+
+    Map<String, String> pngKvp;
+
+    GetMapRequest pngRequest;
+
+    GetMapRequest jpegRequest;
+
+    RenderedImageMap pngMap;
+
+    RenderedImageMap jpegMap;
+
+    RenderedImage rgbaImage;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        fixture = new GeoServerFixture();
+        fixture.setUp(LAYERS);
+        catalog = fixture.getCatalog();
+        reader = (GetMapKvpRequestReader) fixture.getBean("getMapKvpReader");
+        wms = (WebMapService) fixture.getBean("wmsServiceTarget");
+        pngResponse = (PNGMapResponse) fixture.getBean("PNGMapResponse");
+        jpegResponse = (JPEGMapResponse) fixture.getBean("JPEGMapResponse");
+
+        pngKvp = buildKvp("image/png", true);
+        pngRequest = parse(pngKvp);
+        jpegRequest = parse(buildKvp("image/jpeg", false));
+        pngMap = (RenderedImageMap) wms.getMap(pngRequest);
+        jpegMap = (RenderedImageMap) wms.getMap(jpegRequest);
+        rgbaImage = new ImageWorker(pngMap.getImage()).rescaleToBytes()
+                .forceComponentColorModel().getRenderedImage();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        try {
+            if (pngMap != null) {
+                pngMap.dispose();
+            }
+            if (jpegMap != null) {
+                jpegMap.dispose();
+            }
+        } finally {
+            fixture.tearDown();
+        }
+    }
+
+    Map<String, String> buildKvp(String format, boolean transparent) {
+        StringBuilder layers = new StringBuilder();
+        ReferencedEnvelope bbox = null;
+        for (QName name : LAYERS) {
+            if (layers.length() > 0) {
+                layers.append(",");
+            }
+            layers.append(GeoServerFixture.getLayerName(name, shapefile));
+            ReferencedEnvelope bounds = catalog.getFeatureTypeByName(name.getNamespaceURI(),
+                    name.getLocalPart()).getLatLonBoundingBox();
+            if (bbox == null) {
+                bbox = new ReferencedEnvelope(bounds);
+            } else {
+                bbox.expandToInclude(bounds);
+            }
+        }
+
+        Map<String, String> kvp = new HashMap<String, String>();
+        kvp.put("SERVICE", "WMS");
+        kvp.put("VERSION", "1.1.1");
+        kvp.put("REQUEST", "GetMap");
+        kvp.put("LAYERS", layers.toString());
+        kvp.put("STYLES", "");
+        kvp.put("SRS", "EPSG:4326");
+        kvp.put("BBOX", bbox.getMinX() + "," + bbox.getMinY() + "," + bbox.getMaxX() + ","
+                + bbox.getMaxY());
+        kvp.put("WIDTH", String.valueOf(size));
+        kvp.put("HEIGHT", String.valueOf(size));
+        kvp.put("FORMAT", format);
+        kvp.put("TRANSPARENT", String.valueOf(transparent));
+        return kvp;
+    }
+
+    /**
+     * Parses the request the same way the dispatcher would
+     */
+    GetMapRequest parse(Map<String, String> raw) throws Exception {
+        KvpMap rawKvp = new KvpMap(raw);
+        KvpMap kvp = new KvpMap(rawKvp);
+        List<Throwable> errors = KvpUtils.parse(kvp);
+        if (errors != null && !errors.isEmpty()) {
+            throw (Exception) errors.get(0);
+        }
+        return (GetMapRequest) reader.read(reader.createRequest(), kvp, rawKvp);
+    }
+
+    @Benchmark
+    public GetMapRequest parseKvp() throws Exception {
+        return parse(pngKvp);
+    }
+
+    /**
+     * Resolves the default style of each requested layer, as the KVP reader does when no
+     * styles are specified
+     */
+    @Benchmark
+    public List<Style> resolveStyles() throws Exception {
+        List<Style> styles = new ArrayList<Style>();
+        for (MapLayerInfo layer : pngRequest.getLayers()) {
+            LayerInfo info = catalog.getLayerByName(layer.getResource().prefixedName());
+            styles.add(info.getDefaultStyle().getStyle());
+        }
+        return styles;
+    }
+
+    @Benchmark
+    public RenderedImage render() throws Exception {
+        RenderedImageMap map = (RenderedImageMap) wms.getMap(pngRequest);
+        try {
+            return map.getImage();
+        } finally {
+            map.dispose();
+        }
+    }
+
+    /**
+     * The translucent quantization used by the PNG8 output
+     */
+    @Benchmark
+    public Object quantize() throws Exception {
+        ColorIndexer indexer = new Quantizer(256).subsample().buildColorIndexer(rgbaImage);
+        return ColorIndexerDescriptor.create(rgbaImage, indexer, null).getTiles();
+    }
+
+    @Benchmark
+    public int encodePng() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        pngResponse.formatImageOutputStream(pngMap.getImage(), out, pngMap.getMapContext());
+        return out.size();
+    }
+
+    @Benchmark
+    public int encodeJpeg() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        jpegResponse.formatImageOutputStream(jpegMap.getImage(), out, jpegMap.getMapContext());
+        return out.size();
+    }
+}
@@ -60,6 +60,13 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements
         return runningRequests.get();
     }
 
+    /**
+     * Returns the flow controllers currently in use, sorted by priority
+     */
+    public List<FlowController> getControllers() {
+        return Collections.unmodifiableList(controllers);
+    }
+
     public void finished(Request request) {
         if(SENTINEL.isOutermostRequest()) {
             runningRequests.decrementAndGet();
@@ -6,14 +6,19 @@ package org.geoserver.flow.config;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
 import java.util.logging.Logger;
 
 import org.geoserver.flow.ControlFlowConfigurator;
 import org.geoserver.flow.FlowController;
+import org.geoserver.flow.controller.AdaptiveFlowController;
 import org.geoserver.flow.controller.BasicOWSController;
+import org.geoserver.flow.controller.FairQueueFlowController;
+import org.geoserver.flow.controller.FairQueueFlowController.FlowType;
 import org.geoserver.flow.controller.GlobalFlowController;
 import org.geoserver.flow.controller.IpFlowController;
 import org.geoserver.flow.controller.SingleIpFlowController;
@@ -23,7 +28,24 @@ import org.geotools.util.logging.Logging;
 import org.vfny.geoserver.global.GeoserverDataDirectory;
 
 /**
- * Basic property file based {@link ControlFlowConfigurator} implementation
+ * Basic property file based {@link ControlFlowConfigurator} implementation.
+ * <p>
+ * Besides the queue based rules, weighted fair queuing can be configured with
+ * <code>fair.[ip|user|service]=maxRunning</code>, and the weights of the single flows with
+ * <code>fair.[ip|user|service].weight.[flow]=weight</code>, e.g.:
+ * <pre>
+ * fair.service=16
+ * fair.service.weight.wms=4
+ * fair.service.weight.wfs=1
+ * </pre>
+ * </p>
+ * <p>
+ * Adaptive limits, driven by the observed response times, are configured with
+ * <code>adaptive[.service[.method]]=[minLimit,]maxLimit[,initialLimit]</code>, a separate limit
+ * being kept for each service/operation matched by the rule, e.g. <code>adaptive=2,64</code> or
+ * <code>adaptive.wms.getmap=4,32,16</code>. The limits start at the maximum unless an initial
+ * limit is specified.
+ * </p>
  * 
  * @author Andrea Aime - OpenGeo
  * @author Juan Marin, OpenGeo
@@ -54,6 +76,8 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
 
         Properties p = configFile.getProperties();
         List<FlowController> newControllers = new ArrayList<FlowController>();
+        Map<FlowType, FairQueueFlowController> fairControllers = new HashMap<FlowType, FairQueueFlowController>();
+        Map<FlowType, Map<String, Integer>> fairWeights = new HashMap<FlowType, Map<String, Integer>>();
         for (Object okey : p.keySet()) {
             String key = ((String) okey).trim();
             String value = (String) p.get(okey);
@@ -93,6 +117,48 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
                 }
             } else if ("user".equals(keys[0])) {
                 controller = new UserFlowController(queueSize);
+            } else if ("fair".equals(keys[0]) && keys.length >= 2) {
+                FlowType type = parseFlowType(keys[1]);
+                if (type == null) {
+                    // fall through and report the rule as invalid
+                } else if (keys.length == 2) {
+                    FairQueueFlowController fair = new FairQueueFlowController(queueSize, type);
+                    fairControllers.put(type, fair);
+                    controller = fair;
+                } else if (keys.length > 3 && "weight".equals(keys[2])) {
+                    String flow = key.substring(key.indexOf("weight.") + "weight.".length());
+                    Map<String, Integer> weights = fairWeights.get(type);
+                    if (weights == null) {
+                        weights = new HashMap<String, Integer>();
+                        fairWeights.put(type, weights);
+                    }
+                    weights.put(flow, queueSize);
+                    continue;
+                }
+            } else if ("adaptive".equals(keys[0]) && keys.length <= 3) {
+                int minLimit = 1;
+                int maxLimit = queueSize;
+                int initialLimit = queueSize;
+                String[] limits = value.split("\\s*,\\s*");
+                if (limits.length > 1) {
+                    try {
+                        minLimit = queueSize;
+                        maxLimit = Integer.parseInt(limits[1].trim());
+                        initialLimit = limits.length > 2 ? Integer.parseInt(limits[2].trim())
+                                : maxLimit;
+                    } catch (NumberFormatException e) {
+                        LOGGER.severe("Adaptive rules should be assigned a minimum and a maximum "
+                                + "limit, instead " + okey + " is associated to " + value);
+                        continue;
+                    }
+                }
+                try {
+                    controller = new AdaptiveFlowController(keys.length > 1 ? keys[1] : null,
+                            keys.length > 2 ? keys[2] : null, minLimit, maxLimit, initialLimit);
+                } catch (IllegalArgumentException e) {
+                    LOGGER.severe(e.getMessage());
+                    continue;
+                }
             } else if ("ip".equals(keys[0])) {
                 if (keys.length == 1) {
                     controller = new IpFlowController(queueSize);
@@ -108,9 +174,34 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator {
             }
         }
 
+        // apply the weights once all the fair controllers have been built
+        for (Map.Entry<FlowType, Map<String, Integer>> entry : fairWeights.entrySet()) {
+            FairQueueFlowController fair = fairControllers.get(entry.getKey());
+            if (fair == null) {
+                LOGGER.severe("Weights configured for fair." + entry.getKey().name().toLowerCase()
+                        + " but the rule itself is missing");
+                continue;
+            }
+            for (Map.Entry<String, Integer> weight : entry.getValue().entrySet()) {
+                try {
+                    fair.setWeight(weight.getKey(), weight.getValue());
+                } catch (IllegalArgumentException e) {
+                    LOGGER.severe(e.getMessage());
+                }
+            }
+        }
+
         return newControllers;
     }
 
+    FlowType parseFlowType(String type) {
+        try {
+            return FlowType.valueOf(type.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
     public boolean isStale() {
         return configFile.isStale();
     }
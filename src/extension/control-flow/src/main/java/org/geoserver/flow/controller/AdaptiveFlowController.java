@@ -0,0 +1,385 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.ows.Request;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A flow controller that adapts the number of requests running in parallel to the observed
+ * response times, instead of using a fixed queue size. A separate limit is kept for each
+ * service/operation pair matched by the controller.
+ * <p>
+ * The limit follows a gradient approach: after each request completes the ratio between the
+ * best response time seen in the recent past and the current smoothed response time is used to
+ * scale the limit, while a queue allowance equal to the square root of the limit lets it grow
+ * when the response times are stable. The ratio is bounded to {@value #MIN_GRADIENT}, so the
+ * limit is at most halved on a latency spike, and the limit is not grown when the in flight
+ * requests are well below it and nobody is queued (the load, not the limit, is what keeps the
+ * concurrency low). The limit always stays between the configured minimum and maximum, and
+ * starts at the maximum unless an initial limit is given, so that the controller does not
+ * throttle the requests before it has seen any response time.
+ * </p>
+ * <p>
+ * Requests exceeding the current limit wait for a slot to free up, those that cannot get one
+ * within the timeout are rejected.
+ * </p>
+ */
+public class AdaptiveFlowController implements FlowController {
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
+    /**
+     * The lowest factor the limit can be multiplied by after a single sample
+     */
+    static final double MIN_GRADIENT = 0.5;
+
+    /**
+     * How much a new limit estimate weights compared to the current limit
+     */
+    static final double LIMIT_SMOOTHING = 0.2;
+
+    /**
+     * How much a new response time weights in the smoothed response time
+     */
+    static final double LATENCY_SMOOTHING = 0.1;
+
+    /**
+     * Number of samples after which the minimum response time is recomputed, so that the limit
+     * can adapt to changes in the data or in the hardware
+     */
+    static final int LATENCY_WINDOW = 500;
+
+    String service;
+
+    String method;
+
+    int minLimit;
+
+    int maxLimit;
+
+    int initialLimit;
+
+    Map<String, Limit> limits = new ConcurrentHashMap<String, Limit>();
+
+    Map<Request, Admission> admissions = new ConcurrentHashMap<Request, Admission>();
+
+    /**
+     * Builds a controller adapting the limits of all OWS requests
+     *
+     * @param minLimit the minimum number of parallel requests for each service/operation
+     * @param maxLimit the maximum number of parallel requests for each service/operation
+     */
+    public AdaptiveFlowController(int minLimit, int maxLimit) {
+        this(null, null, minLimit, maxLimit);
+    }
+
+    /**
+     * Builds a controller adapting the limits of the requests matching the specified service and
+     * method
+     *
+     * @param service the service, or null to match all services
+     * @param method the method, or null to match all the methods of the service
+     * @param minLimit the minimum number of parallel requests for each service/operation
+     * @param maxLimit the maximum number of parallel requests for each service/operation
+     */
+    public AdaptiveFlowController(String service, String method, int minLimit, int maxLimit) {
+        this(service, method, minLimit, maxLimit, maxLimit);
+    }
+
+    /**
+     * Builds a controller adapting the limits of the requests matching the specified service and
+     * method, starting from the specified limit
+     *
+     * @param service the service, or null to match all services
+     * @param method the method, or null to match all the methods of the service
+     * @param minLimit the minimum number of parallel requests for each service/operation
+     * @param maxLimit the maximum number of parallel requests for each service/operation
+     * @param initialLimit the limit used until the first response times are collected
+     */
+    public AdaptiveFlowController(String service, String method, int minLimit, int maxLimit,
+            int initialLimit) {
+        if (service == null && method != null) {
+            throw new IllegalArgumentException(
+                    "Invalid adaptive rule, method cannot be specified without a service");
+        }
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid adaptive limits " + minLimit + ","
+                    + maxLimit + ", the minimum must be positive and not exceed the maximum");
+        }
+        if (initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Invalid initial adaptive limit " + initialLimit
+                    + ", it must be between the minimum " + minLimit + " and the maximum "
+                    + maxLimit);
+        }
+        this.service = service;
+        this.method = method;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.initialLimit = initialLimit;
+    }
+
+    public int getPriority() {
+        return maxLimit;
+    }
+
+    public boolean requestIncoming(Request request, long timeout) {
+        if (!matchesRequest(request)) {
+            return true;
+        }
+        Limit limit = getLimit(getKey(request));
+        if (!limit.acquire(timeout)) {
+            return false;
+        }
+        admissions.put(request, new Admission(limit, System.nanoTime()));
+        return true;
+    }
+
+    public void requestComplete(Request request) {
+        Admission admission = admissions.remove(request);
+        if (admission != null) {
+            admission.limit.release(System.nanoTime() - admission.start);
+        }
+    }
+
+    boolean matchesRequest(Request request) {
+        if (service == null) {
+            return true;
+        }
+        if (!service.equalsIgnoreCase(request.getService())) {
+            return false;
+        }
+        return method == null || method.equalsIgnoreCase(request.getRequest());
+    }
+
+    String getKey(Request request) {
+        String s = request.getService() == null ? "UNKNOWN" : request.getService().toUpperCase();
+        String r = request.getRequest() == null ? "UNKNOWN" : request.getRequest().toUpperCase();
+        return s + "." + r;
+    }
+
+    Limit getLimit(String key) {
+        Limit limit = limits.get(key);
+        if (limit == null) {
+            synchronized (limits) {
+                limit = limits.get(key);
+                if (limit == null) {
+                    limit = new Limit(key);
+                    limits.put(key, limit);
+                }
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Returns the current limit for the specified service and operation
+     */
+    public int getLimit(String service, String request) {
+        Limit limit = limits.get(service.toUpperCase() + "." + request.toUpperCase());
+        return limit == null ? initialLimit : limit.getLimit();
+    }
+
+    /**
+     * Returns, for each service/operation seen so far, the current limit, the number of requests
+     * in flight and queued, the number of admitted and rejected requests and the response times
+     * in milliseconds
+     */
+    public Map<String, Map<String, Object>> getStatistics() {
+        Map<String, Map<String, Object>> result = new TreeMap<String, Map<String, Object>>();
+        for (Limit limit : limits.values()) {
+            result.put(limit.key, limit.getStatistics());
+        }
+        return result;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveFlowController(" + service + "," + method + "," + minLimit + ","
+                + maxLimit + ")";
+    }
+
+    static class Admission {
+        Limit limit;
+
+        long start;
+
+        Admission(Limit limit, long start) {
+            this.limit = limit;
+            this.start = start;
+        }
+    }
+
+    /**
+     * The adaptive limit of a single service/operation
+     */
+    class Limit {
+        String key;
+
+        ReentrantLock lock = new ReentrantLock();
+
+        Condition available = lock.newCondition();
+
+        double limit = initialLimit;
+
+        int inFlight;
+
+        int queued;
+
+        long admitted;
+
+        long rejected;
+
+        long minLatency;
+
+        long windowMinLatency;
+
+        int windowSamples;
+
+        double smoothedLatency;
+
+        Limit(String key) {
+            this.key = key;
+        }
+
+        boolean acquire(long timeout) {
+            lock.lock();
+            try {
+                queued++;
+                try {
+                    long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+                    while (inFlight >= (int) limit) {
+                        if (timeout > 0) {
+                            if (remaining <= 0) {
+                                rejected++;
+                                return false;
+                            }
+                            remaining = available.awaitNanos(remaining);
+                        } else {
+                            available.await();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    LOGGER.log(Level.WARNING, "Unexpected interruption while "
+                            + "waiting for the adaptive limit");
+                    Thread.currentThread().interrupt();
+                    rejected++;
+                    return false;
+                } finally {
+                    queued--;
+                }
+                inFlight++;
+                admitted++;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void release(long latency) {
+            lock.lock();
+            try {
+                // the requests in flight, including this one, when it completed
+                int load = inFlight;
+                inFlight--;
+                update(Math.max(1, latency), load);
+                available.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Updates the limit with a new response time sample, must be called holding the lock
+         */
+        void update(long latency, int load) {
+            if (windowSamples == 0 || latency < windowMinLatency) {
+                windowMinLatency = latency;
+            }
+            if (minLatency == 0 || latency < minLatency) {
+                minLatency = latency;
+            }
+            if (++windowSamples >= LATENCY_WINDOW) {
+                minLatency = windowMinLatency;
+                windowSamples = 0;
+            }
+            smoothedLatency = smoothedLatency == 0 ? latency : smoothedLatency
+                    * (1 - LATENCY_SMOOTHING) + latency * LATENCY_SMOOTHING;
+
+            double gradient = Math.max(MIN_GRADIENT, Math.min(1, minLatency / smoothedLatency));
+            double estimate = limit * gradient + Math.sqrt(limit);
+            if (estimate > limit && load < limit / 2 && queued == 0) {
+                // not enough load to tell if a higher limit would be sustainable
+                return;
+            }
+            double newLimit = limit * (1 - LIMIT_SMOOTHING) + estimate * LIMIT_SMOOTHING;
+            newLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+            if (LOGGER.isLoggable(Level.FINE) && (int) newLimit != (int) limit) {
+                LOGGER.fine(AdaptiveFlowController.this + " limit for " + key + " changed from "
+                        + (int) limit + " to " + (int) newLimit);
+            }
+            limit = newLimit;
+        }
+
+        int getLimit() {
+            lock.lock();
+            try {
+                return (int) limit;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        Map<String, Object> getStatistics() {
+            Map<String, Object> stats = new LinkedHashMap<String, Object>();
+            lock.lock();
+            try {
+                stats.put("limit", (int) limit);
+                stats.put("minLimit", minLimit);
+                stats.put("maxLimit", maxLimit);
+                stats.put("inFlight", inFlight);
+                stats.put("queued", queued);
+                stats.put("admitted", admitted);
+                stats.put("rejected", rejected);
+                stats.put("minLatency", TimeUnit.NANOSECONDS.toMillis(minLatency));
+                stats.put("latency", TimeUnit.NANOSECONDS.toMillis((long) smoothedLatency));
+            } finally {
+                lock.unlock();
+            }
+            return stats;
+        }
+    }
+}
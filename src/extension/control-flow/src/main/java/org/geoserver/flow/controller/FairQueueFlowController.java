@@ -0,0 +1,424 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.ows.Request;
+import org.geotools.util.logging.Logging;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * A flow controller limiting the number of requests running in parallel, and admitting the
+ * queued ones in a weighted fair order among the flows they belong to. A flow is identified by
+ * the client ip, the authenticated user or the requested service, depending on the
+ * {@link FlowType}.
+ * <p>
+ * Scheduling uses start-time fair queuing: each request is tagged with a virtual start time that
+ * grows, for each flow, by the inverse of the flow weight, and the queued request with the lowest
+ * tag is admitted first. A flow with weight 4 thus gets four times the admissions of a flow with
+ * weight 1 when both have requests queued, and a single client sending many requests cannot
+ * starve the others.
+ * </p>
+ * <p>
+ * The controller keeps track of the queue depth, overall and by flow, and of the percentiles of
+ * the time spent waiting in queue over the last {@value #WAIT_SAMPLES} admitted requests.
+ * </p>
+ */
+public class FairQueueFlowController implements FlowController {
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
+    /**
+     * How requests are grouped into flows
+     */
+    public enum FlowType {
+        /** by client ip, as reported by the X-Forwarded-For header if available */
+        IP,
+        /** by authenticated user name, falling back on the client ip for anonymous requests */
+        USER,
+        /** by OWS service */
+        SERVICE
+    }
+
+    /**
+     * Number of recent wait times used to compute the percentiles
+     */
+    static final int WAIT_SAMPLES = 1024;
+
+    static final int DEFAULT_WEIGHT = 1;
+
+    int maxRunning;
+
+    FlowType flowType;
+
+    Map<String, Integer> weights = new ConcurrentHashMap<String, Integer>();
+
+    ReentrantLock lock = new ReentrantLock();
+
+    PriorityQueue<Waiter> waiting = new PriorityQueue<Waiter>();
+
+    Set<Request> running = new HashSet<Request>();
+
+    /**
+     * The last start tag assigned to each flow, plus its increment
+     */
+    Map<String, Double> flowTags = new HashMap<String, Double>();
+
+    /**
+     * The tags stored in {@link #flowTags}, in tag order, used to purge the idle flows without
+     * scanning them all. Superseded tags are dropped as the virtual time goes past them.
+     */
+    PriorityQueue<FlowTag> flowTagQueue = new PriorityQueue<FlowTag>();
+
+    double virtualTime;
+
+    long sequence;
+
+    long[] waitTimes = new long[WAIT_SAMPLES];
+
+    int waitCount;
+
+    AtomicLong admitted = new AtomicLong();
+
+    AtomicLong timedOut = new AtomicLong();
+
+    /**
+     * Builds a new fair queue controller
+     *
+     * @param maxRunning the maximum number of requests running in parallel
+     * @param flowType how requests are grouped into flows
+     */
+    public FairQueueFlowController(int maxRunning, FlowType flowType) {
+        this.maxRunning = maxRunning;
+        this.flowType = flowType;
+    }
+
+    /**
+     * Sets the weight of a flow, flows without an explicit weight have a weight of one
+     *
+     * @param flow the ip, user name or service name, depending on the flow type
+     * @param weight the flow weight, a positive number
+     */
+    public void setWeight(String flow, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Invalid weight " + weight + " for flow " + flow
+                    + ", weights must be positive");
+        }
+        weights.put(normalize(flow), weight);
+    }
+
+    public int getWeight(String flow) {
+        Integer weight = weights.get(normalize(flow));
+        return weight != null ? weight : DEFAULT_WEIGHT;
+    }
+
+    public FlowType getFlowType() {
+        return flowType;
+    }
+
+    public int getMaxRunning() {
+        return maxRunning;
+    }
+
+    public int getPriority() {
+        return maxRunning;
+    }
+
+    public boolean requestIncoming(Request request, long timeout) {
+        String flow = getFlow(request);
+        long start = System.currentTimeMillis();
+        lock.lock();
+        try {
+            double tag = nextTag(flow);
+            if (running.size() < maxRunning && waiting.isEmpty()) {
+                admit(request, tag);
+                recordWait(0);
+                return true;
+            }
+
+            Waiter waiter = new Waiter(request, flow, tag, sequence++, lock.newCondition());
+            waiting.add(waiter);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(this + " queued request from " + flow + ", queue depth "
+                        + waiting.size());
+            }
+            try {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+                while (!waiter.admitted) {
+                    if (timeout > 0) {
+                        if (remaining <= 0) {
+                            waiting.remove(waiter);
+                            timedOut.incrementAndGet();
+                            return false;
+                        }
+                        remaining = waiter.condition.awaitNanos(remaining);
+                    } else {
+                        waiter.condition.await();
+                    }
+                }
+            } catch (InterruptedException e) {
+                LOGGER.log(Level.WARNING, "Unexpected interruption while "
+                        + "blocking on the request queue");
+                Thread.currentThread().interrupt();
+                if (!waiter.admitted) {
+                    waiting.remove(waiter);
+                    return false;
+                }
+            }
+            recordWait(System.currentTimeMillis() - start);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void requestComplete(Request request) {
+        lock.lock();
+        try {
+            if (running.remove(request)) {
+                while (running.size() < maxRunning && !waiting.isEmpty()) {
+                    Waiter next = waiting.poll();
+                    next.admitted = true;
+                    admit(next.request, next.tag);
+                    next.condition.signal();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests currently running through this controller
+     */
+    public int getRunning() {
+        lock.lock();
+        try {
+            return running.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests waiting to be admitted
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return waiting.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests waiting to be admitted, by flow
+     */
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> result = new HashMap<String, Integer>();
+        lock.lock();
+        try {
+            for (Waiter waiter : waiting) {
+                Integer depth = result.get(waiter.flow);
+                result.put(waiter.flow, depth == null ? 1 : depth + 1);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the total number of admitted requests
+     */
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    /**
+     * Returns the total number of requests that timed out while waiting in queue
+     */
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    /**
+     * Returns the specified percentile of the time, in milliseconds, spent in queue by the most
+     * recently admitted requests, or zero if no request has been admitted yet
+     *
+     * @param percentile a number between 0 and 100
+     */
+    public long getWaitTimePercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        long[] samples;
+        lock.lock();
+        try {
+            samples = Arrays.copyOf(waitTimes, Math.min(waitCount, WAIT_SAMPLES));
+        } finally {
+            lock.unlock();
+        }
+        if (samples.length == 0) {
+            return 0;
+        }
+        Arrays.sort(samples);
+        int idx = (int) Math.ceil(percentile / 100 * samples.length) - 1;
+        return samples[Math.max(0, idx)];
+    }
+
+    /**
+     * Returns a snapshot of the controller state: running and queued requests, queue depth by
+     * flow, admitted and timed out requests, and the median, 90th and 99th percentiles of the
+     * time spent in queue, in milliseconds
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("maxRunning", maxRunning);
+        stats.put("running", getRunning());
+        stats.put("queued", getQueueDepth());
+        stats.put("queuedByFlow", new TreeMap<String, Integer>(getQueueDepths()));
+        stats.put("admitted", getAdmitted());
+        stats.put("timedOut", getTimedOut());
+        stats.put("waitTime50", getWaitTimePercentile(50));
+        stats.put("waitTime90", getWaitTimePercentile(90));
+        stats.put("waitTime99", getWaitTimePercentile(99));
+        return stats;
+    }
+
+    String getFlow(Request request) {
+        switch (flowType) {
+        case SERVICE:
+            return normalize(request.getService());
+        case USER:
+            Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+            if (auth != null && auth.isAuthenticated()
+                    && !(auth instanceof AnonymousAuthenticationToken) && auth.getName() != null) {
+                return auth.getName();
+            }
+            // fall through, use the ip for anonymous users
+        default:
+            String ip = IpFlowController.getRemoteAddr(request.getHttpRequest());
+            return ip == null ? "" : ip;
+        }
+    }
+
+    String normalize(String flow) {
+        if (flow == null) {
+            return "";
+        }
+        return flowType == FlowType.SERVICE ? flow.toUpperCase() : flow;
+    }
+
+    /**
+     * Computes the start tag of a new request in the flow, must be called holding the lock
+     */
+    double nextTag(String flow) {
+        Double last = flowTags.get(flow);
+        double tag = last == null ? virtualTime : Math.max(virtualTime, last);
+        double next = tag + 1d / getWeight(flow);
+        flowTags.put(flow, next);
+        flowTagQueue.add(new FlowTag(flow, next));
+        return tag;
+    }
+
+    void admit(Request request, double tag) {
+        running.add(request);
+        virtualTime = Math.max(virtualTime, tag);
+        admitted.incrementAndGet();
+        purgeIdleFlows();
+    }
+
+    void recordWait(long time) {
+        waitTimes[waitCount % WAIT_SAMPLES] = time;
+        waitCount++;
+        if (waitCount == Integer.MAX_VALUE) {
+            // keep the buffer position, avoid overflow
+            waitCount = WAIT_SAMPLES + (waitCount % WAIT_SAMPLES);
+        }
+    }
+
+    /**
+     * Removes the flows that cannot affect scheduling anymore, that is, the ones whose next tag
+     * is behind the virtual time. Called on each admission, must be called holding the lock
+     */
+    void purgeIdleFlows() {
+        while (!flowTagQueue.isEmpty() && flowTagQueue.peek().tag <= virtualTime) {
+            FlowTag idle = flowTagQueue.poll();
+            Double last = flowTags.get(idle.flow);
+            if (last != null && last <= virtualTime) {
+                flowTags.remove(idle.flow);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FairQueueFlowController(" + maxRunning + "," + flowType + ")";
+    }
+
+    static class FlowTag implements Comparable<FlowTag> {
+        String flow;
+
+        double tag;
+
+        FlowTag(String flow, double tag) {
+            this.flow = flow;
+            this.tag = tag;
+        }
+
+        public int compareTo(FlowTag other) {
+            return Double.compare(tag, other.tag);
+        }
+    }
+
+    static class Waiter implements Comparable<Waiter> {
+        Request request;
+
+        String flow;
+
+        double tag;
+
+        long sequence;
+
+        Condition condition;
+
+        boolean admitted;
+
+        Waiter(Request request, String flow, double tag, long sequence, Condition condition) {
+            this.request = request;
+            this.flow = flow;
+            this.tag = tag;
+            this.sequence = sequence;
+            this.condition = condition;
+        }
+
+        public int compareTo(Waiter other) {
+            if (tag != other.tag) {
+                return tag < other.tag ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.rest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.flow.controller.AdaptiveFlowController;
+import org.geoserver.flow.controller.FairQueueFlowController;
+import org.geoserver.rest.MapResource;
+import org.geoserver.rest.format.DataFormat;
+import org.geoserver.rest.format.MapJSONFormat;
+import org.geoserver.rest.format.MapXMLFormat;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+
+/**
+ * Reports the number of running and blocked requests and, for each adaptive rule, the current
+ * limit, in flight, queued and rejected requests by service/operation. For each fair queuing rule
+ * it reports the running requests, the queue depth, overall and by flow, and the percentiles of
+ * the time spent waiting in queue.
+ */
+public class ControlFlowResource extends MapResource {
+
+    ControlFlowCallback callback;
+
+    public ControlFlowResource(ControlFlowCallback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    protected List<DataFormat> createSupportedFormats(Request request, Response response) {
+        List<DataFormat> formats = new ArrayList<DataFormat>();
+        formats.add(new MapXMLFormat("controlFlow"));
+        formats.add(new MapJSONFormat());
+        return formats;
+    }
+
+    @Override
+    public Map getMap() throws Exception {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("running", callback.getRunningRequests());
+        map.put("blocked", callback.getBlockedRequests());
+
+        Map<String, Object> adaptive = new LinkedHashMap<String, Object>();
+        Map<String, Object> fair = new LinkedHashMap<String, Object>();
+        for (FlowController controller : callback.getControllers()) {
+            if (controller instanceof AdaptiveFlowController) {
+                AdaptiveFlowController ac = (AdaptiveFlowController) controller;
+                adaptive.put(getRuleName(ac), ac.getStatistics());
+            } else if (controller instanceof FairQueueFlowController) {
+                FairQueueFlowController fc = (FairQueueFlowController) controller;
+                fair.put("fair." + fc.getFlowType().name().toLowerCase(), fc.getStatistics());
+            }
+        }
+        map.put("adaptive", adaptive);
+        map.put("fair", fair);
+        return map;
+    }
+
+    /**
+     * Returns the controlflow.properties key the controller has been configured with
+     */
+    String getRuleName(AdaptiveFlowController controller) {
+        StringBuilder sb = new StringBuilder("adaptive");
+        if (controller.getService() != null) {
+            sb.append(".").append(controller.getService().toLowerCase());
+            if (controller.getMethod() != null) {
+                sb.append(".").append(controller.getMethod().toLowerCase());
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -13,7 +13,10 @@ import java.util.Properties;
 
 import org.geoserver.flow.ControllerPriorityComparator;
 import org.geoserver.flow.FlowController;
+import org.geoserver.flow.controller.AdaptiveFlowController;
 import org.geoserver.flow.controller.BasicOWSController;
+import org.geoserver.flow.controller.FairQueueFlowController;
+import org.geoserver.flow.controller.FairQueueFlowController.FlowType;
 import org.geoserver.flow.controller.GlobalFlowController;
 import org.geoserver.flow.controller.IpFlowController;
 import org.geoserver.flow.controller.SingleIpFlowController;
@@ -67,6 +70,53 @@ public class DefaultControlFlowConfigurationTest {
         assertEquals(14, ipSc.getPriority());
     }
 
+    @Test
+    public void testFairQueueParsing() throws Exception {
+        Properties p = new Properties();
+        p.put("fair.service", "16");
+        p.put("fair.service.weight.wms", "4");
+        p.put("fair.ip.weight.192.168.1.8", "2");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+
+        // weights without the controller rule are ignored
+        assertEquals(1, controllers.size());
+        FairQueueFlowController fc = (FairQueueFlowController) controllers.get(0);
+        assertEquals(16, fc.getMaxRunning());
+        assertEquals(FlowType.SERVICE, fc.getFlowType());
+        assertEquals(4, fc.getWeight("WMS"));
+        assertEquals(1, fc.getWeight("WFS"));
+    }
+
+    @Test
+    public void testAdaptiveParsing() throws Exception {
+        Properties p = new Properties();
+        p.put("adaptive", "2,64,16");
+        p.put("adaptive.wms.getmap", "8");
+        p.put("adaptive.wfs", "10,5");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+        Collections.sort(controllers, new ControllerPriorityComparator());
+
+        // the wfs rule is invalid, the minimum exceeds the maximum
+        assertEquals(2, controllers.size());
+        AdaptiveFlowController getMap = (AdaptiveFlowController) controllers.get(0);
+        assertEquals("wms", getMap.getService());
+        assertEquals("getmap", getMap.getMethod());
+        assertEquals(1, getMap.getMinLimit());
+        assertEquals(8, getMap.getMaxLimit());
+        assertEquals(8, getMap.getInitialLimit());
+        AdaptiveFlowController global = (AdaptiveFlowController) controllers.get(1);
+        assertNull(global.getService());
+        assertEquals(2, global.getMinLimit());
+        assertEquals(64, global.getMaxLimit());
+        assertEquals(16, global.getInitialLimit());
+    }
+
     static class FixedWatcher extends PropertyFileWatcher {
         boolean stale = true;
 
@@ -0,0 +1,110 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.geoserver.flow.controller.AdaptiveFlowController.Limit;
+import org.geoserver.ows.Request;
+import org.junit.Test;
+
+public class AdaptiveFlowControllerTest {
+
+    static final long MILLISECOND = 1000000;
+
+    @Test
+    public void testStartsAtMaxLimit() {
+        AdaptiveFlowController controller = new AdaptiveFlowController(1, 10);
+        assertEquals(10, controller.getLimit("wms", "GetMap"));
+        assertEquals(10, controller.getLimit("WMS.GETMAP").getLimit());
+
+        controller = new AdaptiveFlowController(null, null, 1, 10, 4);
+        assertEquals(4, controller.getLimit("wms", "GetMap"));
+        assertEquals(4, controller.getLimit("WMS.GETMAP").getLimit());
+    }
+
+    @Test
+    public void testGrowsWithStableLatency() {
+        AdaptiveFlowController controller = new AdaptiveFlowController(null, null, 1, 10, 1);
+        Limit limit = controller.getLimit("WMS.GETMAP");
+        for (int i = 0; i < 100; i++) {
+            // saturated, same response time
+            limit.update(10 * MILLISECOND, limit.getLimit());
+        }
+        assertEquals(10, controller.getLimit("wms", "GetMap"));
+    }
+
+    @Test
+    public void testShrinksOnLatencyIncrease() {
+        AdaptiveFlowController controller = new AdaptiveFlowController(1, 50);
+        Limit limit = controller.getLimit("WMS.GETMAP");
+        for (int i = 0; i < 100; i++) {
+            limit.update(10 * MILLISECOND, limit.getLimit());
+        }
+        assertEquals(50, limit.getLimit());
+
+        for (int i = 0; i < 100; i++) {
+            limit.update(100 * MILLISECOND, limit.getLimit());
+        }
+        assertTrue(limit.getLimit() < 10);
+        assertTrue(limit.getLimit() >= 1);
+    }
+
+    @Test
+    public void testDoesNotGrowWhenUnderused() {
+        AdaptiveFlowController controller = new AdaptiveFlowController(null, null, 4, 10, 4);
+        Limit limit = controller.getLimit("WMS.GETMAP");
+        for (int i = 0; i < 100; i++) {
+            // a single request at a time
+            limit.update(10 * MILLISECOND, 1);
+        }
+        assertEquals(4, limit.getLimit());
+    }
+
+    @Test
+    public void testRejection() {
+        AdaptiveFlowController controller = new AdaptiveFlowController(1, 1);
+        Request r1 = buildRequest("WMS", "GetMap");
+        Request r2 = buildRequest("WMS", "GetMap");
+        assertTrue(controller.requestIncoming(r1, 0));
+        assertFalse(controller.requestIncoming(r2, 50));
+
+        Map<String, Object> stats = controller.getStatistics().get("WMS.GETMAP");
+        assertEquals(1, stats.get("inFlight"));
+        assertEquals(1L, stats.get("rejected"));
+
+        // completing a rejected request has no effect
+        controller.requestComplete(r2);
+        assertEquals(1, controller.getStatistics().get("WMS.GETMAP").get("inFlight"));
+        controller.requestComplete(r1);
+        stats = controller.getStatistics().get("WMS.GETMAP");
+        assertEquals(0, stats.get("inFlight"));
+        assertEquals(1L, stats.get("admitted"));
+
+        // limits are separate for each operation
+        assertTrue(controller.requestIncoming(r1, 0));
+        assertTrue(controller.requestIncoming(buildRequest("WMS", "GetFeatureInfo"), 50));
+    }
+
+    @Test
+    public void testMatching() {
+        AdaptiveFlowController controller = new AdaptiveFlowController("wfs", null, 1, 1);
+        assertTrue(controller.requestIncoming(buildRequest("WMS", "GetMap"), 0));
+        assertTrue(controller.requestIncoming(buildRequest("WMS", "GetMap"), 50));
+        assertTrue(controller.getStatistics().isEmpty());
+
+        assertTrue(controller.requestIncoming(buildRequest("WFS", "GetFeature"), 0));
+        assertFalse(controller.requestIncoming(buildRequest("WFS", "GetFeature"), 50));
+    }
+
+    Request buildRequest(String service, String operation) {
+        Request request = new Request();
+        request.setService(service);
+        request.setRequest(operation);
+        return request;
+    }
+}
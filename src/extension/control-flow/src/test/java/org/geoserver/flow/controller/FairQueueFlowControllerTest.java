@@ -0,0 +1,142 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+
+import org.geoserver.flow.controller.FairQueueFlowController.FlowType;
+import org.geoserver.flow.controller.FlowControllerTestingThread.ThreadState;
+import org.geoserver.ows.Request;
+import org.junit.Test;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpServletResponse;
+
+public class FairQueueFlowControllerTest extends AbstractFlowControllerTest {
+
+    private static final long MAX_WAIT = 10000;
+
+    @Test
+    public void testFairAdmission() {
+        // a single request at a time, flows by service
+        FairQueueFlowController controller = new FairQueueFlowController(1, FlowType.SERVICE);
+
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(buildRequest("WFS",
+                "127.0.0.1"), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(buildRequest("WFS",
+                "127.0.0.1"), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t3 = new FlowControllerTestingThread(buildRequest("WMS",
+                "127.0.0.1"), 0, Long.MAX_VALUE, controller);
+
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+            waitBlocked(t2, MAX_WAIT);
+            t3.start();
+            waitBlocked(t3, MAX_WAIT);
+
+            assertEquals(ThreadState.PROCESSING, t1.state);
+            assertEquals(ThreadState.STARTED, t2.state);
+            assertEquals(ThreadState.STARTED, t3.state);
+            assertEquals(1, controller.getRunning());
+            assertEquals(2, controller.getQueueDepth());
+
+            // the WMS request arrived later, but the WFS flow already got its share
+            t1.interrupt();
+            waitTerminated(t1, MAX_WAIT);
+            waitBlocked(t3, MAX_WAIT);
+            assertEquals(ThreadState.COMPLETE, t1.state);
+            assertEquals(ThreadState.PROCESSING, t3.state);
+            assertEquals(ThreadState.STARTED, t2.state);
+            assertEquals(Collections.singletonMap("WFS", 1), controller.getQueueDepths());
+
+            t3.interrupt();
+            waitTerminated(t3, MAX_WAIT);
+            waitBlocked(t2, MAX_WAIT);
+            assertEquals(ThreadState.PROCESSING, t2.state);
+            assertEquals(0, controller.getQueueDepth());
+
+            t2.interrupt();
+            waitTerminated(t2, MAX_WAIT);
+            assertEquals(ThreadState.COMPLETE, t2.state);
+            assertEquals(0, controller.getRunning());
+            assertEquals(3, controller.getAdmitted());
+            assertTrue(controller.getWaitTimePercentile(100) > 0);
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+            waitAndKill(t3, MAX_WAIT);
+        }
+    }
+
+    @Test
+    public void testWeights() {
+        FairQueueFlowController controller = new FairQueueFlowController(1, FlowType.IP);
+        controller.setWeight("192.168.1.2", 2);
+        assertEquals(2, controller.getWeight("192.168.1.2"));
+        assertEquals(1, controller.getWeight("192.168.1.3"));
+
+        // occupy the only slot
+        Request running = buildRequest("WMS", "192.168.1.1");
+        assertTrue(controller.requestIncoming(running, 0));
+
+        // weight 2 flow advances half as fast as the weight 1 one
+        assertEquals(0, controller.nextTag("192.168.1.2"), 0.0001);
+        assertEquals(0.5, controller.nextTag("192.168.1.2"), 0.0001);
+        assertEquals(0, controller.nextTag("192.168.1.3"), 0.0001);
+        assertEquals(1, controller.nextTag("192.168.1.3"), 0.0001);
+        controller.requestComplete(running);
+    }
+
+    @Test
+    public void testTimeout() {
+        FairQueueFlowController controller = new FairQueueFlowController(1, FlowType.IP);
+        Request running = buildRequest("WMS", "192.168.1.1");
+        assertTrue(controller.requestIncoming(running, 0));
+
+        Request timingOut = buildRequest("WMS", "192.168.1.2");
+        assertFalse(controller.requestIncoming(timingOut, 50));
+        assertEquals(1, controller.getTimedOut());
+        assertEquals(0, controller.getQueueDepth());
+
+        // completing a request that was never admitted does not free a slot
+        controller.requestComplete(timingOut);
+        assertEquals(1, controller.getRunning());
+        controller.requestComplete(running);
+        assertEquals(0, controller.getRunning());
+    }
+
+    @Test
+    public void testIdleFlowsPurged() {
+        FairQueueFlowController controller = new FairQueueFlowController(1, FlowType.IP);
+        for (int i = 0; i < 100; i++) {
+            Request request = buildRequest("WMS", "10.0.0." + i);
+            assertTrue(controller.requestIncoming(request, 0));
+            controller.requestComplete(request);
+        }
+        assertEquals(100, controller.flowTags.size());
+
+        // the second request of a flow moves the virtual time past the other flows
+        for (int i = 0; i < 2; i++) {
+            Request request = buildRequest("WMS", "10.0.1.1");
+            assertTrue(controller.requestIncoming(request, 0));
+            controller.requestComplete(request);
+        }
+        assertEquals(Collections.singleton("10.0.1.1"), controller.flowTags.keySet());
+    }
+
+    Request buildRequest(String service, String ipAddress) {
+        Request request = new Request();
+        request.setService(service);
+        MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        httpRequest.setRemoteAddr(ipAddress);
+        request.setHttpRequest(httpRequest);
+        request.setHttpResponse(new MockHttpServletResponse());
+        return request;
+    }
+}
@@ -0,0 +1,65 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.rest;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.flow.controller.FairQueueFlowController;
+import org.geoserver.flow.controller.FairQueueFlowController.FlowType;
+import org.geoserver.ows.Request;
+import org.junit.Test;
+
+import com.mockrunner.mock.web.MockHttpServletRequest;
+import com.mockrunner.mock.web.MockHttpServletResponse;
+
+public class ControlFlowResourceTest {
+
+    @Test
+    public void testFairStatistics() throws Exception {
+        final FairQueueFlowController controller = new FairQueueFlowController(1, FlowType.IP);
+        ControlFlowCallback callback = new ControlFlowCallback() {
+            @Override
+            public List<FlowController> getControllers() {
+                return Collections.<FlowController> singletonList(controller);
+            }
+        };
+        Request running = buildRequest("WMS", "192.168.1.1");
+        assertTrue(controller.requestIncoming(running, 0));
+        Request timingOut = buildRequest("WMS", "192.168.1.2");
+        assertFalse(controller.requestIncoming(timingOut, 10));
+
+        Map map = new ControlFlowResource(callback).getMap();
+        Map fair = (Map) map.get("fair");
+        assertEquals(1, fair.size());
+        Map stats = (Map) fair.get("fair.ip");
+        assertNotNull(stats);
+        assertEquals(1, stats.get("maxRunning"));
+        assertEquals(1, stats.get("running"));
+        assertEquals(0, stats.get("queued"));
+        assertEquals(Collections.emptyMap(), stats.get("queuedByFlow"));
+        assertEquals(1l, stats.get("admitted"));
+        assertEquals(1l, stats.get("timedOut"));
+        assertEquals(0l, stats.get("waitTime99"));
+        assertTrue(((Map) map.get("adaptive")).isEmpty());
+
+        controller.requestComplete(running);
+    }
+
+    Request buildRequest(String service, String ipAddress) {
+        Request request = new Request();
+        request.setService(service);
+        MockHttpServletRequest httpRequest = new MockHttpServletRequest();
+        httpRequest.setRemoteAddr(ipAddress);
+        request.setHttpRequest(httpRequest);
+        request.setHttpResponse(new MockHttpServletResponse());
+        return request;
+    }
+}
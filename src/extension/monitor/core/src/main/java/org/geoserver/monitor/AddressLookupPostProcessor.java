@@ -0,0 +1,103 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.google.common.base.Optional;
+
+/**
+ * Base class for post processors filling in the request with information looked up from the
+ * remote address.
+ * <p>
+ * Addresses already resolved are filled in right away. The others are resolved in the background
+ * by a {@link CachingAddressResolver}, and the request is stored again once the lookup completes,
+ * so the post processing chain never waits on the lookup. Listeners are notified only once, at
+ * the end of the post processing, and do not see the late updates.
+ * </p>
+ *
+ * @param <V> The type of the looked up information.
+ */
+public abstract class AddressLookupPostProcessor<V> implements RequestPostProcessor,
+        DisposableBean {
+
+    protected CachingAddressResolver<V> resolver;
+
+    Monitor monitor;
+
+    protected AddressLookupPostProcessor(CachingAddressResolver<V> resolver) {
+        this.resolver = resolver;
+    }
+
+    public void run(final RequestData data, HttpServletRequest request,
+            HttpServletResponse response) throws Exception {
+        String address = data.getRemoteAddr();
+        if (address == null || !isAvailable()) {
+            return;
+        }
+
+        Optional<V> cached = resolver.getCached(address);
+        if (cached != null) {
+            if (cached.isPresent()) {
+                apply(data, cached.get());
+            }
+            return;
+        }
+
+        resolver.resolve(address, new CachingAddressResolver.Callback<V>() {
+            public void resolved(String address, V value) {
+                if (value == null) {
+                    return;
+                }
+                apply(data, value);
+                Monitor m = getMonitor();
+                if (m != null) {
+                    m.store(data);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns false if the lookups cannot be performed at the moment, in which case nothing is
+     * looked up, nor cached
+     */
+    protected boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * Fills in the request with the looked up information
+     */
+    protected abstract void apply(RequestData data, V value);
+
+    Monitor getMonitor() {
+        if (monitor == null) {
+            monitor = GeoServerExtensions.bean(Monitor.class);
+        }
+        return monitor;
+    }
+
+    public void setMonitor(Monitor monitor) {
+        this.monitor = monitor;
+    }
+
+    /**
+     * Returns the cache hit rates and lookup queue lag
+     */
+    public Map<String, Object> getStatistics() {
+        return resolver.getStatistics();
+    }
+
+    public void destroy() throws Exception {
+        resolver.dispose();
+    }
+}
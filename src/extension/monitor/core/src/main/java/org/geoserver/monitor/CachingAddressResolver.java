@@ -0,0 +1,252 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Resolves remote addresses into some information, like a host name or a location, in the
+ * background, caching the results.
+ * <p>
+ * Cached results, including failed lookups, are handed back right away. The other addresses are
+ * queued up and resolved by a dedicated, bounded pool of threads; requests for an address already
+ * being looked up piggyback on the running lookup. When the queue is full the lookup is given up
+ * rather than holding back the caller, so a slow resolver never backs up the monitor.
+ * </p>
+ *
+ * @param <V> The type of the resolved information.
+ */
+public class CachingAddressResolver<V> {
+
+    static Logger LOGGER = Logging.getLogger("org.geoserver.monitor");
+
+    /**
+     * Performs the actual, possibly slow, lookup
+     */
+    public static interface Resolver<V> {
+        /**
+         * Returns the information for the address, or null if there is none
+         */
+        V resolve(String address) throws Exception;
+    }
+
+    /**
+     * Receives the result of a background lookup
+     */
+    public static interface Callback<V> {
+        void resolved(String address, V value);
+    }
+
+    final String name;
+
+    final Resolver<V> resolver;
+
+    final Cache<String, Optional<V>> cache;
+
+    final ThreadPoolExecutor executor;
+
+    /**
+     * The callbacks waiting for each of the addresses being resolved
+     */
+    final Map<String, Lookup> pending = new HashMap<String, Lookup>();
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    final AtomicLong lookups = new AtomicLong();
+
+    final AtomicLong failures = new AtomicLong();
+
+    final AtomicLong coalesced = new AtomicLong();
+
+    final AtomicLong rejected = new AtomicLong();
+
+    final AtomicLong totalLag = new AtomicLong();
+
+    final AtomicLong maxLag = new AtomicLong();
+
+    public CachingAddressResolver(String name, Resolver<V> resolver, int maxEntries,
+            long ttlMillis, int threads, int queueSize) {
+        this(name, resolver, maxEntries, ttlMillis, threads, queueSize, Ticker.systemTicker());
+    }
+
+    CachingAddressResolver(String name, Resolver<V> resolver, int maxEntries, long ttlMillis,
+            int threads, int queueSize, Ticker ticker) {
+        this.name = name;
+        this.resolver = resolver;
+        this.cache = CacheBuilder.newBuilder().maximumSize(maxEntries)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS).ticker(ticker).build();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                    AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, CachingAddressResolver.this.name + "-"
+                                + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns the cached result for the address, absent if the lookup found nothing, or null if
+     * the address has not been resolved yet
+     */
+    public Optional<V> getCached(String address) {
+        Optional<V> value = cache.getIfPresent(address);
+        if (value != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Resolves the address in the background, calling back once done. The callback is not
+     * called if the lookup cannot be queued.
+     *
+     * @return false if the lookup queue is full
+     */
+    public boolean resolve(final String address, Callback<V> callback) {
+        synchronized (pending) {
+            Lookup lookup = pending.get(address);
+            if (lookup != null) {
+                lookup.callbacks.add(callback);
+                coalesced.incrementAndGet();
+                return true;
+            }
+            lookup = new Lookup(address);
+            lookup.callbacks.add(callback);
+            try {
+                executor.execute(lookup);
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            pending.put(address, lookup);
+            return true;
+        }
+    }
+
+    /**
+     * Drops all cached results
+     */
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public void dispose() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the cache and queue statistics, lags are expressed in milliseconds
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        long h = hits.get();
+        long m = misses.get();
+        long l = lookups.get();
+        map.put("cached", cache.size());
+        map.put("hits", h);
+        map.put("misses", m);
+        map.put("hitRatio", h + m == 0 ? 0d : (double) h / (h + m));
+        map.put("lookups", l);
+        map.put("failures", failures.get());
+        map.put("coalesced", coalesced.get());
+        map.put("rejected", rejected.get());
+        map.put("queued", executor.getQueue().size());
+        map.put("averageLag", l == 0 ? 0d : TimeUnit.NANOSECONDS.toMillis(totalLag.get())
+                / (double) l);
+        map.put("maxLag", TimeUnit.NANOSECONDS.toMillis(maxLag.get()));
+        return map;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    class Lookup implements Runnable {
+        final String address;
+
+        final long queued = System.nanoTime();
+
+        final List<Callback<V>> callbacks = new ArrayList<Callback<V>>(1);
+
+        Lookup(String address) {
+            this.address = address;
+        }
+
+        public void run() {
+            long lag = System.nanoTime() - queued;
+            totalLag.addAndGet(lag);
+            long current;
+            while (lag > (current = maxLag.get())) {
+                if (maxLag.compareAndSet(current, lag)) {
+                    break;
+                }
+            }
+            lookups.incrementAndGet();
+
+            V value = null;
+            try {
+                value = resolver.resolve(address);
+            } catch (Exception e) {
+                failures.incrementAndGet();
+                LOGGER.log(Level.FINE, name + " failed to resolve " + address, e);
+            }
+            cache.put(address, Optional.fromNullable(value));
+
+            List<Callback<V>> waiting;
+            synchronized (pending) {
+                pending.remove(address);
+                waiting = callbacks;
+            }
+            for (Callback<V> callback : waiting) {
+                try {
+                    callback.resolved(address, value);
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, name + " callback failed for " + address, e);
+                }
+            }
+        }
+    }
+}
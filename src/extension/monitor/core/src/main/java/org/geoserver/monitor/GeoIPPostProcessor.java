@@ -6,20 +6,23 @@ package org.geoserver.monitor;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
-
+import org.geoserver.monitor.CachingAddressResolver.Resolver;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geotools.util.logging.Logging;
 
 import com.maxmind.geoip.Location;
 import com.maxmind.geoip.LookupService;
 
-public class GeoIPPostProcessor implements RequestPostProcessor {
+/**
+ * Fills in the remote country, city and coordinates with a lookup of the remote address in the
+ * GeoLite City database, looked up in the monitoring directory.
+ */
+public class GeoIPPostProcessor extends AddressLookupPostProcessor<Location> {
 
     static Logger LOGGER = Logging.getLogger("org.geoserver.montior");
     
@@ -28,21 +31,26 @@ public class GeoIPPostProcessor implements RequestPostProcessor {
      */
     static LookupService geoIPLookup;
     
-    //TODO: cache by IP address
-    
     GeoServerResourceLoader loader;
     AtomicBoolean warned = new AtomicBoolean(false);
     
     public GeoIPPostProcessor(GeoServerResourceLoader loader) {
+        super(null);
         this.loader = loader;
+        this.resolver = new CachingAddressResolver<Location>("monitor-geoip", 
+                new Resolver<Location>() {
+                    public Location resolve(String address) throws Exception {
+                        return lookup(address);
+                    }
+                }, 10000, TimeUnit.DAYS.toMillis(1), 1, 1000);
     }
     
-    public void run(RequestData data, HttpServletRequest request, HttpServletResponse response) {
-        if (data.getRemoteAddr() == null) {
-            LOGGER.info("Request data did not contain ip address. Unable to perform GeoIP lookup.");
-            return;
-        }
-        
+    /**
+     * Available once the database is installed, until then the addresses are not looked up, so
+     * that they do not end up cached as having no location
+     */
+    @Override
+    protected boolean isAvailable() {
         if (geoIPLookup == null) {
             synchronized (this) {
                 if (geoIPLookup == null) {
@@ -50,17 +58,23 @@ public class GeoIPPostProcessor implements RequestPostProcessor {
                 }
             }
         }
-        
-        if (geoIPLookup == null) {
-            return;
+        return geoIPLookup != null;
+    }
+    
+    Location lookup(String address) {
+        if (!isAvailable()) {
+            return null;
         }
         
-        Location loc = geoIPLookup.getLocation(data.getRemoteAddr());
+        Location loc = geoIPLookup.getLocation(address);
         if (loc == null) {
-            LOGGER.fine("Unable to obtain location for " + data.getRemoteAddr());
-            return;
+            LOGGER.fine("Unable to obtain location for " + address);
         }
-        
+        return loc;
+    }
+    
+    @Override
+    protected void apply(RequestData data, Location loc) {
         data.setRemoteCountry(loc.countryName);
         data.setRemoteCity(loc.city);
         data.setRemoteLat(loc.latitude);
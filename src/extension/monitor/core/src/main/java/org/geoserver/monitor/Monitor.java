@@ -5,10 +5,14 @@
 package org.geoserver.monitor;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
 
 import org.geoserver.config.GeoServer;
 import org.geoserver.monitor.MonitorConfig.Mode;
+import org.geoserver.monitor.MonitorConfig.Recording;
 import org.geoserver.platform.GeoServerExtensions;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationListener;
@@ -54,10 +58,21 @@ public class Monitor implements ApplicationListener<ApplicationEvent>{
      * The set of listeners for the monitor
      */
     List<RequestDataListener> listeners = new ArrayList<RequestDataListener>();
+
+    /**
+     * Queue of the changes to be written by the DAO, null when writing synchronously
+     */
+    RecordingQueue<Change> recorder;
     
     public Monitor(MonitorConfig config) {
         this.config = config;
         this.dao = config.createDAO();
+        if (config.getRecording() == Recording.ASYNC) {
+            recorder = new RecordingQueue<Change>("monitor-recorder",
+                    config.getRecordingBufferSize(), config.getRecordingPolicy(),
+                    new ChangeWriter());
+            recorder.start();
+        }
     }
     
     public Monitor(MonitorDAO dao) {
@@ -84,7 +99,7 @@ public class Monitor implements ApplicationListener<ApplicationEvent>{
         }
         // have the DAO persist/propagate the change
         if (config.getMode() != Mode.HISTORY) {
-            dao.add(req);
+            record(Change.ADD, req);
         }
         
         return req;
@@ -102,7 +117,7 @@ public class Monitor implements ApplicationListener<ApplicationEvent>{
         }
         // have the DAO persist/propagate the change
         if (config.getMode() != Mode.HISTORY) {
-            dao.update(data);
+            record(Change.UPDATE, data);
         }
     }
 
@@ -113,7 +128,7 @@ public class Monitor implements ApplicationListener<ApplicationEvent>{
             listener.requestCompleted(data);
         }
         // have the DAO persist/propagate the change
-        dao.save(data);
+        record(Change.SAVE, data);
         REQUEST.remove();
     }
     
@@ -123,14 +138,65 @@ public class Monitor implements ApplicationListener<ApplicationEvent>{
             listener.requestPostProcessed(rd);
         }
         // have the DAO persist/propagate the change
-        dao.update(rd);
+        record(Change.UPDATE, rd);
+    }
 
+    /**
+     * Has the DAO store again a request already post processed, for the information filled in
+     * after the post processing completed. Listeners are not notified again.
+     */
+    public void store(RequestData rd) {
+        record(Change.UPDATE, rd);
+    }
+
+    /**
+     * Has the DAO write the change, right away or through the recording queue. Saves are never
+     * dropped, the DAO would keep on considering the request as running.
+     */
+    void record(int type, RequestData data) {
+        if (recorder != null) {
+            Change change = new Change(type, data);
+            boolean queued = type == Change.SAVE ? recorder.put(change) : recorder.offer(change);
+            MonitorDAO dao = this.dao;
+            if (!queued && !recorder.isRunning() && dao != null) {
+                // shutting down, nobody is consuming the queue anymore
+                write(dao, type, data);
+            }
+        } else {
+            write(dao, type, data);
+        }
+    }
+
+    static void write(MonitorDAO dao, int type, RequestData data) {
+        switch (type) {
+        case Change.ADD:
+            dao.add(data);
+            break;
+        case Change.UPDATE:
+            dao.update(data);
+            break;
+        case Change.SAVE:
+            dao.save(data);
+            break;
+        }
     }
 
     public void dispose() {
+        if (recorder != null) {
+            // flush the pending changes
+            recorder.stop();
+        }
         dao.dispose();
         dao = null;
     }
+
+    /**
+     * Returns the queue of the changes written asynchronously, or null if the changes are
+     * written by the request threads
+     */
+    public RecordingQueue<?> getRecorder() {
+        return recorder;
+    }
     
     public MonitorDAO getDAO() {
         return dao;
@@ -155,4 +221,59 @@ public class Monitor implements ApplicationListener<ApplicationEvent>{
         }
     }
 
+    /**
+     * A request change waiting to be written
+     */
+    static class Change {
+        static final int ADD = 0;
+
+        static final int UPDATE = 1;
+
+        static final int SAVE = 2;
+
+        final int type;
+
+        final RequestData data;
+
+        Change(int type, RequestData data) {
+            this.type = type;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Writes the batches of changes. The changes refer to the live request object, an update
+     * followed by other changes of the same request in the batch is skipped, the later ones
+     * will write the same state anyways.
+     */
+    class ChangeWriter implements RecordingQueue.Handler<Change> {
+
+        Map<RequestData, Integer> last = new IdentityHashMap<RequestData, Integer>();
+
+        public void handle(List<Change> batch) {
+            MonitorDAO dao = Monitor.this.dao;
+            if (dao == null) {
+                return;
+            }
+            try {
+                for (int i = 0; i < batch.size(); i++) {
+                    last.put(batch.get(i).data, i);
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    Change change = batch.get(i);
+                    if (change.type == Change.UPDATE && last.get(change.data) > i) {
+                        continue;
+                    }
+                    try {
+                        write(dao, change.type, change.data);
+                    } catch (Exception e) {
+                        RecordingQueue.LOGGER.log(Level.WARNING,
+                                "Failed to record request " + change.data.getId(), e);
+                    }
+                }
+            } finally {
+                last.clear();
+            }
+        }
+    }
 }
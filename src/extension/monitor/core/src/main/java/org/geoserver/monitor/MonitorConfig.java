@@ -44,6 +44,14 @@ public class MonitorConfig implements ApplicationContextAware {
     public static enum BboxMode {
         NONE, NO_WFS, FULL;
     }
+
+    /**
+     * How the request changes are handed to the storage: directly by the request thread, or
+     * queued up and written by a background one
+     */
+    public static enum Recording {
+        SYNC, ASYNC;
+    }
     
     Properties props;
     PropertyFileWatcher fw;
@@ -123,6 +131,25 @@ public class MonitorConfig implements ApplicationContextAware {
         return BboxMode.valueOf(mode.toUpperCase());
     }
     
+    public Recording getRecording() {
+        return Recording.valueOf(props().getProperty("recording", "sync").toUpperCase());
+    }
+
+    /**
+     * The number of events the asynchronous recording can queue up
+     */
+    public int getRecordingBufferSize() {
+        return Integer.parseInt(props().getProperty("recording.bufferSize", "8192"));
+    }
+
+    /**
+     * What to do with the events recorded while the queue is full
+     */
+    public RecordingQueue.Policy getRecordingPolicy() {
+        return RecordingQueue.Policy.valueOf(props().getProperty("recording.policy", "drop")
+                .toUpperCase());
+    }
+
     public boolean isEnabled() {
         return enabled;
     }
@@ -12,8 +12,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -43,13 +48,37 @@ public class MonitorFilter implements GeoServerFilter {
     Monitor monitor;
     MonitorRequestFilter requestFilter;
     
+    /**
+     * Runs the post processors in the background. With the asynchronous recording the work queue
+     * is bounded, so that a slow post processor cannot pile up requests in memory, and the tasks
+     * that do not fit are dropped.
+     */
     ExecutorService postProcessExecutor;
     
+    /**
+     * The number of post process tasks dropped because the work queue was full
+     */
+    final AtomicLong postProcessDropped = new AtomicLong();
+    
     public MonitorFilter(Monitor monitor, MonitorRequestFilter requestFilter) {
         this.monitor = monitor;
         this.requestFilter = requestFilter;
         
-        postProcessExecutor = Executors.newFixedThreadPool(2);
+        MonitorConfig config = monitor.getConfig();
+        if (config.getRecording() == MonitorConfig.Recording.ASYNC) {
+            postProcessExecutor = new ThreadPoolExecutor(2, 2, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(config.getRecordingBufferSize()),
+                    new RejectedExecutionHandler() {
+                        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                            if (postProcessDropped.incrementAndGet() == 1) {
+                                LOGGER.warning("Post processing is falling behind, "
+                                        + "dropping tasks");
+                            }
+                        }
+                    });
+        } else {
+            postProcessExecutor = Executors.newFixedThreadPool(2);
+        }
         
         if (monitor.isEnabled()) {
             LOGGER.info("Monitor extension enabled");    
@@ -237,7 +266,6 @@ public class MonitorFilter implements GeoServerFilter {
         public void run() {
             try {
                 List<RequestPostProcessor> pp = new ArrayList();
-                pp.add(new ReverseDNSPostProcessor());
                 pp.addAll(GeoServerExtensions.extensions(RequestPostProcessor.class));
                 
                 for (RequestPostProcessor p : pp) {
@@ -0,0 +1,310 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * A bounded, lock free queue handing the events recorded by the request threads to a single
+ * consumer thread, in batches.
+ * <p>
+ * Events are stored in a ring buffer allocated up front. Request threads claim a slot with a
+ * compare and set, store the event and publish it, without ever taking a lock or waking up a
+ * thread unless the consumer is idle. The consumer drains all the published events at once and
+ * hands them to the {@link Handler} as a single batch, in publication order.
+ * </p>
+ * <p>
+ * When the consumer falls behind and the buffer fills up the {@link Policy} decides whether the
+ * new events are dropped, and counted as such, or the request threads wait for room. Events that
+ * must not be lost are queued with {@link #put(Object)}, which always waits. Once the queue is
+ * stopped no more events are accepted.
+ * </p>
+ *
+ * @param <E> The event type.
+ */
+public class RecordingQueue<E> implements Runnable {
+
+    static Logger LOGGER = Logging.getLogger("org.geoserver.monitor");
+
+    /**
+     * What to do when the buffer is full
+     */
+    public static enum Policy {
+        /**
+         * Drop the event, the request thread is never held back
+         */
+        DROP,
+        /**
+         * Wait for the consumer to make room
+         */
+        BLOCK;
+    }
+
+    /**
+     * Processes the events, called by the consumer thread only
+     */
+    public static interface Handler<E> {
+        void handle(List<E> batch);
+    }
+
+    /**
+     * Idle wait of the consumer, also bounds the latency of events published while it is about
+     * to go to sleep
+     */
+    static final long IDLE_WAIT = TimeUnit.MILLISECONDS.toNanos(10);
+
+    static final int MAX_BATCH = 1024;
+
+    final String name;
+
+    final Handler<E> handler;
+
+    final Policy policy;
+
+    final int mask;
+
+    final Object[] slots;
+
+    /**
+     * Sequence published in each slot, the slot is readable once it matches the consumer one
+     */
+    final AtomicLongArray published;
+
+    /**
+     * Next sequence to be claimed by the producers
+     */
+    final AtomicLong claimed = new AtomicLong();
+
+    /**
+     * Next sequence to be read by the consumer, the slots before it can be reused
+     */
+    volatile long consumed;
+
+    final AtomicLong dropped = new AtomicLong();
+
+    volatile boolean idle;
+
+    volatile boolean running;
+
+    Thread consumer;
+
+    public RecordingQueue(String name, int capacity, Policy policy, Handler<E> handler) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        // round up to a power of two so that sequences map to slots with a mask
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.name = name;
+        this.handler = handler;
+        this.policy = policy;
+        this.mask = size - 1;
+        this.slots = new Object[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+    }
+
+    /**
+     * Starts the consumer thread
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        consumer = new Thread(this, name);
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Stops the consumer thread, after it handled the events already published
+     */
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            t = consumer;
+            consumer = null;
+        }
+        LockSupport.unpark(t);
+        try {
+            t.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!t.isAlive()) {
+            // events published by producers that checked the flag just before it was cleared
+            List<E> batch = new ArrayList<E>();
+            while (drain(batch) > 0) {
+                // until empty
+            }
+        }
+    }
+
+    /**
+     * Queues up an event, dropping it if the buffer is full and the policy says so
+     *
+     * @return true if the event was queued, false if it was dropped or the queue is stopped
+     */
+    public boolean offer(E event) {
+        return enqueue(event, policy == Policy.BLOCK);
+    }
+
+    /**
+     * Queues up an event, waiting for room whatever the policy
+     *
+     * @return true if the event was queued, false if the queue is stopped
+     */
+    public boolean put(E event) {
+        return enqueue(event, true);
+    }
+
+    boolean enqueue(E event, boolean block) {
+        final int capacity = slots.length;
+        long seq;
+        while (true) {
+            if (!running) {
+                // nobody would ever consume it
+                return false;
+            }
+            seq = claimed.get();
+            if (seq - consumed >= capacity) {
+                if (!block) {
+                    if (dropped.incrementAndGet() == 1) {
+                        LOGGER.warning(name + " is full, dropping events");
+                    }
+                    return false;
+                }
+                wakeUp();
+                LockSupport.parkNanos(1000);
+                continue;
+            }
+            if (claimed.compareAndSet(seq, seq + 1)) {
+                break;
+            }
+        }
+
+        int slot = (int) seq & mask;
+        slots[slot] = event;
+        // publishing the sequence makes the event visible to the consumer
+        published.lazySet(slot, seq);
+        if (idle) {
+            wakeUp();
+        }
+        return true;
+    }
+
+    void wakeUp() {
+        Thread t = consumer;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
+    }
+
+    public void run() {
+        List<E> batch = new ArrayList<E>(MAX_BATCH);
+        while (true) {
+            if (drain(batch) > 0) {
+                continue;
+            }
+            if (!running) {
+                // pick up whatever got published while stopping
+                if (drain(batch) == 0) {
+                    return;
+                }
+                continue;
+            }
+            idle = true;
+            // re-check after flagging, a producer might have published before seeing the flag
+            if (!isPublished(consumed)) {
+                LockSupport.parkNanos(this, IDLE_WAIT);
+            }
+            idle = false;
+        }
+    }
+
+    boolean isPublished(long seq) {
+        return published.get((int) seq & mask) == seq;
+    }
+
+    /**
+     * Handles the events published so far
+     *
+     * @return the number of events handled
+     */
+    @SuppressWarnings("unchecked")
+    int drain(List<E> batch) {
+        long seq = consumed;
+        while (batch.size() < MAX_BATCH && isPublished(seq)) {
+            int slot = (int) seq & mask;
+            batch.add((E) slots[slot]);
+            slots[slot] = null;
+            seq++;
+        }
+        int count = batch.size();
+        if (count == 0) {
+            return 0;
+        }
+        // release the slots before handling, so the producers are not held back meanwhile
+        consumed = seq;
+        try {
+            handler.handle(batch);
+        } catch (Throwable t) {
+            LOGGER.log(Level.WARNING, name + " failed to handle " + count + " events", t);
+        } finally {
+            batch.clear();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of slots in the buffer
+     */
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * Returns the number of events waiting to be handled
+     */
+    public long getPending() {
+        return Math.max(0, claimed.get() - consumed);
+    }
+
+    /**
+     * Returns the number of events queued so far
+     */
+    public long getQueued() {
+        return claimed.get();
+    }
+
+    /**
+     * Returns the number of events dropped because the buffer was full
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+}
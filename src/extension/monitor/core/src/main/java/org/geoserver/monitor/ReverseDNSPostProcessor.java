@@ -5,35 +5,32 @@
 package org.geoserver.monitor;
 
 import java.net.InetAddress;
-import java.net.UnknownHostException;
-import java.util.Map;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.concurrent.TimeUnit;
 
-import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
+import org.geoserver.monitor.CachingAddressResolver.Resolver;
 
-import org.geotools.util.SoftValueHashMap;
-import org.geotools.util.logging.Logging;
+/**
+ * Fills in the remote host name with a reverse DNS lookup of the remote address.
+ */
+public class ReverseDNSPostProcessor extends AddressLookupPostProcessor<String> {
 
-public class ReverseDNSPostProcessor implements RequestPostProcessor {
-    static final Logger LOGGER = Logging.getLogger(ReverseDNSPostProcessor.class);
-    
-    static Map<String, String> reverseLookupCache = new SoftValueHashMap<String, String>(100);
-    
-    public void run(RequestData data, HttpServletRequest request, HttpServletResponse response)
-            throws Exception {
-        String host = reverseLookupCache.get(data.getRemoteAddr());
-        if(host == null) {
-            try {
-                InetAddress addr = InetAddress.getByName(data.getRemoteAddr());
-                host = addr.getHostName();
-            } catch(UnknownHostException e) {
-                LOGGER.log(Level.FINE, "Error reverse looking up " + data.getRemoteAddr(), e);
-            }
+    static final Resolver<String> DNS = new Resolver<String>() {
+        public String resolve(String address) throws Exception {
+            return InetAddress.getByName(address).getHostName();
         }
-        
-        data.setRemoteHost(host);
+    };
+
+    public ReverseDNSPostProcessor() {
+        this(new CachingAddressResolver<String>("monitor-reverse-dns", DNS, 10000,
+                TimeUnit.HOURS.toMillis(1), 4, 1000));
     }
 
+    public ReverseDNSPostProcessor(CachingAddressResolver<String> resolver) {
+        super(resolver);
+    }
+
+    @Override
+    protected void apply(RequestData data, String host) {
+        data.setRemoteHost(host);
+    }
 }
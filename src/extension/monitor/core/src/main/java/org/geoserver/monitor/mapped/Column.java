@@ -0,0 +1,740 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.mapped;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.monitor.RequestData;
+import org.geoserver.monitor.RequestData.Category;
+import org.geoserver.monitor.RequestData.Status;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.util.Converters;
+import org.geotools.util.logging.Logging;
+import org.opengis.geometry.BoundingBox;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * A column of the segment files, mapping a {@link RequestData} property to a fixed width cell.
+ * <p>
+ * Numbers, dates and enumerations are stored in the cell directly, variable length values are
+ * encoded in the segment heap and the cell holds their offset, or -1 if the value is null.
+ * </p>
+ */
+abstract class Column {
+
+    static final Logger LOGGER = Logging.getLogger(Column.class);
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The per row flags, not mapped to any property
+     */
+    static final Column FLAGS = new ByteColumn("flags");
+
+    static final List<Column> COLUMNS;
+
+    static final Map<String, Column> BY_PROPERTY;
+
+    static final Column ID;
+
+    static final Column START_TIME;
+
+    static {
+        List<Column> columns = new ArrayList<Column>();
+        columns.add(FLAGS);
+        columns.add(new LongColumn("id") {
+            Object get(RequestData data) {
+                return data.getId();
+            }
+            void set(RequestData data, Object value) {
+                data.setId((Long) value);
+            }
+        });
+        columns.add(new EnumColumn<Status>("status", Status.class) {
+            Object get(RequestData data) {
+                return data.getStatus();
+            }
+            void set(RequestData data, Object value) {
+                data.setStatus((Status) value);
+            }
+        });
+        columns.add(new EnumColumn<Category>("category", Category.class) {
+            Object get(RequestData data) {
+                return data.getCategory();
+            }
+            void set(RequestData data, Object value) {
+                data.setCategory((Category) value);
+            }
+        });
+        columns.add(new DateColumn("startTime") {
+            Object get(RequestData data) {
+                return data.getStartTime();
+            }
+            void set(RequestData data, Object value) {
+                data.setStartTime((Date) value);
+            }
+        });
+        columns.add(new DateColumn("endTime") {
+            Object get(RequestData data) {
+                return data.getEndTime();
+            }
+            void set(RequestData data, Object value) {
+                data.setEndTime((Date) value);
+            }
+        });
+        columns.add(new LongColumn("totalTime") {
+            Object get(RequestData data) {
+                return data.getTotalTime();
+            }
+            void set(RequestData data, Object value) {
+                data.setTotalTime((Long) value);
+            }
+        });
+        columns.add(new LongColumn("bodyContentLength") {
+            Object get(RequestData data) {
+                return data.getBodyContentLength();
+            }
+            void set(RequestData data, Object value) {
+                data.setBodyContentLength((Long) value);
+            }
+        });
+        columns.add(new LongColumn("responseLength") {
+            Object get(RequestData data) {
+                return data.getResponseLength();
+            }
+            void set(RequestData data, Object value) {
+                data.setResponseLength((Long) value);
+            }
+        });
+        columns.add(new IntegerColumn("responseStatus") {
+            Object get(RequestData data) {
+                return data.getResponseStatus();
+            }
+            void set(RequestData data, Object value) {
+                data.setResponseStatus((Integer) value);
+            }
+        });
+        columns.add(new DoubleColumn("remoteLat") {
+            Object get(RequestData data) {
+                return data.getRemoteLat();
+            }
+            void set(RequestData data, Object value) {
+                data.setRemoteLat((Double) value);
+            }
+        });
+        columns.add(new DoubleColumn("remoteLon") {
+            Object get(RequestData data) {
+                return data.getRemoteLon();
+            }
+            void set(RequestData data, Object value) {
+                data.setRemoteLon((Double) value);
+            }
+        });
+        columns.add(new StringColumn("path") {
+            Object get(RequestData data) {
+                return data.getPath();
+            }
+            void set(RequestData data, Object value) {
+                data.setPath((String) value);
+            }
+        });
+        columns.add(new StringColumn("queryString") {
+            Object get(RequestData data) {
+                return data.getQueryString();
+            }
+            void set(RequestData data, Object value) {
+                data.setQueryString((String) value);
+            }
+        });
+        columns.add(new StringColumn("bodyContentType") {
+            Object get(RequestData data) {
+                return data.getBodyContentType();
+            }
+            void set(RequestData data, Object value) {
+                data.setBodyContentType((String) value);
+            }
+        });
+        columns.add(new StringColumn("httpMethod") {
+            Object get(RequestData data) {
+                return data.getHttpMethod();
+            }
+            void set(RequestData data, Object value) {
+                data.setHttpMethod((String) value);
+            }
+        });
+        columns.add(new StringColumn("remoteAddr") {
+            Object get(RequestData data) {
+                return data.getRemoteAddr();
+            }
+            void set(RequestData data, Object value) {
+                data.setRemoteAddr((String) value);
+            }
+        });
+        columns.add(new StringColumn("remoteHost") {
+            Object get(RequestData data) {
+                return data.getRemoteHost();
+            }
+            void set(RequestData data, Object value) {
+                data.setRemoteHost((String) value);
+            }
+        });
+        columns.add(new StringColumn("host") {
+            Object get(RequestData data) {
+                return data.getHost();
+            }
+            void set(RequestData data, Object value) {
+                data.setHost((String) value);
+            }
+        });
+        columns.add(new StringColumn("internalHost") {
+            Object get(RequestData data) {
+                return data.getInternalHost();
+            }
+            void set(RequestData data, Object value) {
+                data.setInternalHost((String) value);
+            }
+        });
+        columns.add(new StringColumn("remoteUser") {
+            Object get(RequestData data) {
+                return data.getRemoteUser();
+            }
+            void set(RequestData data, Object value) {
+                data.setRemoteUser((String) value);
+            }
+        });
+        columns.add(new StringColumn("remoteUserAgent") {
+            Object get(RequestData data) {
+                return data.getRemoteUserAgent();
+            }
+            void set(RequestData data, Object value) {
+                data.setRemoteUserAgent((String) value);
+            }
+        });
+        columns.add(new StringColumn("remoteCountry") {
+            Object get(RequestData data) {
+                return data.getRemoteCountry();
+            }
+            void set(RequestData data, Object value) {
+                data.setRemoteCountry((String) value);
+            }
+        });
+        columns.add(new StringColumn("remoteCity") {
+            Object get(RequestData data) {
+                return data.getRemoteCity();
+            }
+            void set(RequestData data, Object value) {
+                data.setRemoteCity((String) value);
+            }
+        });
+        columns.add(new StringColumn("service") {
+            Object get(RequestData data) {
+                return data.getService();
+            }
+            void set(RequestData data, Object value) {
+                data.setService((String) value);
+            }
+        });
+        columns.add(new StringColumn("operation") {
+            Object get(RequestData data) {
+                return data.getOperation();
+            }
+            void set(RequestData data, Object value) {
+                data.setOperation((String) value);
+            }
+        });
+        columns.add(new StringColumn("owsVersion") {
+            Object get(RequestData data) {
+                return data.getOwsVersion();
+            }
+            void set(RequestData data, Object value) {
+                data.setOwsVersion((String) value);
+            }
+        });
+        columns.add(new StringColumn("subOperation") {
+            Object get(RequestData data) {
+                return data.getSubOperation();
+            }
+            void set(RequestData data, Object value) {
+                data.setSubOperation((String) value);
+            }
+        });
+        columns.add(new StringColumn("responseContentType") {
+            Object get(RequestData data) {
+                return data.getResponseContentType();
+            }
+            void set(RequestData data, Object value) {
+                data.setResponseContentType((String) value);
+            }
+        });
+        columns.add(new StringColumn("errorMessage") {
+            Object get(RequestData data) {
+                return data.getErrorMessage();
+            }
+            void set(RequestData data, Object value) {
+                data.setErrorMessage((String) value);
+            }
+        });
+        columns.add(new StringColumn("httpReferer") {
+            Object get(RequestData data) {
+                return data.getHttpReferer();
+            }
+            void set(RequestData data, Object value) {
+                data.setHttpReferer((String) value);
+            }
+        });
+        columns.add(new ResourcesColumn());
+        columns.add(new BytesColumn("body") {
+            Object get(RequestData data) {
+                return data.getBody();
+            }
+            void set(RequestData data, Object value) {
+                data.setBody((byte[]) value);
+            }
+        });
+        columns.add(new BoundingBoxColumn());
+        columns.add(new ErrorColumn());
+
+        Map<String, Column> byProperty = new LinkedHashMap<String, Column>();
+        int position = 0;
+        for (Column column : columns) {
+            column.position = position;
+            position += column.width;
+            byProperty.put(column.property, column);
+        }
+        COLUMNS = Collections.unmodifiableList(columns);
+        BY_PROPERTY = Collections.unmodifiableMap(byProperty);
+        ID = byProperty.get("id");
+        START_TIME = byProperty.get("startTime");
+    }
+
+    /**
+     * Returns the sum of the widths of all columns, that is, the size of a row
+     */
+    static int getRowWidth() {
+        int width = 0;
+        for (Column column : COLUMNS) {
+            width += column.width;
+        }
+        return width;
+    }
+
+    final String property;
+
+    final int width;
+
+    /**
+     * The sum of the widths of the previous columns
+     */
+    int position;
+
+    Column(String property, int width) {
+        this.property = property;
+        this.width = width;
+    }
+
+    /**
+     * Returns true if the values are stored in the segment heap
+     */
+    boolean isHeap() {
+        return false;
+    }
+
+    /**
+     * Reads the property value out of the request
+     */
+    abstract Object get(RequestData data);
+
+    /**
+     * Sets the property value in the request
+     */
+    abstract void set(RequestData data, Object value);
+
+    /**
+     * Converts the value into the form handed to {@link #write}, byte arrays for heap columns
+     */
+    Object encode(Object value) {
+        return value;
+    }
+
+    /**
+     * Writes the encoded value in the cell at the given buffer position
+     */
+    abstract void write(ByteBuffer buffer, int position, Object encoded);
+
+    /**
+     * Reads the value of the cell at the given position
+     */
+    abstract Object read(Segment segment, int position);
+
+    /**
+     * Converts a value used in a query to the type returned by {@link #read}, so that they can be
+     * compared
+     */
+    Object convert(Object value) {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return property;
+    }
+
+    static class ByteColumn extends Column {
+        ByteColumn(String property) {
+            super(property, 1);
+        }
+
+        Object get(RequestData data) {
+            return null;
+        }
+
+        void set(RequestData data, Object value) {
+        }
+
+        void write(ByteBuffer buffer, int position, Object encoded) {
+            buffer.put(position, encoded == null ? 0 : ((Number) encoded).byteValue());
+        }
+
+        Object read(Segment segment, int position) {
+            return segment.buffer.get(position);
+        }
+    }
+
+    static abstract class LongColumn extends Column {
+        LongColumn(String property) {
+            super(property, 8);
+        }
+
+        void write(ByteBuffer buffer, int position, Object encoded) {
+            buffer.putLong(position, ((Number) encoded).longValue());
+        }
+
+        Object read(Segment segment, int position) {
+            return segment.buffer.getLong(position);
+        }
+
+        Object convert(Object value) {
+            return value instanceof Long ? value : Converters.convert(value, Long.class);
+        }
+    }
+
+    static abstract class IntegerColumn extends Column {
+        static final int NULL = Integer.MIN_VALUE;
+
+        IntegerColumn(String property) {
+            super(property, 4);
+        }
+
+        void write(ByteBuffer buffer, int position, Object encoded) {
+            buffer.putInt(position, encoded == null ? NULL : ((Number) encoded).intValue());
+        }
+
+        Object read(Segment segment, int position) {
+            int value = segment.buffer.getInt(position);
+            return value == NULL ? null : value;
+        }
+
+        Object convert(Object value) {
+            return value instanceof Integer ? value : Converters.convert(value, Integer.class);
+        }
+    }
+
+    static abstract class DoubleColumn extends Column {
+        DoubleColumn(String property) {
+            super(property, 8);
+        }
+
+        void write(ByteBuffer buffer, int position, Object encoded) {
+            buffer.putDouble(position, ((Number) encoded).doubleValue());
+        }
+
+        Object read(Segment segment, int position) {
+            return segment.buffer.getDouble(position);
+        }
+
+        Object convert(Object value) {
+            return value instanceof Double ? value : Converters.convert(value, Double.class);
+        }
+    }
+
+    static abstract class DateColumn extends Column {
+        static final long NULL = Long.MIN_VALUE;
+
+        DateColumn(String property) {
+            super(property, 8);
+        }
+
+        void write(ByteBuffer buffer, int position, Object encoded) {
+            buffer.putLong(position, encoded == null ? NULL : ((Date) encoded).getTime());
+        }
+
+        Object read(Segment segment, int position) {
+            long time = segment.buffer.getLong(position);
+            return time == NULL ? null : new Date(time);
+        }
+
+        Object convert(Object value) {
+            return value instanceof Date ? value : Converters.convert(value, Date.class);
+        }
+    }
+
+    static abstract class EnumColumn<E extends Enum<E>> extends Column {
+        final Class<E> type;
+
+        final E[] values;
+
+        EnumColumn(String property, Class<E> type) {
+            super(property, 1);
+            this.type = type;
+            this.values = type.getEnumConstants();
+        }
+
+        void write(ByteBuffer buffer, int position, Object encoded) {
+            buffer.put(position, encoded == null ? -1 : (byte) ((Enum<?>) encoded).ordinal());
+        }
+
+        Object read(Segment segment, int position) {
+            byte ordinal = segment.buffer.get(position);
+            return ordinal < 0 ? null : values[ordinal];
+        }
+
+        Object convert(Object value) {
+            if (value instanceof String) {
+                return Enum.valueOf(type, ((String) value).toUpperCase());
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Base class for columns whose values live in the segment heap
+     */
+    static abstract class HeapColumn extends Column {
+        HeapColumn(String property) {
+            super(property, 4);
+        }
+
+        boolean isHeap() {
+            return true;
+        }
+
+        void write(ByteBuffer buffer, int position, Object encoded) {
+            // the segment has already appended the bytes to the heap, encoded is the offset
+            buffer.putInt(position, encoded == null ? -1 : (Integer) encoded);
+        }
+
+        Object read(Segment segment, int position) {
+            int offset = segment.buffer.getInt(position);
+            return offset < 0 ? null : decode(segment.readHeap(offset));
+        }
+
+        /**
+         * Turns the bytes stored in the heap back into the property value
+         */
+        abstract Object decode(byte[] bytes);
+    }
+
+    static abstract class StringColumn extends HeapColumn {
+        StringColumn(String property) {
+            super(property);
+        }
+
+        Object encode(Object value) {
+            return value == null ? null : ((String) value).getBytes(UTF8);
+        }
+
+        Object decode(byte[] bytes) {
+            return new String(bytes, UTF8);
+        }
+
+        Object convert(Object value) {
+            return value == null || value instanceof String ? value : value.toString();
+        }
+    }
+
+    static abstract class BytesColumn extends HeapColumn {
+        BytesColumn(String property) {
+            super(property);
+        }
+
+        Object decode(byte[] bytes) {
+            return bytes;
+        }
+    }
+
+    static class ResourcesColumn extends HeapColumn {
+        ResourcesColumn() {
+            super("resources");
+        }
+
+        Object get(RequestData data) {
+            return data.getResources();
+        }
+
+        @SuppressWarnings("unchecked")
+        void set(RequestData data, Object value) {
+            data.setResources(value == null ? new ArrayList<String>(1) : (List<String>) value);
+        }
+
+        @SuppressWarnings("unchecked")
+        Object encode(Object value) {
+            List<String> resources = (List<String>) value;
+            if (resources == null || resources.isEmpty()) {
+                return null;
+            }
+            byte[][] encoded = new byte[resources.size()][];
+            int length = 4;
+            for (int i = 0; i < encoded.length; i++) {
+                encoded[i] = resources.get(i).getBytes(UTF8);
+                length += 4 + encoded[i].length;
+            }
+            ByteBuffer bb = ByteBuffer.allocate(length);
+            bb.putInt(encoded.length);
+            for (byte[] resource : encoded) {
+                bb.putInt(resource.length);
+                bb.put(resource);
+            }
+            return bb.array();
+        }
+
+        Object decode(byte[] bytes) {
+            ByteBuffer bb = ByteBuffer.wrap(bytes);
+            int count = bb.getInt();
+            List<String> resources = new ArrayList<String>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] resource = new byte[bb.getInt()];
+                bb.get(resource);
+                resources.add(new String(resource, UTF8));
+            }
+            return resources;
+        }
+
+        Object read(Segment segment, int position) {
+            Object resources = super.read(segment, position);
+            return resources == null ? new ArrayList<String>(1) : resources;
+        }
+    }
+
+    /**
+     * Stores the envelope ordinates followed by the EPSG code of the CRS, as the hibernate
+     * storage does
+     */
+    static class BoundingBoxColumn extends HeapColumn {
+        BoundingBoxColumn() {
+            super("bbox");
+        }
+
+        Object get(RequestData data) {
+            return data.getBbox();
+        }
+
+        void set(RequestData data, Object value) {
+            data.setBbox((BoundingBox) value);
+        }
+
+        Object encode(Object value) {
+            BoundingBox box = (BoundingBox) value;
+            if (box == null) {
+                return null;
+            }
+            byte[] srs = new byte[0];
+            CoordinateReferenceSystem crs = box.getCoordinateReferenceSystem();
+            if (crs != null) {
+                try {
+                    Integer code = CRS.lookupEpsgCode(crs, true);
+                    if (code != null) {
+                        srs = ("EPSG:" + code).getBytes(UTF8);
+                    }
+                } catch (Exception e) {
+                    LOGGER.log(Level.FINER, e.getMessage(), e);
+                }
+            }
+            ByteBuffer bb = ByteBuffer.allocate(32 + srs.length);
+            bb.putDouble(box.getMinX()).putDouble(box.getMinY());
+            bb.putDouble(box.getMaxX()).putDouble(box.getMaxY());
+            bb.put(srs);
+            return bb.array();
+        }
+
+        Object decode(byte[] bytes) {
+            ByteBuffer bb = ByteBuffer.wrap(bytes);
+            double minx = bb.getDouble(), miny = bb.getDouble();
+            double maxx = bb.getDouble(), maxy = bb.getDouble();
+            CoordinateReferenceSystem crs = null;
+            if (bb.hasRemaining()) {
+                String srs = new String(bytes, 32, bytes.length - 32, UTF8);
+                try {
+                    crs = CRS.decode(srs);
+                } catch (Exception e) {
+                    LOGGER.log(Level.FINER, e.getMessage(), e);
+                }
+            }
+            return new ReferencedEnvelope(minx, maxx, miny, maxy, crs);
+        }
+    }
+
+    /**
+     * Stores the request error in serialized form, as the hibernate storage does
+     */
+    static class ErrorColumn extends HeapColumn {
+        ErrorColumn() {
+            super("error");
+        }
+
+        Object get(RequestData data) {
+            return data.getError();
+        }
+
+        void set(RequestData data, Object value) {
+            data.setError((Throwable) value);
+        }
+
+        Object encode(Object value) {
+            if (value == null) {
+                return null;
+            }
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream out = new ObjectOutputStream(bytes);
+                out.writeObject(value);
+                out.close();
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                // not all exceptions are serializable, the message is kept in errorMessage anyways
+                LOGGER.log(Level.FINE, "Could not serialize the request error", e);
+                return null;
+            }
+        }
+
+        Object decode(byte[] bytes) {
+            try {
+                ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+                try {
+                    return in.readObject();
+                } finally {
+                    in.close();
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Could not deserialize the request error", e);
+                return null;
+            }
+        }
+    }
+}
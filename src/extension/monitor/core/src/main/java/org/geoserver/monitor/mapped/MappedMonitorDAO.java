@@ -0,0 +1,467 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.mapped;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.monitor.MonitorConfig;
+import org.geoserver.monitor.MonitorDAO;
+import org.geoserver.monitor.Query;
+import org.geoserver.monitor.Query.Comparison;
+import org.geoserver.monitor.RequestData;
+import org.geoserver.monitor.RequestData.Category;
+import org.geoserver.monitor.RequestDataVisitor;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Monitor storage appending the requests to memory mapped segment files.
+ * <p>
+ * Each segment stores a fixed number of requests laid out by column, queries only read the
+ * columns they need and skip the segments outside of the requested time range. A new segment is
+ * started when the current one is full, or when the time partition (hour, day or month) changes,
+ * so old data can be archived or removed one file at a time.
+ * </p>
+ * <p>
+ * Records are never modified in place: updating a request appends its new version and marks the
+ * previous one as superseded. Segments are not compacted, the space taken by the superseded
+ * versions is reclaimed only when the segment files are removed, either by hand or by the
+ * retention settings: the oldest segments are dropped and their files deleted when there are
+ * too many of them, or when all their requests are too old.
+ * </p>
+ * <p>
+ * The storage is configured in monitor.properties:
+ * <ul>
+ * <li>{@code storage=mapped}</li>
+ * <li>{@code mapped.directory}: the directory holding the segments, defaults to
+ * {@code monitoring/requests} in the data directory</li>
+ * <li>{@code mapped.partition}: one of {@code hourly}, {@code daily}, {@code monthly}, defaults
+ * to {@code daily}</li>
+ * <li>{@code mapped.segmentRows}: the number of requests per segment, defaults to 65536</li>
+ * <li>{@code mapped.maxSegments}: the number of segments to keep, unlimited by default</li>
+ * <li>{@code mapped.maxAge}: the number of days the requests are kept, unlimited by default</li>
+ * </ul>
+ * </p>
+ */
+public class MappedMonitorDAO implements MonitorDAO {
+
+    static final Logger LOGGER = Logging.getLogger(MappedMonitorDAO.class);
+
+    public static final String NAME = "mapped";
+
+    static final String EXTENSION = ".seg";
+
+    static final int DEFAULT_SEGMENT_ROWS = 65536;
+
+    /**
+     * Heap space reserved per row in a segment, for the variable length values
+     */
+    static final int HEAP_BYTES_PER_ROW = 512;
+
+    /**
+     * The time partitioning of the segments, in UTC
+     */
+    public static enum Partition {
+        HOURLY(Calendar.HOUR_OF_DAY, "yyyyMMddHH"), DAILY(Calendar.DAY_OF_MONTH, "yyyyMMdd"), MONTHLY(
+                Calendar.MONTH, "yyyyMM");
+
+        final int field;
+
+        final String pattern;
+
+        Partition(int field, String pattern) {
+            this.field = field;
+            this.pattern = pattern;
+        }
+
+        /**
+         * Returns the start of the partition containing the given time
+         */
+        long start(long time) {
+            Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+            cal.setTimeInMillis(time);
+            cal.set(Calendar.MILLISECOND, 0);
+            cal.set(Calendar.SECOND, 0);
+            cal.set(Calendar.MINUTE, 0);
+            if (field != Calendar.HOUR_OF_DAY) {
+                cal.set(Calendar.HOUR_OF_DAY, 0);
+            }
+            if (field == Calendar.MONTH) {
+                cal.set(Calendar.DAY_OF_MONTH, 1);
+            }
+            return cal.getTimeInMillis();
+        }
+
+        String label(long time) {
+            SimpleDateFormat format = new SimpleDateFormat(pattern);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return format.format(time);
+        }
+    }
+
+    GeoServerResourceLoader loader;
+
+    File directory;
+
+    Partition partition = Partition.DAILY;
+
+    int segmentRows = DEFAULT_SEGMENT_ROWS;
+
+    /**
+     * The max number of segments kept, zero or less meaning no limit
+     */
+    int maxSegments;
+
+    /**
+     * The max age of the requests kept, in days, zero or less meaning no limit
+     */
+    int maxAge;
+
+    /**
+     * The segments, oldest first. Readers work off a snapshot of the list
+     */
+    List<Segment> segments = new CopyOnWriteArrayList<Segment>();
+
+    /**
+     * The segment being appended to
+     */
+    Segment current;
+
+    /**
+     * Sequence number of the last segment created
+     */
+    int sequence;
+
+    /**
+     * The highest request id written so far, requests above it have no previous version to
+     * supersede
+     */
+    long maxWrittenId = Long.MIN_VALUE;
+
+    AtomicLong REQUEST_ID_GEN = new AtomicLong(1);
+
+    public MappedMonitorDAO(GeoServerResourceLoader loader) {
+        this.loader = loader;
+    }
+
+    public MappedMonitorDAO(File directory) {
+        this.directory = directory;
+    }
+
+    public String getName() {
+        return NAME;
+    }
+
+    public void init(MonitorConfig config) {
+        String dir = config.getProperty(NAME, "directory", String.class);
+        String p = config.getProperty(NAME, "partition", String.class);
+        Integer rows = config.getProperty(NAME, "segmentRows", Integer.class);
+        Integer segs = config.getProperty(NAME, "maxSegments", Integer.class);
+        Integer age = config.getProperty(NAME, "maxAge", Integer.class);
+        try {
+            if (dir != null) {
+                File f = new File(dir);
+                if (!f.isAbsolute() && loader != null) {
+                    f = loader.findOrCreateDirectory(dir);
+                }
+                directory = f;
+            }
+            if (p != null) {
+                partition = Partition.valueOf(p.trim().toUpperCase());
+            }
+            if (rows != null && rows > 0) {
+                segmentRows = rows;
+            }
+            if (segs != null) {
+                maxSegments = segs;
+            }
+            if (age != null) {
+                maxAge = age;
+            }
+            open();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open the monitoring segments", e);
+        }
+    }
+
+    /**
+     * Opens the segments found in the storage directory
+     */
+    synchronized void open() throws IOException {
+        if (directory == null) {
+            directory = loader.findOrCreateDirectory("monitoring", "requests");
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+        release();
+
+        File[] files = directory.listFiles(new FileFilter() {
+            public boolean accept(File f) {
+                return f.isFile() && f.getName().endsWith(EXTENSION);
+            }
+        });
+        // names start with the zero padded sequence number
+        Arrays.sort(files);
+
+        long maxId = 0;
+        for (File f : files) {
+            Segment segment;
+            try {
+                segment = Segment.open(f);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Skipping monitoring segment " + f, e);
+                continue;
+            }
+            segments.add(segment);
+            if (segment.rows > 0) {
+                maxId = Math.max(maxId, segment.maxId);
+            }
+            sequence = Math.max(sequence, sequence(f));
+        }
+        if (!segments.isEmpty()) {
+            current = segments.get(segments.size() - 1);
+        }
+        maxWrittenId = maxId;
+        REQUEST_ID_GEN.set(maxId + 1);
+        retire(System.currentTimeMillis());
+    }
+
+    static int sequence(File f) {
+        String name = f.getName();
+        int idx = name.indexOf('_');
+        try {
+            return Integer.parseInt(idx > 0 ? name.substring(0, idx) : name.substring(0,
+                    name.length() - EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public RequestData init(RequestData data) {
+        data.setId(REQUEST_ID_GEN.getAndIncrement());
+        return data;
+    }
+
+    public void add(RequestData data) {
+        write(data);
+    }
+
+    public void update(RequestData data) {
+        write(data);
+    }
+
+    public void save(RequestData data) {
+        write(data);
+    }
+
+    /**
+     * Appends the current state of the request, superseding the previous one
+     */
+    synchronized void write(RequestData data) {
+        List<Object> encoded = new ArrayList<Object>(Column.COLUMNS.size());
+        int heapBytes = 0;
+        for (Column column : Column.COLUMNS) {
+            Object value = column.encode(column.get(data));
+            if (column.isHeap() && value != null) {
+                heapBytes += 4 + ((byte[]) value).length;
+            }
+            encoded.add(value);
+        }
+
+        int heapCapacity = segmentRows * HEAP_BYTES_PER_ROW;
+        if (heapBytes > heapCapacity) {
+            // drop the largest, least interesting values rather than the whole request
+            heapBytes -= drop(encoded, "body");
+            heapBytes -= drop(encoded, "error");
+            if (heapBytes > heapCapacity) {
+                LOGGER.warning("Request " + data.getId() + " is too large to be stored");
+                return;
+            }
+        }
+
+        try {
+            long now = System.currentTimeMillis();
+            if (current == null || current.partition != partition.start(now)
+                    || !current.fits(heapBytes)) {
+                rollover(now, heapCapacity);
+            }
+
+            long id = data.getId();
+            if (id <= maxWrittenId) {
+                supersede(id);
+            } else {
+                maxWrittenId = id;
+            }
+            current.append(encoded);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to store request " + data.getId(), e);
+        }
+    }
+
+    int drop(List<Object> encoded, String property) {
+        int idx = Column.COLUMNS.indexOf(Column.BY_PROPERTY.get(property));
+        byte[] value = (byte[]) encoded.get(idx);
+        if (value == null) {
+            return 0;
+        }
+        encoded.set(idx, null);
+        return 4 + value.length;
+    }
+
+    void supersede(long id) {
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            Segment segment = segments.get(i);
+            int row = segment.find(id);
+            if (row >= 0) {
+                segment.setSuperseded(row);
+                return;
+            }
+        }
+    }
+
+    void rollover(long now, int heapCapacity) throws IOException {
+        if (current != null) {
+            current.force();
+        }
+        long start = partition.start(now);
+        File file = new File(directory, String.format("%08d_%s%s", ++sequence,
+                partition.label(start), EXTENSION));
+        current = Segment.create(file, segmentRows, heapCapacity, start);
+        segments.add(current);
+        retire(now);
+    }
+
+    /**
+     * Drops the oldest segments exceeding the retention settings, never the current one
+     */
+    void retire(long now) {
+        long cutoff = maxAge > 0 ? now - TimeUnit.DAYS.toMillis(maxAge) : Long.MIN_VALUE;
+        while (segments.size() > 1 && segments.get(0) != current) {
+            Segment oldest = segments.get(0);
+            // empty segments have no start time and are always old enough
+            if ((maxSegments <= 0 || segments.size() <= maxSegments)
+                    && oldest.maxStart >= cutoff) {
+                return;
+            }
+            // readers holding a snapshot of the segments keep the mapping alive until done
+            segments.remove(0);
+            delete(oldest);
+        }
+    }
+
+    void delete(Segment segment) {
+        if (!segment.file.delete()) {
+            // the file might still be mapped, get rid of it at least on exit
+            LOGGER.fine("Could not delete " + segment.file + ", will retry on exit");
+            segment.file.deleteOnExit();
+        }
+    }
+
+    public RequestData getRequest(long id) {
+        List<Segment> snapshot = new ArrayList<Segment>(segments);
+        for (int i = snapshot.size() - 1; i >= 0; i--) {
+            Segment segment = snapshot.get(i);
+            int row = segment.find(id);
+            if (row >= 0) {
+                return MappedQuery.read(segment, row);
+            }
+        }
+        return null;
+    }
+
+    public List<RequestData> getRequests() {
+        return getRequests(new Query());
+    }
+
+    public List<RequestData> getRequests(Query query) {
+        final List<RequestData> requests = new ArrayList<RequestData>();
+        getRequests(query, new RequestDataVisitor() {
+            public void visit(RequestData data, Object... aggregates) {
+                requests.add(data);
+            }
+        });
+        return requests;
+    }
+
+    public void getRequests(Query query, RequestDataVisitor visitor) {
+        new MappedQuery(query).run(new ArrayList<Segment>(segments), visitor);
+    }
+
+    public long getCount(Query query) {
+        return new MappedQuery(query).count(new ArrayList<Segment>(segments));
+    }
+
+    public Iterator<RequestData> getIterator(Query query) {
+        return getRequests(query).iterator();
+    }
+
+    public List<RequestData> getOwsRequests() {
+        return getOwsRequests(null, null, null);
+    }
+
+    public List<RequestData> getOwsRequests(String service, String operation, String version) {
+        Query query = new Query().filter("category", Category.OWS, Comparison.EQ);
+        if (service != null) {
+            query.and("service", service, Comparison.EQ);
+        }
+        if (operation != null) {
+            query.and("operation", operation, Comparison.EQ);
+        }
+        if (version != null) {
+            query.and("owsVersion", version, Comparison.EQ);
+        }
+        return getRequests(query);
+    }
+
+    /**
+     * Removes all the stored requests
+     */
+    public synchronized void clear() {
+        List<Segment> removed = new ArrayList<Segment>(segments);
+        release();
+        for (Segment segment : removed) {
+            delete(segment);
+        }
+    }
+
+    public synchronized void dispose() {
+        if (current != null) {
+            current.force();
+        }
+        release();
+    }
+
+    void release() {
+        segments.clear();
+        current = null;
+    }
+
+    /**
+     * Returns the directory holding the segment files
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    List<Segment> getSegments() {
+        return Collections.unmodifiableList(segments);
+    }
+}
@@ -0,0 +1,684 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.mapped;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.geoserver.monitor.And;
+import org.geoserver.monitor.CompositeFilter;
+import org.geoserver.monitor.Filter;
+import org.geoserver.monitor.Or;
+import org.geoserver.monitor.Query;
+import org.geoserver.monitor.Query.Comparison;
+import org.geoserver.monitor.Query.SortOrder;
+import org.geoserver.monitor.RequestData;
+import org.geoserver.monitor.RequestDataVisitor;
+
+/**
+ * A {@link Query} compiled against the segment columns.
+ * <p>
+ * Filters are evaluated reading only the columns they refer to, string equality is checked
+ * against the encoded bytes without decoding the heap entries, and whole segments are skipped
+ * when their start time range does not overlap the query one. Requests are only materialized
+ * once they have been selected, sorted and paged.
+ * </p>
+ * <p>
+ * As in the hibernate storage, referring to the {@code resource} property joins the requests
+ * with their resources, producing one result per accessed resource.
+ * </p>
+ */
+class MappedQuery {
+
+    /**
+     * The joined resource property
+     */
+    static final String RESOURCE = "resource";
+
+    static final String RESOURCES = "resources";
+
+    final Query query;
+
+    final boolean join;
+
+    final RowFilter filter;
+
+    final long from;
+
+    final long to;
+
+    final List<Aggregate> aggregates;
+
+    MappedQuery(Query query) {
+        this.query = query;
+        this.join = query.getProperties().contains(RESOURCE)
+                || query.getGroupBy().contains(RESOURCE) || RESOURCE.equals(query.getSortBy())
+                || (query.getFilter() != null && refersResource(query.getFilter()));
+        this.filter = query.getFilter() != null ? compile(query.getFilter()) : null;
+        this.from = query.getFromDate() != null ? query.getFromDate().getTime() : Long.MIN_VALUE;
+        this.to = query.getToDate() != null ? query.getToDate().getTime() : Long.MAX_VALUE;
+        this.aggregates = new ArrayList<Aggregate>();
+        for (String aggregate : query.getAggregates()) {
+            aggregates.add(new Aggregate(aggregate));
+        }
+    }
+
+    static boolean refersResource(Filter filter) {
+        if (filter instanceof And || filter instanceof Or) {
+            for (Filter f : ((CompositeFilter) filter).getFilters()) {
+                if (refersResource(f)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return RESOURCE.equals(filter.getLeft()) || RESOURCE.equals(filter.getRight());
+    }
+
+    static boolean isProperty(Object name) {
+        return name instanceof String
+                && (RESOURCE.equals(name) || Column.BY_PROPERTY.containsKey(name));
+    }
+
+    /**
+     * Returns the column backing a property, failing if there is none
+     */
+    static Column column(String property) {
+        Column column = Column.BY_PROPERTY.get(property);
+        if (column == null || column == Column.FLAGS) {
+            throw new IllegalArgumentException("Unknown request property: " + property);
+        }
+        return column;
+    }
+
+    //
+    // filtering
+    //
+
+    /**
+     * A compiled filter, evaluated against a row and, when joining, one of its resources
+     */
+    static interface RowFilter {
+        boolean matches(Segment segment, int row, String resource);
+    }
+
+    RowFilter compile(Filter f) {
+        if (f instanceof And) {
+            final List<RowFilter> filters = compile(((And) f).getFilters());
+            return new RowFilter() {
+                public boolean matches(Segment segment, int row, String resource) {
+                    for (RowFilter filter : filters) {
+                        if (!filter.matches(segment, row, resource)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            };
+        }
+        if (f instanceof Or) {
+            final List<RowFilter> filters = compile(((Or) f).getFilters());
+            return new RowFilter() {
+                public boolean matches(Segment segment, int row, String resource) {
+                    for (RowFilter filter : filters) {
+                        if (filter.matches(segment, row, resource)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+            };
+        }
+
+        final String property;
+        final Object value;
+        if (isProperty(f.getLeft())) {
+            property = (String) f.getLeft();
+            value = f.getRight();
+        } else if (isProperty(f.getRight())) {
+            property = (String) f.getRight();
+            value = f.getLeft();
+        } else {
+            throw new IllegalArgumentException("Could not find property in filter " + f);
+        }
+        final Comparison type = f.getType();
+
+        if (RESOURCE.equals(property)) {
+            return new RowFilter() {
+                public boolean matches(Segment segment, int row, String resource) {
+                    return compare(resource, type, value);
+                }
+            };
+        }
+        final Column column = column(property);
+        if (RESOURCES.equals(property)) {
+            return resourcesFilter(column, type, value);
+        }
+        final Object converted = convert(column, type, value);
+        if (column instanceof Column.StringColumn && converted != null
+                && (type == Comparison.EQ || type == Comparison.NEQ || type == Comparison.IN)) {
+            return stringFilter(column, type, converted);
+        }
+        return new RowFilter() {
+            public boolean matches(Segment segment, int row, String resource) {
+                return compare(column.read(segment, segment.cell(column, row)), type, converted);
+            }
+        };
+    }
+
+    List<RowFilter> compile(List<Filter> filters) {
+        List<RowFilter> compiled = new ArrayList<RowFilter>(filters.size());
+        for (Filter f : filters) {
+            compiled.add(compile(f));
+        }
+        return compiled;
+    }
+
+    /**
+     * Converts the filter value, or each of them for IN comparisons, to the column type
+     */
+    static Object convert(Column column, Comparison type, Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (type == Comparison.IN) {
+            if (!(value instanceof Collection)) {
+                throw new UnsupportedOperationException(
+                        "IN comparison only supported against list values");
+            }
+            Set<Object> converted = new HashSet<Object>();
+            for (Object v : (Collection<?>) value) {
+                converted.add(column.convert(v));
+            }
+            return converted;
+        }
+        return column.convert(value);
+    }
+
+    /**
+     * Compares the encoded string bytes directly in the segment heap
+     */
+    static RowFilter stringFilter(final Column column, final Comparison type, Object value) {
+        final List<byte[]> candidates = new ArrayList<byte[]>();
+        if (value instanceof Collection) {
+            for (Object v : (Collection<?>) value) {
+                if (v != null) {
+                    candidates.add((byte[]) column.encode(v));
+                }
+            }
+        } else {
+            candidates.add((byte[]) column.encode(value));
+        }
+        return new RowFilter() {
+            public boolean matches(Segment segment, int row, String resource) {
+                int offset = segment.buffer.getInt(segment.cell(column, row));
+                if (offset < 0) {
+                    return false;
+                }
+                boolean found = false;
+                for (int i = 0; i < candidates.size() && !found; i++) {
+                    found = segment.heapEquals(offset, candidates.get(i));
+                }
+                return type == Comparison.NEQ ? !found : found;
+            }
+        };
+    }
+
+    /**
+     * Matches the list of resources, without joining: equality and IN check if the list contains
+     * the value(s)
+     */
+    static RowFilter resourcesFilter(final Column column, final Comparison type,
+            final Object value) {
+        if (type != Comparison.EQ && type != Comparison.NEQ && type != Comparison.IN) {
+            throw new UnsupportedOperationException("Resources only support equality and IN "
+                    + "comparisons");
+        }
+        return new RowFilter() {
+            public boolean matches(Segment segment, int row, String resource) {
+                List<?> resources = (List<?>) column.read(segment, segment.cell(column, row));
+                boolean found;
+                if (value instanceof Collection) {
+                    found = !Collections.disjoint(resources, (Collection<?>) value);
+                } else {
+                    found = resources.contains(value);
+                }
+                return type == Comparison.NEQ ? !found : found;
+            }
+        };
+    }
+
+    /**
+     * Compares a column value with the filter one, with the same semantics as the in memory
+     * storage
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    static boolean compare(Object o, Comparison type, Object value) {
+        if (o == null) {
+            return value == null && type == Comparison.EQ;
+        }
+        switch (type) {
+        case IN:
+            if (!(value instanceof Collection)) {
+                throw new UnsupportedOperationException(
+                        "IN comparison only supported against list values");
+            }
+            return ((Collection) value).contains(o);
+        case EQ:
+            return o.equals(value);
+        case NEQ:
+            return !o.equals(value);
+        default:
+            if (value == null) {
+                return false;
+            }
+            if (!(o instanceof Comparable)) {
+                throw new UnsupportedOperationException("Values of type "
+                        + o.getClass().getName()
+                        + " only support equality and non-equality comparison.");
+            }
+            int c = ((Comparable) o).compareTo(value);
+            switch (type) {
+            case LT:
+                return c < 0;
+            case LTE:
+                return c <= 0;
+            case GT:
+                return c > 0;
+            case GTE:
+                return c >= 0;
+            default:
+                return false;
+            }
+        }
+    }
+
+    //
+    // scanning
+    //
+
+    /**
+     * A selected row, along with the joined resource, if any
+     */
+    static class Hit {
+        final Segment segment;
+
+        final int row;
+
+        final String resource;
+
+        Hit(Segment segment, int row, String resource) {
+            this.segment = segment;
+            this.row = row;
+            this.resource = resource;
+        }
+
+        Object get(String property) {
+            if (RESOURCE.equals(property)) {
+                return resource;
+            }
+            Column column = column(property);
+            return column.read(segment, segment.cell(column, row));
+        }
+    }
+
+    static interface HitCollector {
+        /**
+         * Receives a selected row, returns false to stop the scan
+         */
+        boolean collect(Hit hit);
+    }
+
+    /**
+     * Returns true if the segment might contain rows in the query time range
+     */
+    boolean overlaps(Segment segment) {
+        if (from == Long.MIN_VALUE && to == Long.MAX_VALUE) {
+            return true;
+        }
+        return segment.maxStart >= from && segment.minStart <= to;
+    }
+
+    void scan(List<Segment> segments, HitCollector collector) {
+        boolean timeRange = from != Long.MIN_VALUE || to != Long.MAX_VALUE;
+        Column resources = Column.BY_PROPERTY.get(RESOURCES);
+        for (Segment segment : segments) {
+            if (!overlaps(segment)) {
+                continue;
+            }
+            final int rows = segment.rows;
+            for (int row = 0; row < rows; row++) {
+                if (segment.isSuperseded(row)) {
+                    continue;
+                }
+                if (timeRange) {
+                    long start = segment.getLong(Column.START_TIME, row);
+                    if (start == Column.DateColumn.NULL || start < from || start > to) {
+                        continue;
+                    }
+                }
+                if (join) {
+                    List<?> list = (List<?>) resources.read(segment, segment.cell(resources, row));
+                    if (list.isEmpty()) {
+                        // left join, the request is still there, with no resource
+                        if (!visit(segment, row, null, collector)) {
+                            return;
+                        }
+                    }
+                    for (Object resource : list) {
+                        if (!visit(segment, row, (String) resource, collector)) {
+                            return;
+                        }
+                    }
+                } else if (!visit(segment, row, null, collector)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    boolean visit(Segment segment, int row, String resource, HitCollector collector) {
+        if (filter != null && !filter.matches(segment, row, resource)) {
+            return true;
+        }
+        return collector.collect(new Hit(segment, row, resource));
+    }
+
+    /**
+     * Counts the matching requests, taking into account the offset and count limits
+     */
+    long count(List<Segment> segments) {
+        final long[] count = new long[1];
+        scan(segments, new HitCollector() {
+            public boolean collect(Hit hit) {
+                count[0]++;
+                return true;
+            }
+        });
+        long result = count[0];
+        if (query.getOffset() != null) {
+            result = Math.max(0, result - query.getOffset());
+        }
+        if (query.getCount() != null) {
+            result = Math.min(result, query.getCount());
+        }
+        return result;
+    }
+
+    /**
+     * Runs the query, handing the results to the visitor
+     */
+    void run(List<Segment> segments, RequestDataVisitor visitor) {
+        if (aggregates.isEmpty()) {
+            select(segments, visitor);
+        } else {
+            aggregate(segments, visitor);
+        }
+    }
+
+    void select(List<Segment> segments, RequestDataVisitor visitor) {
+        final long offset = query.getOffset() != null ? query.getOffset() : 0;
+        final long count = query.getCount() != null ? query.getCount() : Long.MAX_VALUE;
+
+        Comparator<Hit> sorter = null;
+        if (query.getSortBy() != null) {
+            sorter = new HitSorter(query.getSortBy(), query.getSortOrder());
+        } else if (query.getFromDate() != null || query.getToDate() != null) {
+            // by default sort dates descending
+            sorter = new HitSorter("startTime", SortOrder.DESC);
+        }
+
+        // without sorting the scan can stop as soon as the requested page is filled
+        final long limit = sorter == null && count != Long.MAX_VALUE ? offset + count
+                : Long.MAX_VALUE;
+        final boolean distinct = join && query.getProperties().isEmpty();
+        final List<Hit> hits = new ArrayList<Hit>();
+        final Set<Long> seen = distinct ? new HashSet<Long>() : null;
+        scan(segments, new HitCollector() {
+            public boolean collect(Hit hit) {
+                if (distinct && !seen.add(hit.segment.getLong(Column.ID, hit.row))) {
+                    return true;
+                }
+                hits.add(hit);
+                return hits.size() < limit;
+            }
+        });
+        if (sorter != null) {
+            Collections.sort(hits, sorter);
+        }
+
+        long end = Math.min(hits.size(), offset + count);
+        for (long i = offset; i < end; i++) {
+            visitor.visit(materialize(hits.get((int) i)));
+        }
+    }
+
+    void aggregate(List<Segment> segments, RequestDataVisitor visitor) {
+        final List<String> groupBy = query.getGroupBy();
+        final Map<List<Object>, Group> groups = new LinkedHashMap<List<Object>, Group>();
+        scan(segments, new HitCollector() {
+            public boolean collect(Hit hit) {
+                List<Object> key = new ArrayList<Object>(groupBy.size());
+                for (String property : groupBy) {
+                    key.add(hit.get(property));
+                }
+                Group group = groups.get(key);
+                if (group == null) {
+                    group = new Group(hit, aggregates);
+                    groups.put(key, group);
+                }
+                group.add(hit);
+                return true;
+            }
+        });
+
+        List<Group> results = new ArrayList<Group>(groups.values());
+        if (results.isEmpty() && groupBy.isEmpty()) {
+            // as in SQL, aggregating no rows still returns one
+            results.add(new Group(null, aggregates));
+        }
+        if (query.getSortBy() != null) {
+            final int index = query.getAggregates().indexOf(query.getSortBy());
+            final String sortBy = query.getSortBy();
+            final SortOrder order = query.getSortOrder();
+            Collections.sort(results, new Comparator<Group>() {
+                public int compare(Group g1, Group g2) {
+                    Object o1 = index >= 0 ? g1.values()[index] : g1.first.get(sortBy);
+                    Object o2 = index >= 0 ? g2.values()[index] : g2.first.get(sortBy);
+                    return HitSorter.compare(o1, o2, order);
+                }
+            });
+        }
+
+        long offset = query.getOffset() != null ? query.getOffset() : 0;
+        long count = query.getCount() != null ? query.getCount() : Long.MAX_VALUE;
+        long end = Math.min(results.size(), offset + count);
+        for (long i = offset; i < end; i++) {
+            Group group = results.get((int) i);
+            RequestData data = group.first != null ? materialize(group.first) : new RequestData();
+            visitor.visit(data, group.values());
+        }
+    }
+
+    /**
+     * Builds the request for a hit, with all the properties, or the selected ones only
+     */
+    RequestData materialize(Hit hit) {
+        if (query.getProperties().isEmpty()) {
+            return read(hit.segment, hit.row);
+        }
+        RequestData data = new RequestData();
+        for (String property : query.getProperties()) {
+            if (RESOURCE.equals(property)) {
+                if (hit.resource != null) {
+                    data.getResources().add(hit.resource);
+                }
+            } else {
+                column(property).set(data, hit.get(property));
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Reads back the full request stored in a row
+     */
+    static RequestData read(Segment segment, int row) {
+        RequestData data = new RequestData();
+        for (Column column : Column.COLUMNS) {
+            if (column != Column.FLAGS) {
+                column.set(data, column.read(segment, segment.cell(column, row)));
+            }
+        }
+        return data;
+    }
+
+    static class HitSorter implements Comparator<Hit> {
+        final String property;
+
+        final SortOrder order;
+
+        HitSorter(String property, SortOrder order) {
+            this.property = property;
+            this.order = order;
+        }
+
+        public int compare(Hit h1, Hit h2) {
+            return compare(h1.get(property), h2.get(property), order);
+        }
+
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        static int compare(Object o1, Object o2, SortOrder order) {
+            int c;
+            if (o1 == null && o2 == null) {
+                c = 0;
+            } else if (o1 == null) {
+                c = 1;
+            } else if (o2 == null) {
+                c = -1;
+            } else if (o1 instanceof Comparable) {
+                c = ((Comparable) o1).compareTo(o2);
+            } else {
+                c = o1.toString().compareTo(o2.toString());
+            }
+            return order == SortOrder.DESC ? -c : c;
+        }
+    }
+
+    //
+    // aggregation
+    //
+
+    /**
+     * An aggregate function, one of {@code count()}, {@code count(p)}, {@code sum(p)},
+     * {@code avg(p)}, {@code min(p)}, {@code max(p)}
+     */
+    static class Aggregate {
+        final String function;
+
+        final String property;
+
+        Aggregate(String spec) {
+            int open = spec.indexOf('(');
+            int close = spec.lastIndexOf(')');
+            if (open <= 0 || close < open) {
+                throw new IllegalArgumentException("Invalid aggregate: " + spec);
+            }
+            function = spec.substring(0, open).trim().toLowerCase();
+            String arg = spec.substring(open + 1, close).trim();
+            property = arg.length() == 0 || "*".equals(arg) ? null : arg;
+            if (!"count".equals(function) && property == null) {
+                throw new IllegalArgumentException("Aggregate " + spec + " needs a property");
+            }
+            if (!"count".equals(function) && !"sum".equals(function) && !"avg".equals(function)
+                    && !"min".equals(function) && !"max".equals(function)) {
+                throw new IllegalArgumentException("Unsupported aggregate: " + spec);
+            }
+            if (property != null && !RESOURCE.equals(property)) {
+                column(property);
+            }
+        }
+    }
+
+    /**
+     * The accumulated aggregate values of a group of hits
+     */
+    static class Group {
+        final Hit first;
+
+        final List<Aggregate> aggregates;
+
+        final long[] counts;
+
+        final double[] sums;
+
+        final boolean[] integral;
+
+        final Object[] extremes;
+
+        Group(Hit first, List<Aggregate> aggregates) {
+            this.first = first;
+            this.aggregates = aggregates;
+            this.counts = new long[aggregates.size()];
+            this.sums = new double[aggregates.size()];
+            this.integral = new boolean[aggregates.size()];
+            this.extremes = new Object[aggregates.size()];
+            Arrays.fill(integral, true);
+        }
+
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        void add(Hit hit) {
+            for (int i = 0; i < aggregates.size(); i++) {
+                Aggregate aggregate = aggregates.get(i);
+                if (aggregate.property == null) {
+                    counts[i]++;
+                    continue;
+                }
+                Object value = hit.get(aggregate.property);
+                if (value == null) {
+                    continue;
+                }
+                counts[i]++;
+                if ("sum".equals(aggregate.function) || "avg".equals(aggregate.function)) {
+                    Number n = (Number) value;
+                    sums[i] += n.doubleValue();
+                    integral[i] &= n instanceof Long || n instanceof Integer;
+                } else if ("min".equals(aggregate.function) || "max".equals(aggregate.function)) {
+                    Comparable current = (Comparable) extremes[i];
+                    int c = current == null ? 0 : current.compareTo(value);
+                    if (current == null || ("min".equals(aggregate.function) ? c > 0 : c < 0)) {
+                        extremes[i] = value;
+                    }
+                }
+            }
+        }
+
+        Object[] values() {
+            Object[] values = new Object[aggregates.size()];
+            for (int i = 0; i < values.length; i++) {
+                String function = aggregates.get(i).function;
+                if ("count".equals(function)) {
+                    values[i] = counts[i];
+                } else if ("sum".equals(function)) {
+                    values[i] = counts[i] == 0 ? null : integral[i] ? (Object) (long) sums[i]
+                            : (Object) sums[i];
+                } else if ("avg".equals(function)) {
+                    values[i] = counts[i] == 0 ? null : sums[i] / counts[i];
+                } else {
+                    values[i] = extremes[i];
+                }
+            }
+            return values;
+        }
+    }
+}
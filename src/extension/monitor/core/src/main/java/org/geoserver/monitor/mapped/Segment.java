@@ -0,0 +1,293 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.mapped;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A memory mapped segment file, holding up to a fixed number of request records laid out by
+ * column.
+ * <p>
+ * The file starts with a header, followed by one region per {@link Column} holding the cells of
+ * all the rows, followed by the heap where the variable length values are appended:
+ *
+ * <pre>
+ * magic | version | capacity | heap capacity | rows | heap used | partition
+ * flags[capacity] | id[capacity] | status[capacity] | ...
+ * heap
+ * </pre>
+ *
+ * Records are only ever appended, by a single writer at a time. The row count is published
+ * last, so concurrent readers only see fully written rows. A row superseded by a newer version
+ * of the same request is marked with the {@link #SUPERSEDED} flag and skipped by the scans. The
+ * row holding the current version of each request is kept in an in memory index, rebuilt when
+ * the segment is opened.
+ * </p>
+ */
+class Segment {
+
+    static final int MAGIC = 0x47534d52;
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 64;
+
+    static final int ROWS_OFFSET = 16;
+
+    static final int HEAP_USED_OFFSET = 20;
+
+    static final int PARTITION_OFFSET = 24;
+
+    /**
+     * Flag marking a row replaced by a newer version of the same request
+     */
+    static final byte SUPERSEDED = 1;
+
+    final File file;
+
+    final MappedByteBuffer buffer;
+
+    final int capacity;
+
+    final int heapCapacity;
+
+    final int heapStart;
+
+    final long partition;
+
+    /**
+     * Number of rows written so far, published after the row contents
+     */
+    volatile int rows;
+
+    /**
+     * Bytes used in the heap, only accessed by the writer
+     */
+    int heapUsed;
+
+    /**
+     * Range of the request ids and start times stored in the segment, used to skip it in
+     * lookups and time range queries
+     */
+    volatile long minId = Long.MAX_VALUE, maxId = Long.MIN_VALUE;
+
+    volatile long minStart = Long.MAX_VALUE, maxStart = Long.MIN_VALUE;
+
+    /**
+     * The row of the current version of each request stored in the segment, by id
+     */
+    final ConcurrentMap<Long, Integer> index = new ConcurrentHashMap<Long, Integer>();
+
+    private Segment(File file, MappedByteBuffer buffer, int capacity, int heapCapacity,
+            long partition) {
+        this.file = file;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.heapCapacity = heapCapacity;
+        this.partition = partition;
+        this.heapStart = HEADER_SIZE + Column.getRowWidth() * capacity;
+    }
+
+    /**
+     * Creates a new, empty segment file
+     */
+    static Segment create(File file, int capacity, int heapCapacity, long partition)
+            throws IOException {
+        long size = HEADER_SIZE + (long) Column.getRowWidth() * capacity + heapCapacity;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment of " + capacity + " rows and "
+                    + heapCapacity + " heap bytes exceeds the max segment size");
+        }
+        MappedByteBuffer buffer = map(file, size);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, capacity);
+        buffer.putInt(12, heapCapacity);
+        buffer.putInt(ROWS_OFFSET, 0);
+        buffer.putInt(HEAP_USED_OFFSET, 0);
+        buffer.putLong(PARTITION_OFFSET, partition);
+        return new Segment(file, buffer, capacity, heapCapacity, partition);
+    }
+
+    /**
+     * Opens an existing segment file
+     */
+    static Segment open(File file) throws IOException {
+        MappedByteBuffer buffer = map(file, file.length());
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " is not a monitoring segment file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported version " + buffer.getInt(4) + " in " + file);
+        }
+        Segment segment = new Segment(file, buffer, buffer.getInt(8), buffer.getInt(12),
+                buffer.getLong(PARTITION_OFFSET));
+        segment.heapUsed = buffer.getInt(HEAP_USED_OFFSET);
+        int rows = buffer.getInt(ROWS_OFFSET);
+        for (int row = 0; row < rows; row++) {
+            segment.updateRanges(row);
+            if (!segment.isSuperseded(row)) {
+                segment.index.put(segment.getLong(Column.ID, row), row);
+            }
+        }
+        segment.rows = rows;
+        return segment;
+    }
+
+    static MappedByteBuffer map(File file, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            // the mapping stays valid after the channel is closed
+            return channel.map(MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the buffer position of the cell of a column
+     */
+    int cell(Column column, int row) {
+        return HEADER_SIZE + column.position * capacity + row * column.width;
+    }
+
+    /**
+     * Returns true if there is room for a row using the specified amount of heap
+     */
+    boolean fits(int heapBytes) {
+        return rows < capacity && heapUsed + heapBytes <= heapCapacity;
+    }
+
+    /**
+     * Appends a row. The values are the ones returned by {@link Column#encode}, in the same order
+     * as {@link Column#COLUMNS}, and must fit the segment.
+     *
+     * @return the index of the new row
+     */
+    int append(List<Object> encoded) {
+        final int row = rows;
+        for (int i = 0; i < Column.COLUMNS.size(); i++) {
+            Column column = Column.COLUMNS.get(i);
+            Object value = encoded.get(i);
+            if (column.isHeap() && value != null) {
+                value = writeHeap((byte[]) value);
+            }
+            column.write(buffer, cell(column, row), value);
+        }
+        updateRanges(row);
+
+        buffer.putInt(HEAP_USED_OFFSET, heapUsed);
+        buffer.putInt(ROWS_OFFSET, row + 1);
+        rows = row + 1;
+        // indexed once published, lookups never return a row readers cannot see yet
+        index.put(getLong(Column.ID, row), row);
+        return row;
+    }
+
+    void updateRanges(int row) {
+        long id = getLong(Column.ID, row);
+        long start = getLong(Column.START_TIME, row);
+        if (id < minId) {
+            minId = id;
+        }
+        if (id > maxId) {
+            maxId = id;
+        }
+        if (start != Column.DateColumn.NULL) {
+            if (start < minStart) {
+                minStart = start;
+            }
+            if (start > maxStart) {
+                maxStart = start;
+            }
+        }
+    }
+
+    /**
+     * Appends the bytes to the heap, prefixed by their length
+     *
+     * @return the offset of the entry in the heap
+     */
+    int writeHeap(byte[] bytes) {
+        int offset = heapUsed;
+        ByteBuffer heap = buffer.duplicate();
+        heap.position(heapStart + offset);
+        heap.putInt(bytes.length);
+        heap.put(bytes);
+        heapUsed += 4 + bytes.length;
+        return offset;
+    }
+
+    byte[] readHeap(int offset) {
+        ByteBuffer heap = buffer.duplicate();
+        heap.position(heapStart + offset);
+        byte[] bytes = new byte[heap.getInt()];
+        heap.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Compares a heap entry with the given bytes, without copying it
+     */
+    boolean heapEquals(int offset, byte[] bytes) {
+        int position = heapStart + offset;
+        if (buffer.getInt(position) != bytes.length) {
+            return false;
+        }
+        position += 4;
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.get(position + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    long getLong(Column column, int row) {
+        return buffer.getLong(cell(column, row));
+    }
+
+    int getInt(Column column, int row) {
+        return buffer.getInt(cell(column, row));
+    }
+
+    boolean isSuperseded(int row) {
+        return (buffer.get(cell(Column.FLAGS, row)) & SUPERSEDED) != 0;
+    }
+
+    void setSuperseded(int row) {
+        int position = cell(Column.FLAGS, row);
+        buffer.put(position, (byte) (buffer.get(position) | SUPERSEDED));
+        index.remove(getLong(Column.ID, row), row);
+    }
+
+    /**
+     * Returns the row holding the current version of the request, or -1 if not found
+     */
+    int find(long id) {
+        if (id < minId || id > maxId) {
+            return -1;
+        }
+        Integer row = index.get(id);
+        return row != null ? row : -1;
+    }
+
+    /**
+     * Flushes the changes to disk
+     */
+    void force() {
+        buffer.force();
+    }
+}
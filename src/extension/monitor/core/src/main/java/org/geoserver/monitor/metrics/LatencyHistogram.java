@@ -0,0 +1,157 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size histogram of request latencies, in milliseconds.
+ * <p>
+ * As in HDR histograms the buckets are log-linear: latencies below 32ms get a bucket each, then
+ * every power of two range is split in 16 buckets, bounding the relative error of the reported
+ * percentiles to about 6%. Latencies above 2^{@value #MAX_EXPONENT} ms (about 70 minutes) end up
+ * in the last bucket.
+ * </p>
+ * <p>
+ * Recording is lock free, concurrent readers get a possibly slightly inconsistent, but never
+ * corrupted, view of the counts.
+ * </p>
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BITS = 4;
+
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /**
+     * Values below this one get a bucket each
+     */
+    static final int LINEAR = SUB_BUCKETS * 2;
+
+    static final int MAX_EXPONENT = 22;
+
+    static final int BUCKETS = LINEAR + (MAX_EXPONENT - SUB_BITS - 1) * SUB_BUCKETS;
+
+    final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    final AtomicLong count = new AtomicLong();
+
+    final AtomicLong sum = new AtomicLong();
+
+    final AtomicLong max = new AtomicLong();
+
+    /**
+     * Returns the bucket holding the value
+     */
+    static int bucket(long value) {
+        if (value < LINEAR) {
+            return value < 0 ? 0 : (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int shift = exponent - SUB_BITS;
+        int sub = (int) (value >> shift) & (SUB_BUCKETS - 1);
+        return LINEAR + (exponent - SUB_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the highest value falling in the bucket
+     */
+    static long upperBound(int bucket) {
+        if (bucket < LINEAR) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR) / SUB_BUCKETS + SUB_BITS + 1;
+        int sub = (bucket - LINEAR) % SUB_BUCKETS;
+        int shift = exponent - SUB_BITS;
+        return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+
+    public void record(long millis) {
+        if (millis < 0) {
+            millis = 0;
+        }
+        counts.incrementAndGet(bucket(millis));
+        count.incrementAndGet();
+        sum.addAndGet(millis);
+        long current;
+        while (millis > (current = max.get())) {
+            if (max.compareAndSet(current, millis)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Adds the counts of this histogram to the target one
+     */
+    void addTo(LatencyHistogram target) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i);
+            if (c > 0) {
+                target.counts.addAndGet(i, c);
+            }
+        }
+        target.count.addAndGet(count.get());
+        target.sum.addAndGet(sum.get());
+        long m = max.get();
+        if (m > target.max.get()) {
+            target.max.set(m);
+        }
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long c = count.get();
+        return c == 0 ? 0 : (double) sum.get() / c;
+    }
+
+    /**
+     * Returns the latency below which the given percentage of the requests fall
+     *
+     * @param percentile a value between 0 and 100
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100d);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                // never report more than the actual max
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+}
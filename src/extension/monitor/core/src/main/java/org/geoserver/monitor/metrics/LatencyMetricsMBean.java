@@ -0,0 +1,44 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.metrics;
+
+/**
+ * JMX management interface of the metrics of a service, operation, layer or output format. All
+ * values but the totals refer to the last {@link #getWindow()} seconds, latencies are in
+ * milliseconds.
+ *
+ * @see RequestMetrics
+ */
+public interface LatencyMetricsMBean {
+
+    String getName();
+
+    /**
+     * Length of the window, in seconds
+     */
+    long getWindow();
+
+    long getCount();
+
+    long getErrors();
+
+    double getRequestsPerSecond();
+
+    double getErrorsPerSecond();
+
+    double getMean();
+
+    long getMax();
+
+    long getP50();
+
+    long getP95();
+
+    long getP99();
+
+    long getTotalCount();
+
+    long getTotalErrors();
+}
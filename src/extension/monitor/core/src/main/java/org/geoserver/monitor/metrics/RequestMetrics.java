@@ -0,0 +1,248 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.geoserver.monitor.RequestData;
+import org.geoserver.monitor.RequestData.Status;
+import org.geoserver.monitor.RequestDataListener;
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Keeps live latency percentiles and request rates by service, operation, layer and output
+ * format, as the requests complete.
+ * <p>
+ * Each dimension value gets a {@link RollingMetric} covering the last minute. The number of
+ * values tracked per dimension is capped, the requests beyond it are accounted under
+ * {@link #OTHER}, so that the memory used does not depend on the traffic.
+ * </p>
+ * <p>
+ * The metrics are reported by the {@code /rest/monitor/metrics} resource and registered in the
+ * platform MBean server as
+ * <code>org.geoserver:type=Monitor,dimension=[dimension],name=[value]</code>.
+ * </p>
+ */
+public class RequestMetrics implements RequestDataListener, DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger("org.geoserver.monitor");
+
+    public static final String SERVICE = "service";
+
+    public static final String OPERATION = "operation";
+
+    public static final String LAYER = "layer";
+
+    public static final String FORMAT = "format";
+
+    /**
+     * The metric collecting all requests
+     */
+    public static final String ALL = "all";
+
+    /**
+     * The value collecting the requests beyond the max number of values per dimension
+     */
+    public static final String OTHER = "other";
+
+    static final String DOMAIN = "org.geoserver";
+
+    static final int INTERVALS = 6;
+
+    static final long INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    static final int DEFAULT_MAX_VALUES = 256;
+
+    final int maxValues;
+
+    final boolean jmx;
+
+    final RollingMetric all;
+
+    final Map<String, ConcurrentMap<String, RollingMetric>> dimensions;
+
+    final List<ObjectName> registered = new CopyOnWriteArrayList<ObjectName>();
+
+    public RequestMetrics() {
+        this(DEFAULT_MAX_VALUES, true);
+    }
+
+    public RequestMetrics(int maxValues, boolean jmx) {
+        this.maxValues = maxValues;
+        this.jmx = jmx;
+        this.dimensions = new LinkedHashMap<String, ConcurrentMap<String, RollingMetric>>();
+        for (String dimension : new String[] { SERVICE, OPERATION, LAYER, FORMAT }) {
+            dimensions.put(dimension, new ConcurrentHashMap<String, RollingMetric>());
+        }
+        this.all = new RollingMetric(ALL, INTERVALS, INTERVAL_MILLIS);
+        register(ALL, ALL, all);
+    }
+
+    public void requestStarted(RequestData rd) {
+    }
+
+    public void requestUpdated(RequestData rd) {
+    }
+
+    public void requestCompleted(RequestData rd) {
+        try {
+            record(rd, System.currentTimeMillis());
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Failed to record the metrics of request " + rd.getId(), e);
+        }
+    }
+
+    public void requestPostProcessed(RequestData rd) {
+    }
+
+    /**
+     * Accounts for a completed request
+     */
+    void record(RequestData rd, long now) {
+        long latency = rd.getTotalTime();
+        boolean failed = rd.getStatus() == Status.FAILED || rd.getError() != null
+                || (rd.getResponseStatus() != null && rd.getResponseStatus() >= 500);
+
+        all.record(latency, failed, now);
+        if (rd.getService() != null) {
+            String service = rd.getService().toUpperCase();
+            metric(SERVICE, service).record(latency, failed, now);
+            if (rd.getOperation() != null) {
+                metric(OPERATION, service + "." + rd.getOperation()).record(latency, failed, now);
+            }
+        }
+        if (rd.getResources() != null) {
+            for (String layer : rd.getResources()) {
+                if (layer != null) {
+                    metric(LAYER, layer).record(latency, failed, now);
+                }
+            }
+        }
+        String format = rd.getResponseContentType();
+        if (format != null) {
+            // drop the parameters, like the charset
+            int idx = format.indexOf(';');
+            if (idx > 0) {
+                format = format.substring(0, idx);
+            }
+            metric(FORMAT, format.trim()).record(latency, failed, now);
+        }
+    }
+
+    /**
+     * Returns the metric for a dimension value, creating it if needed
+     */
+    RollingMetric metric(String dimension, String value) {
+        ConcurrentMap<String, RollingMetric> metrics = dimensions.get(dimension);
+        RollingMetric metric = metrics.get(value);
+        if (metric == null) {
+            if (metrics.size() >= maxValues) {
+                value = OTHER;
+                metric = metrics.get(value);
+                if (metric != null) {
+                    return metric;
+                }
+            }
+            metric = new RollingMetric(value, INTERVALS, INTERVAL_MILLIS);
+            RollingMetric existing = metrics.putIfAbsent(value, metric);
+            if (existing != null) {
+                return existing;
+            }
+            register(dimension, value, metric);
+        }
+        return metric;
+    }
+
+    void register(String dimension, String value, RollingMetric metric) {
+        if (!jmx) {
+            return;
+        }
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=Monitor,dimension=" + dimension
+                    + ",name=" + ObjectName.quote(value));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new StandardMBean(metric, LatencyMetricsMBean.class), name);
+            registered.add(name);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Failed to register the MBean for " + dimension + " "
+                    + value, e);
+        }
+    }
+
+    public void destroy() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to unregister MBean " + name, e);
+            }
+        }
+        registered.clear();
+    }
+
+    /**
+     * Returns the metric collecting all the requests
+     */
+    public RollingMetric getAll() {
+        return all;
+    }
+
+    /**
+     * Returns the metric of a dimension value, or null if no request has been recorded for it
+     */
+    public RollingMetric getMetric(String dimension, String value) {
+        ConcurrentMap<String, RollingMetric> metrics = dimensions.get(dimension);
+        return metrics == null ? null : metrics.get(value);
+    }
+
+    /**
+     * Returns the figures of the last window, as a map of the dimensions to the list of their
+     * values, sorted by decreasing number of requests
+     */
+    public Map<String, Object> getStatistics() {
+        long now = System.currentTimeMillis();
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("window", all.getWindowMillis() / 1000);
+        map.put(ALL, all.snapshot(now).toMap());
+        for (Map.Entry<String, ConcurrentMap<String, RollingMetric>> e : dimensions.entrySet()) {
+            List<Map<String, Object>> values = new ArrayList<Map<String, Object>>();
+            for (RollingMetric metric : e.getValue().values()) {
+                values.add(metric.snapshot(now).toMap());
+            }
+            Collections.sort(values, new Comparator<Map<String, Object>>() {
+                public int compare(Map<String, Object> m1, Map<String, Object> m2) {
+                    long c1 = (Long) m1.get("count");
+                    long c2 = (Long) m2.get("count");
+                    return c1 > c2 ? -1 : c1 < c2 ? 1 : 0;
+                }
+            });
+            map.put(e.getKey(), values);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,210 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies and rates of a set of requests over a rolling time window.
+ * <p>
+ * The window is split in a fixed number of intervals, each with its own histogram, recycled as
+ * time goes by. The memory used is fixed, the figures reported cover the last window, plus the
+ * totals since startup.
+ * </p>
+ */
+public class RollingMetric implements LatencyMetricsMBean {
+
+    /**
+     * One of the intervals of the window
+     */
+    static class Interval {
+        volatile long epoch = -1;
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        final AtomicLong errors = new AtomicLong();
+    }
+
+    final String name;
+
+    final long intervalMillis;
+
+    final Interval[] intervals;
+
+    final AtomicLong total = new AtomicLong();
+
+    final AtomicLong totalErrors = new AtomicLong();
+
+    public RollingMetric(String name, int intervals, long intervalMillis) {
+        this.name = name;
+        this.intervalMillis = intervalMillis;
+        this.intervals = new Interval[intervals];
+        for (int i = 0; i < intervals; i++) {
+            this.intervals[i] = new Interval();
+        }
+    }
+
+    public void record(long latency, boolean failed, long now) {
+        long epoch = now / intervalMillis;
+        Interval interval = intervals[(int) (epoch % intervals.length)];
+        if (interval.epoch != epoch) {
+            synchronized (interval) {
+                if (interval.epoch != epoch) {
+                    // recycle the interval, it holds data older than the window
+                    interval.histogram.reset();
+                    interval.errors.set(0);
+                    interval.epoch = epoch;
+                }
+            }
+        }
+        interval.histogram.record(latency);
+        if (failed) {
+            interval.errors.incrementAndGet();
+            totalErrors.incrementAndGet();
+        }
+        total.incrementAndGet();
+    }
+
+    /**
+     * Returns the figures of the window ending at the given time
+     */
+    public Snapshot snapshot(long now) {
+        long epoch = now / intervalMillis;
+        Snapshot snapshot = new Snapshot(this);
+        for (Interval interval : intervals) {
+            long e = interval.epoch;
+            if (e <= epoch && e > epoch - intervals.length) {
+                interval.histogram.addTo(snapshot.histogram);
+                snapshot.errors += interval.errors.get();
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the window length, in milliseconds
+     */
+    public long getWindowMillis() {
+        return intervalMillis * intervals.length;
+    }
+
+    /**
+     * The figures of a window
+     */
+    public static class Snapshot {
+        final RollingMetric metric;
+
+        final LatencyHistogram histogram = new LatencyHistogram();
+
+        long errors;
+
+        Snapshot(RollingMetric metric) {
+            this.metric = metric;
+        }
+
+        public long getCount() {
+            return histogram.getCount();
+        }
+
+        public long getErrors() {
+            return errors;
+        }
+
+        public double getRequestsPerSecond() {
+            return histogram.getCount() * 1000d / metric.getWindowMillis();
+        }
+
+        public double getErrorsPerSecond() {
+            return errors * 1000d / metric.getWindowMillis();
+        }
+
+        public long getPercentile(double percentile) {
+            return histogram.getPercentile(percentile);
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("name", metric.name);
+            map.put("count", getCount());
+            map.put("errors", errors);
+            map.put("requestsPerSecond", round(getRequestsPerSecond()));
+            map.put("errorsPerSecond", round(getErrorsPerSecond()));
+            map.put("mean", round(histogram.getMean()));
+            map.put("p50", histogram.getPercentile(50));
+            map.put("p95", histogram.getPercentile(95));
+            map.put("p99", histogram.getPercentile(99));
+            map.put("max", histogram.getMax());
+            map.put("totalCount", metric.total.get());
+            map.put("totalErrors", metric.totalErrors.get());
+            return map;
+        }
+
+        static double round(double value) {
+            return Math.round(value * 100) / 100d;
+        }
+    }
+
+    //
+    // MBean, reporting on the window ending now
+    //
+
+    Snapshot now() {
+        return snapshot(System.currentTimeMillis());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getWindow() {
+        return getWindowMillis() / 1000;
+    }
+
+    public long getCount() {
+        return now().getCount();
+    }
+
+    public long getErrors() {
+        return now().getErrors();
+    }
+
+    public double getRequestsPerSecond() {
+        return now().getRequestsPerSecond();
+    }
+
+    public double getErrorsPerSecond() {
+        return now().getErrorsPerSecond();
+    }
+
+    public double getMean() {
+        return now().histogram.getMean();
+    }
+
+    public long getMax() {
+        return now().histogram.getMax();
+    }
+
+    public long getP50() {
+        return now().getPercentile(50);
+    }
+
+    public long getP95() {
+        return now().getPercentile(95);
+    }
+
+    public long getP99() {
+        return now().getPercentile(99);
+    }
+
+    public long getTotalCount() {
+        return total.get();
+    }
+
+    public long getTotalErrors() {
+        return totalErrors.get();
+    }
+}
@@ -0,0 +1,54 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.rest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.monitor.AddressLookupPostProcessor;
+import org.geoserver.monitor.metrics.RequestMetrics;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.rest.MapResource;
+import org.geoserver.rest.format.DataFormat;
+import org.geoserver.rest.format.MapJSONFormat;
+import org.geoserver.rest.format.MapXMLFormat;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+
+/**
+ * Reports the live latency percentiles and request rates, overall and by service, operation,
+ * layer and output format, along with the cache and queue statistics of the remote address
+ * lookups.
+ */
+public class MetricsResource extends MapResource {
+
+    RequestMetrics metrics;
+
+    public MetricsResource(RequestMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected List<DataFormat> createSupportedFormats(Request request, Response response) {
+        List<DataFormat> formats = new ArrayList<DataFormat>();
+        formats.add(new MapXMLFormat("metrics"));
+        formats.add(new MapJSONFormat());
+        return formats;
+    }
+
+    @Override
+    public Map getMap() throws Exception {
+        Map<String, Object> map = metrics.getStatistics();
+        Map<String, Object> lookups = new LinkedHashMap<String, Object>();
+        for (AddressLookupPostProcessor<?> pp : GeoServerExtensions
+                .extensions(AddressLookupPostProcessor.class)) {
+            lookups.put(pp.getClass().getSimpleName(), pp.getStatistics());
+        }
+        map.put("lookups", lookups);
+        return map;
+    }
+}
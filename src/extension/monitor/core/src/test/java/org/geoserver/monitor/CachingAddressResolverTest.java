@@ -0,0 +1,170 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geoserver.monitor.CachingAddressResolver.Callback;
+import org.geoserver.monitor.CachingAddressResolver.Resolver;
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+
+public class CachingAddressResolverTest {
+
+    /**
+     * Stub resolver, can be held back to simulate a slow lookup
+     */
+    static class StubResolver implements Resolver<String> {
+        AtomicInteger calls = new AtomicInteger();
+
+        CountDownLatch release = new CountDownLatch(0);
+
+        CountDownLatch started = new CountDownLatch(1);
+
+        public String resolve(String address) throws Exception {
+            calls.incrementAndGet();
+            started.countDown();
+            release.await(10, TimeUnit.SECONDS);
+            return address.startsWith("10.") ? null : "host-" + address;
+        }
+    }
+
+    static class ManualTicker extends Ticker {
+        long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+
+    static class Collector implements Callback<String> {
+        CountDownLatch done = new CountDownLatch(1);
+
+        String value;
+
+        public void resolved(String address, String value) {
+            this.value = value;
+            done.countDown();
+        }
+    }
+
+    StubResolver stub = new StubResolver();
+
+    ManualTicker ticker = new ManualTicker();
+
+    CachingAddressResolver<String> resolver = new CachingAddressResolver<String>("test", stub,
+            100, 1000, 1, 1, ticker);
+
+    @After
+    public void dispose() {
+        resolver.dispose();
+    }
+
+    @Test
+    public void testResolveAndCache() throws Exception {
+        assertNull(resolver.getCached("1.2.3.4"));
+
+        Collector collector = new Collector();
+        assertTrue(resolver.resolve("1.2.3.4", collector));
+        assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+        assertEquals("host-1.2.3.4", collector.value);
+
+        assertEquals(Optional.of("host-1.2.3.4"), resolver.getCached("1.2.3.4"));
+        assertEquals(1, resolver.getHits());
+        assertEquals(1, resolver.getMisses());
+        assertEquals(1, stub.calls.get());
+
+        // failed lookups are cached too
+        collector = new Collector();
+        resolver.resolve("10.0.0.1", collector);
+        assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+        assertNull(collector.value);
+        assertEquals(Optional.absent(), resolver.getCached("10.0.0.1"));
+
+        // until they expire
+        ticker.nanos += TimeUnit.SECONDS.toNanos(2);
+        assertNull(resolver.getCached("1.2.3.4"));
+        assertNull(resolver.getCached("10.0.0.1"));
+    }
+
+    @Test
+    public void testCoalesceAndReject() throws Exception {
+        stub.release = new CountDownLatch(1);
+
+        // occupies the single thread
+        Collector first = new Collector();
+        Collector second = new Collector();
+        assertTrue(resolver.resolve("1.1.1.1", first));
+        assertTrue(stub.started.await(10, TimeUnit.SECONDS));
+        assertTrue(resolver.resolve("1.1.1.1", second));
+
+        // fills the queue, then gives up
+        Collector queued = new Collector();
+        assertTrue(resolver.resolve("2.2.2.2", queued));
+        assertFalse(resolver.resolve("3.3.3.3", new Collector()));
+        assertEquals(1, resolver.getRejected());
+
+        stub.release.countDown();
+        assertTrue(first.done.await(10, TimeUnit.SECONDS));
+        assertTrue(second.done.await(10, TimeUnit.SECONDS));
+        assertTrue(queued.done.await(10, TimeUnit.SECONDS));
+        assertEquals("host-1.1.1.1", second.value);
+        assertEquals(2, stub.calls.get());
+        assertEquals(1l, resolver.getStatistics().get("coalesced"));
+    }
+
+    @Test
+    public void testPostProcessor() throws Exception {
+        final CountDownLatch stored = new CountDownLatch(1);
+        DummyMonitorDAO dao = new DummyMonitorDAO() {
+            @Override
+            public void update(RequestData data) {
+                stored.countDown();
+            }
+        };
+        final AtomicInteger postProcessed = new AtomicInteger();
+        Monitor monitor = new Monitor(dao);
+        monitor.listeners.add(new RequestDataListener() {
+            public void requestStarted(RequestData rd) {
+            }
+
+            public void requestUpdated(RequestData rd) {
+            }
+
+            public void requestCompleted(RequestData rd) {
+            }
+
+            public void requestPostProcessed(RequestData rd) {
+                postProcessed.incrementAndGet();
+            }
+        });
+        ReverseDNSPostProcessor pp = new ReverseDNSPostProcessor(resolver);
+        pp.setMonitor(monitor);
+
+        RequestData data = new RequestData();
+        data.setRemoteAddr("1.2.3.4");
+        pp.run(data, null, null);
+        // filled in once resolved, and stored again
+        assertTrue(stored.await(10, TimeUnit.SECONDS));
+        assertEquals("host-1.2.3.4", data.getRemoteHost());
+        // the listeners already got the post processed request from the monitor filter
+        assertEquals(0, postProcessed.get());
+
+        // the next request gets the cached value right away
+        data = new RequestData();
+        data.setRemoteAddr("1.2.3.4");
+        pp.run(data, null, null);
+        assertEquals("host-1.2.3.4", data.getRemoteHost());
+        assertEquals(1, stub.calls.get());
+    }
+}
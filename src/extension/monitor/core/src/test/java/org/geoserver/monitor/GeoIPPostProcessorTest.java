@@ -10,6 +10,8 @@ import static org.junit.Assert.assertNull;
 import java.io.File;
 import java.io.IOException;
 
+import org.apache.commons.io.FileUtils;
+import org.geoserver.platform.GeoServerResourceLoader;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -43,4 +45,26 @@ public class GeoIPPostProcessorTest {
         loc = geoipLookup.getLocation("192.168.1.103");
         assertNull(loc);
     }
+
+    @Test
+    public void testMissingDatabase() throws Exception {
+        File dir = File.createTempFile("geoip", "data", new File("target"));
+        dir.delete();
+        dir.mkdirs();
+        GeoIPPostProcessor.geoIPLookup = null;
+        GeoIPPostProcessor pp = new GeoIPPostProcessor(new GeoServerResourceLoader(dir));
+        try {
+            RequestData data = new RequestData();
+            data.setRemoteAddr("64.147.114.82");
+            pp.run(data, null, null);
+
+            // not looked up, hence not cached as unknown until the database gets installed
+            assertEquals(0, pp.resolver.getLookups());
+            assertNull(pp.resolver.getCached("64.147.114.82"));
+            assertNull(data.getRemoteCountry());
+        } finally {
+            pp.destroy();
+            FileUtils.deleteQuietly(dir);
+        }
+    }
 }
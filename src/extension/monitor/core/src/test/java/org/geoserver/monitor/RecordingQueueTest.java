@@ -0,0 +1,174 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.monitor.RecordingQueue.Handler;
+import org.geoserver.monitor.RecordingQueue.Policy;
+import org.junit.Test;
+
+public class RecordingQueueTest {
+
+    @Test
+    public void testOrderAcrossThreads() throws Exception {
+        final List<Integer> handled = Collections.synchronizedList(new ArrayList<Integer>());
+        final RecordingQueue<Integer> queue = new RecordingQueue<Integer>("test", 64,
+                Policy.BLOCK, new Handler<Integer>() {
+                    public void handle(List<Integer> batch) {
+                        handled.addAll(batch);
+                    }
+                });
+        queue.start();
+
+        final int threads = 4;
+        final int events = 10000;
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int base = t * events;
+            Thread producer = new Thread() {
+                public void run() {
+                    for (int i = 0; i < events; i++) {
+                        queue.offer(base + i);
+                    }
+                }
+            };
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        queue.stop();
+
+        // nothing lost, and the events of each producer kept in order
+        assertEquals(threads * events, handled.size());
+        assertEquals(0, queue.getDropped());
+        int[] last = new int[threads];
+        for (int i = 0; i < threads; i++) {
+            last[i] = -1;
+        }
+        for (Integer value : handled) {
+            int t = value / events;
+            assertTrue(value % events > last[t]);
+            last[t] = value % events;
+        }
+    }
+
+    @Test
+    public void testDrop() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> handled = Collections.synchronizedList(new ArrayList<Integer>());
+        RecordingQueue<Integer> queue = new RecordingQueue<Integer>("test", 3, Policy.DROP,
+                new Handler<Integer>() {
+                    public void handle(List<Integer> batch) {
+                        blocked.countDown();
+                        try {
+                            release.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                        handled.addAll(batch);
+                    }
+                });
+        // rounded up to a power of two
+        assertEquals(4, queue.getCapacity());
+        queue.start();
+
+        // keep the consumer busy with the first event
+        assertTrue(queue.offer(0));
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+        for (int i = 1; i <= 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertFalse(queue.offer(5));
+        assertFalse(queue.offer(6));
+        assertEquals(2, queue.getDropped());
+        assertEquals(4, queue.getPending());
+
+        release.countDown();
+        queue.stop();
+        assertEquals(5, handled.size());
+        assertEquals(0, queue.getPending());
+    }
+
+    @Test
+    public void testPutWaits() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> handled = Collections.synchronizedList(new ArrayList<Integer>());
+        final RecordingQueue<Integer> queue = new RecordingQueue<Integer>("test", 2,
+                Policy.DROP, new Handler<Integer>() {
+                    public void handle(List<Integer> batch) {
+                        blocked.countDown();
+                        try {
+                            release.await(10, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                        handled.addAll(batch);
+                    }
+                });
+        queue.start();
+        assertTrue(queue.offer(0));
+        assertTrue(blocked.await(10, TimeUnit.SECONDS));
+        assertTrue(queue.offer(1));
+        assertTrue(queue.offer(2));
+        assertFalse(queue.offer(3));
+
+        // the drop policy does not apply to put, it waits for room instead
+        Thread producer = new Thread() {
+            public void run() {
+                queue.put(4);
+            }
+        };
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive());
+
+        release.countDown();
+        producer.join(10000);
+        assertFalse(producer.isAlive());
+        queue.stop();
+        assertEquals(Arrays.asList(0, 1, 2, 4), handled);
+        assertEquals(1, queue.getDropped());
+
+        // nobody would handle them anymore
+        assertFalse(queue.offer(5));
+        assertFalse(queue.put(6));
+        assertEquals(0, queue.getPending());
+    }
+
+    @Test
+    public void testAsyncMonitor() throws Exception {
+        final DummyMonitorDAO dao = new DummyMonitorDAO();
+        Monitor monitor = new Monitor(dao) {
+            {
+                // the DAO based constructor records synchronously, switch to the queue
+                config.props.put("mode", "live");
+                recorder = new RecordingQueue<Change>("test", 16, Policy.BLOCK,
+                        new ChangeWriter());
+                recorder.start();
+            }
+        };
+        RequestData data = monitor.start();
+        data.setPath("/foo");
+        monitor.update();
+        monitor.complete();
+        monitor.getRecorder().stop();
+
+        assertSame(data, dao.getLast());
+        assertEquals(3, monitor.getRecorder().getQueued());
+    }
+}
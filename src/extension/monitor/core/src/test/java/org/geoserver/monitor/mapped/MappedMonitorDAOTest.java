@@ -0,0 +1,127 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.mapped;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.geoserver.monitor.MonitorConfig;
+import org.geoserver.monitor.MonitorDAOTestSupport;
+import org.geoserver.monitor.Query;
+import org.geoserver.monitor.Query.Comparison;
+import org.geoserver.monitor.Query.SortOrder;
+import org.geoserver.monitor.RequestData;
+import org.geoserver.monitor.RequestDataVisitor;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MappedMonitorDAOTest extends MonitorDAOTestSupport {
+
+    static File directory;
+
+    @BeforeClass
+    public static void createDAO() throws Exception {
+        directory = File.createTempFile("monitor", "segments", new File("target"));
+        directory.delete();
+        directory.mkdirs();
+
+        MappedMonitorDAO mapped = new MappedMonitorDAO(directory);
+        mapped.init(new MonitorConfig());
+        dao = mapped;
+        setUpData();
+    }
+
+    @AfterClass
+    public static void destroyDAO() throws Exception {
+        dao.dispose();
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        MappedMonitorDAO reopened = new MappedMonitorDAO(directory);
+        reopened.init(new MonitorConfig());
+        try {
+            assertEquals(dao.getRequests().size(), reopened.getRequests().size());
+            assertEquals("/eight", reopened.getRequest(8).getPath());
+
+            // ids keep on growing after a restart
+            RequestData data = reopened.init(new RequestData());
+            assertTrue(data.getId() > 20);
+        } finally {
+            reopened.dispose();
+        }
+    }
+
+    @Test
+    public void testRetention() throws Exception {
+        File retained = new File(directory.getParentFile(), directory.getName() + "_retained");
+        MonitorConfig config = new MonitorConfig();
+        config.getProperties().put("mapped.segmentRows", "4");
+        config.getProperties().put("mapped.maxSegments", "2");
+        MappedMonitorDAO mapped = new MappedMonitorDAO(retained);
+        mapped.init(config);
+        try {
+            for (int i = 0; i < 10; i++) {
+                RequestData data = mapped.init(new RequestData());
+                data.setPath("/" + i);
+                mapped.add(data);
+                // the update finds the request through the index of the segment
+                data.setStatus(RequestData.Status.FINISHED);
+                mapped.save(data);
+            }
+
+            assertEquals(2, mapped.segments.size());
+            assertEquals(2, retained.listFiles().length);
+            List<RequestData> requests = mapped.getRequests();
+            assertEquals(4, requests.size());
+            for (RequestData data : requests) {
+                assertEquals(RequestData.Status.FINISHED, data.getStatus());
+            }
+        } finally {
+            mapped.dispose();
+            FileUtils.deleteQuietly(retained);
+        }
+    }
+
+    @Test
+    public void testAggregate() throws Exception {
+        final List<Object[]> results = new ArrayList<Object[]>();
+        dao.getRequests(new Query().properties("service").aggregate("count()").group("service")
+                .filter("service", null, Comparison.NEQ).sort("count()", SortOrder.DESC),
+                new RequestDataVisitor() {
+                    public void visit(RequestData data, Object... aggregates) {
+                        results.add(new Object[] { data.getService(), aggregates[0] });
+                    }
+                });
+
+        assertEquals(4, results.size());
+        assertEquals("foo", results.get(0)[0]);
+        assertEquals(4l, results.get(0)[1]);
+        assertEquals("bam", results.get(1)[0]);
+        assertEquals(3l, results.get(1)[1]);
+        assertEquals("bar", results.get(2)[0]);
+        assertEquals(2l, results.get(2)[1]);
+        assertEquals("baz", results.get(3)[0]);
+        assertEquals(1l, results.get(3)[1]);
+    }
+
+    @Test
+    public void testJoinResources() throws Exception {
+        List<RequestData> datas = dao.getRequests(new Query().properties("resource")
+                .filter("resource", "widgets", Comparison.EQ));
+        assertEquals(3, datas.size());
+        for (RequestData data : datas) {
+            assertEquals(1, data.getResources().size());
+            assertEquals("widgets", data.getResources().get(0));
+        }
+        assertEquals(3, dao.getCount(new Query().filter("widgets", "resources", Comparison.IN)));
+    }
+}
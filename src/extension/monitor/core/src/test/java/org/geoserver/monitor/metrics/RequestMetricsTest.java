@@ -0,0 +1,119 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.metrics;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.monitor.RequestData;
+import org.geoserver.monitor.RequestData.Status;
+import org.junit.Test;
+
+public class RequestMetricsTest {
+
+    @Test
+    public void testHistogramBuckets() {
+        for (long value : new long[] { 0, 1, 31, 32, 33, 63, 64, 1000, 123456, 1 << 21 }) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(value <= LatencyHistogram.upperBound(bucket));
+            if (bucket > 0) {
+                assertTrue(value > LatencyHistogram.upperBound(bucket - 1));
+            }
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 1e-6);
+        assertEquals(500, histogram.getPercentile(50), 500 * 0.07);
+        assertEquals(950, histogram.getPercentile(95), 950 * 0.07);
+        assertEquals(990, histogram.getPercentile(99), 990 * 0.07);
+        assertEquals(1000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testRollingWindow() {
+        RollingMetric metric = new RollingMetric("test", 6, 10000);
+        metric.record(100, false, 0);
+        metric.record(200, true, 15000);
+        assertEquals(2, metric.snapshot(15000).getCount());
+        assertEquals(1, metric.snapshot(15000).getErrors());
+
+        // the first interval slides out of the window
+        assertEquals(1, metric.snapshot(65000).getCount());
+        assertEquals(0, metric.snapshot(80000).getCount());
+
+        // the totals are kept
+        metric.record(300, false, 80000);
+        assertEquals(1, metric.snapshot(80000).getCount());
+        assertEquals(3, metric.getTotalCount());
+        assertEquals(1, metric.getTotalErrors());
+    }
+
+    @Test
+    public void testDimensions() {
+        RequestMetrics metrics = new RequestMetrics(2, false);
+        metrics.record(request("wms", "GetMap", "image/png; mode=8bit", 10, "topp:states",
+                "topp:roads"), 1000);
+        metrics.record(request("WMS", "GetMap", "image/png", 20, "topp:states"), 1000);
+        metrics.record(request("WFS", "GetFeature", "text/xml", 30, "sf:roads"), 1000);
+
+        assertEquals(3, metrics.getAll().snapshot(1000).getCount());
+        assertEquals(2, metrics.getMetric(RequestMetrics.SERVICE, "WMS").snapshot(1000)
+                .getCount());
+        assertEquals(2, metrics.getMetric(RequestMetrics.OPERATION, "WMS.GetMap")
+                .snapshot(1000).getCount());
+        assertEquals(2, metrics.getMetric(RequestMetrics.FORMAT, "image/png").snapshot(1000)
+                .getCount());
+        assertEquals(2, metrics.getMetric(RequestMetrics.LAYER, "topp:states").snapshot(1000)
+                .getCount());
+
+        // only two values per dimension, the third layer goes in the other bucket
+        assertNull(metrics.getMetric(RequestMetrics.LAYER, "sf:roads"));
+        assertEquals(1, metrics.getMetric(RequestMetrics.LAYER, RequestMetrics.OTHER)
+                .snapshot(1000).getCount());
+    }
+
+    @Test
+    public void testStatistics() {
+        RequestMetrics metrics = new RequestMetrics(10, false);
+        RequestData failed = request("WMS", "GetMap", "image/png", 10, "topp:states");
+        failed.setStatus(Status.FAILED);
+        metrics.record(failed, System.currentTimeMillis());
+        metrics.record(request("WMS", "GetMap", "image/png", 10, "topp:states"),
+                System.currentTimeMillis());
+
+        Map<String, Object> stats = metrics.getStatistics();
+        assertEquals(60l, stats.get("window"));
+        Map<?, ?> all = (Map<?, ?>) stats.get(RequestMetrics.ALL);
+        assertEquals(2l, all.get("count"));
+        assertEquals(1l, all.get("errors"));
+        List<?> services = (List<?>) stats.get(RequestMetrics.SERVICE);
+        assertEquals(1, services.size());
+        assertEquals("WMS", ((Map<?, ?>) services.get(0)).get("name"));
+    }
+
+    RequestData request(String service, String operation, String format, long time,
+            String... layers) {
+        RequestData data = new RequestData();
+        data.setService(service);
+        data.setOperation(operation);
+        data.setResponseContentType(format);
+        data.setTotalTime(time);
+        data.setStatus(Status.FINISHED);
+        data.setResources(Arrays.asList(layers));
+        return data;
+    }
+}
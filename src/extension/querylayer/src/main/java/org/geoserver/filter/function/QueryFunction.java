@@ -5,6 +5,7 @@ package org.geoserver.filter.function;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.geoserver.catalog.Catalog;
@@ -40,11 +41,29 @@ public class QueryFunction extends FunctionImpl {
     
     boolean single;
 
+    long maxCacheSize;
+
+    int prefetchMaxFeatures;
+
     public QueryFunction(Name name, Catalog catalog, List<Expression> args, Literal fallback,
             boolean single, int maxResults) {
+        this(name, catalog, args, fallback, single, maxResults, 0, 0);
+    }
+
+    /**
+     * @param maxCacheSize the max size of the objects cached during a request, see
+     *        {@link QueryFunctionCache}, a non positive value disables the cache
+     * @param prefetchMaxFeatures the max number of features of a layer that can be loaded in
+     *        memory at once and filtered there instead of running one query per filter, a non
+     *        positive value disables the prefetching
+     */
+    public QueryFunction(Name name, Catalog catalog, List<Expression> args, Literal fallback,
+            boolean single, int maxResults, long maxCacheSize, int prefetchMaxFeatures) {
         this.catalog = catalog;
         this.maxResults = maxResults;
         this.single = single;
+        this.maxCacheSize = maxCacheSize;
+        this.prefetchMaxFeatures = prefetchMaxFeatures;
 
         functionName = new FunctionNameImpl(name, args != null ? args.size() : -1);
         setName(name.getLocalPart());
@@ -60,7 +79,6 @@ public class QueryFunction extends FunctionImpl {
 
     @Override
     public Object evaluate(Object object) {
-        FeatureIterator fi = null;
         try {
             // extract layer
             String layerName = getParameters().get(0).evaluate(object, String.class);
@@ -98,31 +116,23 @@ public class QueryFunction extends FunctionImpl {
                 throw new IllegalArgumentException("The third argument of the query "
                         + "function should be a valid (E)CQL filter");
             }
-            Filter filter;
-            try {
-                filter = (Filter) ECQL.toFilter(cql);
-            } catch (Exception e) {
-                throw new IllegalArgumentException("The third argument of the query "
-                        + "function should be a valid (E)CQL filter", e);
-            }
+            QueryFunctionCache.Contents cache = QueryFunctionCache.get();
+            Filter filter = parseFilter(cql, cache);
 
-            // perform the query
-            Query query = new Query(null, filter, new String[] { attribute });
-            // .. just enough to judge if we went beyond the limit
-            query.setMaxFeatures(maxResults + 1);
-            FeatureSource fs = ft.getFeatureSource(null, null);
-            fi = fs.getFeatures(query).features();
-            List<Object> results = new ArrayList<Object>(maxResults);
-            while (fi.hasNext()) {
-                Feature f = fi.next();
-                Object value = f.getProperty(attribute).getValue();
-                if(value instanceof Geometry && crs != null) {
-                    // if the crs is not associated with the geometry do so, this
-                    // way other code will get to know the crs (e.g. for reprojection purposes)
-                    Geometry geom = (Geometry) value;
-                    geom.apply(new GeometryCRSFilter(crs));
+            // perform the query, unless already done in this request (the function name is part
+            // of the key as the two functions collect a different number of values)
+            List<String> key = Arrays.asList(getName(), layerName, attribute, cql);
+            List<Object> results = cache != null ? cache.getResults(key) : null;
+            if (results == null) {
+                List<Feature> features = prefetch(layerName, ft, cache);
+                if (features != null) {
+                    results = select(features, filter, attribute, crs);
+                } else {
+                    results = query(ft, filter, attribute, crs);
+                }
+                if (cache != null) {
+                    cache.putResults(key, results, maxCacheSize);
                 }
-                results.add(value);
             }
 
             if (results.size() == 0) {
@@ -140,12 +150,117 @@ public class QueryFunction extends FunctionImpl {
 
         } catch (IOException e) {
             throw new RuntimeException("Failed to evaluated the query: " + e.getMessage(), e);
+        }
+
+    }
+
+    Filter parseFilter(String cql, QueryFunctionCache.Contents cache) {
+        Filter filter = cache != null ? cache.getFilter(cql) : null;
+        if (filter == null) {
+            try {
+                filter = (Filter) ECQL.toFilter(cql);
+            } catch (Exception e) {
+                throw new IllegalArgumentException("The third argument of the query "
+                        + "function should be a valid (E)CQL filter", e);
+            }
+            if (cache != null) {
+                cache.putFilter(cql, filter, maxCacheSize);
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * Runs the query against the layer
+     */
+    List<Object> query(FeatureTypeInfo ft, Filter filter, String attribute,
+            CoordinateReferenceSystem crs) throws IOException {
+        Query query = new Query(null, filter, new String[] { attribute });
+        // .. just enough to judge if we went beyond the limit
+        query.setMaxFeatures(maxResults + 1);
+        FeatureSource fs = ft.getFeatureSource(null, null);
+        FeatureIterator fi = fs.getFeatures(query).features();
+        try {
+            List<Object> results = new ArrayList<Object>(maxResults);
+            while (fi.hasNext()) {
+                Feature f = fi.next();
+                results.add(extract(f, attribute, crs));
+            }
+            return results;
         } finally {
-            if (fi != null) {
-                fi.close();
+            fi.close();
+        }
+    }
+
+    /**
+     * Evaluates the filter against the prefetched features of the layer
+     */
+    List<Object> select(List<Feature> features, Filter filter, String attribute,
+            CoordinateReferenceSystem crs) {
+        List<Object> results = new ArrayList<Object>();
+        for (Feature f : features) {
+            if (filter.evaluate(f)) {
+                Object value = f.getProperty(attribute).getValue();
+                // the features are shared by the whole request, don't touch nor hand out their
+                // geometries
+                if (value instanceof Geometry) {
+                    value = ((Geometry) value).clone();
+                }
+                results.add(applyCRS(value, crs));
+                // .. just enough to judge if we went beyond the limit
+                if (results.size() > maxResults) {
+                    break;
+                }
             }
         }
+        return results;
+    }
+
+    Object extract(Feature f, String attribute, CoordinateReferenceSystem crs) {
+        return applyCRS(f.getProperty(attribute).getValue(), crs);
+    }
+
+    Object applyCRS(Object value, CoordinateReferenceSystem crs) {
+        if(value instanceof Geometry && crs != null) {
+            // if the crs is not associated with the geometry do so, this
+            // way other code will get to know the crs (e.g. for reprojection purposes)
+            Geometry geom = (Geometry) value;
+            geom.apply(new GeometryCRSFilter(crs));
+        }
+        return value;
+    }
 
+    /**
+     * Returns all the features of the layer, loading them in a single query the first time the
+     * layer is used in the request, or null if the prefetching is disabled, the layer has too
+     * many features, or they don't fit in the request cache
+     */
+    List<Feature> prefetch(String layerName, FeatureTypeInfo ft,
+            QueryFunctionCache.Contents cache) throws IOException {
+        if (cache == null || prefetchMaxFeatures <= 0) {
+            return null;
+        }
+        List<Feature> features = cache.getFeatures(layerName);
+        if (features == null) {
+            Query query = new Query(null, Filter.INCLUDE);
+            query.setMaxFeatures(prefetchMaxFeatures + 1);
+            FeatureSource fs = ft.getFeatureSource(null, null);
+            FeatureIterator fi = fs.getFeatures(query).features();
+            try {
+                features = new ArrayList<Feature>();
+                while (fi.hasNext() && features.size() <= prefetchMaxFeatures) {
+                    features.add(fi.next());
+                }
+            } finally {
+                fi.close();
+            }
+            if (features.size() > prefetchMaxFeatures) {
+                features = QueryFunctionCache.Contents.NOT_PREFETCHED;
+            }
+            // the features count against the cache size too, if they don't fit we'll query
+            features = cache.putFeatures(layerName, features, maxCacheSize);
+        }
+        return features == QueryFunctionCache.Contents.NOT_PREFETCHED ? null : features;
     }
     
     /**
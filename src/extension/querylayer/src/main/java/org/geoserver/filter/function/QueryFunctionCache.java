@@ -0,0 +1,197 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.filter.function;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
+import org.opengis.feature.Feature;
+import org.opengis.feature.Property;
+import org.opengis.filter.Filter;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Caches the parsed filters and the query results of the {@link QueryFunction} instances for
+ * the duration of an OWS request, so that a style joining each rendered feature against a
+ * lookup layer does not run the same query over and over.
+ * <p>
+ * The cache is attached to the {@link Request} found in {@link Dispatcher#REQUEST}, so it is
+ * shared by all the threads working on the request, such as the ones rendering the layers in
+ * parallel, and nested requests get a cache of their own. It is created on first use, and
+ * dropped when the request is finished. Functions evaluated outside of a request run their
+ * queries every time.
+ * </p>
+ */
+public class QueryFunctionCache extends AbstractDispatcherCallback {
+
+    /**
+     * The contents by request, weakly referenced in case a request is never reported as finished
+     */
+    static final LoadingCache<Request, Contents> CONTENTS = CacheBuilder.newBuilder().weakKeys()
+            .build(new CacheLoader<Request, Contents>() {
+                @Override
+                public Contents load(Request request) throws Exception {
+                    return new Contents();
+                }
+            });
+
+    @Override
+    public void finished(Request request) {
+        if (request != null) {
+            CONTENTS.invalidate(request);
+        }
+    }
+
+    /**
+     * Returns the contents of the cache of the current request, or null if there is no request
+     * running in the current thread
+     */
+    static Contents get() {
+        Request request = Dispatcher.REQUEST.get();
+        return request != null ? CONTENTS.getUnchecked(request) : null;
+    }
+
+    /**
+     * The cached objects of a request, safe for concurrent use. The size of each cached object
+     * is estimated as the number of values it holds, geometries weighting as their number of
+     * coordinates.
+     */
+    static class Contents {
+
+        /**
+         * Marks the layers that have too many features to be prefetched
+         */
+        static final List<Feature> NOT_PREFETCHED = Collections.emptyList();
+
+        final ConcurrentMap<String, Filter> filters = new ConcurrentHashMap<String, Filter>();
+
+        final ConcurrentMap<List<String>, List<Object>> results = new ConcurrentHashMap<List<String>, List<Object>>();
+
+        final ConcurrentMap<String, List<Feature>> features = new ConcurrentHashMap<String, List<Feature>>();
+
+        final AtomicLong size = new AtomicLong();
+
+        Filter getFilter(String cql) {
+            return filters.get(cql);
+        }
+
+        void putFilter(String cql, Filter filter, long maxSize) {
+            if (reserve(1, maxSize) && filters.putIfAbsent(cql, filter) != null) {
+                release(1);
+            }
+        }
+
+        /**
+         * Returns a copy of the cached values, or null if the query has not been run yet
+         */
+        List<Object> getResults(List<String> key) {
+            List<Object> values = results.get(key);
+            return values == null ? null : copy(values);
+        }
+
+        void putResults(List<String> key, List<Object> values, long maxSize) {
+            long weight = 1 + weight(values);
+            if (reserve(weight, maxSize) && results.putIfAbsent(key, copy(values)) != null) {
+                release(weight);
+            }
+        }
+
+        /**
+         * Returns the prefetched features of a layer, {@link #NOT_PREFETCHED} if the layer is
+         * too big to be prefetched, or null if the layer has not been looked at yet
+         */
+        List<Feature> getFeatures(String layerName) {
+            return features.get(layerName);
+        }
+
+        /**
+         * Caches the features of a layer, if they fit in the cache, and returns the features to
+         * be used by the request, {@link #NOT_PREFETCHED} if they don't fit
+         */
+        List<Feature> putFeatures(String layerName, List<Feature> layerFeatures, long maxSize) {
+            long weight = 1;
+            if (layerFeatures != NOT_PREFETCHED) {
+                for (Feature feature : layerFeatures) {
+                    for (Property property : feature.getProperties()) {
+                        weight += weight(property.getValue());
+                    }
+                }
+            }
+            if (!reserve(weight, maxSize)) {
+                // remember the layer is too big, instead of loading it over and over
+                weight = 1;
+                layerFeatures = NOT_PREFETCHED;
+                if (!reserve(weight, maxSize)) {
+                    return NOT_PREFETCHED;
+                }
+            }
+            List<Feature> previous = features.putIfAbsent(layerName, layerFeatures);
+            if (previous != null) {
+                // another thread got there first
+                release(weight);
+                return previous;
+            }
+            return layerFeatures;
+        }
+
+        /**
+         * Adds the weight to the cache size, unless it would go past the max size
+         */
+        boolean reserve(long weight, long maxSize) {
+            while (true) {
+                long current = size.get();
+                if (current + weight > maxSize) {
+                    return false;
+                }
+                if (size.compareAndSet(current, current + weight)) {
+                    return true;
+                }
+            }
+        }
+
+        void release(long weight) {
+            size.addAndGet(-weight);
+        }
+
+        static long weight(List<Object> values) {
+            long weight = 0;
+            for (Object value : values) {
+                weight += weight(value);
+            }
+            return weight;
+        }
+
+        static long weight(Object value) {
+            return value instanceof Geometry ? ((Geometry) value).getNumPoints() : 1;
+        }
+
+        /**
+         * Copies the values, cloning the geometries as the callers might alter them
+         */
+        static List<Object> copy(List<Object> values) {
+            List<Object> result = new ArrayList<Object>(values.size());
+            for (Object value : values) {
+                if (value instanceof Geometry) {
+                    // the clone keeps the user data, that is, the crs
+                    result.add(((Geometry) value).clone());
+                } else {
+                    result.add(value);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -39,6 +39,10 @@ public class QueryFunctionFactoryInitializer implements GeoServerLifecycleHandle
                 .getProperty("QUERY_LAYER_MAX_FEATURES"));
         Long maxCoordinates = parseLong(GeoServerExtensions
                 .getProperty("GEOMETRY_COLLECT_MAX_COORDINATES"));
+        Long maxCacheSize = parseLong(GeoServerExtensions
+                .getProperty("QUERY_LAYER_CACHE_MAX_SIZE"));
+        Integer prefetchMaxFeatures = parseInteger(GeoServerExtensions
+                .getProperty("QUERY_LAYER_PREFETCH_MAX_FEATURES"));
 
         Set<FunctionFactory> factories = CommonFactoryFinder.getFunctionFactories(null);
         for (FunctionFactory ff : factories) {
@@ -50,6 +54,12 @@ public class QueryFunctionFactoryInitializer implements GeoServerLifecycleHandle
                 if (maxCoordinates != null) {
                     factory.setMaxCoordinates(maxCoordinates);
                 }
+                if (maxCacheSize != null) {
+                    factory.setMaxCacheSize(maxCacheSize);
+                }
+                if (prefetchMaxFeatures != null) {
+                    factory.setPrefetchMaxFeatures(prefetchMaxFeatures);
+                }
                 factory.setCatalog(geoServer.getCatalog());
             }
         }
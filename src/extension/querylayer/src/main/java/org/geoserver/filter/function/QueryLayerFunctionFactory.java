@@ -44,6 +44,10 @@ public class QueryLayerFunctionFactory implements FunctionFactory {
 
     long maxCoordinates = 1024 * 1024 / 28; // this results 1MB of Coordinate object max
 
+    long maxCacheSize = 100000;
+
+    int prefetchMaxFeatures = 0;
+
     public QueryLayerFunctionFactory() {
         FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
         List<FunctionName> names = new ArrayList<FunctionName>();
@@ -79,6 +83,27 @@ public class QueryLayerFunctionFactory implements FunctionFactory {
         this.maxCoordinates = maxCoordinates;
     }
 
+    /**
+     * Sets the max number of values cached by the query functions during a request, geometries
+     * counting as their number of coordinates. A non positive value disables the cache
+     * 
+     * @param maxCacheSize
+     */
+    public void setMaxCacheSize(long maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    /**
+     * Sets the max number of features a queried layer can have to be loaded in memory in a
+     * single query, the query function filters are then evaluated in memory. A non positive
+     * value, the default, disables the prefetching
+     * 
+     * @param prefetchMaxFeatures
+     */
+    public void setPrefetchMaxFeatures(int prefetchMaxFeatures) {
+        this.prefetchMaxFeatures = prefetchMaxFeatures;
+    }
+
     /**
      * Initializes the catalog reference, without it the factory won't generate any function
      * 
@@ -99,9 +124,11 @@ public class QueryLayerFunctionFactory implements FunctionFactory {
         }
 
         if (QUERY_SINGLE.equals(name)) {
-            return new QueryFunction(QUERY_SINGLE, catalog, args, fallback, true, 1);
+            return new QueryFunction(QUERY_SINGLE, catalog, args, fallback, true, 1,
+                    maxCacheSize, prefetchMaxFeatures);
         } else if (QUERY_COLLECTION.equals(name)) {
-            return new QueryFunction(QUERY_COLLECTION, catalog, args, fallback, false, maxFeatures);
+            return new QueryFunction(QUERY_COLLECTION, catalog, args, fallback, false, maxFeatures,
+                    maxCacheSize, prefetchMaxFeatures);
         } else if(COLLECT_GEOMETRIES.equals(name)) {
             return new CollectGeometriesFunction(COLLECT_GEOMETRIES, args, fallback, maxCoordinates);
         } else {
@@ -7,13 +7,25 @@ package org.geoserver.filter.function;
 import static org.junit.Assert.*;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.geoserver.data.test.MockData;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
 import org.geoserver.test.GeoServerSystemTestSupport;
 import org.geotools.factory.CommonFactoryFinder;
 import org.junit.Test;
+import org.opengis.feature.Feature;
 import org.opengis.filter.FilterFactory2;
 import org.opengis.filter.expression.Function;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Geometry;
 
 public class QueryLayerFunctionTest extends GeoServerSystemTestSupport {
 
@@ -68,4 +80,162 @@ public class QueryLayerFunctionTest extends GeoServerSystemTestSupport {
             System.clearProperty("QUERY_LAYER_MAX_FEATURES");
         }
     }
+
+    @Test
+    public void testCachedWithinRequest() {
+        QueryFunctionCache callback = new QueryFunctionCache();
+        Request request = new Request();
+        Dispatcher.REQUEST.set(request);
+        try {
+            Function function = ff.function("querySingle", // 
+                    ff.literal(getLayerId(MockData.BUILDINGS)), // 
+                    ff.literal("ADDRESS"), //
+                    ff.literal("FID = '113'"));
+            assertEquals("123 Main Street", function.evaluate(null));
+            QueryFunctionCache.Contents contents = QueryFunctionCache.get();
+            assertEquals(1, contents.filters.size());
+            assertEquals(1, contents.results.size());
+
+            // same query, served by the cache
+            assertEquals("123 Main Street", function.evaluate(null));
+            assertEquals(1, contents.results.size());
+
+            // the collection function has results of its own
+            Function collection = ff.function("queryCollection", // 
+                    ff.literal(getLayerId(MockData.BUILDINGS)), // 
+                    ff.literal("ADDRESS"), //
+                    ff.literal("FID = '113'"));
+            assertEquals(Collections.singletonList("123 Main Street"), collection.evaluate(null));
+            assertEquals(1, contents.filters.size());
+            assertEquals(2, contents.results.size());
+        } finally {
+            callback.finished(request);
+            Dispatcher.REQUEST.remove();
+        }
+        assertNull(QueryFunctionCache.get());
+        assertNull(QueryFunctionCache.CONTENTS.getIfPresent(request));
+    }
+
+    @Test
+    public void testSharedByRequestThreads() throws Exception {
+        QueryFunctionCache callback = new QueryFunctionCache();
+        final Request request = new Request();
+        Dispatcher.REQUEST.set(request);
+        try {
+            QueryFunctionCache.Contents contents = QueryFunctionCache.get();
+
+            // another thread working on the same request, e.g. a parallel layer renderer
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<Object> future = executor.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        Dispatcher.REQUEST.set(request);
+                        try {
+                            return ff.function("querySingle", // 
+                                    ff.literal(getLayerId(MockData.BUILDINGS)), // 
+                                    ff.literal("ADDRESS"), //
+                                    ff.literal("FID = '113'")).evaluate(null);
+                        } finally {
+                            Dispatcher.REQUEST.remove();
+                        }
+                    }
+                });
+                assertEquals("123 Main Street", future.get());
+            } finally {
+                executor.shutdown();
+            }
+            assertEquals(1, contents.results.size());
+
+            // a nested request gets its own cache, and finishing it leaves ours alone
+            Request nested = new Request();
+            Dispatcher.REQUEST.set(nested);
+            assertNotSame(contents, QueryFunctionCache.get());
+            callback.finished(nested);
+            Dispatcher.REQUEST.set(request);
+            assertSame(contents, QueryFunctionCache.get());
+        } finally {
+            callback.finished(request);
+            Dispatcher.REQUEST.remove();
+        }
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        QueryFunctionCache callback = new QueryFunctionCache();
+        Request request = new Request();
+        try {
+            // force the reload, otherwise the changed properties won't be noticed
+            System.setProperty("QUERY_LAYER_PREFETCH_MAX_FEATURES", "10");
+            getGeoServer().reload();
+            Dispatcher.REQUEST.set(request);
+
+            Function function = ff.function("querySingle", // 
+                    ff.literal(getLayerId(MockData.BUILDINGS)), // 
+                    ff.literal("ADDRESS"), //
+                    ff.literal("FID = '113'"));
+            assertEquals("123 Main Street", function.evaluate(null));
+            function = ff.function("querySingle", // 
+                    ff.literal(getLayerId(MockData.BUILDINGS)), // 
+                    ff.literal("ADDRESS"), //
+                    ff.literal("FID = '114'"));
+            assertEquals("215 Main Street", function.evaluate(null));
+
+            // the layer has been loaded once, and the filters evaluated in memory
+            List<Feature> features = QueryFunctionCache.get().getFeatures(
+                    getLayerId(MockData.BUILDINGS));
+            assertEquals(2, features.size());
+
+            // the crs is set on a copy, the prefetched geometries are shared by the request
+            function = ff.function("querySingle", // 
+                    ff.literal(getLayerId(MockData.BUILDINGS)), // 
+                    ff.literal("the_geom"), //
+                    ff.literal("FID = '113'"));
+            Geometry geom = (Geometry) function.evaluate(null);
+            assertTrue(geom.getUserData() instanceof CoordinateReferenceSystem);
+            for (Feature feature : features) {
+                Geometry prefetched = (Geometry) feature.getDefaultGeometryProperty().getValue();
+                assertNotSame(geom, prefetched);
+                assertNull(prefetched.getUserData());
+            }
+        } finally {
+            callback.finished(request);
+            Dispatcher.REQUEST.remove();
+            System.setProperty("QUERY_LAYER_PREFETCH_MAX_FEATURES", "0");
+            getGeoServer().reload();
+            System.clearProperty("QUERY_LAYER_PREFETCH_MAX_FEATURES");
+        }
+    }
+
+    @Test
+    public void testPrefetchOverCacheSize() throws Exception {
+        QueryFunctionCache callback = new QueryFunctionCache();
+        Request request = new Request();
+        try {
+            // the buildings have more than 10 values, they won't fit in the cache
+            System.setProperty("QUERY_LAYER_PREFETCH_MAX_FEATURES", "10");
+            System.setProperty("QUERY_LAYER_CACHE_MAX_SIZE", "10");
+            getGeoServer().reload();
+            Dispatcher.REQUEST.set(request);
+
+            Function function = ff.function("querySingle", // 
+                    ff.literal(getLayerId(MockData.BUILDINGS)), // 
+                    ff.literal("ADDRESS"), //
+                    ff.literal("FID = '113'"));
+            assertEquals("123 Main Street", function.evaluate(null));
+
+            // the layer has been queried instead
+            QueryFunctionCache.Contents contents = QueryFunctionCache.get();
+            assertSame(QueryFunctionCache.Contents.NOT_PREFETCHED,
+                    contents.getFeatures(getLayerId(MockData.BUILDINGS)));
+            assertTrue(contents.size.get() <= 10);
+        } finally {
+            callback.finished(request);
+            Dispatcher.REQUEST.remove();
+            System.setProperty("QUERY_LAYER_PREFETCH_MAX_FEATURES", "0");
+            System.setProperty("QUERY_LAYER_CACHE_MAX_SIZE", "100000");
+            getGeoServer().reload();
+            System.clearProperty("QUERY_LAYER_PREFETCH_MAX_FEATURES");
+            System.clearProperty("QUERY_LAYER_CACHE_MAX_SIZE");
+        }
+    }
 }
@@ -4,7 +4,13 @@
  */
 package org.geoserver.wfs.xslt;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
@@ -17,13 +23,16 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
@@ -37,6 +46,7 @@ import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.WFSException;
+import org.geoserver.wfs.SAXOutputFormat;
 import org.geoserver.wfs.WFSGetFeatureOutputFormat;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geoserver.wfs.request.GetFeatureRequest;
@@ -49,6 +59,10 @@ import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.XMLFilterImpl;
 
 /**
  * Output format based on XLST transformations
@@ -60,7 +74,14 @@ public class XSLTOutputFormat extends WFSGetFeatureOutputFormat implements Appli
 
     static Map<String, String> formats = new ConcurrentHashMap<String, String>();
 
-    ExecutorService executor = Executors.newCachedThreadPool();
+    /**
+     * Max number of threads writing the source documents of the transformations that cannot be
+     * fed with SAX events, further requests buffer the source on disk instead
+     */
+    static final int MAX_SOURCE_THREADS = Runtime.getRuntime().availableProcessors() * 2;
+
+    ExecutorService executor = new ThreadPoolExecutor(0, MAX_SOURCE_THREADS, 60L,
+            TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
 
     private TransformRepository repository;
 
@@ -165,25 +186,79 @@ public class XSLTOutputFormat extends WFSGetFeatureOutputFormat implements Appli
 
         }
 
+        if (sourceResponse instanceof SAXOutputFormat
+                && ((SAXOutputFormat) sourceResponse).canWrite(featureCollection, sourceOperation)) {
+            transformEvents(transformer, (SAXOutputFormat) sourceResponse, featureCollection,
+                    sourceOperation, output);
+        } else {
+            transformStream(transformer, sourceResponse, featureCollection, sourceOperation,
+                    output);
+        }
+    }
+
+    /**
+     * Runs the transformation straight on the SAX events generated by the source format, on
+     * the calling thread
+     */
+    void transformEvents(Transformer transformer, SAXOutputFormat sourceFormat,
+            FeatureCollectionResponse featureCollection, Operation sourceOperation,
+            OutputStream output) {
+        SourceReader reader = new SourceReader(sourceFormat, featureCollection, sourceOperation);
+        TransformerException transformerException = null;
+        try {
+            transformer.transform(new SAXSource(reader, new InputSource()), new StreamResult(
+                    output));
+        } catch (TransformerException e) {
+            transformerException = e;
+        }
+
+        // the source failures get reported as transformation ones, unwrap them
+        if (reader.failure != null) {
+            throw new WFSException(
+                    "Failed to run the output format generating the source for the XSTL transformation",
+                    reader.failure);
+        }
+        if (transformerException != null) {
+            throw new WFSException("Failed to run the the XSTL transformation",
+                    transformerException);
+        }
+    }
+
+    /**
+     * Runs the transformation on the document written by the source format on another thread,
+     * or on a temporary file if all the threads are busy
+     */
+    void transformStream(Transformer transformer, final Response sourceResponse,
+            final FeatureCollectionResponse featureCollection, final Operation sourceOperation,
+            OutputStream output) throws IOException {
         // prepare the stream connections, so that we can do the transformation on the fly
         PipedInputStream pis = new PipedInputStream();
         final PipedOutputStream pos = new PipedOutputStream(pis);
 
         // submit the source output format execution, tracking exceptions
-        Future<Void> future = executor.submit(new Callable<Void>() {
-
-            @Override
-            public Void call() throws Exception {
-                try {
-                    sourceResponse.write(featureCollection, pos, sourceOperation);
-                } finally {
-                    // close the stream to make sure the transformation won't keep on waiting
-                    pos.close();
+        Future<Void> future;
+        try {
+            future = executor.submit(new Callable<Void>() {
+
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        sourceResponse.write(featureCollection, pos, sourceOperation);
+                    } finally {
+                        // close the stream to make sure the transformation won't keep on waiting
+                        pos.close();
+                    }
+
+                    return null;
                 }
-
-                return null;
-            }
-        });
+            });
+        } catch (RejectedExecutionException e) {
+            pos.close();
+            pis.close();
+            transformBuffered(transformer, sourceResponse, featureCollection, sourceOperation,
+                    output);
+            return;
+        }
 
         // run the transformation
         TransformerException transformerException = null;
@@ -207,7 +282,38 @@ public class XSLTOutputFormat extends WFSGetFeatureOutputFormat implements Appli
             throw new WFSException("Failed to run the the XSTL transformation",
                     transformerException);
         }
+    }
 
+    /**
+     * Writes the source document on a temporary file, and then runs the transformation on it
+     */
+    void transformBuffered(Transformer transformer, Response sourceResponse,
+            FeatureCollectionResponse featureCollection, Operation sourceOperation,
+            OutputStream output) throws IOException {
+        File source = File.createTempFile("xslt", ".xml");
+        try {
+            OutputStream os = new BufferedOutputStream(new FileOutputStream(source));
+            try {
+                sourceResponse.write(featureCollection, os, sourceOperation);
+            } catch (Exception e) {
+                throw new WFSException(
+                        "Failed to run the output format generating the source for the XSTL transformation",
+                        e);
+            } finally {
+                os.close();
+            }
+
+            InputStream is = new BufferedInputStream(new FileInputStream(source));
+            try {
+                transformer.transform(new StreamSource(is), new StreamResult(output));
+            } catch (TransformerException e) {
+                throw new WFSException("Failed to run the the XSTL transformation", e);
+            } finally {
+                is.close();
+            }
+        } finally {
+            source.delete();
+        }
     }
 
     private Operation buildSourceOperation(Operation operation, TransformInfo info) {
@@ -314,4 +420,54 @@ public class XSLTOutputFormat extends WFSGetFeatureOutputFormat implements Appli
     public List<String> getCapabilitiesElementNames() {
         return getAllCapabilitiesElementNames();
     }
+
+    /**
+     * A {@link XMLReader} whose parse method has the source format generate its document, so
+     * that it can be used as a {@link SAXSource}
+     */
+    static class SourceReader extends XMLFilterImpl {
+
+        static final String NAMESPACES = "http://xml.org/sax/features/namespaces";
+
+        SAXOutputFormat format;
+
+        FeatureCollectionResponse featureCollection;
+
+        Operation operation;
+
+        /**
+         * The exception thrown by the source format, if any
+         */
+        Exception failure;
+
+        SourceReader(SAXOutputFormat format, FeatureCollectionResponse featureCollection,
+                Operation operation) {
+            this.format = format;
+            this.featureCollection = featureCollection;
+            this.operation = operation;
+        }
+
+        @Override
+        public void parse(InputSource input) throws SAXException, IOException {
+            try {
+                format.write(featureCollection, getContentHandler(), operation);
+            } catch (IOException e) {
+                failure = e;
+                throw e;
+            } catch (RuntimeException e) {
+                failure = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean getFeature(String name) {
+            return NAMESPACES.equals(name);
+        }
+
+        @Override
+        public void setFeature(String name, boolean value) {
+            // there is no parser to configure, the events are always namespace aware
+        }
+    }
 }
@@ -40,6 +40,9 @@ public class GetFeatureXSLTTest extends WFSTestSupport {
         }
         assertTrue(transform.mkdirs());
         FileUtils.copyDirectory(new File("src/test/resources/org/geoserver/wfs/xslt"), transform);
+        // a transformation working off GML3, which is fed to the transformer as SAX events
+        FileUtils.copyDirectory(new File("src/test/resources/org/geoserver/wfs/xslt/gml3"),
+                transform);
     }
     
     @Test
@@ -82,6 +85,28 @@ public class GetFeatureXSLTTest extends WFSTestSupport {
                         d);
     }
     
+    @Test
+    public void testGML3Source() throws Exception {
+        XSLTOutputFormatUpdater updater = (XSLTOutputFormatUpdater) applicationContext.getBean("xsltOutputFormatUpdater");
+        updater.run();
+
+        Document d = getAsDOM("wfs?request=GetFeature&typename=" + getLayerId(MockData.BUILDINGS)
+                + "&version=1.1.0&service=wfs&outputFormat=text/html; subtype=gml3");
+        // print(d);
+
+        // two features
+        XMLAssert.assertXpathEvaluatesTo("2", "count(//h2)", d);
+        XMLAssert.assertXpathEvaluatesTo("1", "count(//h2[text() = 'Buildings.1107531701010'])", d);
+        XMLAssert.assertXpathEvaluatesTo("1", "count(//h2[text() = 'Buildings.1107531701011'])", d);
+
+        // check the first
+        XMLAssert
+                .assertXpathEvaluatesTo(
+                        "123 Main Street",
+                        "//h2[text() = 'Buildings.1107531701010']/following-sibling::table/tr[td='cite:ADDRESS']/td[2]",
+                        d);
+    }
+
     @Test
     public void testHeaders() throws Exception {
         MockHttpServletResponse response = getAsServletResponse("wfs?request=GetFeature&typename=" + getLayerId(MockData.BUILDINGS)
@@ -99,6 +99,7 @@ import org.geowebcache.service.Service;
 import org.geowebcache.storage.DefaultStorageFinder;
 import org.geowebcache.storage.StorageBroker;
 import org.geowebcache.storage.StorageException;
+import org.geowebcache.storage.TileObject;
 import org.geowebcache.storage.TileRange;
 import org.opengis.metadata.extent.GeographicBoundingBox;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -111,6 +112,7 @@ import org.springframework.context.ApplicationContextAware;
 
 import com.google.common.base.Predicate;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Sets.SetView;
@@ -135,6 +137,14 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
 
     private static final String GLOBAL_LOCK_KEY = "global";
 
+    /**
+     * The GetMap parameters, other than the ones handled by parameter filters, that a request
+     * can carry and still be served by {@link #getCachedTile(Map)}
+     */
+    public static final Set<String> TILE_REQUEST_PARAMETERS = ImmutableSet.of("SERVICE",
+            "VERSION", "REQUEST", "LAYERS", "STYLES", "FORMAT", "WIDTH", "HEIGHT", "SRS", "BBOX",
+            "TILED", "TILESORIGIN", "TRANSPARENT", "EXCEPTIONS");
+
     /**
      * @see #get()
      */
@@ -478,6 +488,84 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         tileBreeder.dispatchTasks(tasks);
     }
 
+    /**
+     * Synchronously deletes the tiles intersecting the given regions, for all the gridsets,
+     * styles and formats cached for the layer.
+     * <p>
+     * Unlike {@link #truncate(String, ReferencedEnvelope)} no truncate tasks are launched, the
+     * affected tile ranges are computed for each zoom level and handed to the storage broker
+     * directly, one delete call per region, gridset, style and format.
+     * </p>
+     *
+     * @param layerName
+     *            name of the tile layer to truncate
+     * @param regions
+     *            the dirty regions, in any CRS
+     * @return the number of tiles in the deleted ranges, regardless of whether they were actually
+     *         cached
+     */
+    public long truncateTiles(final String layerName, final List<ReferencedEnvelope> regions)
+            throws GeoWebCacheException, StorageException {
+        final TileLayer layer = tld.getTileLayer(layerName);
+        final Set<String> styleNames = getCachedStyles(layerName);
+        if (styleNames.size() == 0) {
+            styleNames.add("");
+        }
+        final String defaultStyle = layer.getStyles();
+        final List<MimeType> mimeTypes = layer.getMimeTypes();
+
+        long tiles = 0;
+        for (String gridSetId : layer.getGridSubsets()) {
+            final GridSubset gridSubset = layer.getGridSubset(gridSetId);
+            for (ReferencedEnvelope region : regions) {
+                BoundingBox bounds = getIntersectingBounds(layerName, gridSubset, region);
+                if (bounds == null) {
+                    continue;
+                }
+                final long[][] rangeBounds = gridSubset.getCoverageIntersections(bounds);
+                final long rangeTiles = countTiles(rangeBounds);
+                if (rangeTiles == 0) {
+                    continue;
+                }
+                for (String style : styleNames) {
+                    Map<String, String> parameters;
+                    if (style.length() == 0 || style.equals(defaultStyle)) {
+                        parameters = null;
+                    } else {
+                        parameters = Collections.singletonMap("STYLES", style);
+                    }
+                    for (MimeType mime : mimeTypes) {
+                        TileRange range = new TileRange(layerName, gridSetId,
+                                gridSubset.getZoomStart(), gridSubset.getZoomStop(), rangeBounds,
+                                mime, parameters);
+                        storageBroker.delete(range);
+                        tiles += rangeTiles;
+                    }
+                }
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Counts the tiles in the given per zoom level ranges, as returned by
+     * {@link GridSubset#getCoverageIntersections(BoundingBox)}
+     */
+    static long countTiles(final long[][] rangeBounds) {
+        long count = 0;
+        for (long[] level : rangeBounds) {
+            if (level == null) {
+                continue;
+            }
+            long width = level[2] - level[0] + 1;
+            long height = level[3] - level[1] + 1;
+            if (width > 0 && height > 0) {
+                count += width * height;
+            }
+        }
+        return count;
+    }
+
     private boolean isStyleCached(final String layerName, final String styleName) {
         Set<String> cachedStyles = getCachedStyles(layerName);
         boolean styleIsCached = cachedStyles.contains(styleName);
@@ -717,6 +805,113 @@ public class GWC implements DisposableBean, InitializingBean, ApplicationContext
         return tileReq;
     }
 
+    /**
+     * Looks up the cached tile matching a GetMap request, working off the raw KVP parameters
+     * instead of a parsed {@link GetMapRequest}.
+     * <p>
+     * This is meant for the {@link org.geoserver.gwc.wms.CachedTileFilter cached tile fast path}
+     * and only handles the plain, tile aligned, single layer WMS 1.1.1 requests: any parameter
+     * besides the {@link #TILE_REQUEST_PARAMETERS basic ones} needs to be handled by a parameter
+     * filter of the tile layer. The tile is looked up in the storage only, it is never rendered.
+     * </p>
+     *
+     * @param rawKvp
+     *            the raw request parameters, with upper case keys
+     * @return the cached tile, or {@code null} if the request does not match a tile or the tile
+     *         is not cached
+     */
+    public TileObject getCachedTile(final Map<String, String> rawKvp)
+            throws GeoWebCacheException, StorageException {
+        final String layerName = rawKvp.get("LAYERS");
+        if (layerName == null || layerName.indexOf(',') != -1 || !tld.layerExists(layerName)) {
+            return null;
+        }
+        // 1.3.0 uses CRS and might flip the axis order, leave it to the full request parsing
+        final String srs = rawKvp.get("SRS");
+        final String format = rawKvp.get("FORMAT");
+        final String bbox = rawKvp.get("BBOX");
+        if (srs == null || format == null || bbox == null || rawKvp.get("WIDTH") == null
+                || rawKvp.get("HEIGHT") == null || !srs.toUpperCase().startsWith("EPSG:")) {
+            return null;
+        }
+
+        final TileLayer tileLayer = tld.getTileLayer(layerName);
+        if (!tileLayer.isEnabled()) {
+            return null;
+        }
+
+        // any other parameter must be handled by a parameter filter
+        Map<String, ParameterFilter> filters = new HashMap<String, ParameterFilter>();
+        if (tileLayer.getParameterFilters() != null) {
+            for (ParameterFilter pf : tileLayer.getParameterFilters()) {
+                filters.put(pf.getKey().toUpperCase(), pf);
+            }
+        }
+        for (Map.Entry<String, String> entry : rawKvp.entrySet()) {
+            final String key = entry.getKey();
+            ParameterFilter filter = filters.get(key);
+            if (filter != null) {
+                if (!filter.applies(entry.getValue())) {
+                    return null;
+                }
+            } else if ("STYLES".equals(key)) {
+                // no filter, only the default style is cached
+                String style = entry.getValue();
+                if (style.length() > 0 && !style.equals(tileLayer.getStyles())) {
+                    return null;
+                }
+            } else if (!TILE_REQUEST_PARAMETERS.contains(key)) {
+                return null;
+            }
+        }
+
+        final MimeType mimeType;
+        try {
+            mimeType = MimeType.createFromFormat(format);
+        } catch (MimeException e) {
+            return null;
+        }
+        if (!tileLayer.getMimeTypes().contains(mimeType)) {
+            return null;
+        }
+
+        final GridSubset gridSubset;
+        final long[] tileIndex = new long[3];
+        try {
+            String[] coords = bbox.split(",");
+            if (coords.length != 4) {
+                return null;
+            }
+            BoundingBox tileBounds = new BoundingBox(Double.parseDouble(coords[0]),
+                    Double.parseDouble(coords[1]), Double.parseDouble(coords[2]),
+                    Double.parseDouble(coords[3]));
+            int width = Integer.parseInt(rawKvp.get("WIDTH"));
+            int height = Integer.parseInt(rawKvp.get("HEIGHT"));
+            SRS tileSrs = SRS.getSRS(Integer.parseInt(srs.substring(srs.indexOf(':') + 1)));
+
+            List<GridSubset> crsMatchingGridSubsets = tileLayer.getGridSubsetsForSRS(tileSrs);
+            if (crsMatchingGridSubsets.isEmpty()) {
+                return null;
+            }
+            gridSubset = findBestMatchingGrid(tileBounds, crsMatchingGridSubsets, width, height,
+                    tileIndex);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (gridSubset == null) {
+            return null;
+        }
+
+        final Map<String, String> fullParameters = tileLayer.getModifiableParameters(rawKvp,
+                "UTF-8");
+        final TileObject tile = TileObject.createQueryTileObject(tileLayer.getName(), tileIndex,
+                gridSubset.getName(), mimeType.getFormat(), fullParameters);
+        if (!storageBroker.get(tile)) {
+            return null;
+        }
+        return tile;
+    }
+
     /**
      * Determines whether the given {@link GetMapRequest} is a candidate to match a GWC tile or not.
      * 
@@ -23,6 +23,7 @@ import net.opengis.wfs.TransactionType;
 import net.opengis.wfs.UpdateElementType;
 
 import org.eclipse.emf.ecore.EObject;
+import org.geoserver.gwc.config.GWCConfig;
 import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionEventType;
 import org.geoserver.wfs.TransactionPlugin;
@@ -39,6 +40,11 @@ import org.opengis.referencing.operation.TransformException;
  * Listens to transactions (so far only issued by WFS) and truncates the cache for the affected area
  * of the layers involved in the transaction.
  * <p>
+ * If a {@link GWCConfig#getTruncateCoalescingWindow() coalescing window} is configured the affected
+ * areas are handed over to a {@link TruncationQueue}, which merges them and deletes the tiles in
+ * batches, otherwise the cache is truncated right after each transaction.
+ * </p>
+ * <p>
  * A Spring bean singleton of this class needs to be declared in order for GeoServer transactions to
  * pick it up automatically and forward transaction events to it.
  * </p>
@@ -57,13 +63,26 @@ public class GWCTransactionListener implements TransactionPlugin {
 
     final private GWC gwc;
 
+    final private TruncationQueue truncationQueue;
+
     static final String GWC_TRANSACTION_INFO_PLACEHOLDER = "GWC_TRANSACTION_INFO_PLACEHOLDER";
 
     /**
      * @param gwc
      */
     public GWCTransactionListener(final GWC gwc) {
+        this(gwc, new TruncationQueue(gwc));
+    }
+
+    /**
+     * @param gwc
+     * @param truncationQueue
+     *            the queue coalescing the dirty regions, used when the
+     *            {@link GWCConfig#getTruncateCoalescingWindow() coalescing window} is positive
+     */
+    public GWCTransactionListener(final GWC gwc, final TruncationQueue truncationQueue) {
         this.gwc = gwc;
+        this.truncationQueue = truncationQueue;
     }
 
     /**
@@ -112,6 +131,8 @@ public class GWCTransactionListener implements TransactionPlugin {
         if (byLayerDirtyRegions.isEmpty()) {
             return;
         }
+        final GWCConfig config = gwc.getConfig();
+        final int window = config == null ? 0 : config.getTruncateCoalescingWindow();
         for (String tileLayerName : byLayerDirtyRegions.keySet()) {
             List<ReferencedEnvelope> dirtyList = byLayerDirtyRegions.get(tileLayerName);
             ReferencedEnvelope dirtyRegion;
@@ -124,6 +145,10 @@ public class GWCTransactionListener implements TransactionPlugin {
             if (dirtyRegion == null) {
                 continue;
             }
+            if (window > 0) {
+                truncationQueue.add(tileLayerName, dirtyRegion, window);
+                continue;
+            }
             try {
                 gwc.truncate(tileLayerName, dirtyRegion);
             } catch (GeoWebCacheException e) {
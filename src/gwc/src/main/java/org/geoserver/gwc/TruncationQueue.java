@@ -0,0 +1,241 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Coalesces the areas dirtied by transactions and deletes the affected tiles in batches.
+ * <p>
+ * Each transaction used to launch its own set of truncate tasks, one per gridset, style and
+ * format, which under a busy editing workflow turns into a storm of truncations thrashing the tile
+ * store. Instead, the dirty regions are queued per tile layer and flushed once the configured
+ * {@link org.geoserver.gwc.config.GWCConfig#getTruncateCoalescingWindow() window} has elapsed since
+ * the first pending one. Intersecting regions of the same layer are merged while queued, and the
+ * flush hands the exact per zoom level tile ranges over to {@link GWC#truncateTiles}.
+ * </p>
+ * <p>
+ * The number of tiles invalidated and the time spent doing so are tracked, and logged at
+ * {@code FINE} level after each flush.
+ * </p>
+ */
+public class TruncationQueue implements DisposableBean {
+
+    private static Logger log = Logging.getLogger(TruncationQueue.class);
+
+    /**
+     * Max number of disjoint regions kept per layer, past it they are collapsed into their
+     * overall bounds
+     */
+    static final int MAX_REGIONS_PER_LAYER = 16;
+
+    private final GWC gwc;
+
+    /**
+     * Pending dirty regions, by tile layer name. Guarded by {@code this}
+     */
+    private Map<String, List<ReferencedEnvelope>> pending = new HashMap<String, List<ReferencedEnvelope>>();
+
+    /**
+     * Whether a flush has been scheduled for the pending regions. Guarded by {@code this}
+     */
+    private boolean scheduled;
+
+    private ScheduledExecutorService executor;
+
+    private final AtomicLong regionsQueued = new AtomicLong();
+
+    private final AtomicLong flushes = new AtomicLong();
+
+    private final AtomicLong tilesInvalidated = new AtomicLong();
+
+    private final AtomicLong truncateTime = new AtomicLong();
+
+    public TruncationQueue(final GWC gwc) {
+        this.gwc = gwc;
+    }
+
+    /**
+     * Queues a dirty region for the given tile layer, the affected tiles will be deleted once the
+     * coalescing window elapses.
+     *
+     * @param tileLayerName
+     *            the tile layer name
+     * @param dirtyRegion
+     *            the dirty region, expected to be in the tile layer declared CRS so that it can be
+     *            merged with the other ones
+     * @param window
+     *            the coalescing window, in milliseconds
+     */
+    public void add(final String tileLayerName, final ReferencedEnvelope dirtyRegion,
+            final long window) {
+        checkNotNull(tileLayerName, "tileLayerName is null");
+        checkNotNull(dirtyRegion, "dirtyRegion is null");
+
+        regionsQueued.incrementAndGet();
+        synchronized (this) {
+            List<ReferencedEnvelope> regions = pending.get(tileLayerName);
+            if (regions == null) {
+                regions = new ArrayList<ReferencedEnvelope>(2);
+                pending.put(tileLayerName, regions);
+            }
+            merge(regions, dirtyRegion);
+
+            if (!scheduled) {
+                getExecutor().schedule(new Runnable() {
+                    public void run() {
+                        flush();
+                    }
+                }, window, TimeUnit.MILLISECONDS);
+                scheduled = true;
+            }
+        }
+    }
+
+    /**
+     * Adds a region to the list, merging it with the ones it intersects. The list is collapsed
+     * into a single region if it grows past {@link #MAX_REGIONS_PER_LAYER}
+     */
+    static void merge(final List<ReferencedEnvelope> regions, final ReferencedEnvelope region) {
+        ReferencedEnvelope merged = new ReferencedEnvelope(region);
+        // merging might make the region intersect ones that have already been checked, so
+        // repeat until nothing changes
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Iterator<ReferencedEnvelope> it = regions.iterator(); it.hasNext();) {
+                ReferencedEnvelope current = it.next();
+                if (current.intersects((Envelope) merged)) {
+                    merged.expandToInclude(current);
+                    it.remove();
+                    changed = true;
+                }
+            }
+        }
+        regions.add(merged);
+
+        if (regions.size() > MAX_REGIONS_PER_LAYER) {
+            ReferencedEnvelope all = new ReferencedEnvelope(regions.get(0));
+            for (ReferencedEnvelope r : regions) {
+                all.expandToInclude(r);
+            }
+            regions.clear();
+            regions.add(all);
+        }
+    }
+
+    /**
+     * Deletes the tiles affected by all the pending regions, right away
+     */
+    public void flush() {
+        final Map<String, List<ReferencedEnvelope>> regions;
+        synchronized (this) {
+            regions = pending;
+            pending = new HashMap<String, List<ReferencedEnvelope>>();
+            scheduled = false;
+        }
+        if (regions.isEmpty()) {
+            return;
+        }
+
+        final long start = System.currentTimeMillis();
+        long tiles = 0;
+        for (Map.Entry<String, List<ReferencedEnvelope>> entry : regions.entrySet()) {
+            final String tileLayerName = entry.getKey();
+            try {
+                tiles += gwc.truncateTiles(tileLayerName, entry.getValue());
+            } catch (Exception e) {
+                // the layer might have been removed in the meantime
+                log.log(Level.WARNING, "Error truncating tile layer " + tileLayerName
+                        + " for transaction affected bounds " + entry.getValue(), e);
+            }
+        }
+        final long elapsed = System.currentTimeMillis() - start;
+
+        flushes.incrementAndGet();
+        tilesInvalidated.addAndGet(tiles);
+        truncateTime.addAndGet(elapsed);
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("Invalidated " + tiles + " tiles for " + regions.size()
+                    + " tile layers in " + elapsed + "ms");
+        }
+    }
+
+    /**
+     * Returns the number of dirty regions queued so far
+     */
+    public long getRegionsQueued() {
+        return regionsQueued.get();
+    }
+
+    /**
+     * Returns the number of times the queue has been flushed
+     */
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    /**
+     * Returns the number of tiles invalidated so far, counting all the tiles in the affected
+     * ranges, whether they were cached or not
+     */
+    public long getTilesInvalidated() {
+        return tilesInvalidated.get();
+    }
+
+    /**
+     * Returns the time spent deleting tiles so far, in milliseconds
+     */
+    public long getTruncateTime() {
+        return truncateTime.get();
+    }
+
+    private synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "GWC truncation queue");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Stops the flushing thread, deleting the tiles for the regions still pending
+     */
+    public void destroy() throws Exception {
+        ScheduledExecutorService toShutdown;
+        synchronized (this) {
+            toShutdown = executor;
+            executor = null;
+        }
+        if (toShutdown != null) {
+            toShutdown.shutdownNow();
+        }
+        flush();
+    }
+}
@@ -71,6 +71,13 @@ public class GWCConfig implements Cloneable, Serializable {
     
     private String lockProviderName;
 
+    /**
+     * Time window, in milliseconds, over which the areas dirtied by transactions are coalesced
+     * before the affected tiles get deleted. Zero or negative disables coalescing, the tiles get
+     * truncated right after each transaction.
+     */
+    private int truncateCoalescingWindow;
+
     /**
      * Creates a new GWC config with default values
      */
@@ -342,4 +349,16 @@ public class GWCConfig implements Cloneable, Serializable {
     public void setLockProviderName(String lockProviderName) {
         this.lockProviderName = lockProviderName;
     }
+
+    /**
+     * Returns the time window, in milliseconds, over which the areas dirtied by transactions
+     * are coalesced before truncation. Zero or negative means no coalescing.
+     */
+    public int getTruncateCoalescingWindow() {
+        return truncateCoalescingWindow;
+    }
+
+    public void setTruncateCoalescingWindow(int truncateCoalescingWindow) {
+        this.truncateCoalescingWindow = truncateCoalescingWindow;
+    }
 }
@@ -0,0 +1,337 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc.wms;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.config.GeoServer;
+import org.geoserver.filters.GeoServerFilter;
+import org.geoserver.gwc.GWC;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.AccessLevel;
+import org.geoserver.security.SecureCatalogImpl;
+import org.geoserver.security.WrapperPolicy;
+import org.geoserver.security.impl.ServiceAccessRule;
+import org.geoserver.security.impl.ServiceAccessRuleDAO;
+import org.geoserver.wms.WMSInfo;
+import org.geotools.util.logging.Logging;
+import org.geowebcache.grid.GridSubset;
+import org.geowebcache.io.ByteArrayResource;
+import org.geowebcache.io.Resource;
+import org.geowebcache.layer.TileLayer;
+import org.geowebcache.mime.MimeType;
+import org.geowebcache.storage.TileObject;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Serves cached tiles for tile aligned WMS GetMap requests before they reach the OWS
+ * {@link org.geoserver.ows.Dispatcher}.
+ * <p>
+ * When the direct WMS integration is enabled, {@link CachingWebMapService} serves cached tiles
+ * only after the request went through the whole dispatching machinery: KVP parsing, the GetMap
+ * request reader (layer and style resolution, filter parsing), and the dispatcher callbacks.
+ * This filter recognizes the simple cases from the raw parameters instead, and streams the tile
+ * straight from the storage using {@link GWC#getCachedTile(Map)}. Anything else, including a
+ * cache miss, goes down the regular pipeline.
+ * </p>
+ * <p>
+ * The filter runs after the authentication filters, but the request does not go through the
+ * dispatcher security checks, so the fast path is only taken when they could not make a
+ * difference: no service access rule restricts WMS GetMap, and the current user can read the
+ * layer without any access limits. Requests against virtual services are left alone too.
+ * </p>
+ * <p>
+ * The tiles served by the fast path skip the dispatcher callbacks as well, hence they are not
+ * subject to the control-flow limits and are not recorded by the monitoring extension. The fast
+ * path can be disabled by setting the {@value #FAST_PATH_PROPERTY} system property, environment
+ * variable or servlet context parameter to {@code false}.
+ * </p>
+ */
+public class CachedTileFilter implements GeoServerFilter {
+
+    private static final Logger LOGGER = Logging.getLogger(CachedTileFilter.class);
+
+    /**
+     * The property used to enable or disable the fast path, enabled by default
+     */
+    public static final String FAST_PATH_PROPERTY = "GWC_TILE_FAST_PATH";
+
+    private final GWC gwc;
+
+    private final GeoServer geoServer;
+
+    private final SecureCatalogImpl secureCatalog;
+
+    private ServiceAccessRuleDAO serviceRules;
+
+    private final boolean enabled;
+
+    /**
+     * @param gwc
+     *            the GWC facade
+     * @param geoServer
+     *            used to check the WMS service is enabled
+     * @param secureCatalog
+     *            the secure catalog, used to check the current user can access the layer
+     */
+    public CachedTileFilter(GWC gwc, GeoServer geoServer, SecureCatalogImpl secureCatalog) {
+        this.gwc = gwc;
+        this.geoServer = geoServer;
+        this.secureCatalog = secureCatalog;
+        // read here, the filter is a spring bean and init() is not called on it
+        String property = GeoServerExtensions.getProperty(FAST_PATH_PROPERTY);
+        this.enabled = property == null || Boolean.valueOf(property);
+    }
+
+    public void init(FilterConfig filterConfig) throws ServletException {
+        // nothing to do
+    }
+
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (enabled && request instanceof HttpServletRequest
+                && response instanceof HttpServletResponse) {
+            HttpServletRequest httpRequest = (HttpServletRequest) request;
+            HttpServletResponse httpResponse = (HttpServletResponse) response;
+            try {
+                if (serveCachedTile(httpRequest, httpResponse)) {
+                    return;
+                }
+            } catch (Exception e) {
+                if (httpResponse.isCommitted()) {
+                    // failed while writing the tile, most likely the client went away
+                    LOGGER.log(Level.FINE, "Failed to write the cached tile", e);
+                    return;
+                }
+                // nothing has been written yet, let the regular pipeline deal with it
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, "Failed to serve the request from the tile cache", e);
+                }
+            }
+        }
+        chain.doFilter(request, response);
+    }
+
+    /**
+     * Writes out the cached tile matching the request, if any.
+     *
+     * @return {@code true} if the request has been handled, {@code false} if it should go down
+     *         the regular pipeline. Nothing is written to the response in the latter case.
+     */
+    boolean serveCachedTile(HttpServletRequest request, HttpServletResponse response)
+            throws Exception {
+        if (!"GET".equalsIgnoreCase(request.getMethod()) || !isGlobalOwsPath(request)) {
+            return false;
+        }
+
+        Map<String, String> rawKvp = getRawKvp(request);
+        if (rawKvp == null || !"GetMap".equalsIgnoreCase(rawKvp.get("REQUEST"))
+                || !"true".equalsIgnoreCase(rawKvp.get("TILED"))) {
+            return false;
+        }
+        String service = rawKvp.get("SERVICE");
+        if (service == null ? request.getRequestURI().endsWith("/ows")
+                : !"WMS".equalsIgnoreCase(service)) {
+            return false;
+        }
+        String version = rawKvp.get("VERSION");
+        if (version != null && !version.startsWith("1.1") && !version.equals("1.0.0")) {
+            return false;
+        }
+
+        if (!gwc.getConfig().isDirectWMSIntegrationEnabled()
+                || !geoServer.getService(WMSInfo.class).isEnabled()
+                || !isFullyAccessible(rawKvp.get("LAYERS")) || isGetMapRestricted()) {
+            return false;
+        }
+
+        TileObject tile = gwc.getCachedTile(rawKvp);
+        if (tile == null) {
+            return false;
+        }
+        writeTile(tile, request, response);
+        return true;
+    }
+
+    /**
+     * Only the global service endpoints are handled, virtual services need the local workspace
+     * machinery set up by the dispatcher
+     */
+    boolean isGlobalOwsPath(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        return "/wms".equals(path) || "/ows".equals(path);
+    }
+
+    /**
+     * Returns the request parameters with upper case keys, or null if any of them is repeated
+     */
+    Map<String, String> getRawKvp(HttpServletRequest request) {
+        Map<String, String> rawKvp = new HashMap<String, String>();
+        for (Object entry : request.getParameterMap().entrySet()) {
+            Map.Entry<String, String[]> e = (Map.Entry<String, String[]>) entry;
+            String[] values = e.getValue();
+            if (values == null || values.length != 1) {
+                return null;
+            }
+            if (rawKvp.put(e.getKey().toUpperCase(), values[0]) != null) {
+                return null;
+            }
+        }
+        return rawKvp;
+    }
+
+    /**
+     * Checks the current user can read the layer, or all the layers in the group, without any
+     * access limits
+     */
+    boolean isFullyAccessible(String layerName) {
+        if (layerName == null) {
+            return false;
+        }
+        final Catalog catalog = gwc.getCatalog();
+        final Authentication user = SecurityContextHolder.getContext().getAuthentication();
+        LayerInfo layer = catalog.getLayerByName(layerName);
+        if (layer != null) {
+            return isFullyAccessible(user, layer, layer.getName());
+        }
+        LayerGroupInfo group = catalog.getLayerGroupByName(layerName);
+        if (group == null || !isFullyAccessible(user, group, group.getName())) {
+            return false;
+        }
+        for (LayerInfo child : group.layers()) {
+            if (!isFullyAccessible(user, child, child.getName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isFullyAccessible(Authentication user, CatalogInfo info, String name) {
+        WrapperPolicy policy = secureCatalog.buildWrapperPolicy(user, info, name);
+        return (policy.level == AccessLevel.READ_ONLY || policy.level == AccessLevel.READ_WRITE)
+                && policy.getLimits() == null;
+    }
+
+    /**
+     * Checks if there is a service access rule restricting WMS GetMap to some roles
+     */
+    boolean isGetMapRestricted() {
+        if (serviceRules == null) {
+            serviceRules = GeoServerExtensions.bean(ServiceAccessRuleDAO.class);
+            if (serviceRules == null) {
+                return false;
+            }
+        }
+        for (ServiceAccessRule rule : serviceRules.getRules()) {
+            if (rule.getService().equals(ServiceAccessRule.ANY)
+                    || rule.getService().equalsIgnoreCase("wms")) {
+                if (rule.getMethod().equals(ServiceAccessRule.ANY)
+                        || rule.getMethod().equalsIgnoreCase("GetMap")) {
+                    if (!rule.getRoles().isEmpty()
+                            && !rule.getRoles().contains(ServiceAccessRule.ANY)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the tile, with the same headers {@link CachingWebMapService} sets
+     */
+    void writeTile(TileObject tile, HttpServletRequest request, HttpServletResponse response)
+            throws Exception {
+        final byte[] tileBytes;
+        final Resource contents = tile.getBlob();
+        if (contents instanceof ByteArrayResource) {
+            tileBytes = ((ByteArrayResource) contents).getContents();
+        } else {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            contents.transferTo(Channels.newChannel(out));
+            tileBytes = out.toByteArray();
+        }
+
+        final TileLayer layer = gwc.getTileLayerByName(tile.getLayerName());
+        final MimeType mimeType = MimeType.createFromFormat(tile.getBlobFormat());
+        final String etag = CachingWebMapService.toHexString(MessageDigest.getInstance("MD5")
+                .digest(tileBytes));
+        final String lastModified = DateUtil.formatDate(new Date(tile.getCreated()));
+
+        Object cacheAgeMax = CachingWebMapService.getCacheAge(layer);
+        if (cacheAgeMax != null) {
+            response.setHeader("Cache-Control", "max-age=" + cacheAgeMax);
+        } else {
+            response.setHeader("Cache-Control", "no-cache");
+        }
+        response.setHeader("ETag", etag);
+        response.setHeader("Last-Modified", lastModified);
+
+        if (etag.equals(request.getHeader("If-None-Match"))
+                || notModifiedSince(request.getHeader("If-Modified-Since"), tile.getCreated())) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        GridSubset gridSubset = layer.getGridSubset(tile.getGridSetId());
+        long[] tileIndex = tile.getXYZ();
+        response.setHeader("geowebcache-layer", layer.getName());
+        response.setHeader("geowebcache-cache-result", "HIT");
+        response.setHeader("geowebcache-tile-index", Arrays.toString(tileIndex));
+        response.setHeader("geowebcache-tile-bounds", gridSubset.boundsFromIndex(tileIndex)
+                .toString());
+        response.setHeader("geowebcache-gridset", gridSubset.getName());
+        response.setHeader("geowebcache-crs", gridSubset.getSRS().toString());
+        response.setHeader("Content-Disposition", "inline; filename="
+                + layer.getName().replace(':', '-') + "." + mimeType.getFileExtension());
+
+        response.setContentType(mimeType.getMimeType());
+        response.setContentLength(tileBytes.length);
+        response.getOutputStream().write(tileBytes);
+        response.getOutputStream().flush();
+    }
+
+    private boolean notModifiedSince(String ifModifiedSince, long tileTimeStamp) {
+        if (ifModifiedSince == null || ifModifiedSince.length() == 0) {
+            return false;
+        }
+        try {
+            // the HTTP header has second precision
+            long ifModSinceSeconds = 1000 * (DateUtil.parseDate(ifModifiedSince).getTime() / 1000);
+            long tileTimeStampSeconds = 1000 * (tileTimeStamp / 1000);
+            return ifModSinceSeconds >= tileTimeStampSeconds;
+        } catch (DateParseException e) {
+            return false;
+        }
+    }
+
+    public void destroy() {
+        // nothing to do
+    }
+}
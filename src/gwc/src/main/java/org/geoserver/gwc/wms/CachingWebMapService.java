@@ -187,7 +187,7 @@ public class CachingWebMapService implements MethodInterceptor {
         map.setResponseHeader("geowebcache-crs", gridSubset.getSRS().toString());
     }
 
-    private Object getCacheAge(TileLayer layer) {
+    static Object getCacheAge(TileLayer layer) {
         Object cacheAge = null;
         if (layer instanceof GeoServerTileLayer) {
             LayerInfo layerInfo = ((GeoServerTileLayer) layer).getLayerInfo();
@@ -220,7 +220,7 @@ public class CachingWebMapService implements MethodInterceptor {
         return request;
     }
 
-    private String toHexString(byte[] hash) {
+    static String toHexString(byte[] hash) {
 
         StringBuilder sb = new StringBuilder();
 
@@ -22,7 +22,9 @@ import org.geoserver.config.GeoServerDataDirectory;
 import org.geoserver.data.test.MockData;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.gwc.layer.CatalogConfiguration;
+import org.geoserver.gwc.wms.CachedTileFilter;
 import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.security.SecureCatalogImpl;
 import org.geoserver.test.GeoServerSystemTestSupport;
 import org.geowebcache.GeoWebCacheDispatcher;
 import org.geowebcache.GeoWebCacheException;
@@ -41,6 +43,7 @@ import org.geowebcache.layer.TileLayerDispatcher;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.mockrunner.mock.web.MockFilterChain;
 import com.mockrunner.mock.web.MockHttpServletRequest;
 import com.mockrunner.mock.web.MockHttpServletResponse;
 import org.geoserver.gwc.layer.GeoServerTileLayer;
@@ -163,6 +166,84 @@ public class GWCIntegrationTest extends GeoServerSystemTestSupport {
         assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getErrorCode());
     }
 
+    @Test public void testCachedTileFilter() throws Exception {
+        final GWC gwc = GWC.get();
+        gwc.getConfig().setDirectWMSIntegrationEnabled(true);
+        CachedTileFilter filter = GeoServerExtensions.bean(CachedTileFilter.class);
+        assertNotNull(filter);
+
+        final String layerName = BASIC_POLYGONS.getPrefix() + ":" + BASIC_POLYGONS.getLocalPart();
+        final String path = buildGetMap(true, layerName, "EPSG:4326", null) + "&tiled=true";
+
+        // not cached yet, goes down the regular pipeline
+        MockHttpServletRequest httpReq = createRequest(path);
+        httpReq.setMethod("GET");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain();
+        filter.doFilter(httpReq, response, chain);
+        assertNotNull(chain.getLastRequest());
+
+        // the regular pipeline caches the tile
+        response = getAsServletResponse(path);
+        assertEquals(200, response.getStatusCode());
+
+        // now it's served by the filter, without reaching the dispatcher
+        httpReq = createRequest(path);
+        httpReq.setMethod("GET");
+        response = new MockHttpServletResponse();
+        chain = new MockFilterChain();
+        filter.doFilter(httpReq, response, chain);
+        assertNull(chain.getLastRequest());
+        assertEquals("image/png", response.getContentType());
+        assertEquals("HIT", response.getHeader("geowebcache-cache-result"));
+        assertEquals(layerName, response.getHeader("geowebcache-layer"));
+        assertEquals("[0, 0, 0]", response.getHeader("geowebcache-tile-index"));
+        assertNotNull(response.getHeader("ETag"));
+        assertTrue(response.getOutputStreamContent().length() > 0);
+
+        // conditional get
+        httpReq = createRequest(path);
+        httpReq.setMethod("GET");
+        httpReq.setHeader("If-None-Match", response.getHeader("ETag"));
+        response = new MockHttpServletResponse();
+        chain = new MockFilterChain();
+        filter.doFilter(httpReq, response, chain);
+        assertNull(chain.getLastRequest());
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatusCode());
+
+        // the fast path can be disabled with a property
+        System.setProperty(CachedTileFilter.FAST_PATH_PROPERTY, "false");
+        try {
+            CachedTileFilter disabled = new CachedTileFilter(gwc, getGeoServer(),
+                    GeoServerExtensions.bean(SecureCatalogImpl.class));
+            httpReq = createRequest(path);
+            httpReq.setMethod("GET");
+            response = new MockHttpServletResponse();
+            chain = new MockFilterChain();
+            disabled.doFilter(httpReq, response, chain);
+            assertNotNull(chain.getLastRequest());
+        } finally {
+            System.clearProperty(CachedTileFilter.FAST_PATH_PROPERTY);
+        }
+
+        // parameters that are not handled by a parameter filter make it fall back
+        httpReq = createRequest(path + "&cql_filter=FID='123'");
+        httpReq.setMethod("GET");
+        response = new MockHttpServletResponse();
+        chain = new MockFilterChain();
+        filter.doFilter(httpReq, response, chain);
+        assertNotNull(chain.getLastRequest());
+
+        // and so does a disabled integration
+        gwc.getConfig().setDirectWMSIntegrationEnabled(false);
+        httpReq = createRequest(path);
+        httpReq.setMethod("GET");
+        response = new MockHttpServletResponse();
+        chain = new MockFilterChain();
+        filter.doFilter(httpReq, response, chain);
+        assertNotNull(chain.getLastRequest());
+    }
+
     @Test public void testDirectWMSIntegrationMaxAge() throws Exception {
         final GWC gwc = GWC.get();
         gwc.getConfig().setDirectWMSIntegrationEnabled(true);
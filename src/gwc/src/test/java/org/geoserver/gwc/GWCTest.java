@@ -81,6 +81,7 @@ import org.geowebcache.service.Service;
 import org.geowebcache.storage.DefaultStorageFinder;
 import org.geowebcache.storage.StorageBroker;
 import org.geowebcache.storage.StorageException;
+import org.geowebcache.storage.TileRange;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -642,6 +643,39 @@ public class GWCTest {
         verify(tileBreeder, times(expected)).dispatchTasks(any(GWCTask[].class));
     }
 
+    @Test
+    public void testTruncateTiles() throws Exception {
+
+        String layerName = tileLayer.getName();
+        // bounds outside layer bounds (which are -180,0,0,90)
+        ReferencedEnvelope outside = new ReferencedEnvelope(10, 20, 10, 20,
+                DefaultGeographicCRS.WGS84);
+        long tiles = mediator.truncateTiles(layerName, Collections.singletonList(outside));
+        assertEquals(0, tiles);
+        verify(storageBroker, never()).delete(any(TileRange.class));
+
+        // bounds intersecting layer bounds, one batched delete per gridset, format and style,
+        // no truncate tasks
+        ReferencedEnvelope inside = new ReferencedEnvelope(-10, 10, -10, 10,
+                DefaultGeographicCRS.WGS84);
+        tiles = mediator.truncateTiles(layerName, Collections.singletonList(inside));
+        assertTrue(tiles > 0);
+
+        int numGridsets = tileLayer.getGridSubsets().size();
+        int numFormats = tileLayer.getMimeTypes().size();
+        int numStyles = 1/* default */+ tileLayer.getInfo().cachedStyles().size();
+        final int expected = numGridsets * numFormats * numStyles;
+        verify(storageBroker, times(expected)).delete(any(TileRange.class));
+        verify(tileBreeder, never()).dispatchTasks(any(GWCTask[].class));
+    }
+
+    @Test
+    public void testCountTiles() {
+        long[][] ranges = { { 0, 0, 0, 0, 0 }, { 0, 0, 1, 1, 1 }, { 2, 2, 5, 3, 2 },
+                { 1, 1, 0, 0, 3 }, null };
+        assertEquals(1 + 4 + 8, GWC.countTiles(ranges));
+    }
+
     @Test
     public void testLayerRemoved() throws Exception {
         mediator.layerRemoved("someLayer");
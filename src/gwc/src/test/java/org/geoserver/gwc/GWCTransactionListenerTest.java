@@ -9,9 +9,11 @@ import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 import static org.geotools.referencing.crs.DefaultGeographicCRS.WGS84;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -28,6 +30,7 @@ import net.opengis.wfs.InsertElementType;
 import net.opengis.wfs.TransactionResponseType;
 import net.opengis.wfs.TransactionType;
 
+import org.geoserver.gwc.config.GWCConfig;
 import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionEventType;
 import org.geotools.data.simple.SimpleFeatureCollection;
@@ -185,6 +188,30 @@ public class GWCTransactionListenerTest {
 
     }
 
+    @Test
+    public void testAfterTransactionCoalescing() throws Exception {
+        TruncationQueue queue = mock(TruncationQueue.class);
+        listener = new GWCTransactionListener(mediator, queue);
+        GWCConfig config = new GWCConfig();
+        config.setTruncateCoalescingWindow(500);
+        when(mediator.getConfig()).thenReturn(config);
+
+        Map<Object, Object> extendedProperties = new HashMap<Object, Object>();
+        ReferencedEnvelope affectedBounds = new ReferencedEnvelope(-180, 0, 0, 90, WGS84);
+        issueInsert(extendedProperties, affectedBounds);
+
+        TransactionType request = mock(TransactionType.class);
+        TransactionResponseType result = mock(TransactionResponseType.class);
+        when(request.getExtendedProperties()).thenReturn(extendedProperties);
+
+        when(mediator.getDeclaredCrs(anyString())).thenReturn(WGS84);
+        listener.afterTransaction(request, result, true);
+
+        verify(queue, times(1)).add(eq("theLayer"), eq(affectedBounds), eq(500L));
+        verify(queue, times(1)).add(eq("theGroup"), eq(affectedBounds), eq(500L));
+        verify(mediator, never()).truncate(anyString(), any(ReferencedEnvelope.class));
+    }
+
     /**
      * Issues a fake dataStoreChange insert event that affects two tile layers: "theLayer" and
      * "theGroup"
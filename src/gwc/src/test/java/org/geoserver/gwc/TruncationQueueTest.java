@@ -0,0 +1,112 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.gwc;
+
+import static org.geotools.referencing.crs.DefaultGeographicCRS.WGS84;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TruncationQueueTest {
+
+    private GWC mediator;
+
+    private TruncationQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        mediator = mock(GWC.class);
+        queue = new TruncationQueue(mediator);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        queue.destroy();
+    }
+
+    @Test
+    public void testMergeIntersecting() {
+        List<ReferencedEnvelope> regions = new ArrayList<ReferencedEnvelope>();
+        TruncationQueue.merge(regions, new ReferencedEnvelope(0, 10, 0, 10, WGS84));
+        TruncationQueue.merge(regions, new ReferencedEnvelope(20, 30, 0, 10, WGS84));
+        assertEquals(2, regions.size());
+
+        // bridges the two existing regions
+        TruncationQueue.merge(regions, new ReferencedEnvelope(5, 25, 5, 6, WGS84));
+        assertEquals(1, regions.size());
+        assertEquals(new ReferencedEnvelope(0, 30, 0, 10, WGS84), regions.get(0));
+    }
+
+    @Test
+    public void testMergeCollapses() {
+        List<ReferencedEnvelope> regions = new ArrayList<ReferencedEnvelope>();
+        for (int i = 0; i <= TruncationQueue.MAX_REGIONS_PER_LAYER; i++) {
+            TruncationQueue.merge(regions, new ReferencedEnvelope(i * 2, i * 2 + 1, 0, 1, WGS84));
+        }
+        assertEquals(1, regions.size());
+        assertEquals(new ReferencedEnvelope(0, TruncationQueue.MAX_REGIONS_PER_LAYER * 2 + 1,
+                0, 1, WGS84), regions.get(0));
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        ReferencedEnvelope r1 = new ReferencedEnvelope(0, 10, 0, 10, WGS84);
+        ReferencedEnvelope r2 = new ReferencedEnvelope(5, 15, 5, 15, WGS84);
+        ReferencedEnvelope r3 = new ReferencedEnvelope(50, 60, 50, 60, WGS84);
+        ReferencedEnvelope merged = new ReferencedEnvelope(0, 15, 0, 15, WGS84);
+        when(mediator.truncateTiles(eq("theLayer"), anyListOf(ReferencedEnvelope.class)))
+                .thenReturn(100L);
+
+        // long window, we flush explicitly
+        queue.add("theLayer", r1, 60000);
+        queue.add("theLayer", r2, 60000);
+        queue.add("theLayer", r3, 60000);
+        queue.flush();
+
+        verify(mediator, times(1)).truncateTiles(eq("theLayer"), eq(Arrays.asList(merged, r3)));
+        assertEquals(3, queue.getRegionsQueued());
+        assertEquals(1, queue.getFlushes());
+        assertEquals(100, queue.getTilesInvalidated());
+
+        // nothing left to do
+        queue.flush();
+        verifyNoMoreInteractions(mediator);
+    }
+
+    @Test
+    public void testScheduledFlush() throws Exception {
+        ReferencedEnvelope r1 = new ReferencedEnvelope(0, 10, 0, 10, WGS84);
+        queue.add("theLayer", r1, 10);
+        queue.add("theGroup", r1, 10);
+
+        verify(mediator, timeout(5000)).truncateTiles(eq("theLayer"), eq(Arrays.asList(r1)));
+        verify(mediator, timeout(5000)).truncateTiles(eq("theGroup"), eq(Arrays.asList(r1)));
+    }
+
+    @Test
+    public void testFlushDoesNotPropagateExceptions() throws Exception {
+        ReferencedEnvelope r1 = new ReferencedEnvelope(0, 10, 0, 10, WGS84);
+        when(mediator.truncateTiles(eq("theLayer"), anyListOf(ReferencedEnvelope.class)))
+                .thenThrow(new IllegalArgumentException("no such layer"));
+        queue.add("theLayer", r1, 60000);
+        queue.flush();
+        assertEquals(0, queue.getTilesInvalidated());
+    }
+}
@@ -0,0 +1,49 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+/**
+ * Thread local marking the current thread as only reading the catalog.
+ * <p>
+ * While active, {@link Catalog#list(Class, org.opengis.filter.Filter)} and its variants wrap the
+ * catalog objects in read only proxies instead of modification proxies. These hand out copies
+ * of the collections and maps, taken consistently with concurrent saves, without tracking
+ * changes, which saves the bookkeeping and the second copy of each collection the modification
+ * proxies make. This pays off for code walking the whole catalog, such as the capabilities
+ * documents of large servers.
+ * </p>
+ * <p>
+ * The objects returned cannot be modified, their setters throw an
+ * {@link UnsupportedOperationException}, and they cannot be saved back in the catalog.
+ * </p>
+ * <p>
+ * Usage:
+ * <pre>
+ * ReadOnlyListing.start();
+ * try {
+ *     ...
+ * } finally {
+ *     ReadOnlyListing.finish();
+ * }
+ * </pre>
+ * The mode is not reentrant, the first call to {@link #finish()} ends it.
+ * </p>
+ */
+public class ReadOnlyListing {
+
+    static ThreadLocal<Boolean> ACTIVE = new ThreadLocal<Boolean>();
+
+    public static void start() {
+        ACTIVE.set(Boolean.TRUE);
+    }
+
+    public static boolean isActive() {
+        return ACTIVE.get() != null;
+    }
+
+    public static void finish() {
+        ACTIVE.remove();
+    }
+}
@@ -0,0 +1,460 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * Bounded, least recently used cache backing the {@link ResourcePool} caches.
+ * <p>
+ * The cache can be limited by number of entries, by idle time and by total weight of the
+ * entries, as computed by a {@link Weigher}. A limit of zero or less means no limit. Entries
+ * exceeding the limits are evicted starting from the least recently used one, and passed to
+ * {@link #dispose(Object, Object)} so that subclasses can release the associated resources.
+ * Disposal always happens outside of the cache lock, the same goes for explicit removals
+ * and {@link #clear()}.
+ * </p>
+ * <p>
+ * The cache keeps track of hits, misses, evictions and of the time spent loading the values,
+ * the latter being reported by the code creating the values through
+ * {@link #recordLoad(long)}.
+ * </p>
+ * <p>
+ * The implementation is thread safe. The {@link #entrySet()}, {@link #keySet()} and
+ * {@link #values()} views are snapshots, changes to them are not reflected in the cache.
+ * </p>
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class ResourceCache<K, V> extends AbstractMap<K, V> {
+
+    static final Logger LOGGER = Logging.getLogger("org.geoserver.catalog");
+
+    /**
+     * Computes the weight of a cache entry, used to limit the cache by total weight.
+     */
+    public static interface Weigher<K, V> {
+        /**
+         * Returns the weight of the entry, a non negative value.
+         */
+        int weigh(K key, V value);
+    }
+
+    static class CacheEntry<V> {
+        V value;
+
+        int weight;
+
+        long lastAccess;
+
+        CacheEntry(V value, int weight, long lastAccess) {
+            this.value = value;
+            this.weight = weight;
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    final String name;
+
+    final Object lock = new Object();
+
+    final LinkedHashMap<K, CacheEntry<V>> entries = new LinkedHashMap<K, CacheEntry<V>>(16,
+            0.75f, true);
+
+    volatile int maxEntries;
+
+    volatile long maxIdleTime;
+
+    volatile long maxWeight;
+
+    volatile Weigher<? super K, ? super V> weigher;
+
+    long weight;
+
+    final AtomicLong hits = new AtomicLong();
+
+    final AtomicLong misses = new AtomicLong();
+
+    final AtomicLong evictions = new AtomicLong();
+
+    final AtomicLong loads = new AtomicLong();
+
+    final AtomicLong loadTime = new AtomicLong();
+
+    /**
+     * Creates an unbounded cache.
+     *
+     * @param name The cache name, used for logging and statistics
+     */
+    public ResourceCache(String name) {
+        this(name, 0);
+    }
+
+    /**
+     * Creates a cache bounded by number of entries.
+     *
+     * @param name The cache name, used for logging and statistics
+     * @param maxEntries The maximum number of entries, zero or less for no limit
+     */
+    public ResourceCache(String name, int maxEntries) {
+        this.name = name;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Releases the resources associated to an entry that has been evicted, removed or cleared.
+     * The default implementation does nothing.
+     */
+    protected void dispose(K key, V value) {
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Sets the maximum number of entries, zero or less for no limit. Entries exceeding the new
+     * limit are evicted immediately.
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+        evict();
+    }
+
+    /**
+     * The time in milliseconds after which an entry that has not been accessed expires.
+     */
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    /**
+     * Sets the time in milliseconds after which an entry that has not been accessed expires,
+     * zero or less for no expiration.
+     */
+    public void setMaxIdleTime(long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+        evict();
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Sets the maximum total weight of the entries, zero or less for no limit. Has effect only
+     * if a {@link Weigher} is set, otherwise every entry weights one.
+     */
+    public void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        evict();
+    }
+
+    public Weigher<? super K, ? super V> getWeigher() {
+        return weigher;
+    }
+
+    /**
+     * Sets the weigher, affects only the entries added after the call.
+     */
+    public void setWeigher(Weigher<? super K, ? super V> weigher) {
+        this.weigher = weigher;
+    }
+
+    /**
+     * The total weight of the entries in the cache.
+     */
+    public long getWeight() {
+        synchronized (lock) {
+            return weight;
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public long getLoads() {
+        return loads.get();
+    }
+
+    /**
+     * The total time spent loading values, in milliseconds.
+     */
+    public long getLoadTime() {
+        return loadTime.get() / 1000000;
+    }
+
+    /**
+     * The ratio between hits and lookups, or zero if there has been no lookup so far.
+     */
+    public double getHitRatio() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * The average time spent loading a value, in milliseconds.
+     */
+    public double getAverageLoadTime() {
+        long l = loads.get();
+        return l == 0 ? 0 : loadTime.get() / 1000000d / l;
+    }
+
+    /**
+     * Records a value has been loaded in the cache.
+     *
+     * @param nanos The time it took to load the value, in nanoseconds
+     */
+    public void recordLoad(long nanos) {
+        loads.incrementAndGet();
+        loadTime.addAndGet(nanos);
+    }
+
+    /**
+     * Resets the hit, miss, eviction and load counters.
+     */
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+        loads.set(0);
+        loadTime.set(0);
+    }
+
+    /**
+     * Returns the statistics of this cache as a map, suitable for encoding.
+     */
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("size", size());
+        stats.put("maxEntries", maxEntries);
+        stats.put("maxIdleTime", maxIdleTime);
+        stats.put("weight", getWeight());
+        stats.put("maxWeight", maxWeight);
+        stats.put("hits", getHits());
+        stats.put("misses", getMisses());
+        stats.put("hitRatio", getHitRatio());
+        stats.put("evictions", getEvictions());
+        stats.put("loads", getLoads());
+        stats.put("loadTime", getLoadTime());
+        stats.put("averageLoadTime", getAverageLoadTime());
+        return stats;
+    }
+
+    @Override
+    public V get(Object key) {
+        V value = null;
+        Map<K, V> expired = null;
+        synchronized (lock) {
+            CacheEntry<V> entry = entries.get(key);
+            if (entry != null) {
+                long now = System.currentTimeMillis();
+                if (isExpired(entry, now)) {
+                    expired = Collections.singletonMap((K) key, removeEntry((K) key).value);
+                } else {
+                    entry.lastAccess = now;
+                    value = entry.value;
+                }
+            }
+        }
+        if (value != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        if (expired != null) {
+            evictions.incrementAndGet();
+            disposeAll(expired);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the value associated to the key without affecting the statistics nor the
+     * entry access time.
+     */
+    public V peek(Object key) {
+        synchronized (lock) {
+            CacheEntry<V> entry = entries.get(key);
+            return entry == null || isExpired(entry, System.currentTimeMillis()) ? null
+                    : entry.value;
+        }
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not supported");
+        }
+        Weigher<? super K, ? super V> w = weigher;
+        int entryWeight = w != null ? Math.max(0, w.weigh(key, value)) : 1;
+        V previous = null;
+        Map<K, V> evicted;
+        synchronized (lock) {
+            CacheEntry<V> old = entries.put(key, new CacheEntry<V>(value, entryWeight,
+                    System.currentTimeMillis()));
+            weight += entryWeight;
+            if (old != null) {
+                weight -= old.weight;
+                previous = old.value;
+            }
+            evicted = collectEvicted();
+        }
+        disposeAll(evicted);
+        return previous;
+    }
+
+    @Override
+    public V remove(Object key) {
+        CacheEntry<V> entry;
+        synchronized (lock) {
+            entry = removeEntry((K) key);
+        }
+        if (entry == null) {
+            return null;
+        }
+        disposeAll(Collections.singletonMap((K) key, entry.value));
+        return entry.value;
+    }
+
+    @Override
+    public void clear() {
+        Map<K, V> cleared = new LinkedHashMap<K, V>();
+        synchronized (lock) {
+            for (Map.Entry<K, CacheEntry<V>> e : entries.entrySet()) {
+                cleared.put(e.getKey(), e.getValue().value);
+            }
+            entries.clear();
+            weight = 0;
+        }
+        disposeAll(cleared);
+    }
+
+    /**
+     * Evicts the expired entries and the ones exceeding the cache limits. Called automatically
+     * when new entries are added, can be called explicitly to release idle resources.
+     */
+    public void evict() {
+        Map<K, V> evicted;
+        synchronized (lock) {
+            evicted = collectEvicted();
+        }
+        disposeAll(evicted);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return peek(key) != null;
+    }
+
+    @Override
+    public int size() {
+        synchronized (lock) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Map<K, V> copy = new LinkedHashMap<K, V>();
+        synchronized (lock) {
+            for (Map.Entry<K, CacheEntry<V>> e : entries.entrySet()) {
+                copy.put(e.getKey(), e.getValue().value);
+            }
+        }
+        return Collections.unmodifiableMap(copy).entrySet();
+    }
+
+    boolean isExpired(CacheEntry<V> entry, long now) {
+        long idle = maxIdleTime;
+        return idle > 0 && now - entry.lastAccess > idle;
+    }
+
+    CacheEntry<V> removeEntry(K key) {
+        CacheEntry<V> entry = entries.remove(key);
+        if (entry != null) {
+            weight -= entry.weight;
+        }
+        return entry;
+    }
+
+    /**
+     * Removes the entries exceeding the limits, must be called while holding the lock
+     */
+    Map<K, V> collectEvicted() {
+        Map<K, V> evicted = null;
+        long now = System.currentTimeMillis();
+        int max = maxEntries;
+        long maxW = maxWeight;
+        for (Iterator<Map.Entry<K, CacheEntry<V>>> it = entries.entrySet().iterator(); it
+                .hasNext();) {
+            Map.Entry<K, CacheEntry<V>> e = it.next();
+            boolean overSize = max > 0 && entries.size() > max;
+            // always keep at least the most recent entry, even if heavier than the limit
+            boolean overWeight = maxW > 0 && weight > maxW && entries.size() > 1;
+            if (!overSize && !overWeight && !isExpired(e.getValue(), now)) {
+                // entries are in access order, the following ones have been used more recently
+                break;
+            }
+            it.remove();
+            weight -= e.getValue().weight;
+            if (evicted == null) {
+                evicted = new LinkedHashMap<K, V>();
+            }
+            evicted.put(e.getKey(), e.getValue().value);
+        }
+        if (evicted == null) {
+            return Collections.emptyMap();
+        }
+        evictions.addAndGet(evicted.size());
+        return evicted;
+    }
+
+    void disposeAll(Map<K, V> disposable) {
+        for (Map.Entry<K, V> e : disposable.entrySet()) {
+            try {
+                dispose(e.getKey(), e.getValue());
+            } catch (Exception ex) {
+                LOGGER.log(Level.WARNING, "Error disposing entry " + e.getKey() + " of cache "
+                        + name, ex);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ResourceCache[" + name + ", size=" + size() + "]";
+    }
+}
@@ -0,0 +1,61 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+/**
+ * JMX management interface of a {@link ResourcePool} cache.
+ * 
+ * @see ResourcePoolMBeanExporter
+ */
+public interface ResourceCacheMBean {
+
+    String getName();
+
+    int getSize();
+
+    int getMaxEntries();
+
+    void setMaxEntries(int maxEntries);
+
+    /**
+     * Maximum idle time, in milliseconds
+     */
+    long getMaxIdleTime();
+
+    void setMaxIdleTime(long maxIdleTime);
+
+    long getWeight();
+
+    long getMaxWeight();
+
+    void setMaxWeight(long maxWeight);
+
+    long getHits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    long getEvictions();
+
+    long getLoads();
+
+    /**
+     * Total load time, in milliseconds
+     */
+    long getLoadTime();
+
+    /**
+     * Average load time, in milliseconds
+     */
+    double getAverageLoadTime();
+
+    void resetStatistics();
+
+    /**
+     * Evicts expired entries and the ones exceeding the cache limits
+     */
+    void evict();
+}
@@ -25,11 +25,23 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -79,7 +91,6 @@ import org.geotools.jdbc.JDBCDataStore;
 import org.geotools.jdbc.VirtualTable;
 import org.geotools.referencing.CRS;
 import org.geotools.styling.Style;
-import org.geotools.util.SoftValueHashMap;
 import org.geotools.util.logging.Logging;
 import org.geotools.xml.Schemas;
 import org.opengis.coverage.grid.GridCoverage;
@@ -145,6 +156,53 @@ public class ResourcePool {
      */
     static int FEATURETYPE_CACHE_SIZE_DEFAULT = 100;
     
+    /**
+     * Default number of cached coordinate reference systems
+     */
+    static int CRS_CACHE_SIZE_DEFAULT = 1000;
+    
+    /**
+     * Default number of cached styles
+     */
+    static int STYLE_CACHE_SIZE_DEFAULT = 1000;
+    
+    /**
+     * Prefix of the properties (system, environment or servlet context) configuring the caches,
+     * the full property name is the prefix, the cache name and one of {@link #MAX_ENTRIES},
+     * {@link #MAX_IDLE_TIME} or {@link #MAX_WEIGHT}, e.g. 
+     * <code>org.geoserver.catalog.ResourcePool.dataStores.maxEntries</code> 
+     */
+    public static final String CACHE_PROPERTY_PREFIX = "org.geoserver.catalog.ResourcePool.";
+    
+    /**
+     * Cache property suffix for the maximum number of entries
+     */
+    public static final String MAX_ENTRIES = "maxEntries";
+    
+    /**
+     * Cache property suffix for the maximum idle time, in seconds
+     */
+    public static final String MAX_IDLE_TIME = "maxIdleTime";
+    
+    /**
+     * Cache property suffix for the maximum cache weight
+     */
+    public static final String MAX_WEIGHT = "maxWeight";
+    
+    /**
+     * Property (system, environment or servlet context) setting how long, in seconds, a request
+     * waits for a store, reader or feature type being created by another request before 
+     * giving up. Zero or less means waiting indefinitely.
+     */
+    public static final String CREATION_TIMEOUT = CACHE_PROPERTY_PREFIX + "creationTimeout";
+    
+    /**
+     * Property (system, environment or servlet context) setting for how long, in seconds, 
+     * a store, reader or feature type whose creation failed is not created again, the 
+     * original failure being reported instead. Zero or less disables the back-off.
+     */
+    public static final String FAILURE_BACKOFF = CACHE_PROPERTY_PREFIX + "failureBackoff";
+    
     private static final String IMAGE_PYRAMID = "ImagePyramid";
     private static final String IMAGE_MOSAIC = "ImageMosaic";
 
@@ -160,6 +218,29 @@ public class ResourcePool {
     List<Listener> listeners;
     ThreadPoolExecutor coverageExecutor;
     CatalogRepository repository;
+    
+    CacheLoader<String, DataAccess> dataStoreLoader = new CacheLoader<String, DataAccess>();
+    CacheLoader<String, FeatureType> featureTypeLoader = new CacheLoader<String, FeatureType>();
+    CacheLoader<String, List<AttributeTypeInfo>> featureTypeAttributeLoader = 
+        new CacheLoader<String, List<AttributeTypeInfo>>();
+    CacheLoader<String, GridCoverageReader> coverageReaderLoader = 
+        new CacheLoader<String, GridCoverageReader>();
+    CacheLoader<CoverageHintReaderKey, GridCoverageReader> hintCoverageReaderLoader = 
+        new CacheLoader<CoverageHintReaderKey, GridCoverageReader>();
+    volatile long creationTimeout;
+    volatile long failureBackoff;
+    
+    /**
+     * Runs the resource creations when a creation timeout is set, so that the request triggering
+     * the creation does not wait longer than the others
+     */
+    ExecutorService creationExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "ResourcePool creator");
+            t.setDaemon(true);
+            return t;
+        }
+    });
 
     /**
      * Creates a new instance of the resource pool.
@@ -196,6 +277,15 @@ public class ResourcePool {
         styleCache = createStyleCache();
 
         listeners = new CopyOnWriteArrayList<Listener>();
+        
+        Long timeout = longProperty(CREATION_TIMEOUT);
+        if (timeout != null) {
+            creationTimeout = timeout * 1000;
+        }
+        Long backoff = longProperty(FAILURE_BACKOFF);
+        if (backoff != null) {
+            failureBackoff = backoff * 1000;
+        }
     }
 
     /**
@@ -236,7 +326,7 @@ public class ResourcePool {
     }
 
     protected Map<String,CoordinateReferenceSystem> createCrsCache() {
-        return new HashMap<String, CoordinateReferenceSystem>();
+        return new CrsCache();
     }
 
     /**
@@ -332,7 +422,7 @@ public class ResourcePool {
     }
 
     protected Map<StyleInfo, Style> createStyleCache() {
-        return new HashMap<StyleInfo, Style>();
+        return new StyleCache();
     }
 
     /**
@@ -367,6 +457,56 @@ public class ResourcePool {
         }
     }
     
+    /**
+     * Returns the caches used by this pool that can report statistics, keyed by cache name.
+     * <p>
+     * Caches replaced by subclasses with a different {@link Map} implementation are not included.
+     * </p>
+     */
+    public Map<String, ResourceCache<?, ?>> getCaches() {
+        Map<String, ResourceCache<?, ?>> caches = new LinkedHashMap<String, ResourceCache<?, ?>>();
+        for (Map<?, ?> cache : Arrays.asList(crsCache, dataStoreCache, featureTypeCache,
+                featureTypeAttributeCache, coverageReaderCache, hintCoverageReaderCache,
+                wmsCache, styleCache)) {
+            if (cache instanceof ResourceCache) {
+                ResourceCache<?, ?> rc = (ResourceCache<?, ?>) cache;
+                caches.put(rc.getName(), rc);
+            }
+        }
+        return caches;
+    }
+    
+    /**
+     * The time in milliseconds a request waits for a resource being created by another
+     * request, zero or less meaning no timeout.
+     */
+    public long getCreationTimeout() {
+        return creationTimeout;
+    }
+    
+    /**
+     * Sets the time in milliseconds a request waits for a resource being created by another
+     * request, zero or less meaning no timeout.
+     */
+    public void setCreationTimeout(long creationTimeout) {
+        this.creationTimeout = creationTimeout;
+    }
+    
+    /**
+     * The time in milliseconds during which a failed resource creation is not retried.
+     */
+    public long getFailureBackoff() {
+        return failureBackoff;
+    }
+    
+    /**
+     * Sets the time in milliseconds during which a failed resource creation is not retried, 
+     * zero or less to always retry.
+     */
+    public void setFailureBackoff(long failureBackoff) {
+        this.failureBackoff = failureBackoff;
+    }
+    
     /**
      * Sets the size of the feature type cache.
      * <p>
@@ -419,11 +559,13 @@ public class ResourcePool {
         CoordinateReferenceSystem crs = crsCache.get( srsName );
         if ( crs == null ) {
             synchronized (crsCache) {
-                crs = crsCache.get( srsName );
+                crs = peek( crsCache, srsName );
                 if ( crs == null ) {
                     try {
+                        long start = System.nanoTime();
                         crs = CRS.decode( srsName );
                         crsCache.put( srsName, crs );
+                        recordLoad( crsCache, start );
                     }
                     catch( Exception e) {
                         throw (IOException) new IOException().initCause(e);
@@ -472,95 +614,105 @@ public class ResourcePool {
      * 
      * @throws IOException Any errors that occur connecting to the resource.
      */
-    public DataAccess<? extends FeatureType, ? extends Feature> getDataStore( DataStoreInfo info ) throws IOException {
+    public DataAccess<? extends FeatureType, ? extends Feature> getDataStore( final DataStoreInfo info ) throws IOException {
+        String id = info.getId();
+        if ( id == null ) {
+            // no need to cache the stores returned from un-saved DataStoreInfo objects (it 
+            // would be actually harmful, NPE when trying to dispose of them)
+            return createDataStore( info );
+        }
+        
+        DataAccess<? extends FeatureType, ? extends Feature> dataStore = 
+            (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get(id);
+        if ( dataStore == null ) {
+            // only the first caller creates the store, concurrent callers for the same store 
+            // wait for it, callers for other stores are not blocked
+            dataStore = dataStoreLoader.load( dataStoreCache, id, "data store '" + info.getName() + "'", 
+                new Callable<DataAccess>() {
+                    public DataAccess call() throws Exception {
+                        return createDataStore( info );
+                    }
+                });
+        }
+        return dataStore;
+    }
+    
+    /**
+     * Creates the underlying resource for a datastore, without caching it.
+     */
+    DataAccess<? extends FeatureType, ? extends Feature> createDataStore( DataStoreInfo info ) throws IOException {
         DataAccess<? extends FeatureType, ? extends Feature> dataStore = null;
         try {
-            String id = info.getId();
-            dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get(id);
-            if ( dataStore == null ) {
-                synchronized (dataStoreCache) {
-                    dataStore = (DataAccess<? extends FeatureType, ? extends Feature>) dataStoreCache.get( id );
-                    if ( dataStore == null ) {
-                        //create data store
-                        Map<String, Serializable> connectionParameters = info.getConnectionParameters();
-                        
-                        //call this methdo to execute the hack which recognizes 
-                        // urls which are relative to the data directory
-                        // TODO: find a better way to do this
-                        connectionParameters = DataStoreUtils.getParams(connectionParameters,null);
-                        
-                        // obtain the factory
-                        DataAccessFactory factory = null;
-                        try {
-                            factory = getDataStoreFactory(info);
-                        } catch(IOException e) {
-                            throw new IOException("Failed to find the datastore factory for " + info.getName() 
-                                    + ", did you forget to install the store extension jar?");
-                        }
-                        Param[] params = factory.getParametersInfo();
-                        
-                        //ensure that the namespace parameter is set for the datastore
-                        if (!connectionParameters.containsKey( "namespace") && params != null) {
-                            //if we grabbed the factory, check that the factory actually supports
-                            // a namespace parameter, if we could not get the factory, assume that
-                            // it does
-                            boolean supportsNamespace = true;
-                            supportsNamespace = false;
-                            
-                            for ( Param p : params ) {
-                                if ( "namespace".equalsIgnoreCase( p.key ) ) {
-                                    supportsNamespace = true;
-                                    break;
-                                }
-                            }
-                            
-                            if ( supportsNamespace ) {
-                                WorkspaceInfo ws = info.getWorkspace();
-                                NamespaceInfo ns = info.getCatalog().getNamespaceByPrefix( ws.getName() );
-                                if ( ns == null ) {
-                                    ns = info.getCatalog().getDefaultNamespace();
-                                }
-                                if ( ns != null ) {
-                                    connectionParameters.put( "namespace", ns.getURI() );
-                                }    
-                            }
-                        }
-                        
-                        // see if the store has a repository param, if so, pass the one wrapping
-                        // the store
-                        if(params != null) {
-                            for ( Param p : params ) {
-                                if(Repository.class.equals(p.getType())) {
-                                    connectionParameters.put(p.getName(), repository);
-                                }
-                            }
-                        }
-                        
-                        dataStore = DataStoreUtils.getDataAccess(connectionParameters);
-                        if (dataStore == null) {
-                            /*
-                             * Preserve DataStore retyping behaviour by calling
-                             * DataAccessFinder.getDataStore after the call to
-                             * DataStoreUtils.getDataStore above.
-                             * 
-                             * TODO: DataAccessFinder can also find DataStores, and when retyping is
-                             * supported for DataAccess, we can use a single mechanism.
-                             */
-                            dataStore = DataAccessFinder.getDataStore(connectionParameters);
-                        }
-                        
-                        if ( dataStore == null ) {
-                            throw new NullPointerException("Could not acquire data access '" + info.getName() + "'");
-                        }
-                        
-                        // cache only if the id is not null, no need to cache the stores
-                        // returned from un-saved DataStoreInfo objects (it would be actually
-                        // harmful, NPE when trying to dispose of them)
-                        if(id != null) {
-                            dataStoreCache.put( id, dataStore );
-                        }
+            //create data store
+            Map<String, Serializable> connectionParameters = info.getConnectionParameters();
+            
+            //call this methdo to execute the hack which recognizes 
+            // urls which are relative to the data directory
+            // TODO: find a better way to do this
+            connectionParameters = DataStoreUtils.getParams(connectionParameters,null);
+            
+            // obtain the factory
+            DataAccessFactory factory = null;
+            try {
+                factory = getDataStoreFactory(info);
+            } catch(IOException e) {
+                throw new IOException("Failed to find the datastore factory for " + info.getName() 
+                        + ", did you forget to install the store extension jar?");
+            }
+            Param[] params = factory.getParametersInfo();
+            
+            //ensure that the namespace parameter is set for the datastore
+            if (!connectionParameters.containsKey( "namespace") && params != null) {
+                //if we grabbed the factory, check that the factory actually supports
+                // a namespace parameter, if we could not get the factory, assume that
+                // it does
+                boolean supportsNamespace = true;
+                supportsNamespace = false;
+                
+                for ( Param p : params ) {
+                    if ( "namespace".equalsIgnoreCase( p.key ) ) {
+                        supportsNamespace = true;
+                        break;
                     }
-                } 
+                }
+                
+                if ( supportsNamespace ) {
+                    WorkspaceInfo ws = info.getWorkspace();
+                    NamespaceInfo ns = info.getCatalog().getNamespaceByPrefix( ws.getName() );
+                    if ( ns == null ) {
+                        ns = info.getCatalog().getDefaultNamespace();
+                    }
+                    if ( ns != null ) {
+                        connectionParameters.put( "namespace", ns.getURI() );
+                    }    
+                }
+            }
+            
+            // see if the store has a repository param, if so, pass the one wrapping
+            // the store
+            if(params != null) {
+                for ( Param p : params ) {
+                    if(Repository.class.equals(p.getType())) {
+                        connectionParameters.put(p.getName(), repository);
+                    }
+                }
+            }
+            
+            dataStore = DataStoreUtils.getDataAccess(connectionParameters);
+            if (dataStore == null) {
+                /*
+                 * Preserve DataStore retyping behaviour by calling
+                 * DataAccessFinder.getDataStore after the call to
+                 * DataStoreUtils.getDataStore above.
+                 * 
+                 * TODO: DataAccessFinder can also find DataStores, and when retyping is
+                 * supported for DataAccess, we can use a single mechanism.
+                 */
+                dataStore = DataAccessFinder.getDataStore(connectionParameters);
+            }
+            
+            if ( dataStore == null ) {
+                throw new NullPointerException("Could not acquire data access '" + info.getName() + "'");
             }
             
             return dataStore;
@@ -628,9 +780,10 @@ public class ResourcePool {
      */
     public void clear( DataStoreInfo info ) {
         dataStoreCache.remove( info.getId() );
+        dataStoreLoader.reset( info.getId() );
     }
     
-    public List<AttributeTypeInfo> getAttributes(FeatureTypeInfo info) throws IOException {
+    public List<AttributeTypeInfo> getAttributes(final FeatureTypeInfo info) throws IOException {
         //first check the feature type itself
         //      workaround for GEOS-3294, upgrading from 2.0 data directory,
         //      simply ignore any stored attributes
@@ -642,30 +795,37 @@ public class ResourcePool {
             return info.getAttributes();
         }
         
+        // attributes are cached only if the id is not null -> the feature type is not new
+        if (info.getId() == null) {
+            return loadAttributesWithOverrides(info);
+        }
+        
         //check the cache
         List<AttributeTypeInfo> atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(info.getId());
         if (atts == null) {
-            synchronized (featureTypeAttributeCache) {
-                atts = (List<AttributeTypeInfo>) featureTypeAttributeCache.get(info.getId());
-                if (atts == null) {
-                    //load from feature type
-                    atts = loadAttributes(info);
-                    
-                    //check for a schema override
-                    try {
-                        handleSchemaOverride(atts,info);
+            atts = featureTypeAttributeLoader.load(featureTypeAttributeCache, info.getId(), 
+                "attributes of feature type '" + info.getName() + "'", 
+                new Callable<List<AttributeTypeInfo>>() {
+                    public List<AttributeTypeInfo> call() throws Exception {
+                        return loadAttributesWithOverrides(info);
                     }
-                    catch( Exception e ) {
-                        LOGGER.log( Level.WARNING, 
-                            "Error occured applying schema override for "+info.getName(), e);
-                    }
-                    
-                    // cache attributes only if the id is not null -> the feature type is not new
-                    if(info.getId() != null) {
-                        featureTypeAttributeCache.put(info.getId(), atts);
-                    }
-                }
-            }
+                });
+        }
+        
+        return atts;
+    }
+    
+    List<AttributeTypeInfo> loadAttributesWithOverrides(FeatureTypeInfo info) throws IOException {
+        //load from feature type
+        List<AttributeTypeInfo> atts = loadAttributes(info);
+        
+        //check for a schema override
+        try {
+            handleSchemaOverride(atts,info);
+        }
+        catch( Exception e ) {
+            LOGGER.log( Level.WARNING, 
+                "Error occured applying schema override for "+info.getName(), e);
         }
         
         return atts;
@@ -799,100 +959,122 @@ public class ResourcePool {
         return getFeatureType(info, true);
     }
     
-    FeatureType getFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy ) throws IOException {
+    FeatureType getFeatureType( final FeatureTypeInfo info, final boolean handleProjectionPolicy ) throws IOException {
         boolean cacheable = isCacheable(info) && handleProjectionPolicy;
-        FeatureType ft = (FeatureType) featureTypeCache.get( info.getId() );
-        if ( ft == null || !cacheable ) {
+        if ( !cacheable ) {
+            // connect to the store before locking, it might be slow to connect
+            DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
             synchronized ( featureTypeCache ) {
-                ft = (FeatureType) featureTypeCache.get( info.getId() );
-                if ( ft == null || !cacheable) {
-                    
-                    //grab the underlying feature type
-                    DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
-                    
-                    // sql view handling
-                    VirtualTable vt = null;
-                    String vtName = null;
-                    if(dataAccess instanceof JDBCDataStore && info.getMetadata() != null &&
-                            (info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE) instanceof VirtualTable)) {
-                        JDBCDataStore jstore = (JDBCDataStore) dataAccess;
-                        vt = info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE, VirtualTable.class);
-                        
-                        if(!cacheable) {
-                            // use a highly random name, we don't want to actually add the
-                            // virtual table to the store as this feature type is not cacheable,
-                            // it is "dirty" or un-saved. The renaming below will take care
-                            // of making the user see the actual name
-                            final String[] typeNames = jstore.getTypeNames();
-                            do {
-                                vtName = UUID.randomUUID().toString();
-                            } while (Arrays.asList(typeNames).contains(vtName));
-    
-                            // try adding the vt and see if that works
-                            jstore.addVirtualTable(new VirtualTable(vtName, vt));
-                            ft = jstore.getSchema(vtName);
-                        } else {
-                            vtName = vt.getName();
-                            if(!jstore.getVirtualTables().containsValue(vt)) {
-                                jstore.addVirtualTable(vt);
-                            }
-                            ft = jstore.getSchema(vt.getName());
-                        }
-                    } else {
-                        ft = dataAccess.getSchema(info.getQualifiedNativeName());
+                return loadFeatureType( info, dataAccess, handleProjectionPolicy, false );
+            }
+        }
+        
+        FeatureType ft = (FeatureType) featureTypeCache.get( info.getId() );
+        if ( ft == null ) {
+            // do not block the loading of other feature types, their stores might be
+            // slow to connect
+            ft = featureTypeLoader.load( featureTypeCache, info.getId(), 
+                "feature type '" + info.getName() + "'", new Callable<FeatureType>() {
+                    public FeatureType call() throws Exception {
+                        return loadFeatureType( info, handleProjectionPolicy, true );
+                    }
+                });
+        }
+        
+        return ft;
+    }
+    
+    /**
+     * Loads the feature type from the underlying store, without caching it.
+     */
+    FeatureType loadFeatureType( FeatureTypeInfo info, boolean handleProjectionPolicy, boolean cacheable ) 
+        throws IOException {
+        return loadFeatureType(info, getDataStore(info.getStore()), handleProjectionPolicy, cacheable);
+    }
+    
+    FeatureType loadFeatureType( FeatureTypeInfo info, 
+            DataAccess<? extends FeatureType, ? extends Feature> dataAccess, 
+            boolean handleProjectionPolicy, boolean cacheable ) throws IOException {
+        FeatureType ft;
+        
+        // sql view handling
+        VirtualTable vt = null;
+        String vtName = null;
+        if(dataAccess instanceof JDBCDataStore && info.getMetadata() != null &&
+                (info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE) instanceof VirtualTable)) {
+            JDBCDataStore jstore = (JDBCDataStore) dataAccess;
+            vt = info.getMetadata().get(FeatureTypeInfo.JDBC_VIRTUAL_TABLE, VirtualTable.class);
+            
+            if(!cacheable) {
+                // use a highly random name, we don't want to actually add the
+                // virtual table to the store as this feature type is not cacheable,
+                // it is "dirty" or un-saved. The renaming below will take care
+                // of making the user see the actual name
+                final String[] typeNames = jstore.getTypeNames();
+                do {
+                    vtName = UUID.randomUUID().toString();
+                } while (Arrays.asList(typeNames).contains(vtName));
+
+                // try adding the vt and see if that works
+                jstore.addVirtualTable(new VirtualTable(vtName, vt));
+                ft = jstore.getSchema(vtName);
+            } else {
+                vtName = vt.getName();
+                if(!jstore.getVirtualTables().containsValue(vt)) {
+                    jstore.addVirtualTable(vt);
+                }
+                ft = jstore.getSchema(vt.getName());
+            }
+        } else {
+            ft = dataAccess.getSchema(info.getQualifiedNativeName());
+        }
+        
+        // TODO: support reprojection for non-simple FeatureType
+        if (ft instanceof SimpleFeatureType) {
+            SimpleFeatureType sft = (SimpleFeatureType) ft;
+            //create the feature type so it lines up with the "declared" schema
+            SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+            tb.setName( info.getName() );
+            tb.setNamespaceURI( info.getNamespace().getURI() );
+
+            if ( info.getAttributes() == null || info.getAttributes().isEmpty() ) {
+                //take this to mean just load all native
+                for ( PropertyDescriptor pd : ft.getDescriptors() ) {
+                    if ( !( pd instanceof AttributeDescriptor ) ) {
+                        continue;
                     }
                     
-                    // TODO: support reprojection for non-simple FeatureType
-                    if (ft instanceof SimpleFeatureType) {
-                        SimpleFeatureType sft = (SimpleFeatureType) ft;
-                        //create the feature type so it lines up with the "declared" schema
-                        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
-                        tb.setName( info.getName() );
-                        tb.setNamespaceURI( info.getNamespace().getURI() );
-
-                        if ( info.getAttributes() == null || info.getAttributes().isEmpty() ) {
-                            //take this to mean just load all native
-                            for ( PropertyDescriptor pd : ft.getDescriptors() ) {
-                                if ( !( pd instanceof AttributeDescriptor ) ) {
-                                    continue;
-                                }
-                                
-                                AttributeDescriptor ad = (AttributeDescriptor) pd;
-                                if(handleProjectionPolicy) {
-                                    ad = handleDescriptor(ad, info);
-                                }
-                                tb.add( ad );
-                            }
-                        }
-                        else {
-                            //only load native attributes configured
-                            for ( AttributeTypeInfo att : info.getAttributes() ) {
-                                String attName = att.getName();
-                                
-                                //load the actual underlying attribute type
-                                PropertyDescriptor pd = ft.getDescriptor( attName );
-                                if ( pd == null || !( pd instanceof AttributeDescriptor) ) {
-                                    throw new IOException("the SimpleFeatureType " + info.getPrefixedName()
-                                            + " does not contains the configured attribute " + attName
-                                            + ". Check your schema configuration");
-                                }
-                            
-                                AttributeDescriptor ad = (AttributeDescriptor) pd;
-                                ad = handleDescriptor(ad, info);
-                                tb.add( (AttributeDescriptor) ad );
-                            }
-                        }
-                        ft = tb.buildFeatureType();
-                    } // end special case for SimpleFeatureType
+                    AttributeDescriptor ad = (AttributeDescriptor) pd;
+                    if(handleProjectionPolicy) {
+                        ad = handleDescriptor(ad, info);
+                    }
+                    tb.add( ad );
+                }
+            }
+            else {
+                //only load native attributes configured
+                for ( AttributeTypeInfo att : info.getAttributes() ) {
+                    String attName = att.getName();
                     
-                    if(cacheable) {
-                        featureTypeCache.put( info.getId(), ft );
-                    } else if(vtName != null) {
-                        JDBCDataStore jstore = (JDBCDataStore) dataAccess;
-                        jstore.removeVirtualTable(vtName);
+                    //load the actual underlying attribute type
+                    PropertyDescriptor pd = ft.getDescriptor( attName );
+                    if ( pd == null || !( pd instanceof AttributeDescriptor) ) {
+                        throw new IOException("the SimpleFeatureType " + info.getPrefixedName()
+                                + " does not contains the configured attribute " + attName
+                                + ". Check your schema configuration");
                     }
+                
+                    AttributeDescriptor ad = (AttributeDescriptor) pd;
+                    ad = handleDescriptor(ad, info);
+                    tb.add( (AttributeDescriptor) ad );
                 }
             }
+            ft = tb.buildFeatureType();
+        } // end special case for SimpleFeatureType
+        
+        if(!cacheable && vtName != null) {
+            JDBCDataStore jstore = (JDBCDataStore) dataAccess;
+            jstore.removeVirtualTable(vtName);
         }
         
         return ft;
@@ -1008,6 +1190,8 @@ public class ResourcePool {
     public void clear( FeatureTypeInfo info ) {
         featureTypeCache.remove( info.getId() );
         featureTypeAttributeCache.remove( info.getId() );
+        featureTypeLoader.reset( info.getId() );
+        featureTypeAttributeLoader.reset( info.getId() );
     }
     
     /**
@@ -1155,7 +1339,7 @@ public class ResourcePool {
      * @throws IOException Any errors that occur loading the reader.
      */
     @SuppressWarnings("deprecation")
-    public GridCoverageReader getGridCoverageReader( CoverageStoreInfo info, Hints hints ) 
+    public GridCoverageReader getGridCoverageReader( final CoverageStoreInfo info, Hints hints ) 
         throws IOException {
         
         final AbstractGridFormat gridFormat = info.getFormat();
@@ -1193,36 +1377,41 @@ public class ResourcePool {
             return reader;
         }
         
-        synchronized ( hints != null ? hintCoverageReaderCache : coverageReaderCache ) {
-            if (key != null) {
-                if (hints != null) {
-                    reader = (GridCoverageReader) hintCoverageReaderCache.get(key);
-                } else {
-                    reader = (GridCoverageReader) coverageReaderCache.get(key);
-                }
-            }
-            if (reader == null) {
-                /////////////////////////////////////////////////////////
-                //
-                // Getting coverage reader using the format and the real path.
-                //
-                // /////////////////////////////////////////////////////////
-                final File obj = GeoserverDataDirectory.findDataFile(info.getURL());
-    
-                // readers might change the provided hints, pass down a defensive copy
-                reader = gridFormat.getReader(obj, new Hints(hints));
-                if(key != null) {
-                    if(hints != null) {
-                        hintCoverageReaderCache.put((CoverageHintReaderKey) key, reader);
-                    } else {
-                        coverageReaderCache.put((String) key, reader);
-                    }
-                }
-            }
+        if (key == null) {
+            return createGridCoverageReader(info, gridFormat, hints);
         }
         
-        return reader;
-            
+        // only the first caller creates the reader, concurrent callers for the same key 
+        // wait for it, callers for other stores are not blocked
+        final Hints readerHints = hints;
+        Callable<GridCoverageReader> creator = new Callable<GridCoverageReader>() {
+            public GridCoverageReader call() throws Exception {
+                return createGridCoverageReader(info, gridFormat, readerHints);
+            }
+        };
+        String name = "coverage store '" + info.getName() + "'";
+        if (hints != null) {
+            return hintCoverageReaderLoader.load(hintCoverageReaderCache,
+                    (CoverageHintReaderKey) key, name, creator);
+        } else {
+            return coverageReaderLoader.load(coverageReaderCache, (String) key, name, creator);
+        }
+    }
+    
+    /**
+     * Creates a coverage reader, without caching it.
+     */
+    GridCoverageReader createGridCoverageReader(CoverageStoreInfo info,
+            AbstractGridFormat gridFormat, Hints hints) throws IOException {
+        /////////////////////////////////////////////////////////
+        //
+        // Getting coverage reader using the format and the real path.
+        //
+        // /////////////////////////////////////////////////////////
+        final File obj = GeoserverDataDirectory.findDataFile(info.getURL());
+
+        // readers might change the provided hints, pass down a defensive copy
+        return gridFormat.getReader(obj, new Hints(hints));
     }
     
     /**
@@ -1231,6 +1420,12 @@ public class ResourcePool {
     public void clear(CoverageStoreInfo info) {
         String storeId = info.getId();
         coverageReaderCache.remove(storeId);
+        coverageReaderLoader.reset(storeId);
+        for (CoverageHintReaderKey key : hintCoverageReaderLoader.getFailedKeys()) {
+            if(key.id != null && key.id.equals(storeId)) {
+                hintCoverageReaderLoader.reset(key);
+            }
+        }
         HashSet<CoverageHintReaderKey> keys = new HashSet<CoverageHintReaderKey>(hintCoverageReaderCache.keySet());
         for (CoverageHintReaderKey key : keys) {
             if(key.id != null && key.id.equals(storeId)) {
@@ -1393,8 +1588,9 @@ public class ResourcePool {
             WebMapServer wms = (WebMapServer) wmsCache.get(id);
             if (wms == null) {
                 synchronized (wmsCache) {
-                    wms = (WebMapServer) wmsCache.get(id);
+                    wms = (WebMapServer) peek(wmsCache, id);
                     if (wms == null) {
+                        long start = System.nanoTime();
                         HTTPClient client;
                         if (info.isUseConnectionPooling()) {
                             client = new MultithreadedHttpClient();
@@ -1419,6 +1615,7 @@ public class ResourcePool {
                         wms = new WebMapServer(serverURL, client);
                         
                         wmsCache.put(id, wms);
+                        recordLoad(wmsCache, start);
                     }
                 }
             }
@@ -1476,8 +1673,9 @@ public class ResourcePool {
         Style style = styleCache.get( info );
         if ( style == null ) {
             synchronized (styleCache) {
-                style = styleCache.get( info );
+                style = peek( styleCache, info );
                 if ( style == null ) {
+                    long start = System.nanoTime();
                     
                     //JD: it is important that we call the SLDParser(File) constructor because
                     // if not the sourceURL will not be set which will mean it will fail to 
@@ -1493,6 +1691,7 @@ public class ResourcePool {
                     // remove this when wms works off style info
                     style.setName( info.getName() );
                     styleCache.put( info, style );
+                    recordLoad( styleCache, start );
                 }
             }
         }
@@ -1604,6 +1803,58 @@ public class ResourcePool {
     GeoServerDataDirectory dataDir() {
         return new GeoServerDataDirectory(catalog.getResourceLoader());
     }
+    
+    /**
+     * Looks up a cached value without affecting the cache statistics, used to double check the
+     * cache contents after acquiring the cache lock
+     */
+    static <V> V peek(Map<?, V> cache, Object key) {
+        if (cache instanceof ResourceCache) {
+            return ((ResourceCache<?, V>) cache).peek(key);
+        }
+        return cache.get(key);
+    }
+    
+    /**
+     * Records the time it took to load a value in the cache
+     */
+    static void recordLoad(Map<?, ?> cache, long start) {
+        if (cache instanceof ResourceCache) {
+            ((ResourceCache<?, ?>) cache).recordLoad(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * Configures the cache limits from the {@link #CACHE_PROPERTY_PREFIX} properties, if set
+     */
+    static void configure(ResourceCache<?, ?> cache) {
+        String prefix = CACHE_PROPERTY_PREFIX + cache.getName() + ".";
+        Long maxEntries = longProperty(prefix + MAX_ENTRIES);
+        if (maxEntries != null) {
+            cache.setMaxEntries(maxEntries.intValue());
+        }
+        Long maxIdleTime = longProperty(prefix + MAX_IDLE_TIME);
+        if (maxIdleTime != null) {
+            cache.setMaxIdleTime(maxIdleTime * 1000);
+        }
+        Long maxWeight = longProperty(prefix + MAX_WEIGHT);
+        if (maxWeight != null) {
+            cache.setMaxWeight(maxWeight);
+        }
+    }
+    
+    static Long longProperty(String name) {
+        String value = GeoServerExtensions.getProperty(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warning("Ignoring invalid value '" + value + "' for property " + name);
+            return null;
+        }
+    }
 
     /**
      * Disposes all cached resources.
@@ -1619,72 +1870,80 @@ public class ResourcePool {
         wmsCache.clear();
         styleCache.clear();
         listeners.clear();
+        dataStoreLoader.reset();
+        featureTypeLoader.reset();
+        featureTypeAttributeLoader.reset();
+        coverageReaderLoader.reset();
+        hintCoverageReaderLoader.reset();
     }
     
     /**
      * Base class for all the resource caches, ensures type safety and provides
-     * an easier way to handle with resource disposal 
+     * an easier way to handle with resource disposal. The cache limits can be
+     * overridden with the {@link ResourcePool#CACHE_PROPERTY_PREFIX} properties.
      * @author Andrea Aime
      *
      * @param <K>
      * @param <V>
      */
-    abstract class CatalogResourceCache<K, V> extends SoftValueHashMap<K, V> {
+    abstract class CatalogResourceCache<K, V> extends ResourceCache<K, V> {
 
-        public CatalogResourceCache() {
-            this(100);
+        public CatalogResourceCache(String name) {
+            this(name, 0);
         }
 
-        public CatalogResourceCache(int hardReferences) {
-            super(hardReferences);
-            super.cleaner = new ValueCleaner() {
-
-                @Override
-                public void clean(Object key, Object object) {
-                    dispose((K) key, (V) object);
-                }
-            };
+        public CatalogResourceCache(String name, int maxEntries) {
+            super(name, maxEntries);
+            configure(this);
         }
 
+        protected abstract void dispose(K key, V object);
+    }
+    
+    class CrsCache extends CatalogResourceCache<String, CoordinateReferenceSystem> {
+        
+        public CrsCache() {
+            super("crs", CRS_CACHE_SIZE_DEFAULT);
+        }
+        
         @Override
-        public V remove(Object key) {
-            V object = super.remove(key);
-            if (object != null) {
-                dispose((K) key, (V) object);
-            }
-            return object;
+        protected void dispose(String key, CoordinateReferenceSystem crs) {
+            // nothing to do
         }
-
+    }
+    
+    class StyleCache extends CatalogResourceCache<StyleInfo, Style> {
+        
+        public StyleCache() {
+            super("styles", STYLE_CACHE_SIZE_DEFAULT);
+        }
+        
         @Override
-        public void clear() {
-            for (Entry entry : entrySet()) {
-                try {
-                    dispose((K) entry.getKey(), (V) entry.getValue());
-                }
-                catch(Exception e) {
-                    LOGGER.log(Level.WARNING, "Error dispoing entry: " + entry, e);
-                }
-            }
-            super.clear();
+        protected void dispose(StyleInfo key, Style style) {
+            // nothing to do
         }
-
-        protected abstract void dispose(K key, V object);
     }
     
     class FeatureTypeCache extends CatalogResourceCache<String, FeatureType> {
         
         public FeatureTypeCache(int maxSize) {
-            super(maxSize);
+            super("featureTypes", maxSize);
         }
         
         protected void dispose(String id, FeatureType featureType) {
         	FeatureTypeInfo info = catalog.getFeatureType(id);
-            LOGGER.info( "Disposing feature type '" + info.getName() + "'");
-            fireDisposed(info, featureType);
+        	if(info != null) {
+                LOGGER.info( "Disposing feature type '" + info.getName() + "'");
+                fireDisposed(info, featureType);
+        	}
         }
     }
     
     class DataStoreCache extends CatalogResourceCache<String, DataAccess> {
+        
+        public DataStoreCache() {
+            super("dataStores");
+        }
     	
         protected void dispose(String id, DataAccess da) {
         	DataStoreInfo info = catalog.getDataStore(id);
@@ -1707,6 +1966,11 @@ public class ResourcePool {
     
     class CoverageReaderCache extends CatalogResourceCache<String, GridCoverageReader> {
         
+        public CoverageReaderCache() {
+            super("coverageReaders");
+            setWeigher(READER_WEIGHER);
+        }
+        
         protected void dispose(String id, GridCoverageReader reader) {
         	CoverageStoreInfo info = catalog.getCoverageStore(id);
         	if(info != null) {
@@ -1727,6 +1991,11 @@ public class ResourcePool {
     
     class CoverageHintReaderCache extends CatalogResourceCache<CoverageHintReaderKey, GridCoverageReader> {
         
+        public CoverageHintReaderCache() {
+            super("hintCoverageReaders");
+            setWeigher(READER_WEIGHER);
+        }
+        
         protected void dispose(CoverageHintReaderKey key, GridCoverageReader reader) {
         	CoverageStoreInfo info = catalog.getCoverageStore(key.id);
         	if(info != null) {
@@ -1746,6 +2015,159 @@ public class ResourcePool {
         
     }
     
+    /**
+     * Creates the values of a cache making sure only one thread creates the value for a given
+     * key. All the threads asking for the key, the one that triggered the creation included,
+     * wait for it up to the {@link ResourcePool#getCreationTimeout() creation timeout}, while the
+     * ones asking for other keys proceed without blocking. With a timeout set the creation runs
+     * in a separate thread, and carries on after a timeout so that the value is cached for the
+     * next requests. Failures are remembered for the
+     * {@link ResourcePool#getFailureBackoff() failure back-off} time, during which the creation
+     * is not attempted again.
+     *
+     * @param <K>
+     * @param <V>
+     */
+    class CacheLoader<K, V> {
+        
+        ConcurrentMap<K, FutureTask<V>> pending = new ConcurrentHashMap<K, FutureTask<V>>();
+        
+        ConcurrentMap<K, Failure> failures = new ConcurrentHashMap<K, Failure>();
+        
+        /**
+         * Returns the cached value, or creates and caches it.
+         * 
+         * @param cache The cache 
+         * @param key The cache key
+         * @param name The description of the value being created, for error messages
+         * @param creator Creates the value
+         */
+        V load(final Map<K, V> cache, final K key, String name, final Callable<V> creator) 
+            throws IOException {
+            Failure failure = failures.get(key);
+            if (failure != null) {
+                long elapsed = System.currentTimeMillis() - failure.time;
+                if (elapsed < failureBackoff) {
+                    throw (IOException) new IOException("Creation of " + name + " failed " 
+                            + elapsed + " ms ago, not retrying for another " 
+                            + (failureBackoff - elapsed) + " ms: " 
+                            + failure.cause.getMessage()).initCause(failure.cause);
+                }
+                failures.remove(key, failure);
+            }
+            
+            FutureTask<V> task = new FutureTask<V>(new Callable<V>() {
+                public V call() throws Exception {
+                    V value = peek(cache, key);
+                    if (value == null) {
+                        long start = System.nanoTime();
+                        value = creator.call();
+                        cache.put(key, value);
+                        recordLoad(cache, start);
+                    }
+                    return value;
+                }
+            }) {
+                protected void done() {
+                    pending.remove(key, this);
+                    if (failureBackoff > 0 && !isCancelled()) {
+                        try {
+                            get();
+                        } catch (ExecutionException e) {
+                            failures.put(key, new Failure(e.getCause()));
+                        } catch (InterruptedException e) {
+                            // cannot happen, the task is done
+                        }
+                    }
+                }
+            };
+            FutureTask<V> existing = pending.putIfAbsent(key, task);
+            boolean first = existing == null;
+            long timeout = creationTimeout;
+            if (first) {
+                // we are the first caller, trigger the creation
+                existing = task;
+                if (timeout > 0) {
+                    creationExecutor.execute(task);
+                } else {
+                    task.run();
+                }
+            }
+            
+            try {
+                if (timeout > 0) {
+                    return existing.get(timeout, TimeUnit.MILLISECONDS);
+                } else {
+                    return existing.get();
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (first) {
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw (IOException) new IOException("Failed to create " + name).initCause(cause);
+                }
+                throw (IOException) new IOException("Failed to create " + name + ": " 
+                        + cause.getMessage()).initCause(cause);
+            } catch (TimeoutException e) {
+                throw new IOException("Timed out after " + timeout + " ms waiting for " + name 
+                        + " to be created");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw (IOException) new IOException("Interrupted while waiting for " + name 
+                        + " to be created").initCause(e);
+            }
+        }
+        
+        /**
+         * Forgets about a failed creation, allowing the next call to retry immediately
+         */
+        void reset(K key) {
+            if (key != null) {
+                failures.remove(key);
+            }
+        }
+        
+        void reset() {
+            failures.clear();
+        }
+        
+        Set<K> getFailedKeys() {
+            return new HashSet<K>(failures.keySet());
+        }
+    }
+    
+    static class Failure {
+        Throwable cause;
+        long time;
+        
+        Failure(Throwable cause) {
+            this.cause = cause;
+            this.time = System.currentTimeMillis();
+        }
+    }
+    
+    /**
+     * Weights coverage readers by the number of coverages they expose, readers serving many
+     * coverages (e.g. mosaics) usually hold more resources
+     */
+    static final ResourceCache.Weigher<Object, GridCoverageReader> READER_WEIGHER = new ResourceCache.Weigher<Object, GridCoverageReader>() {
+
+        public int weigh(Object key, GridCoverageReader reader) {
+            try {
+                return Math.max(1, reader.getGridCoverageCount());
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Could not compute the coverage count of " + reader, e);
+                return 1;
+            }
+        }
+    };
+    
     /**
      * The key in the {@link CoverageHintReaderCache}
      * 
@@ -1796,7 +2218,7 @@ public class ResourcePool {
     class FeatureTypeAttributeCache extends CatalogResourceCache<String, List<AttributeTypeInfo>> {
 
         FeatureTypeAttributeCache(int size) {
-            super(size);
+            super("featureTypeAttributes", size);
         }
 
         @Override
@@ -1807,6 +2229,10 @@ public class ResourcePool {
 
     class WMSCache extends CatalogResourceCache<String, WebMapServer> {
 
+        public WMSCache() {
+            super("wmsStores");
+        }
+
         @Override
         protected void dispose(String key, WebMapServer object) {
             // nothing to do
@@ -0,0 +1,172 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Registers a {@link ResourceCacheMBean} for each of the {@link ResourcePool} caches in the
+ * platform MBean server, under the <code>org.geoserver:type=ResourcePool,name=[cache]</code>
+ * object names.
+ * <p>
+ * The MBeans look up the caches from the catalog on each call, so they keep on working when the
+ * resource pool or its caches get replaced.
+ * </p>
+ */
+public class ResourcePoolMBeanExporter implements InitializingBean, DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger("org.geoserver.catalog");
+
+    static final String DOMAIN = "org.geoserver";
+
+    Catalog catalog;
+
+    List<ObjectName> registered = new ArrayList<ObjectName>();
+
+    public ResourcePoolMBeanExporter(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    public void afterPropertiesSet() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (String name : catalog.getResourcePool().getCaches().keySet()) {
+            try {
+                ObjectName objectName = getObjectName(name);
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+                server.registerMBean(new StandardMBean(new CacheBean(name),
+                        ResourceCacheMBean.class), objectName);
+                registered.add(objectName);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to register the MBean for resource pool cache "
+                        + name, e);
+            }
+        }
+    }
+
+    public void destroy() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : registered) {
+            try {
+                if (server.isRegistered(objectName)) {
+                    server.unregisterMBean(objectName);
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to unregister MBean " + objectName, e);
+            }
+        }
+        registered.clear();
+    }
+
+    /**
+     * Returns the object name of the MBean for the specified cache
+     */
+    public static ObjectName getObjectName(String cacheName) throws Exception {
+        return new ObjectName(DOMAIN + ":type=ResourcePool,name=" + ObjectName.quote(cacheName));
+    }
+
+    class CacheBean implements ResourceCacheMBean {
+
+        String name;
+
+        CacheBean(String name) {
+            this.name = name;
+        }
+
+        ResourceCache<?, ?> cache() {
+            ResourceCache<?, ?> cache = catalog.getResourcePool().getCaches().get(name);
+            if (cache == null) {
+                // the cache has been replaced by an implementation not providing statistics
+                cache = new ResourceCache<Object, Object>(name);
+            }
+            return cache;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getSize() {
+            return cache().size();
+        }
+
+        public int getMaxEntries() {
+            return cache().getMaxEntries();
+        }
+
+        public void setMaxEntries(int maxEntries) {
+            cache().setMaxEntries(maxEntries);
+        }
+
+        public long getMaxIdleTime() {
+            return cache().getMaxIdleTime();
+        }
+
+        public void setMaxIdleTime(long maxIdleTime) {
+            cache().setMaxIdleTime(maxIdleTime);
+        }
+
+        public long getWeight() {
+            return cache().getWeight();
+        }
+
+        public long getMaxWeight() {
+            return cache().getMaxWeight();
+        }
+
+        public void setMaxWeight(long maxWeight) {
+            cache().setMaxWeight(maxWeight);
+        }
+
+        public long getHits() {
+            return cache().getHits();
+        }
+
+        public long getMisses() {
+            return cache().getMisses();
+        }
+
+        public double getHitRatio() {
+            return cache().getHitRatio();
+        }
+
+        public long getEvictions() {
+            return cache().getEvictions();
+        }
+
+        public long getLoads() {
+            return cache().getLoads();
+        }
+
+        public long getLoadTime() {
+            return cache().getLoadTime();
+        }
+
+        public double getAverageLoadTime() {
+            return cache().getAverageLoadTime();
+        }
+
+        public void resetStatistics() {
+            cache().resetStatistics();
+        }
+
+        public void evict() {
+            cache().evict();
+        }
+    }
+}
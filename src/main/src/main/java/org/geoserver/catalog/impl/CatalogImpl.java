@@ -77,6 +77,13 @@ public class CatalogImpl implements Catalog {
      */
     private static final Logger LOGGER = Logging.getLogger(CatalogImpl.class);
 
+    /**
+     * Property (system, environment or servlet context) used to choose the catalog facade
+     * implementation, {@code indexed} selects the {@link IndexedCatalogFacade}, any other value
+     * the {@link DefaultCatalogFacade}
+     */
+    public static final String CATALOG_FACADE = "GEOSERVER_CATALOG_FACADE";
+
     /**
      * data access facade
      */
@@ -99,9 +106,19 @@ public class CatalogImpl implements Catalog {
     protected boolean extendedValidation = true;
 
     public CatalogImpl() {
-        facade = new DefaultCatalogFacade(this);
+        facade = createFacade();
         resourcePool = ResourcePool.create(this);
     }
+
+    /**
+     * Creates the data access facade, based on the {@link #CATALOG_FACADE} property
+     */
+    protected CatalogFacade createFacade() {
+        if ("indexed".equalsIgnoreCase(GeoServerExtensions.getProperty(CATALOG_FACADE))) {
+            return new IndexedCatalogFacade(this);
+        }
+        return new DefaultCatalogFacade(this);
+    }
     
     public CatalogFacade getFacade() {
         return facade;
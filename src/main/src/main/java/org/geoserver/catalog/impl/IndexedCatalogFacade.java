@@ -0,0 +1,1208 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogFacade;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.MapInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+
+/**
+ * Catalog facade implementation in which all objects are stored in memory and indexed by hash
+ * maps, making lookups by id and name constant time regardless of the catalog size.
+ * <p>
+ * Every object is kept in a concurrent map keyed by id, which also remembers the order objects
+ * have been added in so that listings come out in insertion order, as with the
+ * {@link DefaultCatalogFacade}, plus a number of secondary indexes (by
+ * name, prefix, resource, store, workspace, style, ...) whose buckets are small immutable lists
+ * replaced atomically on modification. Readers never lock, writers only lock the index being
+ * modified, and adding an object never copies the whole collection. Methods returning lists (and
+ * hence {@link #list(Class, org.opengis.filter.Filter, Integer, Integer, org.opengis.filter.sort.SortBy)})
+ * work against a snapshot of the contents taken at the time of the call.
+ * </p>
+ * <p>
+ * Since saving an object can change the keys it is indexed under (e.g. renaming a resource also
+ * renames its layers) the indexes are refreshed on each save.
+ * </p>
+ * <p>
+ * The facade can be used in place of {@link DefaultCatalogFacade} by setting the
+ * {@link CatalogImpl#CATALOG_FACADE} property to {@code indexed}, or by explicitly calling
+ * {@link CatalogImpl#setFacade(CatalogFacade)}.
+ * </p>
+ */
+public class IndexedCatalogFacade extends AbstractCatalogFacade implements CatalogFacade {
+
+    /**
+     * Key used to index objects that are not part of any workspace
+     */
+    static final String NO_WORKSPACE_KEY = "";
+
+    /**
+     * A secondary index, maps a key computed from an object to all the objects sharing it
+     */
+    static abstract class Index<T extends CatalogInfo> {
+
+        /**
+         * The buckets, immutable lists that get replaced on modification
+         */
+        ConcurrentMap<String, List<T>> buckets = new ConcurrentHashMap<String, List<T>>();
+
+        /**
+         * The keys each object (by id) has been indexed under, used to clean up on modification
+         */
+        Map<String, Collection<String>> keysById = new HashMap<String, Collection<String>>();
+
+        /**
+         * Returns the keys the object should be indexed under, null keys are ignored
+         */
+        abstract Collection<String> keys(T info);
+
+        Collection<String> keys(T info, Collection<String> keys) {
+            for (String key : keys(info)) {
+                if (key != null) {
+                    keys.add(key);
+                }
+            }
+            return keys;
+        }
+
+        synchronized void add(T info) {
+            Collection<String> keys = keys(info, new LinkedHashSet<String>());
+
+            for (String key : keys) {
+                List<T> bucket = buckets.get(key);
+                List<T> copy = bucket == null ? new ArrayList<T>(1) : new ArrayList<T>(bucket);
+                copy.add(info);
+                buckets.put(key, Collections.unmodifiableList(copy));
+            }
+            keysById.put(info.getId(), keys);
+        }
+
+        synchronized void remove(T info) {
+            Collection<String> keys = keysById.remove(info.getId());
+            if (keys == null) {
+                return;
+            }
+
+            for (String key : keys) {
+                List<T> bucket = buckets.get(key);
+                if (bucket == null) {
+                    continue;
+                }
+                List<T> copy = new ArrayList<T>(bucket.size());
+                for (T t : bucket) {
+                    if (!info.getId().equals(t.getId())) {
+                        copy.add(t);
+                    }
+                }
+                if (copy.isEmpty()) {
+                    buckets.remove(key);
+                } else {
+                    buckets.put(key, Collections.unmodifiableList(copy));
+                }
+            }
+        }
+
+        synchronized void update(T info) {
+            Collection<String> keys = keysById.get(info.getId());
+            if (keys != null && keys.equals(keys(info, new LinkedHashSet<String>()))) {
+                // same keys, keep the object where it is in the buckets
+                replace(info, keys);
+            } else {
+                remove(info);
+                add(info);
+            }
+        }
+
+        void replace(T info, Collection<String> keys) {
+            for (String key : keys) {
+                List<T> bucket = buckets.get(key);
+                for (int i = 0; bucket != null && i < bucket.size(); i++) {
+                    T t = bucket.get(i);
+                    if (t != info && info.getId().equals(t.getId())) {
+                        List<T> copy = new ArrayList<T>(bucket);
+                        copy.set(i, info);
+                        buckets.put(key, Collections.unmodifiableList(copy));
+                        break;
+                    }
+                }
+            }
+        }
+
+        List<T> get(String key) {
+            List<T> bucket = key != null ? buckets.get(key) : null;
+            return bucket != null ? bucket : Collections.<T> emptyList();
+        }
+
+        T first(String key) {
+            List<T> bucket = get(key);
+            return bucket.isEmpty() ? null : bucket.get(0);
+        }
+
+        synchronized void clear() {
+            buckets.clear();
+            keysById.clear();
+        }
+    }
+
+    /**
+     * The primary storage, maps ids to objects and keeps track of the order they have been added
+     * in. Saving an object again keeps its original position.
+     */
+    static class InfoMap<T extends CatalogInfo> {
+
+        ConcurrentMap<String, T> byId = new ConcurrentHashMap<String, T>();
+
+        /**
+         * The position of each object (by id) in the insertion order
+         */
+        Map<String, Long> positions = new HashMap<String, Long>();
+
+        ConcurrentSkipListMap<Long, T> byPosition = new ConcurrentSkipListMap<Long, T>();
+
+        AtomicLong counter = new AtomicLong();
+
+        T get(String id) {
+            return id != null ? byId.get(id) : null;
+        }
+
+        synchronized void put(String id, T info) {
+            Long position = positions.get(id);
+            if (position == null) {
+                position = counter.incrementAndGet();
+                positions.put(id, position);
+            }
+            byPosition.put(position, info);
+            byId.put(id, info);
+        }
+
+        synchronized T remove(String id) {
+            Long position = positions.remove(id);
+            if (position != null) {
+                byPosition.remove(position);
+            }
+            return byId.remove(id);
+        }
+
+        /**
+         * Returns a live view of the objects, in insertion order
+         */
+        Collection<T> values() {
+            return byPosition.values();
+        }
+
+        synchronized void clear() {
+            byPosition.clear();
+            positions.clear();
+            byId.clear();
+        }
+    }
+
+    //
+    // workspaces
+    //
+    protected InfoMap<WorkspaceInfo> workspaces = new InfoMap<WorkspaceInfo>();
+
+    protected Index<WorkspaceInfo> workspacesByName = new Index<WorkspaceInfo>() {
+        Collection<String> keys(WorkspaceInfo ws) {
+            return Collections.singleton(ws.getName());
+        }
+    };
+
+    protected volatile WorkspaceInfo defaultWorkspace;
+
+    //
+    // namespaces
+    //
+    protected InfoMap<NamespaceInfo> namespaces = new InfoMap<NamespaceInfo>();
+
+    protected Index<NamespaceInfo> namespacesByPrefix = new Index<NamespaceInfo>() {
+        Collection<String> keys(NamespaceInfo ns) {
+            return Collections.singleton(ns.getPrefix());
+        }
+    };
+
+    protected Index<NamespaceInfo> namespacesByURI = new Index<NamespaceInfo>() {
+        Collection<String> keys(NamespaceInfo ns) {
+            return Collections.singleton(ns.getURI());
+        }
+    };
+
+    protected volatile NamespaceInfo defaultNamespace;
+
+    //
+    // stores
+    //
+    protected InfoMap<StoreInfo> stores = new InfoMap<StoreInfo>();
+
+    protected Index<StoreInfo> storesByName = new Index<StoreInfo>() {
+        Collection<String> keys(StoreInfo store) {
+            return Collections.singleton(store.getName());
+        }
+    };
+
+    protected Index<StoreInfo> storesByWorkspace = new Index<StoreInfo>() {
+        Collection<String> keys(StoreInfo store) {
+            return Collections.singleton(id(store.getWorkspace()));
+        }
+    };
+
+    /**
+     * The default store keyed by workspace id
+     */
+    protected ConcurrentMap<String, DataStoreInfo> defaultStores = new ConcurrentHashMap<String, DataStoreInfo>();
+
+    //
+    // resources
+    //
+    protected InfoMap<ResourceInfo> resources = new InfoMap<ResourceInfo>();
+
+    protected Index<ResourceInfo> resourcesByName = new Index<ResourceInfo>() {
+        Collection<String> keys(ResourceInfo resource) {
+            return Collections.singleton(resource.getName());
+        }
+    };
+
+    protected Index<ResourceInfo> resourcesByNamespace = new Index<ResourceInfo>() {
+        Collection<String> keys(ResourceInfo resource) {
+            return Collections.singleton(id(resource.getNamespace()));
+        }
+    };
+
+    protected Index<ResourceInfo> resourcesByStore = new Index<ResourceInfo>() {
+        Collection<String> keys(ResourceInfo resource) {
+            return Collections.singleton(id(resource.getStore()));
+        }
+    };
+
+    //
+    // layers
+    //
+    protected InfoMap<LayerInfo> layers = new InfoMap<LayerInfo>();
+
+    protected Index<LayerInfo> layersByName = new Index<LayerInfo>() {
+        Collection<String> keys(LayerInfo layer) {
+            // the layer name is derived from the resource one
+            return Collections.singleton(layer.getResource() != null ? layer.getName() : null);
+        }
+    };
+
+    protected Index<LayerInfo> layersByResource = new Index<LayerInfo>() {
+        Collection<String> keys(LayerInfo layer) {
+            return Collections.singleton(id(layer.getResource()));
+        }
+    };
+
+    protected Index<LayerInfo> layersByStyle = new Index<LayerInfo>() {
+        Collection<String> keys(LayerInfo layer) {
+            List<String> keys = new ArrayList<String>();
+            keys.add(id(layer.getDefaultStyle()));
+            for (StyleInfo style : layer.getStyles()) {
+                keys.add(id(style));
+            }
+            return keys;
+        }
+    };
+
+    //
+    // maps
+    //
+    protected InfoMap<MapInfo> maps = new InfoMap<MapInfo>();
+
+    protected Index<MapInfo> mapsByName = new Index<MapInfo>() {
+        Collection<String> keys(MapInfo map) {
+            return Collections.singleton(map.getName());
+        }
+    };
+
+    //
+    // layer groups
+    //
+    protected InfoMap<LayerGroupInfo> layerGroups = new InfoMap<LayerGroupInfo>();
+
+    protected Index<LayerGroupInfo> layerGroupsByName = new Index<LayerGroupInfo>() {
+        Collection<String> keys(LayerGroupInfo layerGroup) {
+            return Collections.singleton(layerGroup.getName());
+        }
+    };
+
+    protected Index<LayerGroupInfo> layerGroupsByWorkspace = new Index<LayerGroupInfo>() {
+        Collection<String> keys(LayerGroupInfo layerGroup) {
+            return Collections.singleton(workspaceKey(layerGroup.getWorkspace()));
+        }
+    };
+
+    //
+    // styles
+    //
+    protected InfoMap<StyleInfo> styles = new InfoMap<StyleInfo>();
+
+    protected Index<StyleInfo> stylesByName = new Index<StyleInfo>() {
+        Collection<String> keys(StyleInfo style) {
+            return Collections.singleton(style.getName());
+        }
+    };
+
+    protected Index<StyleInfo> stylesByWorkspace = new Index<StyleInfo>() {
+        Collection<String> keys(StyleInfo style) {
+            return Collections.singleton(workspaceKey(style.getWorkspace()));
+        }
+    };
+
+    /**
+     * the catalog
+     */
+    private CatalogImpl catalog;
+
+    public IndexedCatalogFacade() {
+    }
+
+    public IndexedCatalogFacade(Catalog catalog) {
+        setCatalog(catalog);
+    }
+
+    public void setCatalog(Catalog catalog) {
+        this.catalog = (CatalogImpl) catalog;
+    }
+
+    public Catalog getCatalog() {
+        return catalog;
+    }
+
+    //
+    // Stores
+    //
+    public StoreInfo add(StoreInfo store) {
+        resolve(store);
+        index(store);
+        return ModificationProxy.create(store, StoreInfo.class);
+    }
+
+    public void remove(StoreInfo store) {
+        store = unwrap(store);
+        stores.remove(store.getId());
+        storesByName.remove(store);
+        storesByWorkspace.remove(store);
+    }
+
+    public void save(StoreInfo store) {
+        beforeSaved(store);
+        StoreInfo real = commitProxy(store);
+        index(real);
+        afterSaved(store);
+    }
+
+    public <T extends StoreInfo> T detach(T store) {
+        return store;
+    }
+
+    public <T extends StoreInfo> T getStore(String id, Class<T> clazz) {
+        StoreInfo store = stores.get(id);
+        if (clazz.isInstance(store)) {
+            return ModificationProxy.create((T) store, clazz);
+        }
+        return null;
+    }
+
+    public <T extends StoreInfo> T getStoreByName(WorkspaceInfo workspace, String name,
+            Class<T> clazz) {
+        List<T> matches = filter(storesByName.get(name), clazz);
+        if (workspace == ANY_WORKSPACE) {
+            if (matches.size() == 1) {
+                return ModificationProxy.create(matches.get(0), clazz);
+            }
+        } else {
+            for (T store : matches) {
+                if (workspace.getId().equals(id(store.getWorkspace()))) {
+                    return ModificationProxy.create(store, clazz);
+                }
+            }
+        }
+        return null;
+    }
+
+    public <T extends StoreInfo> List<T> getStoresByWorkspace(WorkspaceInfo workspace,
+            Class<T> clazz) {
+        // TODO: support ANY_WORKSPACE?
+
+        if (workspace == null) {
+            workspace = getDefaultWorkspace();
+            if (workspace == null) {
+                return Collections.emptyList();
+            }
+        }
+
+        return ModificationProxy.createList(filter(storesByWorkspace.get(workspace.getId()), clazz),
+                clazz);
+    }
+
+    public <T extends StoreInfo> List<T> getStores(Class<T> clazz) {
+        return ModificationProxy.createList(filter(stores.values(), clazz), clazz);
+    }
+
+    public DataStoreInfo getDefaultDataStore(WorkspaceInfo workspace) {
+        DataStoreInfo defaultStore = defaultStores.get(workspace.getId());
+        return defaultStore != null ? ModificationProxy.create(defaultStore, DataStoreInfo.class)
+                : null;
+    }
+
+    public void setDefaultDataStore(WorkspaceInfo workspace, DataStoreInfo store) {
+        DataStoreInfo old;
+        if (store != null) {
+            old = defaultStores.put(workspace.getId(), unwrap(store));
+        } else {
+            old = defaultStores.remove(workspace.getId());
+        }
+
+        // fire change event
+        catalog.fireModified(catalog, Arrays.asList("defaultDataStore"), Arrays.asList(old),
+                Arrays.asList(store));
+    }
+
+    //
+    // Resources
+    //
+    public ResourceInfo add(ResourceInfo resource) {
+        resolve(resource);
+        index(resource);
+        return ModificationProxy.create(resource, ResourceInfo.class);
+    }
+
+    public void remove(ResourceInfo resource) {
+        resource = unwrap(resource);
+        resources.remove(resource.getId());
+        resourcesByName.remove(resource);
+        resourcesByNamespace.remove(resource);
+        resourcesByStore.remove(resource);
+    }
+
+    public void save(ResourceInfo resource) {
+        beforeSaved(resource);
+        ResourceInfo real = commitProxy(resource);
+        index(real);
+        // the layer names are derived from the resource name
+        for (LayerInfo layer : layersByResource.get(real.getId())) {
+            layersByName.update(layer);
+        }
+        afterSaved(resource);
+    }
+
+    public <T extends ResourceInfo> T detach(T resource) {
+        return resource;
+    }
+
+    public <T extends ResourceInfo> T getResource(String id, Class<T> clazz) {
+        ResourceInfo resource = resources.get(id);
+        if (clazz.isInstance(resource)) {
+            return ModificationProxy.create((T) resource, clazz);
+        }
+        return null;
+    }
+
+    public <T extends ResourceInfo> T getResourceByName(NamespaceInfo namespace, String name,
+            Class<T> clazz) {
+        List<T> matches = filter(resourcesByName.get(name), clazz);
+        if (namespace == ANY_NAMESPACE) {
+            if (matches.size() == 1) {
+                return ModificationProxy.create(matches.get(0), clazz);
+            }
+        } else {
+            for (T resource : matches) {
+                if (namespace.getId().equals(id(resource.getNamespace()))) {
+                    return ModificationProxy.create(resource, clazz);
+                }
+            }
+        }
+        return null;
+    }
+
+    public <T extends ResourceInfo> List<T> getResources(Class<T> clazz) {
+        return ModificationProxy.createList(filter(resources.values(), clazz), clazz);
+    }
+
+    public <T extends ResourceInfo> List<T> getResourcesByNamespace(NamespaceInfo namespace,
+            Class<T> clazz) {
+        // TODO: support ANY_NAMESPACE?
+
+        if (namespace == null) {
+            namespace = getDefaultNamespace();
+        }
+
+        List<T> matches;
+        if (namespace != null) {
+            matches = filter(resourcesByNamespace.get(namespace.getId()), clazz);
+        } else {
+            // resources without a namespace are not indexed, scan
+            matches = new ArrayList<T>();
+            for (T resource : filter(resources.values(), clazz)) {
+                if (resource.getNamespace() == null) {
+                    matches.add(resource);
+                }
+            }
+        }
+        return ModificationProxy.createList(matches, clazz);
+    }
+
+    public <T extends ResourceInfo> T getResourceByStore(StoreInfo store, String name,
+            Class<T> clazz) {
+        for (T resource : filter(resourcesByName.get(name), clazz)) {
+            if (store.getId().equals(id(resource.getStore()))) {
+                return ModificationProxy.create(resource, clazz);
+            }
+        }
+        return null;
+    }
+
+    public <T extends ResourceInfo> List<T> getResourcesByStore(StoreInfo store, Class<T> clazz) {
+        return ModificationProxy.createList(filter(resourcesByStore.get(store.getId()), clazz),
+                clazz);
+    }
+
+    //
+    // Layers
+    //
+    public LayerInfo add(LayerInfo layer) {
+        resolve(layer);
+        index(layer);
+        return ModificationProxy.create(layer, LayerInfo.class);
+    }
+
+    public void remove(LayerInfo layer) {
+        layer = unwrap(layer);
+        layers.remove(layer.getId());
+        layersByName.remove(layer);
+        layersByResource.remove(layer);
+        layersByStyle.remove(layer);
+    }
+
+    public void save(LayerInfo layer) {
+        beforeSaved(layer);
+        LayerInfo real = commitProxy(layer);
+        index(real);
+        afterSaved(layer);
+    }
+
+    public LayerInfo detach(LayerInfo layer) {
+        return layer;
+    }
+
+    public LayerInfo getLayer(String id) {
+        LayerInfo layer = layers.get(id);
+        return layer != null ? ModificationProxy.create(layer, LayerInfo.class) : null;
+    }
+
+    public LayerInfo getLayerByName(String name) {
+        LayerInfo layer = layersByName.first(name);
+        return layer != null ? ModificationProxy.create(layer, LayerInfo.class) : null;
+    }
+
+    public List<LayerInfo> getLayers(ResourceInfo resource) {
+        return ModificationProxy.createList(layersByResource.get(resource.getId()),
+                LayerInfo.class);
+    }
+
+    public List<LayerInfo> getLayers(StyleInfo style) {
+        return ModificationProxy.createList(layersByStyle.get(style.getId()), LayerInfo.class);
+    }
+
+    public List<LayerInfo> getLayers() {
+        return ModificationProxy.createList(new ArrayList<LayerInfo>(layers.values()),
+                LayerInfo.class);
+    }
+
+    //
+    // Maps
+    //
+    public MapInfo add(MapInfo map) {
+        resolve(map);
+        index(map);
+        return ModificationProxy.create(map, MapInfo.class);
+    }
+
+    public void remove(MapInfo map) {
+        map = unwrap(map);
+        maps.remove(map.getId());
+        mapsByName.remove(map);
+    }
+
+    public void save(MapInfo map) {
+        beforeSaved(map);
+        MapInfo real = commitProxy(map);
+        index(real);
+        afterSaved(map);
+    }
+
+    public MapInfo detach(MapInfo map) {
+        return map;
+    }
+
+    public MapInfo getMap(String id) {
+        MapInfo map = maps.get(id);
+        return map != null ? ModificationProxy.create(map, MapInfo.class) : null;
+    }
+
+    public MapInfo getMapByName(String name) {
+        MapInfo map = mapsByName.first(name);
+        return map != null ? ModificationProxy.create(map, MapInfo.class) : null;
+    }
+
+    public List<MapInfo> getMaps() {
+        return ModificationProxy.createList(new ArrayList<MapInfo>(maps.values()), MapInfo.class);
+    }
+
+    //
+    // Layer groups
+    //
+    public LayerGroupInfo add(LayerGroupInfo layerGroup) {
+        resolve(layerGroup);
+        index(layerGroup);
+        return ModificationProxy.create(layerGroup, LayerGroupInfo.class);
+    }
+
+    public void remove(LayerGroupInfo layerGroup) {
+        layerGroup = unwrap(layerGroup);
+        layerGroups.remove(layerGroup.getId());
+        layerGroupsByName.remove(layerGroup);
+        layerGroupsByWorkspace.remove(layerGroup);
+    }
+
+    public void save(LayerGroupInfo layerGroup) {
+        beforeSaved(layerGroup);
+        LayerGroupInfo real = commitProxy(layerGroup);
+        index(real);
+        afterSaved(layerGroup);
+    }
+
+    public LayerGroupInfo detach(LayerGroupInfo layerGroup) {
+        return layerGroup;
+    }
+
+    public List<LayerGroupInfo> getLayerGroups() {
+        return ModificationProxy.createList(new ArrayList<LayerGroupInfo>(layerGroups.values()),
+                LayerGroupInfo.class);
+    }
+
+    public List<LayerGroupInfo> getLayerGroupsByWorkspace(WorkspaceInfo workspace) {
+        // TODO: support ANY_WORKSPACE?
+
+        if (workspace == null) {
+            workspace = getDefaultWorkspace();
+            if (workspace == null) {
+                return Collections.emptyList();
+            }
+        }
+
+        return ModificationProxy.createList(layerGroupsByWorkspace.get(workspaceKey(workspace)),
+                LayerGroupInfo.class);
+    }
+
+    public LayerGroupInfo getLayerGroup(String id) {
+        LayerGroupInfo layerGroup = layerGroups.get(id);
+        return layerGroup != null ? ModificationProxy.create(layerGroup, LayerGroupInfo.class)
+                : null;
+    }
+
+    @Override
+    public LayerGroupInfo getLayerGroupByName(String name) {
+        return getLayerGroupByName(NO_WORKSPACE, name);
+    }
+
+    @Override
+    public LayerGroupInfo getLayerGroupByName(WorkspaceInfo workspace, String name) {
+        LayerGroupInfo match = null;
+        for (LayerGroupInfo layerGroup : layerGroupsByName.get(name)) {
+            WorkspaceInfo lgWorkspace = layerGroup.getWorkspace();
+            boolean matches;
+            if (NO_WORKSPACE == workspace) {
+                matches = lgWorkspace == null;
+            } else if (ANY_WORKSPACE == workspace) {
+                matches = true;
+            } else {
+                matches = lgWorkspace != null && workspace.getId().equals(lgWorkspace.getId());
+            }
+
+            if (matches) {
+                if (match != null) {
+                    // ambiguous
+                    return null;
+                }
+                match = layerGroup;
+            }
+        }
+
+        return match != null ? ModificationProxy.create(match, LayerGroupInfo.class) : null;
+    }
+
+    //
+    // Namespaces
+    //
+    public NamespaceInfo add(NamespaceInfo namespace) {
+        resolve(namespace);
+        index(namespace);
+        return ModificationProxy.create(namespace, NamespaceInfo.class);
+    }
+
+    public void remove(NamespaceInfo namespace) {
+        namespace = unwrap(namespace);
+        NamespaceInfo defaultNamespace = this.defaultNamespace;
+        if (defaultNamespace != null && defaultNamespace.getId().equals(namespace.getId())) {
+            this.defaultNamespace = null;
+        }
+        namespaces.remove(namespace.getId());
+        namespacesByPrefix.remove(namespace);
+        namespacesByURI.remove(namespace);
+    }
+
+    public void save(NamespaceInfo namespace) {
+        beforeSaved(namespace);
+        NamespaceInfo real = commitProxy(namespace);
+        index(real);
+        afterSaved(namespace);
+    }
+
+    public NamespaceInfo detach(NamespaceInfo namespace) {
+        return namespace;
+    }
+
+    public NamespaceInfo getDefaultNamespace() {
+        NamespaceInfo ns = defaultNamespace;
+        return ns != null ? ModificationProxy.create(ns, NamespaceInfo.class) : null;
+    }
+
+    public void setDefaultNamespace(NamespaceInfo defaultNamespace) {
+        NamespaceInfo ns = null;
+        if (defaultNamespace != null) {
+            ns = namespaces.get(defaultNamespace.getId());
+            if (ns == null) {
+                ns = namespacesByPrefix.first(defaultNamespace.getPrefix());
+            }
+        }
+        NamespaceInfo old = this.defaultNamespace;
+        this.defaultNamespace = ns;
+
+        // fire change event
+        catalog.fireModified(catalog, Arrays.asList("defaultNamespace"), Arrays.asList(old),
+                Arrays.asList(defaultNamespace));
+    }
+
+    public NamespaceInfo getNamespace(String id) {
+        NamespaceInfo ns = namespaces.get(id);
+        return ns != null ? ModificationProxy.create(ns, NamespaceInfo.class) : null;
+    }
+
+    public NamespaceInfo getNamespaceByPrefix(String prefix) {
+        NamespaceInfo ns;
+        if (prefix == null || Catalog.DEFAULT.equals(prefix)) {
+            ns = defaultNamespace;
+        } else {
+            ns = namespacesByPrefix.first(prefix);
+        }
+        return ns != null ? ModificationProxy.create(ns, NamespaceInfo.class) : null;
+    }
+
+    public NamespaceInfo getNamespaceByURI(String uri) {
+        NamespaceInfo ns = namespacesByURI.first(uri);
+        return ns != null ? ModificationProxy.create(ns, NamespaceInfo.class) : null;
+    }
+
+    public List<NamespaceInfo> getNamespaces() {
+        return ModificationProxy.createList(new ArrayList<NamespaceInfo>(namespaces.values()),
+                NamespaceInfo.class);
+    }
+
+    //
+    // Workspaces
+    //
+    public WorkspaceInfo add(WorkspaceInfo workspace) {
+        resolve(workspace);
+        index(workspace);
+        return ModificationProxy.create(workspace, WorkspaceInfo.class);
+    }
+
+    public void remove(WorkspaceInfo workspace) {
+        workspace = unwrap(workspace);
+        WorkspaceInfo defaultWorkspace = this.defaultWorkspace;
+        if (defaultWorkspace != null && defaultWorkspace.getId().equals(workspace.getId())) {
+            this.defaultWorkspace = null;
+        }
+        workspaces.remove(workspace.getId());
+        workspacesByName.remove(workspace);
+        defaultStores.remove(workspace.getId());
+    }
+
+    public void save(WorkspaceInfo workspace) {
+        beforeSaved(workspace);
+        WorkspaceInfo real = commitProxy(workspace);
+        index(real);
+        afterSaved(workspace);
+    }
+
+    public WorkspaceInfo detach(WorkspaceInfo workspace) {
+        return workspace;
+    }
+
+    public WorkspaceInfo getDefaultWorkspace() {
+        WorkspaceInfo ws = defaultWorkspace;
+        return ws != null ? ModificationProxy.create(ws, WorkspaceInfo.class) : null;
+    }
+
+    public void setDefaultWorkspace(WorkspaceInfo workspace) {
+        WorkspaceInfo ws = null;
+        if (workspace != null) {
+            ws = workspaces.get(workspace.getId());
+            if (ws == null) {
+                ws = workspacesByName.first(workspace.getName());
+            }
+        }
+        WorkspaceInfo old = this.defaultWorkspace;
+        this.defaultWorkspace = ws;
+
+        // fire change event
+        catalog.fireModified(catalog, Arrays.asList("defaultWorkspace"), Arrays.asList(old),
+                Arrays.asList(workspace));
+    }
+
+    public List<WorkspaceInfo> getWorkspaces() {
+        return ModificationProxy.createList(new ArrayList<WorkspaceInfo>(workspaces.values()),
+                WorkspaceInfo.class);
+    }
+
+    public WorkspaceInfo getWorkspace(String id) {
+        WorkspaceInfo ws = workspaces.get(id);
+        return ws != null ? ModificationProxy.create(ws, WorkspaceInfo.class) : null;
+    }
+
+    public WorkspaceInfo getWorkspaceByName(String name) {
+        WorkspaceInfo ws;
+        if (name == null || Catalog.DEFAULT.equals(name)) {
+            ws = defaultWorkspace;
+        } else {
+            ws = workspacesByName.first(name);
+        }
+        return ws != null ? ModificationProxy.create(ws, WorkspaceInfo.class) : null;
+    }
+
+    //
+    // Styles
+    //
+    public StyleInfo add(StyleInfo style) {
+        resolve(style);
+        index(style);
+        return ModificationProxy.create(style, StyleInfo.class);
+    }
+
+    public void remove(StyleInfo style) {
+        style = unwrap(style);
+        styles.remove(style.getId());
+        stylesByName.remove(style);
+        stylesByWorkspace.remove(style);
+    }
+
+    public void save(StyleInfo style) {
+        beforeSaved(style);
+        StyleInfo real = commitProxy(style);
+        index(real);
+        afterSaved(style);
+    }
+
+    public StyleInfo detach(StyleInfo style) {
+        return style;
+    }
+
+    public StyleInfo getStyle(String id) {
+        StyleInfo style = styles.get(id);
+        return style != null ? ModificationProxy.create(style, StyleInfo.class) : null;
+    }
+
+    public StyleInfo getStyleByName(String name) {
+        for (StyleInfo style : stylesByName.get(name)) {
+            if (style.getWorkspace() == null) {
+                return ModificationProxy.create(style, StyleInfo.class);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public StyleInfo getStyleByName(WorkspaceInfo workspace, String name) {
+        if (null == workspace) {
+            throw new NullPointerException("workspace");
+        }
+        if (null == name) {
+            throw new NullPointerException("name");
+        }
+
+        List<StyleInfo> matches = stylesByName.get(name);
+        if (workspace == ANY_WORKSPACE) {
+            if (matches.size() == 1) {
+                return ModificationProxy.create(matches.get(0), StyleInfo.class);
+            }
+        } else {
+            String key = workspaceKey(workspace);
+            for (StyleInfo style : matches) {
+                if (key.equals(workspaceKey(style.getWorkspace()))) {
+                    return ModificationProxy.create(style, StyleInfo.class);
+                }
+            }
+        }
+        return null;
+    }
+
+    public List<StyleInfo> getStyles() {
+        return ModificationProxy.createList(new ArrayList<StyleInfo>(styles.values()),
+                StyleInfo.class);
+    }
+
+    public List<StyleInfo> getStylesByWorkspace(WorkspaceInfo workspace) {
+        // TODO: support ANY_WORKSPACE?
+
+        if (workspace == null) {
+            workspace = getDefaultWorkspace();
+            if (workspace == null) {
+                return Collections.emptyList();
+            }
+        }
+
+        return ModificationProxy.createList(stylesByWorkspace.get(workspaceKey(workspace)),
+                StyleInfo.class);
+    }
+
+    //
+    // Indexing
+    //
+    protected void index(WorkspaceInfo workspace) {
+        workspaces.put(workspace.getId(), workspace);
+        workspacesByName.update(workspace);
+    }
+
+    protected void index(NamespaceInfo namespace) {
+        namespaces.put(namespace.getId(), namespace);
+        namespacesByPrefix.update(namespace);
+        namespacesByURI.update(namespace);
+    }
+
+    protected void index(StoreInfo store) {
+        stores.put(store.getId(), store);
+        storesByName.update(store);
+        storesByWorkspace.update(store);
+    }
+
+    protected void index(ResourceInfo resource) {
+        resources.put(resource.getId(), resource);
+        resourcesByName.update(resource);
+        resourcesByNamespace.update(resource);
+        resourcesByStore.update(resource);
+    }
+
+    protected void index(LayerInfo layer) {
+        layers.put(layer.getId(), layer);
+        layersByName.update(layer);
+        layersByResource.update(layer);
+        layersByStyle.update(layer);
+    }
+
+    protected void index(MapInfo map) {
+        maps.put(map.getId(), map);
+        mapsByName.update(map);
+    }
+
+    protected void index(LayerGroupInfo layerGroup) {
+        layerGroups.put(layerGroup.getId(), layerGroup);
+        layerGroupsByName.update(layerGroup);
+        layerGroupsByWorkspace.update(layerGroup);
+    }
+
+    protected void index(StyleInfo style) {
+        styles.put(style.getId(), style);
+        stylesByName.update(style);
+        stylesByWorkspace.update(style);
+    }
+
+    static String id(CatalogInfo info) {
+        return info != null ? info.getId() : null;
+    }
+
+    static String workspaceKey(WorkspaceInfo workspace) {
+        if (workspace == null || workspace == NO_WORKSPACE) {
+            return NO_WORKSPACE_KEY;
+        }
+        return workspace.getId();
+    }
+
+    /**
+     * Returns the objects in the collection that are instances of the specified class
+     */
+    static <T> List<T> filter(Collection<? super T> objects, Class<T> clazz) {
+        List<T> result = new ArrayList<T>(objects.size());
+        for (Object o : objects) {
+            if (clazz.isInstance(o)) {
+                result.add((T) o);
+            }
+        }
+        return result;
+    }
+
+    public void dispose() {
+        workspaces.clear();
+        workspacesByName.clear();
+        defaultWorkspace = null;
+        namespaces.clear();
+        namespacesByPrefix.clear();
+        namespacesByURI.clear();
+        defaultNamespace = null;
+        stores.clear();
+        storesByName.clear();
+        storesByWorkspace.clear();
+        defaultStores.clear();
+        resources.clear();
+        resourcesByName.clear();
+        resourcesByNamespace.clear();
+        resourcesByStore.clear();
+        layers.clear();
+        layersByName.clear();
+        layersByResource.clear();
+        layersByStyle.clear();
+        maps.clear();
+        mapsByName.clear();
+        layerGroups.clear();
+        layerGroupsByName.clear();
+        layerGroupsByWorkspace.clear();
+        styles.clear();
+        stylesByName.clear();
+        stylesByWorkspace.clear();
+    }
+
+    public void resolve() {
+        // resolving can change references, re-index everything afterwards
+        for (WorkspaceInfo ws : new ArrayList<WorkspaceInfo>(workspaces.values())) {
+            resolve(ws);
+            index(ws);
+        }
+        for (NamespaceInfo ns : new ArrayList<NamespaceInfo>(namespaces.values())) {
+            resolve(ns);
+            index(ns);
+        }
+        for (StoreInfo s : new ArrayList<StoreInfo>(stores.values())) {
+            resolve(s);
+            index(s);
+        }
+        for (StyleInfo s : new ArrayList<StyleInfo>(styles.values())) {
+            resolve(s);
+            index(s);
+        }
+        for (ResourceInfo r : new ArrayList<ResourceInfo>(resources.values())) {
+            resolve(r);
+            index(r);
+        }
+        for (LayerInfo l : new ArrayList<LayerInfo>(layers.values())) {
+            resolve(l);
+            index(l);
+        }
+        for (LayerGroupInfo lg : new ArrayList<LayerGroupInfo>(layerGroups.values())) {
+            resolve(lg);
+            index(lg);
+        }
+        for (MapInfo m : new ArrayList<MapInfo>(maps.values())) {
+            resolve(m);
+            index(m);
+        }
+    }
+
+    public void syncTo(CatalogFacade dao) {
+        if (dao instanceof IndexedCatalogFacade) {
+            // do an optimized sync
+            IndexedCatalogFacade other = (IndexedCatalogFacade) dao;
+
+            other.workspaces = workspaces;
+            other.workspacesByName = workspacesByName;
+            other.defaultWorkspace = defaultWorkspace;
+            other.namespaces = namespaces;
+            other.namespacesByPrefix = namespacesByPrefix;
+            other.namespacesByURI = namespacesByURI;
+            other.defaultNamespace = defaultNamespace;
+            other.stores = stores;
+            other.storesByName = storesByName;
+            other.storesByWorkspace = storesByWorkspace;
+            other.defaultStores = defaultStores;
+            other.resources = resources;
+            other.resourcesByName = resourcesByName;
+            other.resourcesByNamespace = resourcesByNamespace;
+            other.resourcesByStore = resourcesByStore;
+            other.layers = layers;
+            other.layersByName = layersByName;
+            other.layersByResource = layersByResource;
+            other.layersByStyle = layersByStyle;
+            other.maps = maps;
+            other.mapsByName = mapsByName;
+            other.layerGroups = layerGroups;
+            other.layerGroupsByName = layerGroupsByName;
+            other.layerGroupsByWorkspace = layerGroupsByWorkspace;
+            other.styles = styles;
+            other.stylesByName = stylesByName;
+            other.stylesByWorkspace = stylesByWorkspace;
+        } else {
+            // do a manual import
+            for (WorkspaceInfo ws : workspaces.values()) {
+                dao.add(ws);
+            }
+            for (NamespaceInfo ns : namespaces.values()) {
+                dao.add(ns);
+            }
+            for (StoreInfo s : stores.values()) {
+                dao.add(s);
+            }
+            for (ResourceInfo r : resources.values()) {
+                dao.add(r);
+            }
+            for (StyleInfo s : styles.values()) {
+                dao.add(s);
+            }
+            for (LayerInfo l : layers.values()) {
+                dao.add(l);
+            }
+            for (LayerGroupInfo lg : layerGroups.values()) {
+                dao.add(lg);
+            }
+            for (MapInfo m : maps.values()) {
+                dao.add(m);
+            }
+
+            if (defaultWorkspace != null) {
+                dao.setDefaultWorkspace(defaultWorkspace);
+            }
+            if (defaultNamespace != null) {
+                dao.setDefaultNamespace(defaultNamespace);
+            }
+
+            for (Map.Entry<String, DataStoreInfo> e : defaultStores.entrySet()) {
+                WorkspaceInfo ws = workspaces.get(e.getKey());
+                if (null != ws) {
+                    dao.setDefaultDataStore(ws, e.getValue());
+                }
+            }
+        }
+    }
+}
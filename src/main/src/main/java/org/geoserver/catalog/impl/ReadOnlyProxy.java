@@ -0,0 +1,161 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.Info;
+
+/**
+ * Proxies a catalog object handing out snapshots of its state, and rejecting any modification.
+ * <p>
+ * Collections and maps are copied while holding the lock {@link ModificationProxy#commit()}
+ * takes on the object, so that a concurrent save cannot be seen half way through, and are
+ * detached from the object: changing them has no effect on the catalog. The catalog objects
+ * they contain, as well as the ones returned by the getters, are proxied in turn. Each
+ * collection is copied once, on first access, and the same copy is returned afterwards.
+ * </p>
+ * <p>
+ * Compared to the {@link ModificationProxy} there is no change tracking, hence no second copy of
+ * the collections and no bookkeeping for the scalar properties. Setters throw an
+ * {@link UnsupportedOperationException}.
+ * </p>
+ */
+public class ReadOnlyProxy implements WrappingProxy {
+
+    Object proxyObject;
+
+    /**
+     * The copied collections and proxied objects, by getter name
+     */
+    Map<String, Object> snapshots;
+
+    public ReadOnlyProxy(Object proxyObject) {
+        this.proxyObject = proxyObject;
+    }
+
+    public Object getProxyObject() {
+        return proxyObject;
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (name.startsWith("set") && args != null && args.length == 1) {
+            throw new UnsupportedOperationException("Read only catalog object, cannot call "
+                    + name);
+        }
+        if ("equals".equals(name) && args != null && args.length == 1) {
+            return proxyObject.equals(unwrap(args[0]));
+        }
+
+        boolean getter = (name.startsWith("get") || name.startsWith("is"))
+                && method.getParameterTypes().length == 0;
+        if (getter && snapshots != null && snapshots.containsKey(name)) {
+            return snapshots.get(name);
+        }
+
+        Object result;
+        try {
+            if (getter && (Collection.class.isAssignableFrom(method.getReturnType()) || Map.class
+                    .isAssignableFrom(method.getReturnType()))) {
+                // same lock as ModificationProxy.commit(), which rewrites them in place
+                synchronized (proxyObject) {
+                    result = snapshot(method.invoke(proxyObject, args));
+                }
+            } else {
+                result = method.invoke(proxyObject, args);
+                if (result != null && shouldProxy(result)) {
+                    result = create(result, (Class) method.getReturnType());
+                }
+            }
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+
+        if (getter) {
+            if (snapshots == null) {
+                snapshots = new HashMap<String, Object>();
+            }
+            snapshots.put(name, result);
+        }
+        return result;
+    }
+
+    /**
+     * Copies the collection or map, proxying the catalog objects in the collections
+     */
+    Object snapshot(Object value) throws Exception {
+        if (value instanceof Collection) {
+            Collection real = (Collection) value;
+            Collection copy = real.getClass().newInstance();
+            for (Object o : real) {
+                copy.add(o != null && shouldProxy(o) ? create((Info) o, Info.class) : o);
+            }
+            return copy;
+        } else if (value instanceof Map) {
+            Map real = (Map) value;
+            Map copy = real.getClass().newInstance();
+            copy.putAll(real);
+            return copy;
+        }
+        return value;
+    }
+
+    boolean shouldProxy(Object o) {
+        return o instanceof Info && !(o instanceof Catalog)
+                && ProxyUtils.handler(o, ReadOnlyProxy.class) == null;
+    }
+
+    /**
+     * Wraps an object in a read only proxy, unwrapping any modification proxy first.
+     */
+    public static <T> T create(T proxyObject, Class<T> clazz) {
+        T object = ModificationProxy.unwrap(proxyObject);
+        return ProxyUtils.createProxy(object, clazz, new ReadOnlyProxy(object));
+    }
+
+    /**
+     * Wraps a list in a decorator which proxies each item in the list.
+     */
+    public static <T> List<T> createList(List<T> proxyList, Class<T> clazz) {
+        return new list(proxyList, clazz);
+    }
+
+    /**
+     * Unwraps a read only proxy, returning the object untouched if it is not one
+     */
+    public static <T> T unwrap(T object) {
+        return ProxyUtils.unwrap(object, ReadOnlyProxy.class);
+    }
+
+    /**
+     * Returns the read only proxy invocation handler of an object, or null if the object is not
+     * proxied by one
+     */
+    public static ReadOnlyProxy handler(Object object) {
+        return ProxyUtils.handler(object, ReadOnlyProxy.class);
+    }
+
+    static class list<T> extends ProxyList {
+
+        list(List<T> list, Class<T> clazz) {
+            super(list, clazz);
+        }
+
+        protected <T> T createProxy(T proxyObject, Class<T> proxyInterface) {
+            return ReadOnlyProxy.create(proxyObject, proxyInterface);
+        }
+
+        protected <U> U unwrapProxy(U proxy, java.lang.Class<U> proxyInterface) {
+            return ReadOnlyProxy.unwrap(proxy);
+        };
+    }
+}
@@ -67,10 +67,21 @@ public abstract class GeoServerLoader {
 
     static Logger LOGGER = Logging.getLogger( "org.geoserver" );
     
+    /**
+     * Property (system, environment or servlet context) setting the number of threads used to
+     * read the catalog from the data directory. Values greater than one enable parallel loading.
+     */
+    public static final String LOADER_THREADS = "GEOSERVER_LOADER_THREADS";
+    
     protected GeoServerResourceLoader resourceLoader;
     GeoServer geoserver;
     XStreamPersisterFactory xpf = new XStreamPersisterFactory();
     
+    /**
+     * number of threads used to read the catalog, null means look up {@link #LOADER_THREADS} 
+     */
+    Integer loaderThreads;
+    
     //JD: this is a hack for the moment, it is used only to maintain tests since the test setup relies
     // on the old data directory structure, once the tests have been ported to the new structure
     // this ugly hack can die
@@ -93,6 +104,30 @@ public abstract class GeoServerLoader {
         GeoServerLoader.legacy = legacy;
     }
     
+    /**
+     * Sets the number of threads used to read the catalog, values greater than one enable 
+     * parallel loading. When not set the {@link #LOADER_THREADS} property is used.
+     */
+    public void setLoaderThreads(int loaderThreads) {
+        this.loaderThreads = loaderThreads;
+    }
+    
+    public int getLoaderThreads() {
+        if (loaderThreads != null) {
+            return loaderThreads;
+        }
+        String value = GeoServerExtensions.getProperty(LOADER_THREADS);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid " + LOADER_THREADS + " value '" + value 
+                        + "', loading the catalog sequentially");
+            }
+        }
+        return 1;
+    }
+    
     public final Object postProcessAfterInitialization(Object bean, String beanName)
             throws BeansException {
         return bean;
@@ -243,6 +278,12 @@ public abstract class GeoServerLoader {
      * Reads the catalog from disk.
      */
     Catalog readCatalog( XStreamPersister xp ) throws Exception {
+        int threads = getLoaderThreads();
+        if ( threads > 1 ) {
+            return new ParallelCatalogReader( this, threads ).read( xp );
+        }
+        
+        long start = System.currentTimeMillis();
         Catalog catalog = new CatalogImpl();
         catalog.setResourceLoader(resourceLoader);
         xp.setCatalog( catalog );
@@ -524,6 +565,7 @@ public abstract class GeoServerLoader {
            loadLayerGroups(layergroups, catalog, xp);
         }
 
+        LOGGER.info( "Catalog loaded in " + (System.currentTimeMillis() - start) + " ms" );
         return catalog;
     }
     
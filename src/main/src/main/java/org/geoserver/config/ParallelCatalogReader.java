@@ -0,0 +1,554 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.filefilter.DirectoryFileFilter;
+import org.apache.commons.io.filefilter.SuffixFileFilter;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.catalog.CoverageStoreInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WMSLayerInfo;
+import org.geoserver.catalog.WMSStoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.util.XStreamPersister;
+
+/**
+ * Reads the catalog from a 2.x style data directory parsing the xml files on a bounded pool of
+ * threads.
+ * <p>
+ * The data directory is loaded in phases: workspaces and namespaces, styles, stores, resources,
+ * layers and layer groups. Within each phase all the files are parsed in parallel, then the
+ * resulting objects are added to the catalog on the calling thread, in the same order used by
+ * {@link GeoServerLoader#readCatalog(XStreamPersister)}, so that the resulting catalog is
+ * identical to the one loaded sequentially. Since parsing resolves references against the
+ * catalog, objects are never added while a phase is being parsed, and each phase only references
+ * objects added by the previous ones.
+ * </p>
+ * <p>
+ * At the end of the load a report with the time spent in each phase is logged.
+ * </p>
+ */
+class ParallelCatalogReader {
+
+    static Logger LOGGER = GeoServerLoader.LOGGER;
+
+    GeoServerLoader loader;
+
+    int threads;
+
+    ExecutorService executor;
+
+    Catalog catalog;
+
+    /**
+     * xstream persisters, one per parsing thread
+     */
+    ThreadLocal<XStreamPersister> persisters = new ThreadLocal<XStreamPersister>() {
+        protected XStreamPersister initialValue() {
+            XStreamPersister xp = loader.xpf.createXMLPersister();
+            xp.setCatalog(catalog);
+            return xp;
+        }
+    };
+
+    /**
+     * the phase timings, phase name to [time, count]
+     */
+    Map<String, long[]> timings = new LinkedHashMap<String, long[]>();
+
+    ParallelCatalogReader(GeoServerLoader loader, int threads) {
+        this.loader = loader;
+        this.threads = threads;
+    }
+
+    /**
+     * Reads the catalog from disk.
+     */
+    Catalog read(XStreamPersister xp) throws Exception {
+        long start = System.currentTimeMillis();
+
+        catalog = new CatalogImpl();
+        catalog.setResourceLoader(loader.resourceLoader);
+        xp.setCatalog(catalog);
+
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GeoServerLoader-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            File workspaces = loader.resourceLoader.find("workspaces");
+            List<File> workspaceDirs = new ArrayList<File>(loader.list(workspaces,
+                    DirectoryFileFilter.INSTANCE));
+
+            long phase = System.currentTimeMillis();
+            List<File> loadedWorkspaceDirs = new ArrayList<File>();
+            int count = loadWorkspaces(workspaces, workspaceDirs, loadedWorkspaceDirs, xp);
+            timing("workspaces and namespaces", phase, count);
+
+            phase = System.currentTimeMillis();
+            count = loadStyles(loadedWorkspaceDirs);
+            timing("styles", phase, count);
+
+            if (workspaces == null) {
+                LOGGER.warning("No 'workspaces' directory found, unable to load any stores.");
+            }
+
+            phase = System.currentTimeMillis();
+            List<StoreInfo> stores = new ArrayList<StoreInfo>();
+            Map<File, StoreInfo> storeDirs = loadStores(workspaceDirs, stores);
+            timing("stores", phase, stores.size());
+
+            phase = System.currentTimeMillis();
+            count = checkDataStores(stores);
+            timing("data store connections", phase, count);
+
+            phase = System.currentTimeMillis();
+            Map<File, ResourceInfo> resourceDirs = loadResources(storeDirs);
+            timing("resources", phase, resourceDirs.size());
+
+            phase = System.currentTimeMillis();
+            count = loadLayers(resourceDirs);
+            timing("layers", phase, count);
+
+            phase = System.currentTimeMillis();
+            count = loadLayerGroups(workspaceDirs, xp);
+            timing("layer groups", phase, count);
+        } finally {
+            executor.shutdown();
+        }
+
+        report(System.currentTimeMillis() - start);
+        return catalog;
+    }
+
+    int loadWorkspaces(File workspaces, List<File> workspaceDirs, List<File> loaded,
+            XStreamPersister xp) {
+        if (workspaces == null) {
+            return 0;
+        }
+
+        // parse everything up front
+        File dws = new File(workspaces, "default.xml");
+        Future<WorkspaceInfo> defaultWs = dws.exists() ? submit(dws, WorkspaceInfo.class) : null;
+        List<Future<WorkspaceInfo>> wsFutures = new ArrayList<Future<WorkspaceInfo>>();
+        List<Future<NamespaceInfo>> nsFutures = new ArrayList<Future<NamespaceInfo>>();
+        for (File wsd : workspaceDirs) {
+            File f = new File(wsd, "workspace.xml");
+            File nsf = new File(wsd, "namespace.xml");
+            wsFutures.add(f.exists() ? submit(f, WorkspaceInfo.class) : null);
+            nsFutures.add(f.exists() && nsf.exists() ? submit(nsf, NamespaceInfo.class) : null);
+        }
+        await(defaultWs);
+        await(wsFutures);
+        await(nsFutures);
+
+        // add them to the catalog, same logic as the sequential loader
+        WorkspaceInfo defaultWorkspace = null;
+        if (defaultWs != null) {
+            try {
+                defaultWorkspace = get(defaultWs);
+                LOGGER.info("Loaded default workspace " + defaultWorkspace.getName());
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load default workspace", e);
+            }
+        } else {
+            LOGGER.warning("No default workspace was found.");
+        }
+
+        int count = 0;
+        for (int i = 0; i < workspaceDirs.size(); i++) {
+            File wsd = workspaceDirs.get(i);
+            if (wsFutures.get(i) == null) {
+                continue;
+            }
+
+            WorkspaceInfo ws = null;
+            try {
+                ws = get(wsFutures.get(i));
+                catalog.add(ws);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load workspace '" + wsd.getName() + "'", e);
+                continue;
+            }
+            count++;
+            loaded.add(wsd);
+
+            LOGGER.info("Loaded workspace '" + ws.getName() + "'");
+
+            NamespaceInfo ns = null;
+            if (nsFutures.get(i) != null) {
+                try {
+                    ns = get(nsFutures.get(i));
+                    catalog.add(ns);
+                    count++;
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to load namespace for '" + wsd.getName()
+                            + "'", e);
+                }
+            }
+
+            // set the default workspace, this value might be null in the case of coming from a
+            // 2.0.0 data directory. See http://jira.codehaus.org/browse/GEOS-3440
+            if (defaultWorkspace != null) {
+                if (ws.getName().equals(defaultWorkspace.getName())) {
+                    catalog.setDefaultWorkspace(ws);
+                    if (ns != null) {
+                        catalog.setDefaultNamespace(ns);
+                    }
+                }
+            } else {
+                // create the default.xml file
+                defaultWorkspace = catalog.getDefaultWorkspace();
+                if (defaultWorkspace != null) {
+                    try {
+                        loader.persist(xp, defaultWorkspace, dws);
+                    } catch (Exception e) {
+                        LOGGER.log(Level.WARNING, "Failed to persist default workspace '"
+                                + wsd.getName() + "'", e);
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    int loadStyles(List<File> workspaceDirs) {
+        // global styles first, then the workspace specific ones
+        List<File> files = new ArrayList<File>();
+        collectStyles(loader.resourceLoader.find("styles"), files);
+        for (File wsd : workspaceDirs) {
+            collectStyles(loader.resourceLoader.find(wsd, "styles"), files);
+        }
+
+        List<Future<StyleInfo>> futures = new ArrayList<Future<StyleInfo>>();
+        for (File f : files) {
+            futures.add(submit(f, StyleInfo.class));
+        }
+        await(futures);
+
+        int count = 0;
+        for (int i = 0; i < files.size(); i++) {
+            try {
+                StyleInfo s = get(futures.get(i));
+                catalog.add(s);
+                count++;
+
+                LOGGER.info("Loaded style '" + s.getName() + "'");
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load style from file '"
+                        + files.get(i).getName() + "'", e);
+            }
+        }
+        return count;
+    }
+
+    void collectStyles(File styles, List<File> files) {
+        for (File sf : loader.list(styles, new SuffixFileFilter(".xml"))) {
+            // handle the .xml.xml case
+            if (new File(styles, sf.getName() + ".xml").exists()) {
+                continue;
+            }
+            files.add(sf);
+        }
+    }
+
+    Map<File, StoreInfo> loadStores(List<File> workspaceDirs, List<StoreInfo> stores) {
+        List<File> dirs = new ArrayList<File>();
+        List<Future<? extends StoreInfo>> futures = new ArrayList<Future<? extends StoreInfo>>();
+        for (File wsd : workspaceDirs) {
+            for (File sd : loader.list(wsd, DirectoryFileFilter.INSTANCE)) {
+                Future<? extends StoreInfo> future = null;
+                if (new File(sd, "datastore.xml").exists()) {
+                    future = submit(new File(sd, "datastore.xml"), DataStoreInfo.class);
+                } else if (new File(sd, "coveragestore.xml").exists()) {
+                    future = submit(new File(sd, "coveragestore.xml"), CoverageStoreInfo.class);
+                } else if (new File(sd, "wmsstore.xml").exists()) {
+                    future = submit(new File(sd, "wmsstore.xml"), WMSStoreInfo.class);
+                }
+                dirs.add(sd);
+                futures.add(future);
+            }
+        }
+        await(futures);
+
+        Map<File, StoreInfo> storeDirs = new LinkedHashMap<File, StoreInfo>();
+        for (int i = 0; i < dirs.size(); i++) {
+            File sd = dirs.get(i);
+            if (futures.get(i) == null) {
+                LOGGER.warning("Ignoring store directory '" + sd.getName() + "'");
+                continue;
+            }
+
+            try {
+                StoreInfo store = get(futures.get(i));
+                catalog.add(store);
+
+                if (store instanceof DataStoreInfo) {
+                    LOGGER.info("Loaded data store '" + store.getName() + "'");
+                } else if (store instanceof CoverageStoreInfo) {
+                    LOGGER.info("Loaded coverage store '" + store.getName() + "'");
+                } else {
+                    LOGGER.info("Loaded wmsstore '" + store.getName() + "'");
+                }
+
+                storeDirs.put(sd, store);
+                stores.add(store);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load store '" + sd.getName() + "'", e);
+            }
+        }
+        return storeDirs;
+    }
+
+    /**
+     * Connects to the enabled data stores in parallel, disabling the ones that fail
+     */
+    int checkDataStores(List<StoreInfo> stores) {
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (StoreInfo store : stores) {
+            if (!(store instanceof DataStoreInfo) || !store.isEnabled()) {
+                continue;
+            }
+
+            final DataStoreInfo ds = (DataStoreInfo) store;
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    // connect to the datastore to determine if we should disable it
+                    try {
+                        ds.getDataStore(null);
+                    } catch (Throwable t) {
+                        LOGGER.warning("Error connecting to '" + ds.getName() + "'. Disabling.");
+                        LOGGER.log(Level.INFO, "", t);
+
+                        ds.setError(t);
+                        ds.setEnabled(false);
+                    }
+                }
+            }));
+        }
+        await(futures);
+        return futures.size();
+    }
+
+    Map<File, ResourceInfo> loadResources(Map<File, StoreInfo> storeDirs) {
+        List<File> dirs = new ArrayList<File>();
+        List<Future<? extends ResourceInfo>> futures = new ArrayList<Future<? extends ResourceInfo>>();
+        for (Map.Entry<File, StoreInfo> entry : storeDirs.entrySet()) {
+            StoreInfo store = entry.getValue();
+            for (File rd : loader.list(entry.getKey(), DirectoryFileFilter.INSTANCE)) {
+                Future<? extends ResourceInfo> future = null;
+                if (store instanceof DataStoreInfo) {
+                    File f = new File(rd, "featuretype.xml");
+                    if (f.exists()) {
+                        future = submit(f, FeatureTypeInfo.class);
+                    } else {
+                        LOGGER.warning("Ignoring feature type directory " + rd.getAbsolutePath());
+                    }
+                } else if (store instanceof CoverageStoreInfo) {
+                    File f = new File(rd, "coverage.xml");
+                    if (f.exists()) {
+                        future = submit(f, CoverageInfo.class);
+                    } else {
+                        LOGGER.warning("Ignoring coverage directory " + rd.getAbsolutePath());
+                    }
+                } else {
+                    File f = new File(rd, "wmslayer.xml");
+                    if (f.exists()) {
+                        future = submit(f, WMSLayerInfo.class);
+                    } else {
+                        LOGGER.warning("Ignoring coverage directory " + rd.getAbsolutePath());
+                    }
+                }
+
+                if (future != null) {
+                    dirs.add(rd);
+                    futures.add(future);
+                }
+            }
+        }
+        await(futures);
+
+        Map<File, ResourceInfo> resourceDirs = new LinkedHashMap<File, ResourceInfo>();
+        for (int i = 0; i < dirs.size(); i++) {
+            File rd = dirs.get(i);
+            ResourceInfo resource;
+            try {
+                resource = get(futures.get(i));
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load resource '" + rd.getName() + "'", e);
+                continue;
+            }
+
+            if (resource instanceof FeatureTypeInfo) {
+                // the sequential loader does not guard against feature type add failures
+                // either, let them propagate
+                catalog.add(resource);
+            } else {
+                try {
+                    catalog.add(resource);
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to load resource '" + rd.getName() + "'", e);
+                    continue;
+                }
+            }
+            resourceDirs.put(rd, resource);
+
+            LOGGER.info("Loaded resource '" + resource.getName() + "'");
+        }
+        return resourceDirs;
+    }
+
+    int loadLayers(Map<File, ResourceInfo> resourceDirs) {
+        List<ResourceInfo> resources = new ArrayList<ResourceInfo>();
+        List<Future<LayerInfo>> futures = new ArrayList<Future<LayerInfo>>();
+        for (Map.Entry<File, ResourceInfo> entry : resourceDirs.entrySet()) {
+            File f = new File(entry.getKey(), "layer.xml");
+            if (f.exists()) {
+                resources.add(entry.getValue());
+                futures.add(submit(f, LayerInfo.class));
+            }
+        }
+        await(futures);
+
+        int count = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                LayerInfo l = get(futures.get(i));
+                catalog.add(l);
+                count++;
+
+                LOGGER.info("Loaded layer '" + l.getName() + "'");
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load layer for resource '"
+                        + resources.get(i).getName() + "'", e);
+            }
+        }
+        return count;
+    }
+
+    int loadLayerGroups(List<File> workspaceDirs, XStreamPersister xp) {
+        // workspace specific groups first, then the global ones
+        List<File> files = new ArrayList<File>();
+        for (File wsd : workspaceDirs) {
+            files.addAll(loader.list(loader.resourceLoader.find(wsd, "layergroups"),
+                    new SuffixFileFilter(".xml")));
+        }
+        files.addAll(loader.list(loader.resourceLoader.find("layergroups"),
+                new SuffixFileFilter(".xml")));
+
+        // layer groups can contain other layer groups, so they can't be parsed in parallel
+        // without changing the outcome, parse and add them sequentially
+        int count = 0;
+        for (File lgf : files) {
+            try {
+                LayerGroupInfo lg = loader.depersist(xp, lgf, LayerGroupInfo.class);
+                if (lg.getLayers() == null || lg.getLayers().size() == 0) {
+                    LOGGER.warning("Skipping empty layer group '" + lg.getName()
+                            + "', it is invalid");
+                    continue;
+                }
+                catalog.add(lg);
+                count++;
+
+                LOGGER.info("Loaded layer group '" + lg.getName() + "'");
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load layer group '" + lgf.getName() + "'", e);
+            }
+        }
+        return count;
+    }
+
+    void timing(String phase, long start, int count) {
+        timings.put(phase, new long[] { System.currentTimeMillis() - start, count });
+    }
+
+    void report(long total) {
+        StringBuilder sb = new StringBuilder("Catalog loaded in ").append(total)
+                .append(" ms using ").append(threads).append(" threads:");
+        for (Map.Entry<String, long[]> e : timings.entrySet()) {
+            sb.append("\n  ").append(e.getKey()).append(": ").append(e.getValue()[0])
+                    .append(" ms (").append(e.getValue()[1]).append(" objects)");
+        }
+        LOGGER.info(sb.toString());
+    }
+
+    <T> Future<T> submit(final File file, final Class<T> clazz) {
+        return executor.submit(new Callable<T>() {
+            public T call() throws Exception {
+                return loader.depersist(persisters.get(), file, clazz);
+            }
+        });
+    }
+
+    /**
+     * Waits for all the futures to complete, failures are reported later by {@link #get(Future)}
+     */
+    void await(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            await(future);
+        }
+    }
+
+    void await(Future<?> future) {
+        if (future == null) {
+            return;
+        }
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            // reported by get
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while loading the catalog", e);
+        }
+    }
+
+    /**
+     * Returns the result of a completed future, unwrapping the parse exception if any
+     */
+    <T> T get(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+}
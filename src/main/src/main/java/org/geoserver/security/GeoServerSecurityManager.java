@@ -62,6 +62,7 @@ import org.geoserver.platform.ContextLoadedEvent;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.security.auth.AuthenticationCache;
 import org.geoserver.security.auth.AuthenticationCacheImpl;
+import org.geoserver.security.auth.ConcurrentAuthenticationCacheImpl;
 import org.geoserver.security.auth.GeoServerRootAuthenticationProvider;
 import org.geoserver.security.auth.LRUAuthenticationCacheImpl;
 import org.geoserver.security.auth.UsernamePasswordAuthenticationProvider;
@@ -69,6 +70,7 @@ import org.geoserver.security.concurrent.LockingKeyStoreProvider;
 import org.geoserver.security.concurrent.LockingRoleService;
 import org.geoserver.security.concurrent.LockingUserGroupService;
 import org.geoserver.security.config.AnonymousAuthenticationFilterConfig;
+import org.geoserver.security.config.AuthenticationCacheConfig;
 import org.geoserver.security.config.BasicAuthenticationFilterConfig;
 import org.geoserver.security.config.ExceptionTranslationFilterConfig;
 import org.geoserver.security.config.FileBasedSecurityServiceConfig;
@@ -492,7 +494,15 @@ public class GeoServerSecurityManager extends ProviderManager implements Applica
 
         setProviders(allAuthProviders);
 
+        //rebuild the authentication cache if its configuration changed
+        // publish the new config before dropping the cache, so that a cache rebuilt
+        // concurrently picks up the new settings
+        AuthenticationCacheConfig cacheConfig = config.getAuthenticationCache();
+        AuthenticationCacheConfig oldCacheConfig = securityConfig.getAuthenticationCache();
         this.securityConfig = new SecurityManagerConfig(config);
+        if (cacheConfig != null && !cacheConfig.equals(oldCacheConfig)) {
+            resetAuthenticationCache();
+        }
         this.initialized = true;
     }
 
@@ -540,7 +550,49 @@ public class GeoServerSecurityManager extends ProviderManager implements Applica
 
     AuthenticationCache lookupAuthenticationCache() {
         AuthenticationCache authCache = GeoServerExtensions.bean(AuthenticationCache.class);
-        return authCache != null ? authCache : new LRUAuthenticationCacheImpl(1000);
+        return authCache != null ? authCache : 
+            createAuthenticationCache(securityConfig.getAuthenticationCache());
+    }
+
+    /**
+     * Creates the authentication cache described by the security configuration
+     */
+    AuthenticationCache createAuthenticationCache(AuthenticationCacheConfig config) {
+        if (config == null) {
+            return new LRUAuthenticationCacheImpl(AuthenticationCacheConfig.DEFAULT_MAX_ENTRIES);
+        }
+        String implementation = config.getImplementation();
+        if (AuthenticationCacheConfig.CONCURRENT.equalsIgnoreCase(implementation)) {
+            return new ConcurrentAuthenticationCacheImpl(config.getTimeToIdleSeconds(), 
+                config.getTimeToLiveSeconds(), config.getMaxEntries(), config.getConcurrencyLevel());
+        }
+        if (implementation != null && 
+            !AuthenticationCacheConfig.LRU.equalsIgnoreCase(implementation)) {
+            LOGGER.warning("Unknown authentication cache implementation " + implementation 
+                + ", falling back on " + AuthenticationCacheConfig.LRU);
+        }
+        return new LRUAuthenticationCacheImpl(config.getTimeToIdleSeconds(), 
+            config.getTimeToLiveSeconds(), config.getMaxEntries());
+    }
+
+    /**
+     * Drops the authentication cache, unless provided by the application context, a new one 
+     * is created on demand
+     */
+    void resetAuthenticationCache() {
+        AuthenticationCache old;
+        synchronized (this) {
+            old = authCache;
+            if (old == null || old == GeoServerExtensions.bean(AuthenticationCache.class)) {
+                return;
+            }
+            authCache = null;
+        }
+        if (old instanceof ConcurrentAuthenticationCacheImpl) {
+            ((ConcurrentAuthenticationCacheImpl) old).dispose();
+        } else if (old instanceof LRUAuthenticationCacheImpl) {
+            ((LRUAuthenticationCacheImpl) old).dispose();
+        }
     }
 
     public RememberMeServices getRememberMeService() {
@@ -34,9 +34,9 @@ public class AuthenticationCacheEntry {
     private int timeToLiveSeconds;
     
     /**
-     * Time stamp of last access in milliseconds
+     * Time stamp of last access in milliseconds, updated by concurrent lookups
      */
-    private long lastAccessed;
+    private volatile long lastAccessed;
     /**
      * Time stamp of creation in milliseconds
      */
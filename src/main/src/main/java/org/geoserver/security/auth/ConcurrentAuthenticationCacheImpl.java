@@ -0,0 +1,360 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+
+package org.geoserver.security.auth;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+import org.springframework.security.core.Authentication;
+
+/**
+ * An {@link AuthenticationCache} implementation meant for heavy concurrent use, such as
+ * services authenticating every single tile request.
+ * <p>
+ * The entries are spread over a number of segments, each one backed by a
+ * {@link ConcurrentHashMap}: lookups never take a lock, and updates only lock the segment
+ * they touch. The access time of an entry is refreshed at most once per second on lookups, so
+ * that hits on popular entries do not keep writing to the same memory.
+ * </p>
+ * <p>
+ * When a segment is full the least recently used among a sample of its entries is evicted,
+ * approximating a LRU policy. For an explanation of the time parameters, see
+ * {@link AuthenticationCacheEntry}, expired entries are dropped when looked up and by a
+ * background {@link TimerTask} sweeping the whole cache.
+ * </p>
+ * <p>
+ * Hits, misses and evictions are tracked per filter, see {@link #getStatistics()}.
+ * </p>
+ */
+public class ConcurrentAuthenticationCacheImpl implements AuthenticationCache {
+
+    static Logger LOGGER = Logging.getLogger("org.geoserver.security");
+
+    /**
+     * Clean up task is run every 60 seconds
+     */
+    private static final int DEFAULT_MILLIS_BETWEEN_REMOVE_EXPIRED = 60 * 1000;
+
+    /**
+     * Number of entries examined to pick the one to evict
+     */
+    static final int EVICTION_SAMPLE = 32;
+
+    /**
+     * Resolution of the access times
+     */
+    static final long ACCESS_RESOLUTION = 1000;
+
+    /**
+     * Hit and miss counters of a filter
+     */
+    public static class Statistics {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong puts = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+        final AtomicLong expirations = new AtomicLong();
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public long getMisses() {
+            return misses.get();
+        }
+
+        public long getPuts() {
+            return puts.get();
+        }
+
+        /**
+         * Number of entries removed to make room for new ones
+         */
+        public long getEvictions() {
+            return evictions.get();
+        }
+
+        /**
+         * Number of entries removed because idle or too old
+         */
+        public long getExpirations() {
+            return expirations.get();
+        }
+
+        public double getHitRatio() {
+            long h = hits.get();
+            long total = h + misses.get();
+            return total == 0 ? 0 : (double) h / total;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + getHits() + ", misses=" + getMisses() + ", puts=" + getPuts()
+                    + ", evictions=" + getEvictions() + ", expirations=" + getExpirations();
+        }
+    }
+
+    static class Segment {
+        final ConcurrentHashMap<AuthenticationCacheKey, AuthenticationCacheEntry> map;
+
+        /**
+         * Guards the additions, so that the segment never grows beyond its capacity
+         */
+        final ReentrantLock lock = new ReentrantLock();
+
+        Segment(int capacity) {
+            map = new ConcurrentHashMap<AuthenticationCacheKey, AuthenticationCacheEntry>(
+                    capacity, 0.75f, 1);
+        }
+    }
+
+    final Segment[] segments;
+    final int segmentMask;
+    final int segmentCapacity;
+    int timeToIdleSeconds, timeToLiveSeconds, maxEntries;
+
+    final ConcurrentHashMap<String, Statistics> statistics = new ConcurrentHashMap<String, Statistics>();
+
+    protected final Timer timer = new Timer(true);
+
+    /**
+     * Timer task to remove unused entries
+     */
+    TimerTask removeExpiredTask = new TimerTask() {
+        @Override
+        public void run() {
+            LOGGER.fine("Start searching for expired authentication tokens");
+            long currentTime = System.currentTimeMillis();
+            int removed = 0;
+            for (Segment segment : segments) {
+                for (Entry<AuthenticationCacheKey, AuthenticationCacheEntry> e : segment.map
+                        .entrySet()) {
+                    if (e.getValue().hasExpired(currentTime)
+                            && segment.map.remove(e.getKey(), e.getValue())) {
+                        statistics(e.getKey().getFilterName()).expirations.incrementAndGet();
+                        removed++;
+                    }
+                }
+            }
+            LOGGER.fine("Number of expired authentication tokens removed: " + removed);
+        }
+    };
+
+    public ConcurrentAuthenticationCacheImpl(int maxEntries) {
+        this(DEFAULT_IDLE_TIME, DEFAULT_LIVE_TIME, maxEntries, 16);
+    }
+
+    public ConcurrentAuthenticationCacheImpl(int timeToIdleSeconds, int timeToLiveSeconds,
+            int maxEntries, int concurrencyLevel) {
+        this.timeToIdleSeconds = timeToIdleSeconds;
+        this.timeToLiveSeconds = timeToLiveSeconds;
+        this.maxEntries = maxEntries;
+
+        // a power of two segments, with at least one entry each
+        int count = 1;
+        while (count < concurrencyLevel && count < maxEntries) {
+            count <<= 1;
+        }
+        segments = new Segment[count];
+        segmentMask = count - 1;
+        segmentCapacity = Math.max(1, (maxEntries + count - 1) / count);
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+        timer.schedule(removeExpiredTask, DEFAULT_MILLIS_BETWEEN_REMOVE_EXPIRED,
+                DEFAULT_MILLIS_BETWEEN_REMOVE_EXPIRED);
+    }
+
+    public int getTimeToIdleSeconds() {
+        return timeToIdleSeconds;
+    }
+
+    public int getTimeToLiveSeconds() {
+        return timeToLiveSeconds;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public int getConcurrencyLevel() {
+        return segments.length;
+    }
+
+    Segment segment(AuthenticationCacheKey key) {
+        int h = key.hashCode();
+        // spread the bits, the key hash code is a plain xor of two strings ones
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return segments[h & segmentMask];
+    }
+
+    Statistics statistics(String filterName) {
+        String name = filterName == null ? "" : filterName;
+        Statistics stats = statistics.get(name);
+        if (stats == null) {
+            stats = new Statistics();
+            Statistics previous = statistics.putIfAbsent(name, stats);
+            if (previous != null) {
+                stats = previous;
+            }
+        }
+        return stats;
+    }
+
+    @Override
+    public void removeAll() {
+        for (Segment segment : segments) {
+            segment.map.clear();
+        }
+    }
+
+    @Override
+    public void removeAll(String filterName) {
+        if (filterName == null)
+            return;
+        for (Segment segment : segments) {
+            for (Iterator<AuthenticationCacheKey> it = segment.map.keySet().iterator(); it
+                    .hasNext();) {
+                if (filterName.equals(it.next().getFilterName()))
+                    it.remove();
+            }
+        }
+    }
+
+    @Override
+    public void remove(String filterName, String cacheKey) {
+        AuthenticationCacheKey key = new AuthenticationCacheKey(filterName, cacheKey);
+        segment(key).map.remove(key);
+    }
+
+    @Override
+    public Authentication get(String filterName, String cacheKey) {
+        AuthenticationCacheKey key = new AuthenticationCacheKey(filterName, cacheKey);
+        Segment segment = segment(key);
+        Statistics stats = statistics(filterName);
+        AuthenticationCacheEntry entry = segment.map.get(key);
+        if (entry == null) {
+            stats.misses.incrementAndGet();
+            return null;
+        }
+
+        long currentTime = System.currentTimeMillis();
+        if (entry.hasExpired(currentTime)) {
+            if (segment.map.remove(key, entry)) {
+                stats.expirations.incrementAndGet();
+            }
+            stats.misses.incrementAndGet();
+            return null;
+        }
+        // do not refresh more often than a fraction of the idle time either
+        long resolution = Math.min(ACCESS_RESOLUTION, entry.getTimeToIdleSeconds() * 250L);
+        if (currentTime - entry.getLastAccessed() >= resolution) {
+            entry.setLastAccessed(currentTime);
+        }
+        stats.hits.incrementAndGet();
+        return entry.getAuthentication();
+    }
+
+    @Override
+    public void put(String filterName, String cacheKey, Authentication auth,
+            Integer timeToIdleSeconds, Integer timeToLiveSeconds) {
+
+        timeToIdleSeconds = timeToIdleSeconds != null ? timeToIdleSeconds : this.timeToIdleSeconds;
+        timeToLiveSeconds = timeToLiveSeconds != null ? timeToLiveSeconds : this.timeToLiveSeconds;
+
+        AuthenticationCacheKey key = new AuthenticationCacheKey(filterName, cacheKey);
+        AuthenticationCacheEntry entry = new AuthenticationCacheEntry(auth, timeToIdleSeconds,
+                timeToLiveSeconds);
+        Segment segment = segment(key);
+        segment.lock.lock();
+        try {
+            if (segment.map.size() >= segmentCapacity && !segment.map.containsKey(key)) {
+                evict(segment, entry.getCreated());
+            }
+            segment.map.put(key, entry);
+        } finally {
+            segment.lock.unlock();
+        }
+        statistics(filterName).puts.incrementAndGet();
+    }
+
+    @Override
+    public void put(String filterName, String cacheKey, Authentication auth) {
+        put(filterName, cacheKey, auth, timeToIdleSeconds, timeToLiveSeconds);
+    }
+
+    /**
+     * Removes an expired entry if found in the sample, the least recently used one in the sample
+     * otherwise. Called with the segment lock held.
+     */
+    void evict(Segment segment, long currentTime) {
+        Entry<AuthenticationCacheKey, AuthenticationCacheEntry> victim = null;
+        int sampled = 0;
+        for (Entry<AuthenticationCacheKey, AuthenticationCacheEntry> e : segment.map.entrySet()) {
+            if (e.getValue().hasExpired(currentTime)) {
+                segment.map.remove(e.getKey(), e.getValue());
+                statistics(e.getKey().getFilterName()).expirations.incrementAndGet();
+                return;
+            }
+            if (victim == null
+                    || e.getValue().getLastAccessed() < victim.getValue().getLastAccessed()) {
+                victim = e;
+            }
+            if (++sampled >= EVICTION_SAMPLE) {
+                break;
+            }
+        }
+        if (victim != null && segment.map.remove(victim.getKey(), victim.getValue())) {
+            statistics(victim.getKey().getFilterName()).evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of cached entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.map.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the statistics of each filter that used the cache so far
+     */
+    public Map<String, Statistics> getStatistics() {
+        return Collections.unmodifiableMap(statistics);
+    }
+
+    /**
+     * Returns the statistics of a filter, or null if it did not use the cache
+     */
+    public Statistics getStatistics(String filterName) {
+        return statistics.get(filterName);
+    }
+
+    public void runRemoveExpiredTaskSynchron() {
+        removeExpiredTask.run();
+    }
+
+    /**
+     * Stops the background removal of the expired entries
+     */
+    public void dispose() {
+        timer.cancel();
+    }
+}
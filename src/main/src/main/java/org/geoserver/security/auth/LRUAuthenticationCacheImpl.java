@@ -193,4 +193,11 @@ public class LRUAuthenticationCacheImpl implements AuthenticationCache {
     public void runRemoveExpiredTaskSynchron() {
         removeExpiredTask.run();
     }
+
+    /**
+     * Stops the timer removing the expired entries
+     */
+    public void dispose() {
+        timer.cancel();
+    }
 }
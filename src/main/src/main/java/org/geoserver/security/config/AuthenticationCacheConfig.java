@@ -0,0 +1,143 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security.config;
+
+import org.geoserver.security.auth.AuthenticationCache;
+import org.geoserver.security.auth.ConcurrentAuthenticationCacheImpl;
+import org.geoserver.security.auth.LRUAuthenticationCacheImpl;
+
+/**
+ * Configuration of the {@link AuthenticationCache} used by the authentication filters.
+ *
+ * @see LRUAuthenticationCacheImpl
+ * @see ConcurrentAuthenticationCacheImpl
+ */
+public class AuthenticationCacheConfig implements SecurityConfig {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The cache guarded by a single lock, see {@link LRUAuthenticationCacheImpl}
+     */
+    public static final String LRU = "lru";
+
+    /**
+     * The segmented cache, see {@link ConcurrentAuthenticationCacheImpl}
+     */
+    public static final String CONCURRENT = "concurrent";
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    private String implementation = LRU;
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private int timeToIdleSeconds = AuthenticationCache.DEFAULT_IDLE_TIME;
+    private int timeToLiveSeconds = AuthenticationCache.DEFAULT_LIVE_TIME;
+    private int concurrencyLevel = DEFAULT_CONCURRENCY_LEVEL;
+
+    public AuthenticationCacheConfig() {
+    }
+
+    public AuthenticationCacheConfig(AuthenticationCacheConfig other) {
+        implementation = other.getImplementation();
+        maxEntries = other.getMaxEntries();
+        timeToIdleSeconds = other.getTimeToIdleSeconds();
+        timeToLiveSeconds = other.getTimeToLiveSeconds();
+        concurrencyLevel = other.getConcurrencyLevel();
+    }
+
+    /**
+     * XStream does not run the field initializers, fills in the defaults for the settings missing
+     * from the configuration file
+     */
+    private Object readResolve() {
+        implementation = implementation != null ? implementation : LRU;
+        maxEntries = maxEntries > 0 ? maxEntries : DEFAULT_MAX_ENTRIES;
+        timeToIdleSeconds = timeToIdleSeconds > 0 ? timeToIdleSeconds
+                : AuthenticationCache.DEFAULT_IDLE_TIME;
+        timeToLiveSeconds = timeToLiveSeconds > 0 ? timeToLiveSeconds
+                : AuthenticationCache.DEFAULT_LIVE_TIME;
+        concurrencyLevel = concurrencyLevel > 0 ? concurrencyLevel : DEFAULT_CONCURRENCY_LEVEL;
+        return this;
+    }
+
+    /**
+     * The cache implementation, either {@link #LRU} or {@link #CONCURRENT}
+     */
+    public String getImplementation() {
+        return implementation;
+    }
+    public void setImplementation(String implementation) {
+        this.implementation = implementation;
+    }
+
+    /**
+     * The max number of cached authentications
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * The default time after which an entry is evicted if not accessed
+     */
+    public int getTimeToIdleSeconds() {
+        return timeToIdleSeconds;
+    }
+    public void setTimeToIdleSeconds(int timeToIdleSeconds) {
+        this.timeToIdleSeconds = timeToIdleSeconds;
+    }
+
+    /**
+     * The default time after which an entry is evicted since its creation
+     */
+    public int getTimeToLiveSeconds() {
+        return timeToLiveSeconds;
+    }
+    public void setTimeToLiveSeconds(int timeToLiveSeconds) {
+        this.timeToLiveSeconds = timeToLiveSeconds;
+    }
+
+    /**
+     * The number of independently locked segments, used by the {@link #CONCURRENT} cache only
+     */
+    public int getConcurrencyLevel() {
+        return concurrencyLevel;
+    }
+    public void setConcurrencyLevel(int concurrencyLevel) {
+        this.concurrencyLevel = concurrencyLevel;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + concurrencyLevel;
+        result = prime * result + ((implementation == null) ? 0 : implementation.hashCode());
+        result = prime * result + maxEntries;
+        result = prime * result + timeToIdleSeconds;
+        result = prime * result + timeToLiveSeconds;
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof AuthenticationCacheConfig))
+            return false;
+        AuthenticationCacheConfig other = (AuthenticationCacheConfig) obj;
+        if (implementation == null ? other.implementation != null
+                : !implementation.equals(other.implementation))
+            return false;
+        return concurrencyLevel == other.concurrencyLevel && maxEntries == other.maxEntries
+                && timeToIdleSeconds == other.timeToIdleSeconds
+                && timeToLiveSeconds == other.timeToLiveSeconds;
+    }
+}
@@ -30,6 +30,7 @@ public class SecurityManagerConfig implements SecurityConfig {
 
     private GeoServerSecurityFilterChain filterChain = new GeoServerSecurityFilterChain();
     private RememberMeServicesConfig rememberMeService = new RememberMeServicesConfig();
+    private AuthenticationCacheConfig authenticationCache = new AuthenticationCacheConfig();
 
     public SecurityManagerConfig() {
     }
@@ -41,6 +42,8 @@ public class SecurityManagerConfig implements SecurityConfig {
         this.filterChain = config.getFilterChain() != null ? 
             new GeoServerSecurityFilterChain(config.getFilterChain()) : null;
         this.rememberMeService = new RememberMeServicesConfig(config.getRememberMeService());
+        this.authenticationCache = config.getAuthenticationCache() != null ?
+            new AuthenticationCacheConfig(config.getAuthenticationCache()) : null;
         this.encryptingUrlParams = config.isEncryptingUrlParams();
         this.configPasswordEncrypterName = config.getConfigPasswordEncrypterName();
         //this.masterPasswordURL=config.getMasterPasswordURL();
@@ -51,6 +54,7 @@ public class SecurityManagerConfig implements SecurityConfig {
         authProviderNames = authProviderNames != null ? authProviderNames : new ArrayList<String>();
         filterChain = filterChain != null ? filterChain : new GeoServerSecurityFilterChain();
         rememberMeService = rememberMeService != null ? rememberMeService : new RememberMeServicesConfig();
+        authenticationCache = authenticationCache != null ? authenticationCache : new AuthenticationCacheConfig();
         return this;
     }
 
@@ -93,6 +97,17 @@ public class SecurityManagerConfig implements SecurityConfig {
         this.rememberMeService = rememberMeService;
     }
 
+    /**
+     * The cache of the authentications performed by the filters.
+     */
+    public AuthenticationCacheConfig getAuthenticationCache() {
+        return authenticationCache;
+    }
+
+    public void setAuthenticationCache(AuthenticationCacheConfig authenticationCache) {
+        this.authenticationCache = authenticationCache;
+    }
+
     /**
      * Flag controlling if web admin should encrypt url parameters.
      */
@@ -0,0 +1,225 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security.impl;
+
+import static org.geoserver.security.impl.SecureTreeNode.EVERYBODY;
+import static org.geoserver.security.impl.SecureTreeNode.ROOT_ROLE;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.geoserver.security.AccessMode;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+
+/**
+ * The data access rules of a {@link SecureTreeNode} tree flattened into lookup tables, along
+ * with the decisions taken so far.
+ * <p>
+ * Each workspace and layer with a rule is mapped to the set of roles allowed in each access
+ * mode, resolved against its parents at compile time, so a lookup never walks the tree. The
+ * distinct role sets are numbered, and the decisions are cached per role set and set of granted
+ * authorities (the user fingerprint): the layers sharing the same rules, usually the vast
+ * majority, share the same decision as well.
+ * </p>
+ * <p>
+ * Instances are immutable but for the decision cache, and are replaced as a whole when the
+ * rules are reloaded, dropping the cached decisions at the same time.
+ * </p>
+ */
+class CompiledDataAccessRules {
+
+    /**
+     * Max number of user fingerprints whose decisions are cached, the decisions for the others
+     * are computed on the fly
+     */
+    static final int MAX_FINGERPRINTS = 1024;
+
+    static final byte UNKNOWN = 0, GRANTED = 1, DENIED = 2;
+
+    /**
+     * The last modification time of the rules the tables have been compiled from
+     */
+    final long lastModified;
+
+    /**
+     * The distinct role sets found in the rules
+     */
+    final List<Set<String>> roleSets = new ArrayList<Set<String>>();
+
+    /**
+     * The role set ids applying to anything not covered by a more specific rule, by access mode
+     */
+    final int[] defaults;
+
+    /**
+     * The role set ids applying to each workspace, by access mode
+     */
+    final Map<String, int[]> workspaces = new HashMap<String, int[]>();
+
+    /**
+     * The role set ids applying to each layer having its own rules, by workspace and access mode
+     */
+    final Map<String, Map<String, int[]>> layers = new HashMap<String, Map<String, int[]>>();
+
+    final ConcurrentHashMap<String, Grants> grants = new ConcurrentHashMap<String, Grants>();
+
+    final Grants anonymous;
+
+    CompiledDataAccessRules(SecureTreeNode root, long lastModified) {
+        this.lastModified = lastModified;
+
+        Map<Set<String>, Integer> ids = new HashMap<Set<String>, Integer>();
+        defaults = compile(root, null, ids);
+        for (Map.Entry<String, SecureTreeNode> ws : root.children.entrySet()) {
+            int[] wsIds = compile(ws.getValue(), defaults, ids);
+            workspaces.put(ws.getKey(), wsIds);
+            if (!ws.getValue().children.isEmpty()) {
+                Map<String, int[]> wsLayers = new HashMap<String, int[]>();
+                for (Map.Entry<String, SecureTreeNode> layer : ws.getValue().children.entrySet()) {
+                    wsLayers.put(layer.getKey(), compile(layer.getValue(), wsIds, ids));
+                }
+                layers.put(ws.getKey(), wsLayers);
+            }
+        }
+        anonymous = new Grants(Collections.<String> emptySet(), roleSets.size());
+    }
+
+    /**
+     * Resolves the role sets of a node, falling back on the parent ones where the node has no
+     * rule
+     */
+    int[] compile(SecureTreeNode node, int[] parent, Map<Set<String>, Integer> ids) {
+        AccessMode[] modes = AccessMode.values();
+        int[] result = new int[modes.length];
+        for (AccessMode mode : modes) {
+            Set<String> roles = node.getAuthorizedRoles(mode);
+            if (roles == null) {
+                result[mode.ordinal()] = parent[mode.ordinal()];
+            } else {
+                Integer id = ids.get(roles);
+                if (id == null) {
+                    id = roleSets.size();
+                    roleSets.add(roles);
+                    ids.put(roles, id);
+                }
+                result[mode.ordinal()] = id;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tells if the user can access the workspace in the specified mode
+     */
+    boolean canAccess(Authentication user, String workspace, AccessMode mode) {
+        int[] ids = workspaces.get(workspace);
+        if (ids == null) {
+            ids = defaults;
+        }
+        return getGrants(user).canAccess(ids[mode.ordinal()]);
+    }
+
+    /**
+     * Tells if the user can access the layer in the specified mode
+     */
+    boolean canAccess(Authentication user, String workspace, String layer, AccessMode mode) {
+        int[] ids = null;
+        Map<String, int[]> wsLayers = layers.get(workspace);
+        if (wsLayers != null) {
+            ids = wsLayers.get(layer);
+        }
+        if (ids == null) {
+            ids = workspaces.get(workspace);
+            if (ids == null) {
+                ids = defaults;
+            }
+        }
+        return getGrants(user).canAccess(ids[mode.ordinal()]);
+    }
+
+    Grants getGrants(Authentication user) {
+        if (user == null || user.getAuthorities() == null) {
+            return anonymous;
+        }
+        Collection<? extends GrantedAuthority> authorities = user.getAuthorities();
+
+        // the fingerprint is the sorted list of authorities, so that users with the same
+        // roles share the decisions
+        Set<String> roles = new TreeSet<String>();
+        for (GrantedAuthority authority : authorities) {
+            if (authority.getAuthority() != null) {
+                roles.add(authority.getAuthority());
+            }
+        }
+        String fingerprint = roles.toString();
+        Grants result = grants.get(fingerprint);
+        if (result == null) {
+            result = new Grants(roles, roleSets.size());
+            if (grants.size() < MAX_FINGERPRINTS) {
+                Grants previous = grants.putIfAbsent(fingerprint, result);
+                if (previous != null) {
+                    result = previous;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The decisions taken for a set of granted authorities
+     */
+    class Grants {
+        final Set<String> authorities;
+
+        final boolean root;
+
+        /**
+         * The decision for each role set, filled in lazily. Concurrent updates are harmless, they
+         * all write the same value
+         */
+        final byte[] decisions;
+
+        Grants(Set<String> authorities, int roleSetCount) {
+            this.authorities = authorities;
+            this.root = authorities.contains(ROOT_ROLE);
+            this.decisions = new byte[roleSetCount];
+        }
+
+        boolean canAccess(int roleSet) {
+            byte decision = decisions[roleSet];
+            if (decision == UNKNOWN) {
+                decision = matches(roleSets.get(roleSet)) ? GRANTED : DENIED;
+                decisions[roleSet] = decision;
+            }
+            return decision == GRANTED;
+        }
+
+        /**
+         * Same logic as {@link SecureTreeNode#canAccess(Authentication, AccessMode)}
+         */
+        boolean matches(Set<String> roles) {
+            if (roles.equals(EVERYBODY)) {
+                return true;
+            }
+            if (root) {
+                return true;
+            }
+            for (String authority : authorities) {
+                if (roles.contains(authority)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
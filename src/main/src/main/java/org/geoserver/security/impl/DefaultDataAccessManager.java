@@ -59,9 +59,15 @@ public class DefaultDataAccessManager implements DataAccessManager {
 
     long lastLoaded = Long.MIN_VALUE;
 
+    /**
+     * The rules compiled from the tree, replaced as a whole when the rules change
+     */
+    volatile CompiledDataAccessRules rules;
+
     public DefaultDataAccessManager(DataAccessRuleDAO dao) {
         this.dao = dao;
         this.root = buildAuthorizationTree(dao);
+        this.rules = new CompiledDataAccessRules(root, lastLoaded);
     }
 
     public CatalogMode getMode() {
@@ -69,13 +75,10 @@ public class DefaultDataAccessManager implements DataAccessManager {
     }
 
     public boolean canAccess(Authentication user, WorkspaceInfo workspace, AccessMode mode) {
-        checkPropertyFile();
-        SecureTreeNode node = root.getDeepestNode(new String[] { workspace.getName() });
-        return node.canAccess(user, mode);
+        return checkPropertyFile().canAccess(user, workspace.getName(), mode);
     }
 
     public boolean canAccess(Authentication user, LayerInfo layer, AccessMode mode) {
-        checkPropertyFile();
         if (layer.getResource() == null) {
             LOGGER.log(Level.FINE, "Layer " + layer + " has no attached resource, "
                     + "assuming it's possible to access it");
@@ -88,7 +91,7 @@ public class DefaultDataAccessManager implements DataAccessManager {
     }
 
     public boolean canAccess(Authentication user, ResourceInfo resource, AccessMode mode) {
-        checkPropertyFile();
+        CompiledDataAccessRules rules = checkPropertyFile();
         String workspace;
         try {
             workspace = resource.getStore().getWorkspace().getName();
@@ -99,16 +102,27 @@ public class DefaultDataAccessManager implements DataAccessManager {
             return true;
         }
 
-        SecureTreeNode node = root.getDeepestNode(new String[] { workspace, resource.getName() });
-        return node.canAccess(user, mode);
+        return rules.canAccess(user, workspace, resource.getName(), mode);
     }
 
-    void checkPropertyFile() {
+    /**
+     * Rebuilds the tree and the compiled rules if the rules changed, returns the current ones
+     */
+    CompiledDataAccessRules checkPropertyFile() {
+        CompiledDataAccessRules current = rules;
         long daoLastModified = dao.getLastModified();
-        if(lastLoaded < daoLastModified) {
-            root = buildAuthorizationTree(dao);
-            lastLoaded = daoLastModified;
+        if (current.lastModified != daoLastModified) {
+            synchronized (this) {
+                current = rules;
+                if (current.lastModified != daoLastModified) {
+                    root = buildAuthorizationTree(dao);
+                    lastLoaded = daoLastModified;
+                    current = new CompiledDataAccessRules(root, daoLastModified);
+                    rules = current;
+                }
+            }
         }
+        return current;
     }
 
     SecureTreeNode buildAuthorizationTree(DataAccessRuleDAO dao) {
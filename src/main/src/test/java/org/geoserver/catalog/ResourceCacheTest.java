@@ -0,0 +1,108 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResourceCacheTest {
+
+    List<String> disposed;
+
+    ResourceCache<String, String> cache;
+
+    @Before
+    public void setUp() {
+        disposed = new ArrayList<String>();
+        cache = new ResourceCache<String, String>("test", 2) {
+            @Override
+            protected void dispose(String key, String value) {
+                disposed.add(key);
+            }
+        };
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        cache.put("a", "A");
+        cache.put("b", "B");
+        // touch a, b becomes the eldest
+        assertEquals("A", cache.get("a"));
+        cache.put("c", "C");
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals(Arrays.asList("b"), disposed);
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testMaxWeight() {
+        cache.setMaxEntries(0);
+        cache.setMaxWeight(10);
+        cache.setWeigher(new ResourceCache.Weigher<String, String>() {
+            public int weigh(String key, String value) {
+                return value.length();
+            }
+        });
+        cache.put("a", "12345");
+        cache.put("b", "12345");
+        assertEquals(10, cache.getWeight());
+        assertTrue(disposed.isEmpty());
+
+        cache.put("c", "1");
+        assertEquals(Arrays.asList("a"), disposed);
+        assertEquals(6, cache.getWeight());
+
+        // an entry heavier than the limit evicts all others, but is kept
+        cache.put("d", "12345678901");
+        assertEquals(1, cache.size());
+        assertEquals(11, cache.getWeight());
+        assertEquals(Arrays.asList("a", "b", "c"), disposed);
+    }
+
+    @Test
+    public void testIdleExpiry() throws Exception {
+        cache.setMaxIdleTime(50);
+        cache.put("a", "A");
+        Thread.sleep(100);
+        assertNull(cache.get("a"));
+        assertEquals(Arrays.asList("a"), disposed);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testRemoveAndClearDispose() {
+        cache.put("a", "A");
+        cache.put("b", "B");
+        assertEquals("A", cache.remove("a"));
+        cache.clear();
+        assertEquals(Arrays.asList("a", "b"), disposed);
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    public void testPeekDoesNotAffectStatistics() {
+        cache.put("a", "A");
+        assertEquals("A", cache.peek("a"));
+        assertNull(cache.peek("b"));
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+
+        cache.recordLoad(2000000);
+        assertEquals(1, cache.getLoads());
+        assertEquals(2, cache.getLoadTime());
+    }
+}
@@ -0,0 +1,163 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geoserver.catalog.ResourcePool.CacheLoader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the per key resource creation in {@link ResourcePool}
+ */
+public class ResourcePoolCacheLoaderTest {
+
+    ResourcePool pool;
+
+    CacheLoader<String, Object> loader;
+
+    Map<String, Object> cache;
+
+    ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        pool = new ResourcePool();
+        loader = pool.new CacheLoader<String, Object>();
+        cache = new ResourceCache<String, Object>("test");
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    Future<Object> loadAsync(final String key, final Callable<Object> creator) {
+        return executor.submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                return loader.load(cache, key, key, creator);
+            }
+        });
+    }
+
+    @Test
+    public void testSlowCreationDoesNotBlockOtherKeys() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger creations = new AtomicInteger();
+        Callable<Object> slow = new Callable<Object>() {
+            public Object call() throws Exception {
+                creations.incrementAndGet();
+                started.countDown();
+                release.await();
+                return new Object();
+            }
+        };
+
+        Future<Object> first = loadAsync("slow", slow);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        Future<Object> second = loadAsync("slow", slow);
+
+        // another key can be loaded while the slow one is still being created
+        Object fast = loader.load(cache, "fast", "fast", new Callable<Object>() {
+            public Object call() throws Exception {
+                return "fast";
+            }
+        });
+        assertEquals("fast", fast);
+
+        release.countDown();
+        assertSame(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+        assertEquals(1, creations.get());
+        assertSame(first.get(), cache.get("slow"));
+    }
+
+    @Test
+    public void testCreationTimeout() throws Exception {
+        pool.setCreationTimeout(50);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<Object> first = loadAsync("slow", new Callable<Object>() {
+            public Object call() throws Exception {
+                started.countDown();
+                release.await();
+                return "slow";
+            }
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        try {
+            loader.load(cache, "slow", "slow", null);
+            fail("Should have timed out");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("Timed out"));
+        }
+
+        // the caller that triggered the creation does not wait longer than the others
+        try {
+            first.get(10, TimeUnit.SECONDS);
+            fail("Should have timed out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("Timed out"));
+        }
+
+        // the creation still completes and gets cached
+        release.countDown();
+        for (int i = 0; i < 100 && cache.get("slow") == null; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals("slow", cache.get("slow"));
+        assertEquals("slow", loader.load(cache, "slow", "slow", null));
+    }
+
+    @Test
+    public void testFailureBackoff() throws Exception {
+        pool.setFailureBackoff(60000);
+        final AtomicInteger creations = new AtomicInteger();
+        Callable<Object> failing = new Callable<Object>() {
+            public Object call() throws Exception {
+                creations.incrementAndGet();
+                throw new IOException("broken");
+            }
+        };
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                loader.load(cache, "broken", "broken", failing);
+                fail("Should have failed");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("broken"));
+            }
+        }
+        assertEquals(1, creations.get());
+
+        // resetting allows to retry right away
+        loader.reset("broken");
+        try {
+            loader.load(cache, "broken", "broken", failing);
+            fail("Should have failed");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals(2, creations.get());
+    }
+}
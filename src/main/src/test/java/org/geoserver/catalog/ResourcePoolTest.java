@@ -13,6 +13,8 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import javax.xml.transform.TransformerFactory;
@@ -30,7 +32,6 @@ import org.geoserver.test.SystemTest;
 import org.geotools.data.DataAccess;
 import org.geotools.factory.GeoTools;
 import org.geotools.feature.NameImpl;
-import org.geotools.util.SoftValueHashMap;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.opengis.feature.Feature;
@@ -176,7 +177,55 @@ public class ResourcePoolTest extends GeoServerSystemTestSupport {
         gs.save(global);
 
         Catalog catalog = getCatalog();
-        assertEquals(200, ((SoftValueHashMap)catalog.getResourcePool().getFeatureTypeCache()).getHardReferencesCount());
+        assertEquals(200, ((ResourceCache) catalog.getResourcePool().getFeatureTypeCache()).getMaxEntries());
+    }
+    
+    @Test public void testCacheStatistics() throws Exception {
+        ResourcePool pool = ResourcePool.create(getCatalog());
+        FeatureTypeInfo info = getCatalog().getFeatureTypeByName(
+                MockData.LAKES.getNamespaceURI(), MockData.LAKES.getLocalPart());
+        pool.getFeatureType(info);
+        pool.getFeatureType(info);
+        
+        ResourceCache<?, ?> cache = pool.getCaches().get("featureTypes");
+        assertSame(pool.getFeatureTypeCache(), cache);
+        assertEquals(1, cache.getLoads());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, pool.getCaches().get("dataStores").getLoads());
+    }
+    
+    @Test public void testDataStoreEviction() throws Exception {
+        final List<String> disposed = new ArrayList<String>();
+        class ResourcePool2 extends ResourcePool {
+            public ResourcePool2(Catalog catalog) {
+                // do not register the cache clearing listener in the shared catalog
+                this.catalog = catalog;
+                dataStoreCache = new DataStoreCache() {
+                    @Override
+                    protected void dispose(String id, DataAccess dataStore) {
+                        disposed.add(id);
+                        super.dispose(id, dataStore);
+                    }
+                };
+            }
+        }
+        
+        Catalog catalog = getCatalog();
+        ResourcePool pool = new ResourcePool2(catalog);
+        ResourceCache<?, ?> cache = pool.getCaches().get("dataStores");
+        cache.setMaxEntries(1);
+        
+        List<DataStoreInfo> stores = catalog.getDataStores();
+        assertTrue(stores.size() > 1);
+        pool.getDataStore(stores.get(0));
+        pool.getDataStore(stores.get(1));
+        
+        // the least recently used store has been evicted and disposed
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(Arrays.asList(stores.get(0).getId()), disposed);
+        pool.dispose();
     }
     
     @Test public void testDropCoverageStore() throws Exception {
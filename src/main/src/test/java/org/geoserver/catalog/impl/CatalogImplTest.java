@@ -42,6 +42,7 @@ import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.MetadataMap;
 import org.geoserver.catalog.NamespaceInfo;
 import org.geoserver.catalog.Predicates;
+import org.geoserver.catalog.ReadOnlyListing;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
@@ -2229,6 +2230,52 @@ public class CatalogImplTest {
                 Lists.newArrayList(catalog.list(LayerInfo.class, filter, offset, limit, null)));
     }
 
+    @Test
+    public void testListReadOnly() {
+        addLayer();
+
+        // proxied by default
+        LayerInfo proxied = Iterables.getOnlyElement(Lists.newArrayList(catalog.list(
+                LayerInfo.class, acceptAll())));
+        assertNotNull(ModificationProxy.handler(proxied));
+
+        ReadOnlyListing.start();
+        try {
+            LayerInfo raw = Iterables.getOnlyElement(Lists.newArrayList(catalog.list(
+                    LayerInfo.class, acceptAll())));
+            assertNull(ModificationProxy.handler(raw));
+            assertNotNull(ReadOnlyProxy.handler(raw));
+            assertEquals(l, raw);
+            assertEquals(raw, l);
+            assertNotNull(ReadOnlyProxy.handler(raw.getResource()));
+
+            // the collections are detached snapshots
+            raw.getResource().getKeywords().add(new Keyword("snapshot"));
+            assertFalse(catalog.getLayer(l.getId()).getResource().getKeywords()
+                    .contains(new Keyword("snapshot")));
+            try {
+                raw.setEnabled(false);
+                fail("Read only objects should not be modifiable");
+            } catch (UnsupportedOperationException e) {
+                // fine
+            }
+
+            // filtering and sorting work on the read only objects as well
+            raw = Iterables.getOnlyElement(Lists.newArrayList(catalog.list(LayerInfo.class,
+                    equal("name", l.getName()), null, null, asc("name"))));
+            assertNotNull(ReadOnlyProxy.handler(raw));
+            assertTrue(Lists.newArrayList(
+                    catalog.list(LayerInfo.class, equal("name", "notThere"))).isEmpty());
+        } finally {
+            ReadOnlyListing.finish();
+        }
+        assertFalse(ReadOnlyListing.isActive());
+
+        proxied = Iterables.getOnlyElement(Lists.newArrayList(catalog.list(LayerInfo.class,
+                acceptAll())));
+        assertNotNull(ModificationProxy.handler(proxied));
+    }
+
     @Test
     public void testOrderBy() {
         addDataStore();
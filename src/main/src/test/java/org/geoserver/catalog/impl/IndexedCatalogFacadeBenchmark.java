@@ -0,0 +1,136 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.Random;
+
+import org.geoserver.catalog.CatalogFacade;
+import org.geoserver.catalog.CatalogFactory;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+
+/**
+ * Compares the {@link DefaultCatalogFacade} and {@link IndexedCatalogFacade} population and
+ * lookup times with 1k, 10k and 100k layers.
+ * <p>
+ * Not a unit test, run it manually with enough heap, e.g. {@code -Xmx1g}. The sizes can be
+ * overridden by passing them as arguments.
+ * </p>
+ */
+public class IndexedCatalogFacadeBenchmark {
+
+    static final int LOOKUPS = 10000;
+
+    public static void main(String[] args) {
+        int[] sizes = new int[] { 1000, 10000, 100000 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        System.out.println("facade\tlayers\tadd(ms)\tbyId(us)\tbyName(us)\tbyPrefixedName(us)\tbyResource(us)");
+        for (int size : sizes) {
+            run("default", new CatalogImpl(), size);
+            CatalogImpl indexed = new CatalogImpl();
+            indexed.setFacade(new IndexedCatalogFacade());
+            run("indexed", indexed, size);
+        }
+    }
+
+    static void run(String name, CatalogImpl catalog, int layers) {
+        catalog.setExtendedValidation(false);
+        CatalogFactory factory = catalog.getFactory();
+
+        long start = System.nanoTime();
+        WorkspaceInfo ws = factory.createWorkspace();
+        ws.setName("ws");
+        catalog.add(ws);
+        NamespaceInfo ns = factory.createNamespace();
+        ns.setPrefix("ws");
+        ns.setURI("http://www.geoserver.org/ws");
+        catalog.add(ns);
+        DataStoreInfo ds = factory.createDataStore();
+        ds.setName("ds");
+        ds.setWorkspace(ws);
+        ds.setEnabled(true);
+        catalog.add(ds);
+        StyleInfo style = factory.createStyle();
+        style.setName("style");
+        style.setFilename("style.sld");
+        catalog.add(style);
+
+        String[] ids = new String[layers];
+        FeatureTypeInfo[] resources = new FeatureTypeInfo[layers];
+        for (int i = 0; i < layers; i++) {
+            FeatureTypeInfo ft = factory.createFeatureType();
+            ft.setName("ft" + i);
+            ft.setNativeName("ft" + i);
+            ft.setNamespace(ns);
+            ft.setStore(ds);
+            ft.setEnabled(true);
+            catalog.add(ft);
+
+            LayerInfo layer = factory.createLayer();
+            layer.setResource(ft);
+            layer.setDefaultStyle(style);
+            layer.setEnabled(true);
+            catalog.add(layer);
+
+            ids[i] = layer.getId();
+            resources[i] = ft;
+        }
+        long addTime = (System.nanoTime() - start) / 1000000;
+
+        CatalogFacade facade = catalog.getFacade();
+        Random random = new Random(0);
+        int lookups = Math.min(LOOKUPS, layers * 10);
+
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            check(facade.getLayer(ids[random.nextInt(layers)]));
+        }
+        double byId = micros(start, lookups);
+
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            check(facade.getLayerByName("ft" + random.nextInt(layers)));
+        }
+        double byName = micros(start, lookups);
+
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            check(catalog.getLayerByName("ws:ft" + random.nextInt(layers)));
+        }
+        double byPrefixedName = micros(start, lookups);
+
+        start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            if (facade.getLayers(resources[random.nextInt(layers)]).size() != 1) {
+                throw new IllegalStateException("Expected exactly one layer per resource");
+            }
+        }
+        double byResource = micros(start, lookups);
+
+        System.out.println(name + "\t" + layers + "\t" + addTime + "\t" + byId + "\t" + byName
+                + "\t" + byPrefixedName + "\t" + byResource);
+        catalog.dispose();
+    }
+
+    static void check(LayerInfo layer) {
+        if (layer == null) {
+            throw new IllegalStateException("Layer lookup failed");
+        }
+    }
+
+    static double micros(long start, int count) {
+        return Math.round((System.nanoTime() - start) / 1000.0 / count * 100) / 100.0;
+    }
+}
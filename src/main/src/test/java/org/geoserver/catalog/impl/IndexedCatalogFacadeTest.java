@@ -0,0 +1,111 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.junit.Test;
+
+/**
+ * Runs the catalog test suite against the {@link IndexedCatalogFacade}, plus a few tests making
+ * sure the indexes are kept up to date on modification
+ */
+public class IndexedCatalogFacadeTest extends CatalogImplTest {
+
+    @Override
+    protected Catalog createCatalog() {
+        CatalogImpl catalog = new CatalogImpl();
+        catalog.setFacade(new IndexedCatalogFacade());
+        return catalog;
+    }
+
+    @Test
+    public void testFacadeSelection() {
+        System.setProperty(CatalogImpl.CATALOG_FACADE, "indexed");
+        try {
+            assertTrue(new CatalogImpl().getFacade() instanceof IndexedCatalogFacade);
+        } finally {
+            System.clearProperty(CatalogImpl.CATALOG_FACADE);
+        }
+        assertTrue(new CatalogImpl().getFacade() instanceof DefaultCatalogFacade);
+    }
+
+    @Test
+    public void testRenameResourceUpdatesLayerIndex() {
+        addLayer();
+
+        FeatureTypeInfo ft2 = catalog.getFeatureTypeByName(ft.getName());
+        ft2.setName("ftRenamed");
+        catalog.save(ft2);
+
+        assertNull(catalog.getFeatureTypeByName(ns.getPrefix(), "ftName"));
+        assertNotNull(catalog.getFeatureTypeByName(ns.getPrefix(), "ftRenamed"));
+        assertNull(catalog.getFacade().getLayerByName("ftName"));
+        assertNotNull(catalog.getFacade().getLayerByName("ftRenamed"));
+        assertNotNull(catalog.getLayerByName(ns.getPrefix() + ":ftRenamed"));
+    }
+
+    @Test
+    public void testChangeStyleUpdatesLayerIndex() {
+        addLayer();
+
+        StyleInfo s2 = newStyle("styleName2", "styleFilename2");
+        catalog.add(s2);
+
+        LayerInfo l2 = catalog.getLayer(l.getId());
+        l2.setDefaultStyle(s2);
+        catalog.save(l2);
+
+        assertTrue(catalog.getLayers(s).isEmpty());
+        assertEquals(1, catalog.getLayers(s2).size());
+    }
+
+    @Test
+    public void testMoveStoreUpdatesWorkspaceIndex() {
+        addDataStore();
+
+        WorkspaceInfo ws2 = catalog.getFactory().createWorkspace();
+        ws2.setName("ws2");
+        catalog.add(ws2);
+
+        DataStoreInfo ds2 = catalog.getDataStore(ds.getId());
+        ds2.setWorkspace(ws2);
+        catalog.save(ds2);
+
+        assertTrue(catalog.getDataStoresByWorkspace(ws).isEmpty());
+        assertEquals(1, catalog.getDataStoresByWorkspace(ws2).size());
+        assertNotNull(catalog.getDataStoreByName(ws2, ds.getName()));
+        assertNull(catalog.getDataStoreByName(ws, ds.getName()));
+    }
+
+    @Test
+    public void testListsKeepInsertionOrder() {
+        for (int i = 0; i < 20; i++) {
+            catalog.add(newStyle("style" + i, "style" + i + "Filename"));
+        }
+
+        // saving does not move the style
+        StyleInfo s5 = catalog.getStyleByName("style5");
+        s5.setFilename("style5Renamed");
+        catalog.save(s5);
+
+        List<StyleInfo> styles = catalog.getStyles();
+        assertEquals(20, styles.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals("style" + i, styles.get(i).getName());
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.impl.ModificationProxy;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.geoserver.test.SystemTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Checks the parallel catalog loading produces the same catalog as the sequential one
+ */
+@Category(SystemTest.class)
+public class ParallelCatalogReaderTest extends GeoServerSystemTestSupport {
+
+    @Test
+    public void testSameAsSequential() throws Exception {
+        DefaultGeoServerLoader loader = new DefaultGeoServerLoader(getResourceLoader());
+        XStreamPersisterFactory xpf = new XStreamPersisterFactory();
+
+        loader.setLoaderThreads(1);
+        Catalog sequential = loader.readCatalog(xpf.createXMLPersister());
+        loader.setLoaderThreads(4);
+        Catalog parallel = loader.readCatalog(xpf.createXMLPersister());
+
+        try {
+            assertFalse(sequential.getLayers().isEmpty());
+            assertEquals(sequential.getDefaultWorkspace(), parallel.getDefaultWorkspace());
+            assertEquals(sequential.getDefaultNamespace(), parallel.getDefaultNamespace());
+            assertSameContents(sequential.getWorkspaces(), parallel.getWorkspaces());
+            assertSameContents(sequential.getNamespaces(), parallel.getNamespaces());
+            assertSameContents(sequential.getStyles(), parallel.getStyles());
+            assertSameContents(sequential.getDataStores(), parallel.getDataStores());
+            assertSameContents(sequential.getCoverageStores(), parallel.getCoverageStores());
+            assertSameContents(sequential.getFeatureTypes(), parallel.getFeatureTypes());
+            assertSameContents(sequential.getCoverages(), parallel.getCoverages());
+            assertSameContents(sequential.getLayers(), parallel.getLayers());
+            assertSameContents(sequential.getLayerGroups(), parallel.getLayerGroups());
+
+            // make sure references have been resolved
+            for (LayerInfo layer : parallel.getLayers()) {
+                assertEquals(layer.getResource(),
+                        parallel.getResource(layer.getResource().getId(), ResourceInfo.class));
+                assertTrue(parallel.getLayers(layer.getResource()).contains(layer));
+            }
+        } finally {
+            sequential.dispose();
+            parallel.dispose();
+        }
+    }
+
+    @Test
+    public void testLoaderThreadsProperty() {
+        DefaultGeoServerLoader loader = new DefaultGeoServerLoader(getResourceLoader());
+        assertEquals(1, loader.getLoaderThreads());
+
+        System.setProperty(GeoServerLoader.LOADER_THREADS, "8");
+        try {
+            assertEquals(8, loader.getLoaderThreads());
+            loader.setLoaderThreads(2);
+            assertEquals(2, loader.getLoaderThreads());
+        } finally {
+            System.clearProperty(GeoServerLoader.LOADER_THREADS);
+        }
+    }
+
+    void assertSameContents(List<? extends CatalogInfo> expected,
+            List<? extends CatalogInfo> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            CatalogInfo e = ModificationProxy.unwrap(expected.get(i));
+            CatalogInfo a = ModificationProxy.unwrap(actual.get(i));
+            assertEquals(e.getId(), a.getId());
+            assertEquals(e, a);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security.auth;
+
+import static org.junit.Assert.*;
+
+import org.geoserver.security.auth.ConcurrentAuthenticationCacheImpl.Statistics;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+
+public class ConcurrentAuthenticationCacheTest {
+
+    ConcurrentAuthenticationCacheImpl cache;
+
+    @After
+    public void disposeCache() {
+        if (cache != null) {
+            cache.dispose();
+        }
+    }
+
+    void fillCache(AuthenticationCache cache) {
+        new LRUAuthenticationCacheTest().fillCache(cache);
+    }
+
+    void waitForMilliSecs(long milliSecs) {
+        new LRUAuthenticationCacheTest().waitForMilliSecs(milliSecs);
+    }
+
+    ConcurrentAuthenticationCacheImpl createCache(int idle, int live, int maxEntries) {
+        if (cache != null) {
+            cache.dispose();
+        }
+        cache = new ConcurrentAuthenticationCacheImpl(idle, live, maxEntries, 4);
+        return cache;
+    }
+
+    @Test
+    public void testConcurrentAuthenticationCache() {
+        // test remove all
+        createCache(5, 10, 100);
+        fillCache(cache);
+        cache.removeAll();
+        assertNull(cache.get("filtera", "key1"));
+        assertNull(cache.get("filterb", "key4"));
+        assertEquals(0, cache.size());
+
+        // test remove filter
+        createCache(5, 10, 100);
+        fillCache(cache);
+        cache.removeAll("filtera");
+        assertNull(cache.get("filtera", "key1"));
+        assertNull(cache.get("filtera", "key2"));
+        assertNotNull(cache.get("filterb", "key3"));
+        assertNotNull(cache.get("filterb", "key4"));
+
+        // test remove one entry
+        createCache(5, 10, 100);
+        fillCache(cache);
+        cache.remove("filtera", "key1");
+        assertNull(cache.get("filtera", "key1"));
+        assertNotNull(cache.get("filtera", "key2"));
+
+        // test default live time
+        createCache(5, 0, 100);
+        fillCache(cache);
+        waitForMilliSecs(10);
+        assertNull(cache.get("filtera", "key1"));
+        assertNull(cache.get("filterb", "key4"));
+
+        // test default idle time
+        createCache(1, 10, 100);
+        fillCache(cache);
+        waitForMilliSecs(1);
+        assertNotNull(cache.get("filtera", "key1"));
+        waitForMilliSecs(1500);
+        assertNull(cache.get("filtera", "key1"));
+
+        // test the sweeper
+        createCache(5, 0, 100);
+        fillCache(cache);
+        waitForMilliSecs(10);
+        cache.runRemoveExpiredTaskSynchron();
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.getStatistics("filtera").getExpirations());
+        assertEquals(2, cache.getStatistics("filterb").getExpirations());
+    }
+
+    @Test
+    public void testMaxEntries() {
+        createCache(60, 60, 8);
+        for (int i = 0; i < 100; i++) {
+            cache.put("filtera", "key" + i, new UsernamePasswordAuthenticationToken("user" + i,
+                    "password"));
+            assertTrue(cache.size() <= 8);
+        }
+        // the last one is always there
+        assertNotNull(cache.get("filtera", "key99"));
+        Statistics stats = cache.getStatistics("filtera");
+        assertEquals(100, stats.getPuts());
+        assertEquals(100 - cache.size(), stats.getEvictions());
+
+        // replacing an entry does not evict anything
+        long evictions = stats.getEvictions();
+        cache.put("filtera", "key99", new UsernamePasswordAuthenticationToken("user99",
+                "password"));
+        assertEquals(evictions, stats.getEvictions());
+    }
+
+    @Test
+    public void testStatistics() {
+        createCache(60, 60, 100);
+        fillCache(cache);
+        assertNotNull(cache.get("filtera", "key1"));
+        assertNotNull(cache.get("filtera", "key2"));
+        assertNull(cache.get("filtera", "key5"));
+        assertNull(cache.get("filterb", "key1"));
+
+        Statistics a = cache.getStatistics("filtera");
+        assertEquals(2, a.getHits());
+        assertEquals(1, a.getMisses());
+        assertEquals(2, a.getPuts());
+        assertEquals(2 / 3d, a.getHitRatio(), 1e-6);
+        Statistics b = cache.getStatistics("filterb");
+        assertEquals(0, b.getHits());
+        assertEquals(1, b.getMisses());
+        assertNull(cache.getStatistics("filterc"));
+    }
+
+    @Test
+    public void testSegments() {
+        assertEquals(4, createCache(5, 10, 100).getConcurrencyLevel());
+        // never more segments than entries
+        cache.dispose();
+        cache = new ConcurrentAuthenticationCacheImpl(5, 10, 2, 16);
+        assertEquals(2, cache.getConcurrencyLevel());
+        fillCache(cache);
+        assertTrue(cache.size() <= 2);
+    }
+}
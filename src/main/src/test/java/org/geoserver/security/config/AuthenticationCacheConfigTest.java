@@ -0,0 +1,37 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.security.config;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.security.auth.AuthenticationCache;
+import org.junit.Test;
+
+public class AuthenticationCacheConfigTest {
+
+    @Test
+    public void testPartialConfig() throws Exception {
+        XStreamPersister xp = new XStreamPersisterFactory().createXMLPersister();
+        xp.getXStream().alias("authenticationCache", AuthenticationCacheConfig.class);
+        String xml = "<authenticationCache>"
+                + "<implementation>concurrent</implementation>"
+                + "<maxEntries>5000</maxEntries>"
+                + "</authenticationCache>";
+        AuthenticationCacheConfig config = xp.load(new ByteArrayInputStream(xml.getBytes()),
+                AuthenticationCacheConfig.class);
+
+        assertEquals(AuthenticationCacheConfig.CONCURRENT, config.getImplementation());
+        assertEquals(5000, config.getMaxEntries());
+        // missing from the file, the defaults apply
+        assertEquals(AuthenticationCache.DEFAULT_IDLE_TIME, config.getTimeToIdleSeconds());
+        assertEquals(AuthenticationCache.DEFAULT_LIVE_TIME, config.getTimeToLiveSeconds());
+        assertEquals(AuthenticationCacheConfig.DEFAULT_CONCURRENCY_LEVEL,
+                config.getConcurrencyLevel());
+    }
+}
@@ -5,7 +5,12 @@
 package org.geoserver.security.impl;
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.springframework.security.authentication.TestingAuthenticationToken;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.security.AccessMode;
 import org.geoserver.security.CatalogMode;
@@ -143,4 +148,41 @@ public class DefaultDataAccessManagerAuthTest extends AbstractAuthorizationTest
         assertEquals(CatalogMode.HIDE, wo.getMode());
     }
     
+    @Test
+    public void testDecisionsShared() throws Exception {
+        DefaultDataAccessManager wo = (DefaultDataAccessManager) buildLegacyAccessManager("complex.properties");
+        
+        // a different user with the same roles reuses the decisions
+        Authentication reader = new TestingAuthenticationToken("reader", "secret",
+                Arrays.asList(new GrantedAuthority[] { new GeoServerRole("READER") }));
+        assertTrue(wo.canAccess(roUser, statesLayer, AccessMode.READ));
+        assertTrue(wo.canAccess(reader, statesLayer, AccessMode.READ));
+        assertFalse(wo.canAccess(reader, statesLayer, AccessMode.WRITE));
+        assertEquals(1, wo.rules.grants.size());
+        
+        // the layers without specific rules share the workspace ones
+        CompiledDataAccessRules rules = wo.rules;
+        assertEquals(rules.workspaces.get("topp")[AccessMode.READ.ordinal()], 
+                rules.layers.get("topp").get("landmarks")[AccessMode.READ.ordinal()]);
+    }
+    
+    @Test
+    public void testReloadDropsDecisions() throws Exception {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("publicRead.properties"));
+        MemoryDataAccessRuleDAO dao = new MemoryDataAccessRuleDAO(catalog, props);
+        DefaultDataAccessManager manager = new DefaultDataAccessManager(dao);
+        assertTrue(manager.canAccess(anonymous, statesLayer, AccessMode.READ));
+        CompiledDataAccessRules rules = manager.rules;
+        
+        // lock down states, the cached decision must not survive the change
+        dao.addRule(new DataAccessRule("topp", "states", AccessMode.READ, "MILITARY"));
+        assertFalse(manager.canAccess(anonymous, statesLayer, AccessMode.READ));
+        assertFalse(manager.canAccess(roUser, statesLayer, AccessMode.READ));
+        assertTrue(manager.canAccess(milUser, statesLayer, AccessMode.READ));
+        assertTrue(manager.canAccess(root, statesLayer, AccessMode.READ));
+        assertTrue(manager.canAccess(anonymous, roadsLayer, AccessMode.READ));
+        assertNotSame(rules, manager.rules);
+    }
+    
 }
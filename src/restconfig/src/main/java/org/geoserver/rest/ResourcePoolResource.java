@@ -0,0 +1,48 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.ResourceCache;
+import org.geoserver.rest.format.DataFormat;
+import org.geoserver.rest.format.MapJSONFormat;
+import org.geoserver.rest.format.MapXMLFormat;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+
+/**
+ * Reports the size, limits and hit/miss/eviction/load statistics of the
+ * {@link org.geoserver.catalog.ResourcePool} caches.
+ */
+public class ResourcePoolResource extends MapResource {
+
+    Catalog catalog;
+
+    public ResourcePoolResource(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    @Override
+    protected List<DataFormat> createSupportedFormats(Request request, Response response) {
+        List<DataFormat> formats = new ArrayList<DataFormat>();
+        formats.add(new MapXMLFormat("resourcePool"));
+        formats.add(new MapJSONFormat());
+        return formats;
+    }
+
+    @Override
+    public Map getMap() throws Exception {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for (ResourceCache<?, ?> cache : catalog.getResourcePool().getCaches().values()) {
+            map.put(cache.getName(), cache.getStatistics());
+        }
+        return map;
+    }
+}
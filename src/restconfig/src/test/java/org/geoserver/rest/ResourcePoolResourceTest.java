@@ -0,0 +1,45 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import net.sf.json.JSON;
+import net.sf.json.JSONObject;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.MockData;
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+public class ResourcePoolResourceTest extends GeoServerSystemTestSupport {
+
+    @Test
+    public void testGetAsXML() throws Exception {
+        Document dom = getAsDOM("/rest/resourcepool.xml");
+        assertEquals("resourcePool", dom.getDocumentElement().getNodeName());
+        assertNotNull(getFirstElementByTagName(dom, "dataStores"));
+        assertNotNull(getFirstElementByTagName(dom, "featureTypes"));
+    }
+
+    @Test
+    public void testGetAsJSON() throws Exception {
+        FeatureTypeInfo lakes = getCatalog().getFeatureTypeByName(
+                MockData.LAKES.getNamespaceURI(), MockData.LAKES.getLocalPart());
+        getCatalog().getResourcePool().getFeatureType(lakes);
+        getCatalog().getResourcePool().getFeatureType(lakes);
+
+        JSON json = getAsJSON("/rest/resourcepool.json");
+        assertTrue(json instanceof JSONObject);
+        JSONObject featureTypes = ((JSONObject) json).getJSONObject("featureTypes");
+        assertTrue(featureTypes.getInt("size") > 0);
+        assertTrue(featureTypes.getLong("hits") > 0);
+        assertTrue(featureTypes.containsKey("evictions"));
+        assertTrue(featureTypes.containsKey("averageLoadTime"));
+    }
+}
@@ -4,6 +4,7 @@
  */
 package org.geoserver.wms.web;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -30,6 +31,7 @@ import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSInfo;
 import org.geoserver.wms.WMSInfo.WMSInterpolation;
 import org.geoserver.wms.WatermarkInfo.Position;
+import org.geoserver.wms.map.png.PNGEncoder.FilterType;
 import org.geoserver.wms.web.publish.LayerAuthoritiesAndIdentifiersPanel;
 
 /**
@@ -46,6 +48,13 @@ public class WMSAdminPage extends BaseServiceAdminPage<WMSInfo> {
     static final List<String> KML_SUPEROVERLAY_MODES = Arrays.asList(new String[] {WMS.KML_SUPEROVERLAY_MODE_AUTO, 
             WMS.KML_SUPEROVERLAY_MODE_RASTER, WMS.KML_SUPEROVERLAY_MODE_OVERVIEW, WMS.KML_SUPEROVERLAY_MODE_HYBRID, WMS.KML_SUPEROVERLAY_MODE_CACHED});
 
+    static final List<String> PNG_FILTERS = new ArrayList<String>();
+    static {
+        for (FilterType filter : FilterType.values()) {
+            PNG_FILTERS.add(filter.name());
+        }
+    }
+
     public WMSAdminPage() {
         super();
     }
@@ -110,6 +119,12 @@ public class WMSAdminPage extends BaseServiceAdminPage<WMSInfo> {
         TextField<Integer> pngCompressionField = new TextField<Integer>("png.compression", pngCompression, Integer.class);
         pngCompressionField.add(new RangeValidator<Integer>(0, 100));
         form.add(pngCompressionField);
+        form.add(new CheckBox("png.fastEncoding", defaultedModel(metadataModel,
+                WMS.PNG_FAST_ENCODING, WMS.PNG_FAST_ENCODING_DEFAULT)));
+        DropDownChoice<String> pngFilter = new DropDownChoice<String>("png.filter",
+                new MapModel(metadataModel, WMS.PNG_FILTER), PNG_FILTERS);
+        pngFilter.setNullValid(true);
+        form.add(pngFilter);
         // jpeg compression levels
     	MapModel jpegCompression = defaultedModel(metadataModel, WMS.JPEG_COMPRESSION, WMS.JPEG_COMPRESSION_DEFAULT);
         TextField<Integer> jpegCompressionField = new TextField<Integer>("jpeg.compression", jpegCompression, Integer.class);
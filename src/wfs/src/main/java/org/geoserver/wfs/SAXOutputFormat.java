@@ -0,0 +1,36 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.IOException;
+
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.xml.sax.ContentHandler;
+
+/**
+ * Implemented by the XML GetFeature output formats able to produce their document as a stream
+ * of SAX events, so that other formats can post process it without having it serialized and
+ * parsed back.
+ * <p>
+ * The events must be namespace aware, that is, carry the namespace URI and local name of each
+ * element and attribute, and report the namespace declarations as prefix mappings.
+ * </p>
+ */
+public interface SAXOutputFormat {
+
+    /**
+     * Returns true if the features can be encoded as SAX events
+     */
+    boolean canWrite(FeatureCollectionResponse featureCollection, Operation getFeature);
+
+    /**
+     * Encodes the features as SAX events sent to the handler, between a
+     * {@link ContentHandler#startDocument()} and a {@link ContentHandler#endDocument()} call
+     */
+    void write(FeatureCollectionResponse featureCollection, ContentHandler handler,
+            Operation getFeature) throws IOException, ServiceException;
+}
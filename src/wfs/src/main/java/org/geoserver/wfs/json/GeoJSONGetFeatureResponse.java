@@ -49,7 +49,7 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
     private final Logger LOGGER = org.geotools.util.logging.Logging.getLogger(this.getClass());
 
     // store the response type
-    private final boolean jsonp;
+    protected final boolean jsonp;
 
     public GeoJSONGetFeatureResponse(GeoServer gs, String format) {
         super(gs, format);
@@ -265,7 +265,7 @@ public class GeoJSONGetFeatureResponse extends WFSGetFeatureOutputFormat {
         }
     }
 
-    private String getCallbackFunction() {
+    protected String getCallbackFunction() {
         Request request = Dispatcher.REQUEST.get();
         if (request == null) {
             return JSONType.CALLBACK_FUNCTION;
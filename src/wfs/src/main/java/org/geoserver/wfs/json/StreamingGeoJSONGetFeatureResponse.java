@@ -0,0 +1,236 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.config.GeoServer;
+import org.geoserver.platform.Operation;
+import org.geoserver.wfs.WFSInfo;
+import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.NamedIdentifier;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.geometry.BoundingBox;
+import org.opengis.referencing.ReferenceIdentifier;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * A GeoJSON GetFeature output format writing through a {@link StreamingGeoJSONWriter}, straight
+ * into the response stream. The output has the same structure as the one of
+ * {@link GeoJSONGetFeatureResponse}, but the coordinates are rounded to the number of decimals
+ * configured for the feature types, or in the global settings.
+ * <p>
+ * Charsets that do not encode ASCII as single bytes (e.g., UTF-16) are delegated to the
+ * {@link GeoJSONGetFeatureResponse} encoder.
+ * </p>
+ */
+public class StreamingGeoJSONGetFeatureResponse extends GeoJSONGetFeatureResponse {
+
+    static final String ASCII_SAMPLE = "{}[]:,\"azAZ09.-";
+
+    public StreamingGeoJSONGetFeatureResponse(GeoServer gs, String format) {
+        super(gs, format);
+    }
+
+    @Override
+    protected void write(FeatureCollectionResponse featureCollection, OutputStream output,
+            Operation describeFeatureType) throws IOException {
+        Charset charset = Charset.forName(gs.getSettings().getCharset());
+        if (!isAsciiCompatible(charset)) {
+            super.write(featureCollection, output, describeFeatureType);
+            return;
+        }
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("about to encode JSON");
+        }
+
+        // Generate bounds for every feature?
+        WFSInfo wfs = getInfo();
+        boolean featureBounding = wfs.isFeatureBounding();
+        boolean hasGeom = false;
+
+        List resultsList = featureCollection.getFeature();
+        StreamingGeoJSONWriter writer = new StreamingGeoJSONWriter(output,
+                "UTF-8".equals(charset.name()), getNumDecimals(resultsList));
+        if (jsonp) {
+            writer.writeRaw(getCallbackFunction() + "(");
+        }
+
+        writer.object().key("type").value("FeatureCollection");
+        writer.key("features");
+        writer.array();
+
+        CoordinateReferenceSystem crs = null;
+        for (int i = 0; i < resultsList.size(); i++) {
+            FeatureCollection collection = (FeatureCollection) resultsList.get(i);
+            FeatureIterator iterator = collection.features();
+            try {
+                // the attribute descriptors are looked up only when the feature type changes
+                SimpleFeatureType fType = null;
+                List<AttributeDescriptor> types = null;
+                GeometryDescriptor defaultGeomType = null;
+                while (iterator.hasNext()) {
+                    SimpleFeature feature = (SimpleFeature) iterator.next();
+                    if (feature.getFeatureType() != fType) {
+                        fType = feature.getFeatureType();
+                        types = fType.getAttributeDescriptors();
+                        defaultGeomType = fType.getGeometryDescriptor();
+                    }
+                    writer.object();
+                    writer.key("type").value("Feature");
+                    writer.key("id").value(feature.getID());
+
+                    if (crs == null && defaultGeomType != null) {
+                        crs = defaultGeomType.getCoordinateReferenceSystem();
+                    }
+
+                    writer.key("geometry");
+                    Geometry aGeom = (Geometry) feature.getDefaultGeometry();
+                    if (aGeom == null) {
+                        // In case the default geometry is not set, we will
+                        // just use the first geometry we find
+                        for (int j = 0; j < types.size() && aGeom == null; j++) {
+                            Object value = feature.getAttribute(j);
+                            if (value instanceof Geometry) {
+                                aGeom = (Geometry) value;
+                            }
+                        }
+                    }
+                    // Write the geometry, whether it is a null or not
+                    if (aGeom != null) {
+                        writer.writeGeometry(aGeom);
+                        hasGeom = true;
+                    } else {
+                        writer.value((Object) null);
+                    }
+                    if (defaultGeomType != null) {
+                        writer.key("geometry_name").value(defaultGeomType.getLocalName());
+                    }
+
+                    writer.key("properties");
+                    writer.object();
+                    for (int j = 0; j < types.size(); j++) {
+                        Object value = feature.getAttribute(j);
+                        AttributeDescriptor ad = types.get(j);
+                        // the default geometry has already been written above
+                        if (value instanceof Geometry && ad.equals(defaultGeomType)) {
+                            continue;
+                        }
+                        writer.key(ad.getLocalName());
+                        writer.value(value);
+                    }
+                    // Bounding box for feature in properties
+                    if (featureBounding) {
+                        BoundingBox bounds = feature.getBounds();
+                        if (bounds != null && !bounds.isEmpty()) {
+                            writer.writeBoundingBox(bounds.getMinX(), bounds.getMinY(),
+                                    bounds.getMaxX(), bounds.getMaxY());
+                        }
+                    }
+
+                    writer.endObject(); // end the properties
+                    writer.endObject(); // end the feature
+                }
+            } finally {
+                iterator.close();
+            }
+        }
+        writer.endArray(); // end features
+
+        // Coordinate Reference System, currently only if the namespace is EPSG
+        if (crs != null) {
+            Set<ReferenceIdentifier> ids = crs.getIdentifiers();
+            // WKT defined crs might not have identifiers at all
+            if (ids != null && ids.size() > 0) {
+                NamedIdentifier namedIdent = (NamedIdentifier) ids.iterator().next();
+                String csStr = namedIdent.getCodeSpace().toUpperCase();
+
+                if (csStr.equals("EPSG")) {
+                    writer.key("crs");
+                    writer.object();
+                    writer.key("type").value(csStr);
+                    writer.key("properties");
+                    writer.object();
+                    writer.key("code").value(namedIdent.getCode());
+                    writer.endObject(); // end properties
+                    writer.endObject(); // end crs
+                }
+            }
+        }
+
+        // Bounding box for featurecollection
+        if (hasGeom && featureBounding) {
+            ReferencedEnvelope e = null;
+            for (int i = 0; i < resultsList.size(); i++) {
+                FeatureCollection collection = (FeatureCollection) resultsList.get(i);
+                if (e == null) {
+                    e = collection.getBounds();
+                } else {
+                    e.expandToInclude(collection.getBounds());
+                }
+            }
+
+            if (e != null) {
+                writer.writeBoundingBox(e);
+            }
+        }
+
+        writer.endObject(); // end featurecollection
+
+        if (jsonp) {
+            writer.writeRaw(")");
+        }
+
+        writer.flush();
+    }
+
+    /**
+     * Returns the number of decimals to be used for the coordinates: the max of the values
+     * configured on the feature types, if any, or the global setting
+     */
+    int getNumDecimals(List resultsList) {
+        int numDecimals = -1;
+        for (int i = 0; i < resultsList.size(); i++) {
+            FeatureCollection collection = (FeatureCollection) resultsList.get(i);
+            FeatureTypeInfo info = gs.getCatalog().getFeatureTypeByName(
+                    collection.getSchema().getName());
+            if (info != null && info.getNumDecimals() > 0) {
+                numDecimals = Math.max(numDecimals, info.getNumDecimals());
+            }
+        }
+        if (numDecimals == -1) {
+            numDecimals = gs.getSettings().getNumDecimals();
+        }
+        return Math.max(0, numDecimals);
+    }
+
+    /**
+     * Checks the charset encodes the JSON structural characters as plain ASCII bytes
+     */
+    static boolean isAsciiCompatible(Charset charset) {
+        try {
+            return Arrays.equals(ASCII_SAMPLE.getBytes(charset.name()),
+                    ASCII_SAMPLE.getBytes("US-ASCII"));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,528 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.geotools.util.Converters;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * A GeoJSON writer that encodes straight into an {@link OutputStream}, going through a single
+ * reusable byte buffer, and formatting the coordinates without creating any intermediate string.
+ * The memory used is constant, no matter how large the features or the collection are.
+ * <p>
+ * The output uses only ASCII characters, unless the writer is set up for UTF-8, in which case
+ * non ASCII characters are written as is. This makes it usable with any ASCII compatible charset.
+ * </p>
+ * <p>
+ * The writer keeps track of the nesting and of the separators, but it does not validate the
+ * structure, the calling code is expected to open and close objects and arrays properly.
+ * </p>
+ */
+public class StreamingGeoJSONWriter {
+
+    static final int BUFFER_SIZE = 8192;
+
+    static final int MAX_DEPTH = 64;
+
+    /**
+     * Up to this number of decimals the coordinates are formatted using long arithmetic
+     */
+    static final int MAX_FAST_DECIMALS = 15;
+
+    static final long[] POWERS_OF_TEN = new long[MAX_FAST_DECIMALS + 1];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    /**
+     * Above this value (2^53) the doubles cannot represent all the integers anymore
+     */
+    static final double MAX_EXACT_LONG = 9007199254740992d;
+
+    static final char LINE_SEPARATOR = 0x2028;
+
+    static final char PARAGRAPH_SEPARATOR = 0x2029;
+
+    static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    static final byte[] NULL = "null".getBytes();
+
+    static final byte[] TRUE = "true".getBytes();
+
+    static final byte[] FALSE = "false".getBytes();
+
+    final OutputStream out;
+
+    final boolean utf8;
+
+    final byte[] buffer = new byte[BUFFER_SIZE];
+
+    int position;
+
+    /**
+     * For each nesting level, whether the next element is the first one
+     */
+    final boolean[] first = new boolean[MAX_DEPTH];
+
+    int depth;
+
+    boolean afterKey;
+
+    int numDecimals;
+
+    double scale;
+
+    /**
+     * Scratch space to format numbers right to left
+     */
+    final byte[] digits = new byte[20];
+
+    /**
+     * @param out The stream the JSON will be written to
+     * @param utf8 If true, non ASCII characters are encoded in UTF-8, otherwise they are escaped
+     * @param numDecimals The maximum number of decimals used for the coordinates
+     */
+    public StreamingGeoJSONWriter(OutputStream out, boolean utf8, int numDecimals) {
+        this.out = out;
+        this.utf8 = utf8;
+        setNumDecimals(numDecimals);
+    }
+
+    /**
+     * Sets the maximum number of decimals used for the coordinates, trailing zeroes are not
+     * written
+     */
+    public void setNumDecimals(int numDecimals) {
+        if (numDecimals < 0) {
+            throw new IllegalArgumentException("The number of decimals cannot be negative: "
+                    + numDecimals);
+        }
+        this.numDecimals = numDecimals;
+        this.scale = numDecimals <= MAX_FAST_DECIMALS ? POWERS_OF_TEN[numDecimals] : 0;
+    }
+
+    public int getNumDecimals() {
+        return numDecimals;
+    }
+
+    public StreamingGeoJSONWriter object() throws IOException {
+        beforeValue();
+        write('{');
+        push();
+        return this;
+    }
+
+    public StreamingGeoJSONWriter endObject() throws IOException {
+        depth--;
+        write('}');
+        return this;
+    }
+
+    public StreamingGeoJSONWriter array() throws IOException {
+        beforeValue();
+        write('[');
+        push();
+        return this;
+    }
+
+    public StreamingGeoJSONWriter endArray() throws IOException {
+        depth--;
+        write(']');
+        return this;
+    }
+
+    public StreamingGeoJSONWriter key(String key) throws IOException {
+        separator();
+        writeString(key);
+        write(':');
+        afterKey = true;
+        return this;
+    }
+
+    /**
+     * Writes a value, mapping Java types to JSON ones. Dates and calendars are written as ISO
+     * 8601 strings, geometries as GeoJSON geometries, unknown objects as their string
+     * representation
+     */
+    public StreamingGeoJSONWriter value(Object value) throws IOException {
+        if (value == null) {
+            beforeValue();
+            write(NULL);
+        } else if (value instanceof String) {
+            value((String) value);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short
+                || value instanceof Byte) {
+            value(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            value(((Number) value).doubleValue());
+        } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+            beforeValue();
+            writeAscii(value.toString());
+        } else if (value instanceof Boolean) {
+            value(((Boolean) value).booleanValue());
+        } else if (value instanceof Date || value instanceof Calendar) {
+            value(Converters.convert(value, String.class));
+        } else if (value instanceof Geometry) {
+            writeGeometry((Geometry) value);
+        } else {
+            value(value.toString());
+        }
+        return this;
+    }
+
+    public StreamingGeoJSONWriter value(String value) throws IOException {
+        beforeValue();
+        if (value == null) {
+            write(NULL);
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public StreamingGeoJSONWriter value(long value) throws IOException {
+        beforeValue();
+        writeLong(value);
+        return this;
+    }
+
+    public StreamingGeoJSONWriter value(boolean value) throws IOException {
+        beforeValue();
+        write(value ? TRUE : FALSE);
+        return this;
+    }
+
+    /**
+     * Writes a double at full precision, NaN and infinities are written as null since JSON
+     * cannot represent them
+     */
+    public StreamingGeoJSONWriter value(double value) throws IOException {
+        beforeValue();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            write(NULL);
+        } else if (value == Math.rint(value) && Math.abs(value) < MAX_EXACT_LONG) {
+            writeLong((long) value);
+        } else {
+            writeAscii(Double.toString(value));
+        }
+        return this;
+    }
+
+    /**
+     * Writes a coordinate ordinate, rounded to the configured number of decimals
+     */
+    public StreamingGeoJSONWriter ordinate(double value) throws IOException {
+        beforeValue();
+        writeOrdinate(value);
+        return this;
+    }
+
+    /**
+     * Writes a GeoJSON geometry object
+     */
+    public StreamingGeoJSONWriter writeGeometry(Geometry geometry) throws IOException {
+        object();
+        key("type").value(GeoJSONBuilder.getGeometryName(geometry));
+        if (geometry instanceof GeometryCollection && !(geometry instanceof MultiPoint)
+                && !(geometry instanceof MultiLineString) && !(geometry instanceof MultiPolygon)) {
+            key("geometries");
+            array();
+            for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                writeGeometry(geometry.getGeometryN(i));
+            }
+            endArray();
+        } else {
+            key("coordinates");
+            writeCoordinates(geometry);
+        }
+        return endObject();
+    }
+
+    private void writeCoordinates(Geometry geometry) throws IOException {
+        if (geometry instanceof Point) {
+            writeCoordinate(((Point) geometry).getCoordinateSequence(), 0);
+        } else if (geometry instanceof LineString) {
+            writeCoordinates(((LineString) geometry).getCoordinateSequence());
+        } else if (geometry instanceof Polygon) {
+            Polygon polygon = (Polygon) geometry;
+            array();
+            writeCoordinates(polygon.getExteriorRing().getCoordinateSequence());
+            for (int i = 0, n = polygon.getNumInteriorRing(); i < n; i++) {
+                writeCoordinates(polygon.getInteriorRingN(i).getCoordinateSequence());
+            }
+            endArray();
+        } else {
+            // multi geometries
+            array();
+            for (int i = 0, n = geometry.getNumGeometries(); i < n; i++) {
+                writeCoordinates(geometry.getGeometryN(i));
+            }
+            endArray();
+        }
+    }
+
+    private void writeCoordinates(CoordinateSequence coordinates) throws IOException {
+        array();
+        for (int i = 0, n = coordinates.size(); i < n; i++) {
+            writeCoordinate(coordinates, i);
+        }
+        endArray();
+    }
+
+    private void writeCoordinate(CoordinateSequence coordinates, int i) throws IOException {
+        array();
+        ordinate(coordinates.getX(i));
+        ordinate(coordinates.getY(i));
+        endArray();
+    }
+
+    /**
+     * Writes the "bbox" member, as an array [minX,minY,maxX,maxY]
+     */
+    public StreamingGeoJSONWriter writeBoundingBox(Envelope envelope) throws IOException {
+        return writeBoundingBox(envelope.getMinX(), envelope.getMinY(), envelope.getMaxX(),
+                envelope.getMaxY());
+    }
+
+    /**
+     * Writes the "bbox" member, as an array [minX,minY,maxX,maxY]
+     */
+    public StreamingGeoJSONWriter writeBoundingBox(double minX, double minY, double maxX,
+            double maxY) throws IOException {
+        key("bbox");
+        array();
+        ordinate(minX);
+        ordinate(minY);
+        ordinate(maxX);
+        ordinate(maxY);
+        return endArray();
+    }
+
+    /**
+     * Writes raw text, bypassing the JSON structure tracking. Used for the JSONP callback
+     */
+    public void writeRaw(String text) throws IOException {
+        writeAscii(text);
+    }
+
+    /**
+     * Writes out the buffered contents, and flushes the underlying stream
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    private void push() {
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("JSON nesting is too deep, more than " + MAX_DEPTH
+                    + " levels");
+        }
+        first[depth++] = true;
+    }
+
+    private void beforeValue() throws IOException {
+        if (afterKey) {
+            afterKey = false;
+        } else {
+            separator();
+        }
+    }
+
+    private void separator() throws IOException {
+        if (depth > 0) {
+            if (first[depth - 1]) {
+                first[depth - 1] = false;
+            } else {
+                write(',');
+            }
+        }
+    }
+
+    private void writeOrdinate(double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            write(NULL);
+            return;
+        }
+
+        double scaled = Math.abs(value) * scale;
+        if (scale == 0 || scaled >= MAX_EXACT_LONG) {
+            // too many decimals or too large a number for the fast path
+            BigDecimal decimal = new BigDecimal(value).setScale(numDecimals,
+                    RoundingMode.HALF_UP).stripTrailingZeros();
+            if (decimal.signum() == 0) {
+                write('0');
+            } else {
+                writeAscii(decimal.toPlainString());
+            }
+            return;
+        }
+
+        long units = Math.round(scaled);
+        if (units == 0) {
+            write('0');
+            return;
+        }
+        if (value < 0) {
+            write('-');
+        }
+        long factor = POWERS_OF_TEN[numDecimals];
+        writeLong(units / factor);
+        long fraction = units % factor;
+        if (fraction != 0) {
+            // strip the trailing zeroes, and pad with leading ones
+            int decimals = numDecimals;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                decimals--;
+            }
+            write('.');
+            int count = 0;
+            for (; fraction > 0; fraction /= 10) {
+                digits[count++] = (byte) ('0' + fraction % 10);
+            }
+            for (int i = count; i < decimals; i++) {
+                write('0');
+            }
+            while (count > 0) {
+                write(digits[--count]);
+            }
+        }
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            write('-');
+            value = -value;
+        }
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        while (count > 0) {
+            write(digits[--count]);
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        write('"');
+        for (int i = 0, n = value.length(); i < n; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c < 0x7F) {
+                if (c == '"' || c == '\\') {
+                    write('\\');
+                }
+                write(c);
+            } else if (c < 0x20 || c == 0x7F) {
+                switch (c) {
+                case '\b':
+                    write('\\');
+                    write('b');
+                    break;
+                case '\f':
+                    write('\\');
+                    write('f');
+                    break;
+                case '\n':
+                    write('\\');
+                    write('n');
+                    break;
+                case '\r':
+                    write('\\');
+                    write('r');
+                    break;
+                case '\t':
+                    write('\\');
+                    write('t');
+                    break;
+                default:
+                    writeUnicodeEscape(c);
+                }
+            } else if (!utf8 || c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR) {
+                // the line separators are valid JSON but break JSONP callbacks
+                writeUnicodeEscape(c);
+            } else if (c < 0x800) {
+                write(0xC0 | (c >> 6));
+                write(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                write(0xF0 | (cp >> 18));
+                write(0x80 | ((cp >> 12) & 0x3F));
+                write(0x80 | ((cp >> 6) & 0x3F));
+                write(0x80 | (cp & 0x3F));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // unpaired surrogate, cannot be encoded in UTF-8
+                writeUnicodeEscape(c);
+            } else {
+                write(0xE0 | (c >> 12));
+                write(0x80 | ((c >> 6) & 0x3F));
+                write(0x80 | (c & 0x3F));
+            }
+        }
+        write('"');
+    }
+
+    private void writeUnicodeEscape(char c) throws IOException {
+        write('\\');
+        write('u');
+        write(HEX[(c >> 12) & 0xF]);
+        write(HEX[(c >> 8) & 0xF]);
+        write(HEX[(c >> 4) & 0xF]);
+        write(HEX[c & 0xF]);
+    }
+
+    private void writeAscii(String text) throws IOException {
+        for (int i = 0, n = text.length(); i < n; i++) {
+            write(text.charAt(i));
+        }
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        for (byte b : bytes) {
+            write(b);
+        }
+    }
+
+    private void write(int b) throws IOException {
+        if (position == buffer.length) {
+            flushBuffer();
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+}
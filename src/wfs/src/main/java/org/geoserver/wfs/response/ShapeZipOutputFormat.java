@@ -31,6 +31,7 @@ import java.util.Set;
 import java.util.SimpleTimeZone;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import javax.servlet.http.HttpServletRequest;
@@ -78,6 +79,7 @@ import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
@@ -109,6 +111,11 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
     private static final Logger LOGGER = Logging.getLogger(ShapeZipOutputFormat.class);
     public static final String GS_SHAPEFILE_CHARSET = "GS-SHAPEFILE-CHARSET";
     public static final String SHAPE_ZIP_DEFAULT_PRJ_IS_ESRI = "SHAPE-ZIP_DEFAULT_PRJ_IS_ESRI";
+    /**
+     * WFS metadata key enabling the streaming mode, in which the shapefiles are written straight
+     * into the zip stream instead of being staged in a temporary directory
+     */
+    public static final String SHAPE_ZIP_STREAMING = "SHAPE-ZIP_STREAMING";
     
     private static final Configuration templateConfig = new Configuration();
     
@@ -213,6 +220,11 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
      */
     public void write(List<SimpleFeatureCollection> collections, Charset charset, OutputStream output, 
         GetFeatureRequest request) throws IOException, ServiceException {
+        if (isStreaming(collections)) {
+            writeStreaming(collections, charset, output, request);
+            return;
+        }
+        
         //We might get multiple featurecollections in our response (multiple queries?) so we need to
         //write out multiple shapefile sets, one for each query response.
         File tempDir = IOUtils.createTempDirectory("shpziptemp");
@@ -278,6 +290,92 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         }
     }
 
+    /**
+     * Checks if the streaming mode is enabled, and usable for all the collections. The streaming
+     * writer does not handle the collections with a generic geometry type, which are fanned out
+     * to one shapefile per geometry type
+     */
+    boolean isStreaming(List<SimpleFeatureCollection> collections) {
+        Boolean streaming = gs.getService(WFSInfo.class).getMetadata()
+                .get(SHAPE_ZIP_STREAMING, Boolean.class);
+        if (streaming == null || !streaming.booleanValue()) {
+            return false;
+        }
+        for (SimpleFeatureCollection collection : collections) {
+            GeometryDescriptor gd = collection.getSchema().getGeometryDescriptor();
+            if (gd == null) {
+                // will fail with a proper message in the temporary directory code path
+                return false;
+            }
+            Class geomType = gd.getType().getBinding();
+            if (GeometryCollection.class.equals(geomType) || Geometry.class.equals(geomType)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the shapefiles straight into the zip stream, so that no scratch space is needed
+     * and the client starts receiving data right away. See {@link ShapefileZipStreamer} for
+     * the details
+     */
+    void writeStreaming(List<SimpleFeatureCollection> collections, Charset charset,
+            OutputStream output, GetFeatureRequest request) throws IOException {
+        ZipOutputStream zipOut = new ZipOutputStream(output);
+        ShapefileZipStreamer streamer = new ShapefileZipStreamer(zipOut, charset);
+        boolean useEsriFormat = isEsriFormatRequested(request);
+        int written = 0;
+        for (SimpleFeatureCollection c : collections) {
+            FeatureTypeInfo ftInfo = getFeatureTypeInfo(c);
+            c = remapCollectionSchema(c, null);
+            String fileName = new FileNameSource(getClass()).getShapeName(ftInfo, null);
+
+            try {
+                written += streamer.write(c, fileName);
+            } catch (IOException ioe) {
+                LOGGER.log(Level.WARNING, "Error while writing featuretype '"
+                        + c.getSchema().getTypeName() + "' to shapefile.", ioe);
+                throw new ServiceException(ioe);
+            }
+
+            // the projection, ESRI flavor if requested and available
+            CoordinateReferenceSystem crs = c.getSchema().getCoordinateReferenceSystem();
+            if (crs != null) {
+                String prj = null;
+                if (useEsriFormat) {
+                    try {
+                        prj = getEsriWKT(crs);
+                    } catch (FactoryException fe) {
+                        LOGGER.log(Level.WARNING, "Error while getting EPSG code from FeatureType",
+                                fe);
+                        throw new ServiceException(fe);
+                    }
+                }
+                streamer.writeEntry(fileName + ".prj", prj != null ? prj : crs.toWKT());
+            }
+            streamer.writeEntry(fileName + ".cst", charset.name());
+        }
+
+        // same as the temporary directory code path, warn about the empty output
+        if (written == 0) {
+            streamer.writeEntry("README.TXT", "The query result is empty: empty shapefiles "
+                    + "have been created to fill the zip file");
+        }
+
+        // dump the request
+        final Request dispatcherRequest = Dispatcher.REQUEST.get();
+        if (dispatcherRequest != null && request != null) {
+            FeatureTypeInfo ftInfo = getFeatureTypeInfo(collections.get(0));
+            zipOut.putNextEntry(new ZipEntry(new FileNameSource(getClass())
+                    .getRequestDumpName(ftInfo) + ".txt"));
+            writeRequestDump(zipOut, dispatcherRequest, request);
+            zipOut.closeEntry();
+        }
+
+        zipOut.finish();
+    }
+
     /**
      * Dumps the request
      * @param simpleFeatureCollection
@@ -294,45 +392,50 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
         String fileName = new FileNameSource(getClass()).getRequestDumpName(ftInfo) + ".txt";
         File target = new File(tempDir, fileName);
         
+        OutputStream out = null;
         try {
-            if(request.isGet()) {
-                final HttpServletRequest httpRequest = request.getHttpRequest();
-                String baseUrl = ResponseUtils.baseURL(httpRequest);
-                String path = request.getPath();
-                //encode proxy url if existing
-                String mangledUrl = ResponseUtils.buildURL(baseUrl, path, null, URLType.SERVICE);
-                StringBuilder url = new StringBuilder();
-                String parameters = httpRequest.getQueryString();
-				url.append(mangledUrl).append("?").append(parameters);
-                FileUtils.writeStringToFile(target, url.toString());
-            } else {
-                org.geotools.xml.Configuration cfg = null;
-                QName elementName = null;
-                if(gft.getVersion().equals("1.1.0")) {
-                    cfg = new WFSConfiguration();
-                    elementName = WFS.GetFeature;
-                } else {
-                    cfg = new org.geotools.wfs.v1_0.WFSConfiguration();
-                    elementName = org.geotools.wfs.v1_0.WFS.GetFeature;
-                }
-                FileOutputStream fos = null;
-                try {
-                    fos = new FileOutputStream(target);
-                    Encoder encoder = new Encoder(cfg);
-                    encoder.setIndenting(true);
-                    encoder.setIndentSize(2);
-                    encoder.encode(gft, elementName, fos);
-                } finally {
-                    if(fos != null)
-                        fos.close();
-                }
-            }
+            out = new FileOutputStream(target);
+            writeRequestDump(out, request, gft);
         } catch(IOException e) {
             throw new WFSException(gft, "Failed to dump the WFS request");
+        } finally {
+            org.apache.commons.io.IOUtils.closeQuietly(out);
         }
         
     }
 
+    /**
+     * Writes out the request, as a URL for GET requests, as XML for POST ones
+     */
+    private void writeRequestDump(OutputStream out, Request request, GetFeatureRequest gft)
+            throws IOException {
+        if(request.isGet()) {
+            final HttpServletRequest httpRequest = request.getHttpRequest();
+            String baseUrl = ResponseUtils.baseURL(httpRequest);
+            String path = request.getPath();
+            //encode proxy url if existing
+            String mangledUrl = ResponseUtils.buildURL(baseUrl, path, null, URLType.SERVICE);
+            StringBuilder url = new StringBuilder();
+            String parameters = httpRequest.getQueryString();
+            url.append(mangledUrl).append("?").append(parameters);
+            out.write(url.toString().getBytes());
+        } else {
+            org.geotools.xml.Configuration cfg = null;
+            QName elementName = null;
+            if(gft.getVersion().equals("1.1.0")) {
+                cfg = new WFSConfiguration();
+                elementName = WFS.GetFeature;
+            } else {
+                cfg = new org.geotools.wfs.v1_0.WFSConfiguration();
+                elementName = org.geotools.wfs.v1_0.WFS.GetFeature;
+            }
+            Encoder encoder = new Encoder(cfg);
+            encoder.setIndenting(true);
+            encoder.setIndentSize(2);
+            encoder.encode(gft, elementName, out);
+        }
+    }
+
     private void createEmptyZipWarning(File tempDir) throws IOException {
         PrintWriter pw = null;
         try {
@@ -437,12 +540,19 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
     private void changeWKTFormatIfFileFormatIsESRI(File tempDir, GetFeatureRequest request,
             String fileName, SimpleFeatureType remappedSchema) throws FactoryException,
             IOException, FileNotFoundException {
-        
-        boolean useEsriFormat = false;
-        
+        if (isEsriFormatRequested(request)) {
+            replaceOGCPrjFileByESRIPrjFile(tempDir, fileName, remappedSchema);
+        }
+    }
+
+    /**
+     * Returns true if the request asks for the ESRI WKT .prj format, either explicitly or by
+     * means of the SHAPE-ZIP_DEFAULT_PRJ_IS_ESRI default
+     */
+    private boolean isEsriFormatRequested(GetFeatureRequest request) {
         // if the request originates from the WPS we won't actually have any GetFeatureType request
         if(request == null) {
-            return;
+            return false;
         }
         
         Map<String, ?> formatOptions = request.getFormatOptions();
@@ -451,24 +561,40 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
             WFSInfo bean = gs.getService(WFSInfo.class);
             MetadataMap metadata = bean.getMetadata();
             Boolean defaultIsEsri = metadata.get(SHAPE_ZIP_DEFAULT_PRJ_IS_ESRI, Boolean.class);
-            useEsriFormat = defaultIsEsri != null && defaultIsEsri.booleanValue();
+            return defaultIsEsri != null && defaultIsEsri.booleanValue();
         }else{
-            useEsriFormat = "ESRI".equalsIgnoreCase(requestedPrjFileFormat);
-        }
-        
-        if (useEsriFormat) {
-            replaceOGCPrjFileByESRIPrjFile(tempDir, fileName, remappedSchema);
+            return "ESRI".equalsIgnoreCase(requestedPrjFileFormat);
         }
     }
 
     private void replaceOGCPrjFileByESRIPrjFile(File tempDir, String fileName,
             SimpleFeatureType remappedSchema) throws FactoryException, IOException,
             FileNotFoundException {
-        final Integer epsgCode = CRS.lookupEpsgCode(remappedSchema.getGeometryDescriptor()
-                .getCoordinateReferenceSystem(), true);
+        String data = getEsriWKT(remappedSchema.getGeometryDescriptor()
+                .getCoordinateReferenceSystem());
+        if (data != null) {
+            File prjShapeFile = new File(tempDir, fileName + ".prj");
+            prjShapeFile.delete();
+
+            BufferedWriter out = new BufferedWriter(new FileWriter(prjShapeFile));
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Looks up the ESRI WKT for the given CRS in user_projections/esri.properties, using the EPSG
+     * code as the key. Returns null, after logging the reason, if not found.
+     */
+    private String getEsriWKT(CoordinateReferenceSystem crs) throws FactoryException,
+            IOException {
+        final Integer epsgCode = CRS.lookupEpsgCode(crs, true);
         if(epsgCode == null){
             LOGGER.info("Can't find the EPSG code for the shapefile CRS");
-            return;
+            return null;
         }
         File file = resourceLoader.find("user_projections", "esri.properties");
 
@@ -481,26 +607,16 @@ public class ShapeZipOutputFormat extends WFSGetFeatureOutputFormat implements A
             } finally {
             	org.apache.commons.io.IOUtils.closeQuietly(fis);
             }
-			
 
             String data = (String) properties.get(epsgCode.toString());
-
-            if (data != null) {
-                File prjShapeFile = new File(tempDir, fileName + ".prj");
-                prjShapeFile.delete();
-
-                BufferedWriter out = new BufferedWriter(new FileWriter(prjShapeFile));
-                try {
-                    out.write(data);
-                } finally {
-                    out.close();
-                }
-            } else {
+            if (data == null) {
                 LOGGER.info("Requested shapefile with ESRI WKT .prj format but couldn't find an entry for ESPG code "
                         + epsgCode + " in esri.properties");
             }
+            return data;
         } else {
             LOGGER.info("Requested shapefile with ESRI WKT .prj format but the esri.properties file does not exist in the user_projections directory");
+            return null;
         }
     }
     
@@ -0,0 +1,399 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.response;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.DeferredFileOutputStream;
+import org.geoserver.platform.ServiceException;
+import org.geotools.data.shapefile.dbf.DbaseFileHeader;
+import org.geotools.data.shapefile.dbf.DbaseFileWriter;
+import org.geotools.data.shapefile.shp.JTSUtilities;
+import org.geotools.data.shapefile.shp.ShapeHandler;
+import org.geotools.data.shapefile.shp.ShapeType;
+import org.geotools.data.shapefile.shp.ShapefileException;
+import org.geotools.data.shapefile.shp.ShapefileHeader;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.FeatureTypes;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Writes a feature collection as a shapefile directly into a zip stream, without staging the
+ * files on disk.
+ * <p>
+ * The headers of the shapefile files contain the record count, the bounds and the file length,
+ * all known only after the features have been scanned, but zip entries cannot be revisited once
+ * written. Thus the collection is read twice:
+ * <ol>
+ * <li>the first scan collects the bounds and the length of each shape record, which is all the
+ * .shx needs, and the .dbf records. These are kept in memory up to {@value #DBF_THRESHOLD} bytes,
+ * and in a temporary file past that, until the record count is known and the .dbf header can
+ * be written</li>
+ * <li>the .shp is written during the second scan</li>
+ * </ol>
+ * The .dbf and .shp records have to line up, so the first scan also records a hash of each
+ * feature id, and the second scan fails if the features do not come back in the same order.
+ * Besides the .dbf records, the only memory used proportional to the output is 8 bytes per
+ * feature.
+ * </p>
+ */
+class ShapefileZipStreamer {
+
+    static final int HEADER_LENGTH = 100;
+
+    static final int RECORD_HEADER_LENGTH = 8;
+
+    /**
+     * Size of the .dbf records kept in memory before moving them to a temporary file
+     */
+    static final int DBF_THRESHOLD = 1024 * 1024;
+
+    final ZipOutputStream zip;
+
+    final Charset charset;
+
+    final GeometryFactory geometryFactory = new GeometryFactory();
+
+    ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+    ShapefileZipStreamer(ZipOutputStream zip, Charset charset) {
+        this.zip = zip;
+        this.charset = charset;
+    }
+
+    /**
+     * Writes the .dbf, .shx and .shp entries for the specified collection
+     *
+     * @param collection The collection to be written, its schema must already be compatible
+     *        with the shapefile format (field names, single geometry type)
+     * @param fileName The base name of the zip entries
+     * @return The number of features written
+     */
+    int write(SimpleFeatureCollection collection, String fileName) throws IOException {
+        SimpleFeatureType schema = collection.getSchema();
+        GeometryDescriptor gd = schema.getGeometryDescriptor();
+        ShapeType shapeType = JTSUtilities.getShapeType(gd.getType().getBinding());
+
+        // first pass, the stats and the dbf records
+        Stats stats = new Stats();
+        List<Integer> attributes = getDbfAttributes(schema);
+        Object[] record = new Object[attributes.size()];
+        DbaseFileHeader dbfHeader = createDbaseHeader(schema, attributes);
+        DeferredFileOutputStream records = new DeferredFileOutputStream(DBF_THRESHOLD,
+                "shpzip", ".dbf", null);
+        try {
+            DbaseFileWriter dbf = new DbaseFileWriter(dbfHeader, Channels.newChannel(records),
+                    charset);
+            ShapeHandler handler = null;
+            SimpleFeatureIterator fi = collection.features();
+            try {
+                while (fi.hasNext()) {
+                    SimpleFeature f = fi.next();
+                    Geometry g = (Geometry) f.getDefaultGeometry();
+                    if (g != null && handler == null) {
+                        // same as the shapefile datastore, the first geometry decides if we have Z
+                        int dims = JTSUtilities.guessCoorinateDims(g.getCoordinates());
+                        shapeType = getShapeType(shapeType, dims);
+                        handler = getShapeHandler(shapeType);
+                    }
+                    stats.add(f.getID(), g == null ? null : JTSUtilities.convertToCollection(g,
+                            shapeType), handler);
+
+                    for (int i = 0; i < record.length; i++) {
+                        record[i] = f.getAttribute(attributes.get(i));
+                    }
+                    dbf.write(record);
+                }
+            } finally {
+                fi.close();
+            }
+            dbf.close();
+            if (handler == null) {
+                handler = getShapeHandler(shapeType);
+            }
+
+            // now that the record count is known write the header, then the records the dbf
+            // writer wrote after its own header
+            zip.putNextEntry(new ZipEntry(fileName + ".dbf"));
+            dbfHeader.setNumRecords(stats.count);
+            dbfHeader.writeHeader(Channels.newChannel(new CloseShieldOutputStream(zip)));
+            copyRecords(records, dbfHeader.getHeaderLength());
+            zip.closeEntry();
+
+            writeIndex(fileName, shapeType, stats);
+            writeShapes(collection, fileName, shapeType, handler, stats);
+            return stats.count;
+        } finally {
+            records.close();
+            if (!records.isInMemory()) {
+                records.getFile().delete();
+            }
+        }
+    }
+
+    /**
+     * Copies the records staged during the first scan into the current zip entry, skipping the
+     * header
+     */
+    void copyRecords(DeferredFileOutputStream records, int headerLength) throws IOException {
+        if (records.isInMemory()) {
+            byte[] data = records.getData();
+            zip.write(data, headerLength, data.length - headerLength);
+        } else {
+            InputStream in = new FileInputStream(records.getFile());
+            try {
+                IOUtils.skipFully(in, headerLength);
+                IOUtils.copy(in, zip);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Writes the .shx entry, offsets and lengths are expressed in 16 bit words
+     */
+    void writeIndex(String fileName, ShapeType shapeType, Stats stats) throws IOException {
+        zip.putNextEntry(new ZipEntry(fileName + ".shx"));
+        writeHeader(shapeType, stats, (HEADER_LENGTH + RECORD_HEADER_LENGTH * stats.count) / 2);
+        int offset = HEADER_LENGTH / 2;
+        for (int i = 0; i < stats.count; i++) {
+            int length = stats.lengths[i] / 2;
+            ByteBuffer bb = getBuffer(RECORD_HEADER_LENGTH);
+            bb.order(ByteOrder.BIG_ENDIAN);
+            bb.putInt(offset);
+            bb.putInt(length);
+            flush(bb);
+            offset += length + RECORD_HEADER_LENGTH / 2;
+        }
+        zip.closeEntry();
+    }
+
+    /**
+     * Second pass, writes the .shp entry checking the features are the same, in the same order,
+     * as in the first pass
+     */
+    void writeShapes(SimpleFeatureCollection collection, String fileName, ShapeType shapeType,
+            ShapeHandler handler, Stats stats) throws IOException {
+        zip.putNextEntry(new ZipEntry(fileName + ".shp"));
+        writeHeader(shapeType, stats, (int) (stats.shpLength / 2));
+        SimpleFeatureIterator fi = collection.features();
+        try {
+            int i = 0;
+            while (fi.hasNext()) {
+                SimpleFeature f = fi.next();
+                Geometry g = (Geometry) f.getDefaultGeometry();
+                if (g != null) {
+                    g = JTSUtilities.convertToCollection(g, shapeType);
+                }
+                int length = g == null ? 4 : handler.getLength(g);
+                if (i == stats.count || length != stats.lengths[i]
+                        || Stats.hash(f.getID()) != stats.ids[i]) {
+                    throw new ServiceException("The features changed, or were returned in a "
+                            + "different order, while writing shapefile " + fileName);
+                }
+
+                ByteBuffer bb = getBuffer(RECORD_HEADER_LENGTH + length);
+                bb.order(ByteOrder.BIG_ENDIAN);
+                bb.putInt(++i);
+                bb.putInt(length / 2);
+                bb.order(ByteOrder.LITTLE_ENDIAN);
+                if (g == null) {
+                    bb.putInt(ShapeType.NULL.id);
+                } else {
+                    bb.putInt(shapeType.id);
+                    handler.write(bb, g);
+                }
+                flush(bb);
+            }
+            if (i != stats.count) {
+                throw new ServiceException("The features changed while writing shapefile "
+                        + fileName + ", expected " + stats.count + " features but found " + i);
+            }
+        } finally {
+            fi.close();
+        }
+        zip.closeEntry();
+    }
+
+    /**
+     * Writes a small text entry, like the .prj and .cst ones
+     */
+    void writeEntry(String name, String contents) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(contents.getBytes(charset.name()));
+        zip.closeEntry();
+    }
+
+    private void writeHeader(ShapeType shapeType, Stats stats, int length) throws IOException {
+        ByteBuffer bb = getBuffer(HEADER_LENGTH);
+        Envelope bounds = stats.bounds;
+        if (bounds.isNull()) {
+            new ShapefileHeader().write(bb, shapeType, stats.count, length, 0, 0, 0, 0);
+        } else {
+            new ShapefileHeader().write(bb, shapeType, stats.count, length, bounds.getMinX(),
+                    bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY());
+        }
+        flush(bb);
+    }
+
+    private ByteBuffer getBuffer(int size) {
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocate(size);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private void flush(ByteBuffer bb) throws IOException {
+        zip.write(bb.array(), 0, bb.position());
+    }
+
+    private ShapeHandler getShapeHandler(ShapeType shapeType) throws IOException {
+        try {
+            return shapeType.getShapeHandler(geometryFactory);
+        } catch (ShapefileException e) {
+            throw (IOException) new IOException("Unsupported shape type " + shapeType)
+                    .initCause(e);
+        }
+    }
+
+    /**
+     * Returns the Z variant of the shape type, if the geometries have 3 dimensions
+     */
+    static ShapeType getShapeType(ShapeType shapeType, int dims) {
+        if (dims < 3) {
+            return shapeType;
+        } else if (shapeType == ShapeType.POINT) {
+            return ShapeType.POINTZ;
+        } else if (shapeType == ShapeType.MULTIPOINT) {
+            return ShapeType.MULTIPOINTZ;
+        } else if (shapeType == ShapeType.ARC) {
+            return ShapeType.ARCZ;
+        } else if (shapeType == ShapeType.POLYGON) {
+            return ShapeType.POLYGONZ;
+        }
+        return shapeType;
+    }
+
+    /**
+     * Returns the indexes of the attributes going in the dbf file, that is, all but the
+     * geometries
+     */
+    static List<Integer> getDbfAttributes(SimpleFeatureType schema) {
+        List<Integer> result = new ArrayList<Integer>();
+        for (int i = 0; i < schema.getAttributeCount(); i++) {
+            if (!(schema.getDescriptor(i) instanceof GeometryDescriptor)) {
+                result.add(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Builds the dbf header the same way the shapefile datastore does
+     */
+    static DbaseFileHeader createDbaseHeader(SimpleFeatureType schema, List<Integer> attributes)
+            throws IOException {
+        DbaseFileHeader header = new DbaseFileHeader();
+        for (int i : attributes) {
+            AttributeDescriptor type = schema.getDescriptor(i);
+            Class<?> colType = type.getType().getBinding();
+            String colName = type.getLocalName();
+
+            int fieldLen = FeatureTypes.getFieldLength(type);
+            if (fieldLen == FeatureTypes.ANY_LENGTH) {
+                fieldLen = 255;
+            }
+            if ((colType == Integer.class) || (colType == Short.class) || (colType == Byte.class)) {
+                header.addColumn(colName, 'N', Math.min(fieldLen, 9), 0);
+            } else if (colType == Long.class) {
+                header.addColumn(colName, 'N', Math.min(fieldLen, 19), 0);
+            } else if (colType == BigInteger.class) {
+                header.addColumn(colName, 'N', Math.min(fieldLen, 33), 0);
+            } else if (Number.class.isAssignableFrom(colType)) {
+                int l = Math.min(fieldLen, 33);
+                int d = Math.max(l - 2, 0);
+                header.addColumn(colName, 'N', l, d);
+            } else if (java.util.Date.class.isAssignableFrom(colType)) {
+                header.addColumn(colName, 'D', fieldLen, 0);
+            } else if (colType == Boolean.class) {
+                header.addColumn(colName, 'L', 1, 0);
+            } else if (CharSequence.class.isAssignableFrom(colType)) {
+                header.addColumn(colName, 'C', Math.min(254, fieldLen), 0);
+            } else {
+                throw new IOException("Unable to write attribute " + colName + " of type "
+                        + colType.getName());
+            }
+        }
+        return header;
+    }
+
+    /**
+     * What the first scan learns about the shapes
+     */
+    static final class Stats {
+        int count;
+
+        int[] lengths = new int[1024];
+
+        /**
+         * The hashes of the feature ids
+         */
+        int[] ids = new int[1024];
+
+        long shpLength = HEADER_LENGTH;
+
+        Envelope bounds = new Envelope();
+
+        void add(String id, Geometry g, ShapeHandler handler) {
+            int length;
+            if (g == null) {
+                // just the null shape type
+                length = 4;
+            } else {
+                length = handler.getLength(g);
+                bounds.expandToInclude(g.getEnvelopeInternal());
+            }
+            if (count == lengths.length) {
+                lengths = Arrays.copyOf(lengths, count * 2);
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count] = hash(id);
+            lengths[count++] = length;
+            shpLength += RECORD_HEADER_LENGTH + length;
+            if (shpLength / 2 > Integer.MAX_VALUE) {
+                throw new ServiceException("The shapefile would exceed the maximum size "
+                        + "allowed by the format");
+            }
+        }
+
+        static int hash(String id) {
+            return id == null ? 0 : id.hashCode();
+        }
+    }
+}
@@ -32,6 +32,8 @@ import org.geotools.wfs.v2_0.WFS;
 import org.geotools.xml.Configuration;
 import org.geotools.xml.Encoder;
 import org.w3c.dom.Document;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
 
 public class GML32OutputFormat extends GML3OutputFormat {
 
@@ -103,6 +105,12 @@ public class GML32OutputFormat extends GML3OutputFormat {
             throws IOException {
         encoder.encode(results.getAdaptee(), WFS.FeatureCollection, output);
     }
+
+    @Override
+    protected void encode(FeatureCollectionResponse results, ContentHandler handler,
+            Encoder encoder) throws IOException, SAXException {
+        encoder.encode(results.getAdaptee(), WFS.FeatureCollection, handler);
+    }
     
     @Override
     protected String getWfsNamespace() {
@@ -49,6 +49,7 @@ import org.geoserver.wfs.WFSException;
 import org.geoserver.wfs.WFSGetFeatureOutputFormat;
 import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.GMLInfo.SrsNameStyle;
+import org.geoserver.wfs.SAXOutputFormat;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
 import org.geoserver.wfs.request.GetFeatureRequest;
 import org.geoserver.wfs.request.Query;
@@ -63,8 +64,10 @@ import org.geotools.xml.Encoder;
 import org.opengis.feature.type.FeatureType;
 import org.opengis.feature.type.Name;
 import org.w3c.dom.Document;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
 
-public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
+public class GML3OutputFormat extends WFSGetFeatureOutputFormat implements SAXOutputFormat {
     
     GeoServer geoServer;
     Catalog catalog;
@@ -109,6 +112,35 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
 
     protected void write(FeatureCollectionResponse results, OutputStream output, Operation getFeature)
             throws ServiceException, IOException, UnsupportedEncodingException {
+        Encoder encoder = prepareEncoder(results, getFeature);
+        if (this.isComplexFeature(results)) {
+            complexFeatureStreamIntercept(results, output, encoder);
+        } else {
+            encode(results, output, encoder);
+        }
+        
+    }
+
+    public boolean canWrite(FeatureCollectionResponse results, Operation getFeature) {
+        // complex features go through a post processing step of their own
+        return !isComplexFeature(results);
+    }
+
+    public void write(FeatureCollectionResponse results, ContentHandler handler,
+            Operation getFeature) throws IOException, ServiceException {
+        Encoder encoder = prepareEncoder(results, getFeature);
+        try {
+            encode(results, handler, encoder);
+        } catch (SAXException e) {
+            throw (IOException) new IOException(e.getMessage()).initCause(e);
+        }
+    }
+
+    /**
+     * Sets up the encoder for the feature types in the response
+     */
+    protected Encoder prepareEncoder(FeatureCollectionResponse results, Operation getFeature)
+            throws IOException {
         List featureCollections = results.getFeature();
 
         GetFeatureRequest request = GetFeatureRequest.adapt(getFeature.getParameters()[0]);
@@ -248,12 +280,7 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
         }
 
         setAdditionalSchemaLocations(encoder, request, wfs);
-        if (this.isComplexFeature(results)) {
-            complexFeatureStreamIntercept(results, output, encoder);
-        } else {
-            encode(results, output, encoder);
-        }
-        
+        return encoder;
     }
     
     protected Encoder createEncoder(Configuration configuration, 
@@ -269,6 +296,11 @@ public class GML3OutputFormat extends WFSGetFeatureOutputFormat {
         throws IOException {
         encoder.encode(results.getAdaptee(), org.geoserver.wfs.xml.v1_1_0.WFS.FEATURECOLLECTION, output);
     }
+
+    protected void encode(FeatureCollectionResponse results, ContentHandler handler,
+            Encoder encoder) throws IOException, SAXException {
+        encoder.encode(results.getAdaptee(), org.geoserver.wfs.xml.v1_1_0.WFS.FEATURECOLLECTION, handler);
+    }
     
     protected DOMSource getXSLT() {
         return GML3OutputFormat.xslt;
@@ -13,6 +13,7 @@ import java.io.File;
 import net.sf.json.JSONArray;
 import net.sf.json.JSONNull;
 import net.sf.json.JSONObject;
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.data.util.IOUtils;
@@ -182,4 +183,27 @@ public class GeoJSONTest extends WFSTestSupport {
         JSONObject aFeature = featureCol.getJSONObject(0);
         assertEquals(aFeature.getString("geometry_name"), "surfaceProperty");
     }
+
+    @Test
+    public void testNumDecimals() throws Exception {
+        FeatureTypeInfo ft = getCatalog().getFeatureTypeByName("sf", "AggregateGeoFeature");
+        int before = ft.getNumDecimals();
+        ft.setNumDecimals(1);
+        getCatalog().save(ft);
+        try {
+            String out = getAsString("wfs?request=GetFeature&version=1.0.0&typename=sf:AggregateGeoFeature&maxfeatures=3&outputformat="
+                    + JSONType.json);
+            JSONObject rootObject = JSONObject.fromObject(out);
+            JSONArray featureCol = rootObject.getJSONArray("features");
+            JSONObject aGeometry = featureCol.getJSONObject(1).getJSONObject("geometry");
+            assertEquals(aGeometry.getString("type"), "MultiLineString");
+            // was 55.174 with the default number of decimals
+            JSONArray geomArray = aGeometry.getJSONArray("coordinates").getJSONArray(0)
+                    .getJSONArray(0);
+            assertEquals("55.2", geomArray.getString(0));
+        } finally {
+            ft.setNumDecimals(before);
+            getCatalog().save(ft);
+        }
+    }
 }
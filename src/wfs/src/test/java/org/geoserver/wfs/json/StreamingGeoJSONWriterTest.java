@@ -0,0 +1,170 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wfs.json;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import net.sf.json.JSONObject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class StreamingGeoJSONWriterTest {
+
+    ByteArrayOutputStream out;
+
+    StreamingGeoJSONWriter writer;
+
+    @Before
+    public void setUp() {
+        out = new ByteArrayOutputStream();
+        writer = new StreamingGeoJSONWriter(out, true, 8);
+    }
+
+    String written() throws Exception {
+        writer.flush();
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void testWriteMultiLineString() throws Exception {
+        Geometry g = new WKTReader().read("MULTILINESTRING((0 0, 1 1))");
+        writer.writeGeometry(g);
+
+        assertEquals("{\"type\":\"MultiLineString\",\"coordinates\":[[[0,0],[1,1]]]}", written());
+    }
+
+    @Test
+    public void testWritePolygon() throws Exception {
+        Geometry g = new WKTReader()
+                .read("POLYGON((0 0, 10 0, 10 10, 0 0), (1 1, 2 1, 2 2, 1 1))");
+        writer.writeGeometry(g);
+
+        assertEquals("{\"type\":\"Polygon\",\"coordinates\":"
+                + "[[[0,0],[10,0],[10,10],[0,0]],[[1,1],[2,1],[2,2],[1,1]]]}", written());
+    }
+
+    @Test
+    public void testWriteGeometryCollection() throws Exception {
+        Geometry g = new WKTReader()
+                .read("GEOMETRYCOLLECTION(POINT(1 2), MULTIPOINT((3 4), (5 6)))");
+        writer.writeGeometry(g);
+
+        assertEquals("{\"type\":\"GeometryCollection\",\"geometries\":["
+                + "{\"type\":\"Point\",\"coordinates\":[1,2]},"
+                + "{\"type\":\"MultiPoint\",\"coordinates\":[[3,4],[5,6]]}]}", written());
+    }
+
+    @Test
+    public void testNumDecimals() throws Exception {
+        writer.setNumDecimals(3);
+        writer.array();
+        writer.ordinate(55.17412);
+        writer.ordinate(-0.0004);
+        writer.ordinate(-12.0006);
+        writer.ordinate(0.1);
+        writer.ordinate(1.05);
+        writer.ordinate(1e20);
+        writer.ordinate(Double.NaN);
+        writer.endArray();
+
+        assertEquals("[55.174,0,-12.001,0.1,1.05,100000000000000000000,null]", written());
+    }
+
+    @Test
+    public void testZeroDecimals() throws Exception {
+        writer.setNumDecimals(0);
+        writer.writeBoundingBox(new Envelope(-1.4, 2.6, 10, 20));
+
+        assertEquals("\"bbox\":[-1,3,10,20]", written());
+    }
+
+    @Test
+    public void testManyDecimals() throws Exception {
+        writer.setNumDecimals(20);
+        writer.array().ordinate(0.5).ordinate(-2.25).endArray();
+
+        assertEquals("[0.5,-2.25]", written());
+    }
+
+    @Test
+    public void testValues() throws Exception {
+        writer.object();
+        writer.key("int").value((Object) 12);
+        writer.key("long").value((Object) (-1234567890123L));
+        writer.key("double").value((Object) 1.5);
+        writer.key("whole").value((Object) 3.0);
+        writer.key("bool").value((Object) Boolean.TRUE);
+        writer.key("null").value((Object) null);
+        writer.key("string").value("a \"quoted\"\\ string\n\t\u0001");
+        writer.endObject();
+
+        String json = written();
+        assertEquals("{\"int\":12,\"long\":-1234567890123,\"double\":1.5,\"whole\":3,"
+                + "\"bool\":true,\"null\":null,"
+                + "\"string\":\"a \\\"quoted\\\"\\\\ string\\n\\t\\u0001\"}", json);
+        assertEquals("a \"quoted\"\\ string\n\t\u0001", JSONObject.fromObject(json).getString(
+                "string"));
+    }
+
+    @Test
+    public void testNonAscii() throws Exception {
+        writer.value("caf\u00e9 \u20ac \ud83d\ude00 \u2028");
+        assertEquals("\"caf\u00e9 \u20ac \ud83d\ude00 \\u2028\"", written());
+
+        out = new ByteArrayOutputStream();
+        writer = new StreamingGeoJSONWriter(out, false, 8);
+        writer.value("caf\u00e9 \u20ac");
+        assertEquals("\"caf\\u00e9 \\u20ac\"", written());
+    }
+
+    @Test
+    public void testLargeOutput() throws Exception {
+        // goes past the internal buffer size several times
+        writer.array();
+        for (int i = 0; i < 10000; i++) {
+            writer.value((long) i);
+        }
+        writer.endArray();
+
+        String json = written();
+        assertEquals('[', json.charAt(0));
+        assertEquals("9999]", json.substring(json.length() - 5));
+        assertEquals(10000, json.split(",").length);
+    }
+
+    @Test
+    public void testWriteCalendar() throws Exception {
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        cal.clear();
+        cal.set(Calendar.YEAR, 2011);
+        cal.set(Calendar.MONTH, 9);
+        cal.set(Calendar.DAY_OF_MONTH, 25);
+
+        writer.object().key("cal").value(cal).endObject();
+        assertEquals("{\"cal\":\"2011-10-25T00:00:00Z\"}", written());
+    }
+
+    @Test
+    public void testWriteDate() throws Exception {
+        Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("GMT"));
+        cal.clear();
+        cal.set(Calendar.YEAR, 2011);
+        cal.set(Calendar.MONTH, 9);
+        cal.set(Calendar.DAY_OF_MONTH, 25);
+
+        java.sql.Date date = new java.sql.Date(cal.getTimeInMillis());
+        writer.object().key("date").value(date).endObject();
+        assertEquals("{\"date\":\"2011-10-25Z\"}", written());
+    }
+}
@@ -18,13 +18,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 import javax.xml.namespace.QName;
 import net.opengis.wfs.GetFeatureType;
 import net.opengis.wfs.WfsFactory;
@@ -37,12 +40,15 @@ import org.geoserver.config.GeoServerInfo;
 import org.geoserver.data.test.SystemTestData;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
 import org.geoserver.test.TestSetup;
 import org.geoserver.test.TestSetupFrequency;
 import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.WFSTestSupport;
 import org.geoserver.wfs.request.FeatureCollectionResponse;
+import org.geotools.data.DataUtilities;
 import org.geotools.data.FeatureSource;
+import org.geotools.data.collection.ListFeatureCollection;
 import org.geotools.data.shapefile.ShapefileDataStore;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
@@ -475,6 +481,145 @@ public class ShapeZipTest extends WFSTestSupport {
                 get4326_ESRI_WKTContent());
     }
 
+    @Test
+    public void testStreaming() throws Exception {
+        setupStreaming(getGeoServer(), true);
+        try {
+            byte[] zip = writeOut(getFeatureSource(SystemTestData.BASIC_POLYGONS).getFeatures());
+            checkShapefileIntegrity(new String[] { "BasicPolygons" },
+                    new ByteArrayInputStream(zip));
+
+            zip = writeOut(getFeatureSource(GEOMMID).getFeatures());
+            checkFieldsAreNotEmpty(new ByteArrayInputStream(zip));
+        } finally {
+            setupStreaming(getGeoServer(), null);
+        }
+    }
+
+    @Test
+    public void testStreamingNullGeometries() throws Exception {
+        setupStreaming(getGeoServer(), true);
+        try {
+            byte[] zip = writeOut(getFeatureSource(NULLGEOM).getFeatures());
+            checkShapefileIntegrity(new String[] { "nullgeom" }, new ByteArrayInputStream(zip));
+        } finally {
+            setupStreaming(getGeoServer(), null);
+        }
+    }
+
+    @Test
+    public void testStreamingLongNames() throws Exception {
+        setupStreaming(getGeoServer(), true);
+        try {
+            byte[] zip = writeOut(getFeatureSource(LONGNAMES).getFeatures());
+            SimpleFeatureType schema = checkFieldsAreNotEmpty(new ByteArrayInputStream(zip));
+            checkLongNamesSchema(schema);
+        } finally {
+            setupStreaming(getGeoServer(), null);
+        }
+    }
+
+    @Test
+    public void testStreamingEmptyResult() throws Exception {
+        setupStreaming(getGeoServer(), true);
+        try {
+            byte[] zip = writeOut(getFeatureSource(SystemTestData.BASIC_POLYGONS).getFeatures(
+                    Filter.EXCLUDE));
+            checkShapefileIntegrity(new String[] { "BasicPolygons" },
+                    new ByteArrayInputStream(zip));
+
+            boolean foundReadme = false;
+            ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip));
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                foundReadme |= entry.getName().equals("README.TXT");
+            }
+            assertTrue(foundReadme);
+        } finally {
+            setupStreaming(getGeoServer(), null);
+        }
+    }
+
+    @Test
+    public void testStreamingOrderChange() throws Exception {
+        SimpleFeatureCollection fc = (SimpleFeatureCollection) getFeatureSource(
+                SystemTestData.BASIC_POLYGONS).getFeatures();
+        final List<SimpleFeature> features = DataUtilities.list(fc);
+        // returns the features in reverse order on the second scan
+        SimpleFeatureCollection reordering = new ListFeatureCollection(fc.getSchema(), features) {
+            int scans;
+
+            @Override
+            public SimpleFeatureIterator features() {
+                if (scans++ == 1) {
+                    Collections.reverse(features);
+                }
+                return super.features();
+            }
+        };
+
+        ShapefileZipStreamer streamer = new ShapefileZipStreamer(new ZipOutputStream(
+                new ByteArrayOutputStream()), Charset.forName("ISO-8859-1"));
+        try {
+            streamer.write(reordering, "BasicPolygons");
+            fail("Should have noticed the features came back in a different order");
+        } catch (ServiceException e) {
+            assertTrue(e.getMessage().contains("different order"));
+        }
+    }
+
+    @Test
+    public void testStreamingMultiType() throws Exception {
+        // generic geometry types are fanned out, using the temporary directory
+        setupStreaming(getGeoServer(), true);
+        try {
+            byte[] zip = writeOut(getFeatureSource(ALL_TYPES).getFeatures());
+            final String[] expectedTypes = new String[] { "AllTypesPoint", "AllTypesMPoint",
+                    "AllTypesPolygon", "AllTypesLine" };
+            checkShapefileIntegrity(expectedTypes, new ByteArrayInputStream(zip));
+        } finally {
+            setupStreaming(getGeoServer(), null);
+        }
+    }
+
+    @Test
+    public void testStreamingESRIFormat() throws Exception {
+        setupESRIPropertyFile();
+        setupStreaming(getGeoServer(), true);
+        try {
+            ShapeZipOutputFormat zip = new ShapeZipOutputFormat(getGeoServer(), getCatalog(),
+                    getResourceLoader());
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            FeatureCollectionResponse fct =
+                FeatureCollectionResponse.adapt(WfsFactory.eINSTANCE.createFeatureCollectionType());
+            fct.getFeature().add(getFeatureSource(SystemTestData.BASIC_POLYGONS).getFeatures());
+
+            Map options = new HashMap();
+            options.put("PRJFILEFORMAT", "ESRI");
+            gft.setFormatOptions(options);
+            zip.write(fct, bos, op);
+
+            byte[] byteArrayZip = bos.toByteArray();
+            checkShapefileIntegrity(new String[] { "BasicPolygons" }, new ByteArrayInputStream(
+                    byteArrayZip));
+            checkFileContent("BasicPolygons.prj", new ByteArrayInputStream(byteArrayZip),
+                    get4326_ESRI_WKTContent());
+        } finally {
+            setupStreaming(getGeoServer(), null);
+        }
+    }
+
+    private void setupStreaming(GeoServer geoServer, Boolean value) throws IOException {
+        WFSInfo wfsInfo = geoServer.getService(WFSInfo.class);
+        MetadataMap metadata = wfsInfo.getMetadata();
+        if (value == null) {
+            metadata.remove(ShapeZipOutputFormat.SHAPE_ZIP_STREAMING);
+        } else {
+            metadata.put(ShapeZipOutputFormat.SHAPE_ZIP_STREAMING, value);
+        }
+        geoServer.save(wfsInfo);
+    }
+
     /**
      * Saves the feature source contents into a zipped shapefile, returns the output as a byte array
      */
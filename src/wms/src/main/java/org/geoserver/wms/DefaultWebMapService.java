@@ -137,6 +137,17 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
      */
     private static Boolean USE_GLOBAL_RENDERING_POOL = null;
 
+    /**
+     * Number of threads used to render the layers of a map in parallel, zero disables parallel
+     * layer rendering
+     */
+    private static Integer LAYER_RENDERING_THREADS = null;
+
+    /**
+     * The pool used to render the layers of a map in parallel
+     */
+    private static ExecutorService LAYER_RENDERING_POOL;
+
     private GetCapabilities getCapabilities;
 
     private DescribeLayer describeLayer;
@@ -246,6 +257,15 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
             else
                 USE_GLOBAL_RENDERING_POOL = Boolean.valueOf(usePool);
         }
+
+        // parallel layer rendering, disabled by default as it uses one extra image per layer
+        if (LAYER_RENDERING_THREADS == null) {
+            String threads = GeoServerExtensions.getProperty("LAYER_RENDERING_THREADS", context);
+            if (threads == null)
+                LAYER_RENDERING_THREADS = 0;
+            else
+                LAYER_RENDERING_THREADS = Math.max(0, Integer.valueOf(threads));
+        }
     }
 
     /**
@@ -688,12 +708,51 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
         return RENDERING_POOL;
     }
 
+    /**
+     * Returns the app wide pool used to render the layers of a map in parallel, bounded to the
+     * number of threads set by the LAYER_RENDERING_THREADS property, or null if parallel layer
+     * rendering is disabled (the default)
+     * 
+     * @return
+     */
+    public static ExecutorService getLayerRenderingPool() {
+        if (LAYER_RENDERING_THREADS != null && LAYER_RENDERING_THREADS > 0
+                && LAYER_RENDERING_POOL == null) {
+            synchronized (DefaultWebMapService.class) {
+                if (LAYER_RENDERING_POOL == null) {
+                    LAYER_RENDERING_POOL = Executors.newFixedThreadPool(LAYER_RENDERING_THREADS);
+                }
+            }
+        }
+
+        return LAYER_RENDERING_POOL;
+    }
+
+    /**
+     * Sets the number of threads used to render the layers of a map in parallel, zero disables
+     * parallel layer rendering. Mostly useful for testing.
+     */
+    public static void setLayerRenderingThreads(int threads) {
+        synchronized (DefaultWebMapService.class) {
+            LAYER_RENDERING_THREADS = threads;
+            if (LAYER_RENDERING_POOL != null) {
+                LAYER_RENDERING_POOL.shutdown();
+                LAYER_RENDERING_POOL = null;
+            }
+        }
+    }
+
     public void destroy() throws Exception {
         if (RENDERING_POOL != null) {
             RENDERING_POOL.shutdown();
             RENDERING_POOL.awaitTermination(10, TimeUnit.SECONDS);
             RENDERING_POOL = null;
         }
+        if (LAYER_RENDERING_POOL != null) {
+            LAYER_RENDERING_POOL.shutdown();
+            LAYER_RENDERING_POOL.awaitTermination(10, TimeUnit.SECONDS);
+            LAYER_RENDERING_POOL = null;
+        }
     }
 
 }
@@ -46,12 +46,9 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.FeatureLayer;
 import org.geotools.map.WMSLayer;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
-import org.geotools.renderer.lite.MetaBufferEstimator;
 import org.geotools.renderer.lite.RendererUtilities;
 import org.geotools.renderer.lite.StreamingRenderer;
 import org.geotools.styling.FeatureTypeConstraint;
-import org.geotools.styling.FeatureTypeStyle;
-import org.geotools.styling.Rule;
 import org.geotools.styling.Style;
 import org.geotools.util.logging.Logging;
 import org.opengis.feature.Feature;
@@ -510,7 +507,7 @@ public class GetMap {
         // in this map
         // GR: question: does setupRenderingBuffer need EnvFunction.setLocalValues to be already
         // set? otherwise move this call out of the try block and above setLovalValues
-        setupRenderingBuffer(mapContent, layers);
+        setupRenderingBuffer(mapContent, layers, wms);
 
         // /////////////////////////////////////////////////////////
         //
@@ -541,6 +538,19 @@ public class GetMap {
      * @param layers
      */
     public static void setupRenderingBuffer(WMSMapContent map, List<MapLayerInfo> layers) {
+        setupRenderingBuffer(map, layers, WMS.get());
+    }
+
+    /**
+     * Computes the rendering buffer in case the user did not specify one in the request, and the
+     * admin setup some rendering buffer hints in the layer configurations, using the style
+     * analysis cached by the WMS
+     * 
+     * @param map
+     * @param layers
+     * @param wms the WMS providing the prepared styles, if null the styles are analyzed on the fly
+     */
+    public static void setupRenderingBuffer(WMSMapContent map, List<MapLayerInfo> layers, WMS wms) {
         // easy case, the buffer is already set in the call
         if (map.getBuffer() > 0) {
             return;
@@ -570,7 +580,10 @@ public class GetMap {
             for (int i = 0; i < layers.size(); i++) {
                 int layerBuffer = layerBuffers[i];
                 if (layerBuffer == 0) {
-                    layerBuffer = computeLayerBuffer(map.layers().get(i).getStyle(), scaleDenominator);
+                    Style style = map.layers().get(i).getStyle();
+                    PreparedStyle prepared = wms != null ? wms.getPreparedStyle(style)
+                            : new PreparedStyle(style);
+                    layerBuffer = prepared.getMetaBuffer(scaleDenominator);
                 }
                 if (layerBuffer > buffer) {
                     buffer = layerBuffer;
@@ -581,29 +594,6 @@ public class GetMap {
         }
     }
 
-    /**
-     * Computes the rendering buffer for this layer
-     * 
-     * @param style
-     * @param scaleDenominator
-     * @return
-     */
-    static int computeLayerBuffer(Style style, double scaleDenominator) {
-        final double TOLERANCE = 1e-6;
-        MetaBufferEstimator estimator = new MetaBufferEstimator();
-        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
-            for (Rule rule : fts.rules()) {
-                if (((rule.getMinScaleDenominator() - TOLERANCE) <= scaleDenominator)
-                        && ((rule.getMaxScaleDenominator() + TOLERANCE) > scaleDenominator)) {
-                    estimator.visit(rule);
-                }
-            }
-        }
-
-        // we get any estimate, it's better than nothing...
-        return estimator.getBuffer();
-    }
-
     /**
      * Returns the rendering scale taking into account rotation and dpi
      * 
@@ -0,0 +1,143 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.geotools.renderer.lite.MetaBufferEstimator;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleAttributeExtractor;
+import org.opengis.filter.expression.PropertyName;
+
+/**
+ * The information GetMap needs out of a {@link Style} before rendering, computed once and then
+ * shared among requests: whether the style uses rendering transformations, the attributes its
+ * filters and expressions refer to, and the rendering buffer for each of the scale ranges the
+ * rules break the scale axis into.
+ * <p>
+ * Instances are immutable, and assume the style they have been built from is not modified
+ * afterwards, which is the case for the styles handed out by the catalog. Use
+ * {@link WMS#getPreparedStyle(Style)} to get a cached one.
+ * </p>
+ */
+public class PreparedStyle {
+
+    /**
+     * Tolerance used when comparing a scale denominator with the rule scale ranges
+     */
+    static final double TOLERANCE = 1e-6;
+
+    final Style style;
+
+    final boolean transformation;
+
+    final Set<PropertyName> attributes;
+
+    /**
+     * The start of each scale range, sorted, the first one is always negative infinity
+     */
+    final double[] rangeStarts;
+
+    /**
+     * The rendering buffer of each scale range
+     */
+    final int[] rangeBuffers;
+
+    public PreparedStyle(Style style) {
+        this.style = style;
+
+        boolean transformation = false;
+        List<Rule> rules = new ArrayList<Rule>();
+        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+            if (fts.getTransformation() != null) {
+                transformation = true;
+            }
+            rules.addAll(fts.rules());
+        }
+        this.transformation = transformation;
+
+        StyleAttributeExtractor sae = new StyleAttributeExtractor();
+        sae.visit(style);
+        this.attributes = Collections.unmodifiableSet(sae.getAttributes());
+
+        // every rule min and max scale is a potential breakpoint
+        TreeSet<Double> breakpoints = new TreeSet<Double>();
+        breakpoints.add(Double.NEGATIVE_INFINITY);
+        for (Rule rule : rules) {
+            breakpoints.add(rule.getMinScaleDenominator() - TOLERANCE);
+            breakpoints.add(rule.getMaxScaleDenominator() + TOLERANCE);
+        }
+        rangeStarts = new double[breakpoints.size()];
+        rangeBuffers = new int[breakpoints.size()];
+        int i = 0;
+        for (Double start : breakpoints) {
+            MetaBufferEstimator estimator = new MetaBufferEstimator();
+            for (Rule rule : rules) {
+                if (isActive(rule, start)) {
+                    estimator.visit(rule);
+                }
+            }
+            rangeStarts[i] = start;
+            rangeBuffers[i] = estimator.getBuffer();
+            i++;
+        }
+    }
+
+    /**
+     * Returns true if the rule is active at the specified scale
+     */
+    static boolean isActive(Rule rule, double scaleDenominator) {
+        return ((rule.getMinScaleDenominator() - TOLERANCE) <= scaleDenominator)
+                && ((rule.getMaxScaleDenominator() + TOLERANCE) > scaleDenominator);
+    }
+
+    /**
+     * Returns the index of the scale range containing the scale denominator
+     */
+    int getRangeIndex(double scaleDenominator) {
+        int idx = Arrays.binarySearch(rangeStarts, scaleDenominator);
+        if (idx < 0) {
+            // the insertion point is the first range start past the scale
+            idx = -idx - 2;
+        }
+        return Math.max(idx, 0);
+    }
+
+    /**
+     * The style this object has been built from
+     */
+    public Style getStyle() {
+        return style;
+    }
+
+    /**
+     * Returns true if any feature type style contains a rendering transformation
+     */
+    public boolean hasTransformation() {
+        return transformation;
+    }
+
+    /**
+     * Returns the attributes used by the style filters and expressions
+     */
+    public Set<PropertyName> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * Returns the rendering buffer needed by the rules active at the specified scale
+     * denominator, as estimated by the {@link MetaBufferEstimator}
+     */
+    public int getMetaBuffer(double scaleDenominator) {
+        return rangeBuffers[getRangeIndex(scaleDenominator)];
+    }
+}
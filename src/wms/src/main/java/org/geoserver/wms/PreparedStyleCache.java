@@ -0,0 +1,96 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import java.util.concurrent.ExecutionException;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geotools.styling.Style;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * Caches the {@link PreparedStyle} of the styles used in GetMap requests, so that the style
+ * analysis is performed once instead of on every request.
+ * <p>
+ * Entries are keyed by style identity and weakly referenced, the catalog hands out the same
+ * {@link Style} object until the style is modified, while the styles included in SLD requests
+ * are dropped as soon as the request is done with them. The cache is also cleared whenever a
+ * style is modified or removed, or the catalog is reloaded.
+ * </p>
+ */
+public class PreparedStyleCache implements CatalogListener {
+
+    LoadingCache<Style, PreparedStyle> cache;
+
+    public PreparedStyleCache(Catalog catalog) {
+        cache = CacheBuilder.newBuilder().weakKeys().recordStats()
+                .build(new CacheLoader<Style, PreparedStyle>() {
+                    @Override
+                    public PreparedStyle load(Style style) throws Exception {
+                        return new PreparedStyle(style);
+                    }
+                });
+        catalog.addListener(this);
+    }
+
+    /**
+     * Returns the prepared version of the style, building it if not cached yet
+     */
+    public PreparedStyle get(Style style) {
+        try {
+            return cache.get(style);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to analyze style " + style.getName(), e.getCause());
+        }
+    }
+
+    /**
+     * Drops all the cached entries
+     */
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Returns the cache hit/miss statistics
+     */
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public void handleAddEvent(CatalogAddEvent event) {
+        // nothing to do, the new style is not in use yet
+    }
+
+    public void handleModifyEvent(CatalogModifyEvent event) {
+        // wait for the post modify event
+    }
+
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+        if (event.getSource() instanceof StyleInfo) {
+            clear();
+        }
+    }
+
+    public void handleRemoveEvent(CatalogRemoveEvent event) {
+        if (event.getSource() instanceof StyleInfo) {
+            clear();
+        }
+    }
+
+    public void reloaded() {
+        clear();
+    }
+}
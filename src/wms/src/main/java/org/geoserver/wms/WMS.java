@@ -46,6 +46,7 @@ import org.geoserver.wms.WMSInfo.WMSInterpolation;
 import org.geoserver.wms.WatermarkInfo.Position;
 import org.geoserver.wms.featureinfo.GetFeatureInfoOutputFormat;
 import org.geoserver.wms.map.RenderedImageMapResponse;
+import org.geoserver.wms.map.png.PNGEncoder.FilterType;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.Query;
@@ -105,6 +106,12 @@ public class WMS implements ApplicationContextAware {
 
     public static final int PNG_COMPRESSION_DEFAULT = 25;
 
+    public static final String PNG_FILTER = "pngFilter";
+
+    public static final String PNG_FAST_ENCODING = "pngFastEncoding";
+
+    public static final Boolean PNG_FAST_ENCODING_DEFAULT = Boolean.TRUE;
+
     public static final String MAX_ALLOWED_FRAMES = "maxAllowedFrames";
 
     public static final int MAX_ALLOWED_FRAMES_DEFAULT = Integer.MAX_VALUE;
@@ -188,6 +195,8 @@ public class WMS implements ApplicationContextAware {
 
     private ApplicationContext applicationContext;
 
+    private volatile PreparedStyleCache preparedStyleCache;
+
     public WMS(GeoServer geoserver) {
         this.geoserver = geoserver;
     }
@@ -205,6 +214,19 @@ public class WMS implements ApplicationContextAware {
         return styleInfo == null ? null : styleInfo.getStyle();
     }
 
+    /**
+     * Returns the {@link PreparedStyle} for the given style, cached unless the
+     * {@link PreparedStyleCache} is not available in the application context
+     */
+    public PreparedStyle getPreparedStyle(Style style) {
+        PreparedStyleCache cache = preparedStyleCache;
+        if (cache == null && applicationContext != null) {
+            cache = GeoServerExtensions.bean(PreparedStyleCache.class, applicationContext);
+            preparedStyleCache = cache;
+        }
+        return cache != null ? cache.get(style) : new PreparedStyle(style);
+    }
+
     public LayerInfo getLayerByName(String layerName) {
         return getCatalog().getLayerByName(layerName);
     }
@@ -462,6 +484,33 @@ public class WMS implements ApplicationContextAware {
                 PNG_COMPRESSION_DEFAULT);
     }
 
+    /**
+     * Returns the PNG scanline filter, or null if the encoder should choose based on the image
+     * type
+     */
+    public FilterType getPngFilter() {
+        WMSInfo serviceInfo = getServiceInfo();
+        Object value = serviceInfo.getMetadata().get(PNG_FILTER);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return FilterType.valueOf(value.toString().trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning("Invalid value '" + value + "' for '" + PNG_FILTER
+                    + "', it should be one of " + Arrays.toString(FilterType.values()));
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if PNG images should be written with the built-in encoder, when it supports
+     * the image layout, instead of the ImageIO writers
+     */
+    public boolean isPngFastEncoding() {
+        return getMetadataValue(PNG_FAST_ENCODING, PNG_FAST_ENCODING_DEFAULT, Boolean.class);
+    }
+
     public int getJpegCompression() {
         WMSInfo serviceInfo = getServiceInfo();
         return getMetadataPercentage(serviceInfo.getMetadata(), JPEG_COMPRESSION,
@@ -44,6 +44,7 @@ import org.geoserver.catalog.LegendInfo;
 import org.geoserver.catalog.MetadataLinkInfo;
 import org.geoserver.catalog.Predicates;
 import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.ReadOnlyListing;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
@@ -261,8 +262,14 @@ public class Capabilities_1_3_0_Transformer extends TransformerBase {
                     XML_SCHEMA_INSTANCE, "xsi:schemaLocation", schemaLocation);
 
             start("WMS_Capabilities", rootAtts);
-            handleService();
-            handleCapability();
+            // the document only reads the catalog, read only snapshots are enough
+            ReadOnlyListing.start();
+            try {
+                handleService();
+                handleCapability();
+            } finally {
+                ReadOnlyListing.finish();
+            }
             end("WMS_Capabilities");
         }
 
@@ -32,6 +32,7 @@ import javax.xml.transform.TransformerException;
 import org.apache.commons.lang.StringUtils;
 import org.geoserver.catalog.AttributionInfo;
 import org.geoserver.catalog.AuthorityURLInfo;
+import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.KeywordInfo;
 import org.geoserver.catalog.LayerGroupInfo;
@@ -40,10 +41,13 @@ import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.LayerInfo.Type;
 import org.geoserver.catalog.LegendInfo;
 import org.geoserver.catalog.MetadataLinkInfo;
+import org.geoserver.catalog.Predicates;
 import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.ReadOnlyListing;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
+import org.geoserver.catalog.util.CloseableIterator;
 import org.geoserver.config.ContactInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.ResourceErrorHandling;
@@ -76,6 +80,7 @@ import org.xml.sax.ext.LexicalHandler;
 import org.xml.sax.helpers.AttributesImpl;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.vividsolutions.jts.geom.Envelope;
 
 /**
@@ -277,8 +282,14 @@ public class GetCapabilitiesTransformer extends TransformerBase {
             rootAtts.addAttribute("", "updateSequence", "updateSequence", "",
                     wmsConfig.getUpdateSequence() + "");
             start("WMT_MS_Capabilities", rootAtts);
-            handleService();
-            handleCapability();
+            // the document only reads the catalog, read only snapshots are enough
+            ReadOnlyListing.start();
+            try {
+                handleService();
+                handleCapability();
+            } finally {
+                ReadOnlyListing.finish();
+            }
             end("WMT_MS_Capabilities");
         }
 
@@ -611,7 +622,7 @@ public class GetCapabilitiesTransformer extends TransformerBase {
 
             // filter the layers if a namespace filter has been set
             if (request.getNamespace() != null) {
-                final List<LayerInfo> allLayers = wmsConfig.getLayers();
+                final List<LayerInfo> allLayers = listLayers();
                 layers = new ArrayList<LayerInfo>();
 
                 String namespace = wmsConfig.getNamespaceByPrefix(request.getNamespace());
@@ -622,7 +633,7 @@ public class GetCapabilitiesTransformer extends TransformerBase {
                     }
                 }
             } else {
-                layers = wmsConfig.getLayers();
+                layers = listLayers();
             }
 
             WMSInfo serviceInfo = wmsConfig.getServiceInfo();
@@ -665,6 +676,20 @@ public class GetCapabilitiesTransformer extends TransformerBase {
             end("Layer");
         }
 
+        /**
+         * Lists the layers through {@link Catalog#list}, so that they are not proxied while the
+         * document is encoded
+         */
+        private List<LayerInfo> listLayers() {
+            CloseableIterator<LayerInfo> layers = wmsConfig.getCatalog().list(LayerInfo.class,
+                    Predicates.acceptAll());
+            try {
+                return Lists.newArrayList(layers);
+            } finally {
+                layers.close();
+            }
+        }
+
         /**
          * Called by <code>handleLayers()</code>, writes down list of supported CRS's for the root
          * Layer.
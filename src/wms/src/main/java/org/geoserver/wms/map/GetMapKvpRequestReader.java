@@ -39,6 +39,7 @@ import org.geoserver.platform.ServiceException;
 import org.geoserver.util.EntityResolverProvider;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.MapLayerInfo;
+import org.geoserver.wms.PreparedStyle;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSErrorCode;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
@@ -55,12 +56,10 @@ import org.geotools.feature.FeatureTypes;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.geotools.styling.FeatureTypeConstraint;
-import org.geotools.styling.FeatureTypeStyle;
 import org.geotools.styling.NamedLayer;
 import org.geotools.styling.NamedStyle;
 import org.geotools.styling.RemoteOWS;
 import org.geotools.styling.Style;
-import org.geotools.styling.StyleAttributeExtractor;
 import org.geotools.styling.StyleFactory;
 import org.geotools.styling.StyledLayer;
 import org.geotools.styling.StyledLayerDescriptor;
@@ -1105,20 +1104,19 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
      * 
      * @throws ServiceException
      */
-    private static void checkStyle(Style style, MapLayerInfo mapLayerInfo) throws ServiceException {
+    private void checkStyle(Style style, MapLayerInfo mapLayerInfo) throws ServiceException {
         if (mapLayerInfo.getType() == mapLayerInfo.TYPE_RASTER) {
             // REVISIT: hey, don't we have to check it for rasters now that we support raster
             // symbolizer?
             return;
         }
         // if a rendering transform is present don't check the attributes, since they may be changed
-        if (hasTransformation(style)) 
+        PreparedStyle prepared = wms.getPreparedStyle(style);
+        if (prepared.hasTransformation()) 
             return;  
 
         // extract attributes used in the style
-        StyleAttributeExtractor sae = new StyleAttributeExtractor();
-        sae.visit(style);
-        Set<PropertyName> styleAttributes = sae.getAttributes();
+        Set<PropertyName> styleAttributes = prepared.getAttributes();
 
         // see if we can collect any attribute out of the provided layer
        // Set attributes = new HashSet();
@@ -1147,20 +1145,6 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
         }
     }
 
-    /**
-     * Tests whether a style contains a Rendering Transformation.
-     * 
-     * @param style the style to check
-     * @return true if the style contains a rendering transformation
-     */
-    private static boolean hasTransformation(Style style)
-    {
-        for (FeatureTypeStyle fs : style.featureTypeStyles()) {
-            if (fs.getTransformation() != null) 
-                return true;
-        }
-        return false;
-    }
     /**
      * Method to initialize a user layer which contains inline features.
      * 
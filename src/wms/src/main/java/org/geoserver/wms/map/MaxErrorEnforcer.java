@@ -4,6 +4,10 @@
  */
 package org.geoserver.wms.map;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.geotools.renderer.GTRenderer;
 import org.geotools.renderer.RenderListener;
 import org.opengis.feature.simple.SimpleFeature;
@@ -15,13 +19,13 @@ import org.opengis.feature.simple.SimpleFeature;
  */
 public class MaxErrorEnforcer {
 
-    GTRenderer renderer;
+    List<GTRenderer> renderers;
 
     int maxErrors;
 
-    int errors;
+    volatile int errors;
     
-    Exception lastException;
+    volatile Exception lastException;
 
     /**
      * Builds a new max errors enforcer. If maxErrors is not positive the enforcer will do nothing
@@ -30,27 +34,47 @@ public class MaxErrorEnforcer {
      * @param maxErrors
      */
     public MaxErrorEnforcer(GTRenderer renderer, int maxErrors) {
-        this.renderer = renderer;
+        this(Collections.singletonList(renderer), maxErrors);
+    }
+
+    /**
+     * Builds a max errors enforcer counting the errors of all the renderers together, and stopping
+     * all of them once the threshold is exceeded. Used when the layers are rendered in parallel.
+     * 
+     * @param renderers
+     * @param maxErrors
+     */
+    public MaxErrorEnforcer(List<? extends GTRenderer> renderers, int maxErrors) {
+        this.renderers = new ArrayList<GTRenderer>(renderers);
         this.maxErrors = maxErrors;
         this.errors = 0;
 
         if (maxErrors > 0) {
-            renderer.addRenderListener(new RenderListener() {
+            RenderListener listener = new RenderListener() {
 
                 public void featureRenderer(SimpleFeature feature) {
                 }
 
                 public void errorOccurred(Exception e) {
-                    errors++;
-                    lastException = e;
-                    if (errors > MaxErrorEnforcer.this.maxErrors) {
-                        MaxErrorEnforcer.this.renderer.stopRendering();
+                    if (errorAdded(e)) {
+                        for (GTRenderer renderer : MaxErrorEnforcer.this.renderers) {
+                            renderer.stopRendering();
+                        }
                     }
                 }
-            });
+            };
+            for (GTRenderer renderer : this.renderers) {
+                renderer.addRenderListener(listener);
+            }
         }
     }
 
+    synchronized boolean errorAdded(Exception e) {
+        errors++;
+        lastException = e;
+        return errors > maxErrors;
+    }
+
     /**
      * True if the max error threshold was exceeded
      * @return
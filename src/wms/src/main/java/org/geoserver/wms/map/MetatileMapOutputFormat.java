@@ -12,8 +12,10 @@ import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -30,7 +32,6 @@ import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.WebMap;
 import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
 import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.renderer.lite.gridcoverage2d.GridCoverageRenderer;
 import org.geotools.resources.i18n.ErrorKeys;
 import org.geotools.resources.i18n.Errors;
@@ -118,25 +119,17 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
      * 
      * @see org.geoserver.wms.GetMapOutputFormat#produceMap(org.geoserver.wms.WMSMapContent)
      */
-    public WebMap produceMap(WMSMapContent mapContent) throws ServiceException, IOException {
-        // get the key that identifies the meta tile. The cache will make sure
-        // two threads asking
-        // for the same tile will get the same key, and thus will synchronize
-        // with each other
-        // (the first eventually builds the meta-tile, the second finds it ready
-        // to be used)
-        QuickTileCache.MetaTileKey key = tileCache.getMetaTileKey(request);
-
-        synchronized (key) {
-            RenderedImage tile = tileCache.getTile(key, request);
-            List<GridCoverage2D> renderedCoverages = null;
-
-            if (LOGGER.isLoggable(Level.FINER)) {
-                LOGGER.finer("Looked for meta tile " + key.metaTileCoords.x + ", "
-                        + key.metaTileCoords.y + "in cache: " + ((tile != null) ? "hit!" : "miss"));
-            }
+    public WebMap produceMap(final WMSMapContent mapContent) throws ServiceException,
+            IOException {
+        // get the key that identifies the meta tile. The cache will make sure that only one of
+        // the threads asking for the same meta tile builds it, the others wait for it to be
+        // ready and use it
+        final QuickTileCache.MetaTileKey key = tileCache.getMetaTileKey(request);
+        final List<List<GridCoverage2D>> renderedCoverages = new ArrayList<List<GridCoverage2D>>(1);
+
+        RenderedImage[] tiles = tileCache.getTiles(key, new Callable<RenderedImage[]>() {
 
-            if (tile == null) {
+            public RenderedImage[] call() throws Exception {
                 // compute the meta-tile
                 if (LOGGER.isLoggable(Level.FINER)) {
                     LOGGER.finer("Building meta tile " + key.metaTileCoords.x + ", "
@@ -148,7 +141,6 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
 
                 // alter the map definition so that we build a meta-tile instead
                 // of just the tile
-                ReferencedEnvelope origEnv = mapContent.getRenderingArea();
                 mapContent.getViewport().setBounds(key.getMetaTileEnvelope());
                 mapContent.setMapWidth(key.getTileSize() * key.getMetaFactor());
                 mapContent.setMapHeight(key.getTileSize() * key.getMetaFactor());
@@ -157,15 +149,23 @@ public final class MetatileMapOutputFormat implements GetMapOutputFormat {
                 RenderedImageMap metaTileMap = delegate.produceMap(mapContent);
 
                 RenderedImage metaTile = metaTileMap.getImage();
-                RenderedImage[] tiles = split(key, metaTile, mapContent);
-                tileCache.storeTiles(key, tiles);
-                tile = tileCache.getTile(key, request, tiles);
-                renderedCoverages = metaTileMap.getRenderedCoverages();
+                renderedCoverages.add(metaTileMap.getRenderedCoverages());
+                return split(key, metaTile, mapContent);
             }
-            RenderedImageMap tileMap = new RenderedImageMap(mapContent, tile, getMimeType());
-            tileMap.setRenderedCoverages(renderedCoverages);
-            return tileMap;
+        });
+        RenderedImage tile = tileCache.getTile(key, request, tiles);
+
+        if (LOGGER.isLoggable(Level.FINER)) {
+            LOGGER.finer("Looked for meta tile " + key.metaTileCoords.x + ", "
+                    + key.metaTileCoords.y + "in cache: "
+                    + (renderedCoverages.isEmpty() ? "hit!" : "miss"));
         }
+
+        RenderedImageMap tileMap = new RenderedImageMap(mapContent, tile, getMimeType());
+        // only the request that actually rendered the meta tile owns the rendered coverages
+        tileMap.setRenderedCoverages(renderedCoverages.isEmpty() ? null : renderedCoverages
+                .get(0));
+        return tileMap;
     }
 
     /**
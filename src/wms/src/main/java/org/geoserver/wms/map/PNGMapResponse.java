@@ -21,6 +21,7 @@ import org.geoserver.wms.RasterCleaner;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.kvp.PaletteManager;
+import org.geoserver.wms.map.png.PNGEncoder;
 import org.geoserver.wms.map.quantize.CachingColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexerDescriptor;
@@ -108,6 +109,17 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         // check to see if we have to see a translucent or bitmask quantizer
         image = applyPalette(image, mapContent, "image/png8", true);
 
+        if (wms.isPngFastEncoding() && PNGEncoder.isSupported(image)) {
+            // straight scanline encoding, maps the 0-100 compression to the deflate 0-9 levels
+            int level = Math.round(wms.getPngCompression() * 9 / 100f);
+            new PNGEncoder(level, wms.getPngFilter()).encode(image, outStream);
+            RasterCleaner.addImage(image);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Writing png image ... done!");
+            }
+            return;
+        }
+
         Boolean PNGNativeAcc = wms.getPNGNativeAcceleration();
         float quality = (100 - wms.getPngCompression()) / 100.0f;
         SampleModel sm = image.getSampleModel();
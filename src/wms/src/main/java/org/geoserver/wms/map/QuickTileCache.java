@@ -7,34 +7,86 @@ package org.geoserver.wms.map;
 import java.awt.Point;
 import java.awt.geom.Point2D;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import net.opengis.wfs.TransactionResponseType;
+import net.opengis.wfs.TransactionType;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
+import org.geoserver.catalog.ResourceCache;
 import org.geoserver.config.ConfigurationListenerAdapter;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.ServiceInfo;
 import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.TransactionEvent;
-import org.geoserver.wfs.TransactionListener;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wfs.TransactionPlugin;
 import org.geoserver.wfs.WFSException;
 import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.CRS.AxisOrder;
-import org.geotools.util.CanonicalSet;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.type.Name;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import com.vividsolutions.jts.geom.Envelope;
 
-public class QuickTileCache implements TransactionListener, GeoServerLifecycleHandler {
+/**
+ * Cache of the tiles obtained splitting the meta-tiles built by {@link MetatileMapOutputFormat}.
+ * <p>
+ * The cache is bounded by the total size in bytes of the cached tiles, configurable with the
+ * {@value #MAX_SIZE_PROPERTY} system/environment variable/servlet context property (in MB,
+ * defaults to {@value #DEFAULT_MAX_SIZE}), evicting the least recently used meta-tiles first.
+ * Concurrent requests for the same meta-tile are coalesced, only one of them renders it while the
+ * others wait for the result, see {@link #getTiles(MetaTileKey, Callable)}.
+ * </p>
+ * <p>
+ * WFS transactions only invalidate the meta-tiles containing the modified layer and touching
+ * the modified area, while configuration changes still clear the whole cache. The transaction
+ * events are reported before the changes are committed, so the affected areas are invalidated
+ * a second time once the transaction is committed, dropping the meta-tiles rendered in between.
+ * </p>
+ */
+public class QuickTileCache implements TransactionPlugin, GeoServerLifecycleHandler {
+    static final Logger LOGGER = Logging.getLogger(QuickTileCache.class);
+
+    /**
+     * The property used to configure the maximum cache size, in MB
+     */
+    public static final String MAX_SIZE_PROPERTY = "org.geoserver.wms.map.QuickTileCache.maxSize";
+
+    /**
+     * Key of the transaction extended property holding the areas modified by the transaction
+     */
+    static final String MODIFIED_AREAS = "QUICK_TILE_CACHE_MODIFIED_AREAS";
+
+    static final int DEFAULT_MAX_SIZE = 64;
+
     /**
      * Set of parameters that we can ignore, since they do not define a map, are either unrelated,
      * or define the tiling instead
@@ -53,27 +105,35 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         ignoredParameters.add("EXCEPTIONS");
     }
 
+    private ResourceCache<MetaTileKey, CacheElement> tileCache = new ResourceCache<MetaTileKey, CacheElement>(
+            "metaTiles");
+
     /**
-     * Canonicalizer used to return the same object when two threads ask for the same meta-tile
+     * The meta-tiles being rendered, used to have a single rendering for each meta-tile
      */
-    private CanonicalSet<MetaTileKey> metaTileKeys = CanonicalSet.newInstance(MetaTileKey.class);
+    private ConcurrentHashMap<MetaTileKey, FutureTask<RenderedImage[]>> renderings = new ConcurrentHashMap<MetaTileKey, FutureTask<RenderedImage[]>>();
 
-    private WeakHashMap tileCache = new WeakHashMap();
+    /**
+     * Incremented on each invalidation, meta-tiles whose rendering started before an invalidation
+     * are not cached
+     */
+    private AtomicLong invalidations = new AtomicLong();
 
     public QuickTileCache(GeoServer geoServer) {
+        this();
         geoServer.addListener(new ConfigurationListenerAdapter() {
             public void handleGlobalChange(GeoServerInfo global, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
             }
 
             public void handleServiceChange(ServiceInfo service, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                clear();
             }
 
             public void reloaded() {
-                tileCache.clear();
+                clear();
             }
         });
     }
@@ -82,12 +142,51 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * For testing only
      */
     QuickTileCache() {
+        tileCache.setWeigher(new ResourceCache.Weigher<MetaTileKey, CacheElement>() {
+            public int weigh(MetaTileKey key, CacheElement value) {
+                return getSizeInBytes(value.tiles);
+            }
+        });
+        tileCache.setMaxWeight(getMaxSize() * 1024L * 1024L);
+    }
+
+    static long getMaxSize() {
+        String value = GeoServerExtensions.getProperty(MAX_SIZE_PROPERTY);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value " + value + " for " + MAX_SIZE_PROPERTY
+                        + ", using the default meta-tile cache size");
+            }
+        }
+        return DEFAULT_MAX_SIZE;
+    }
+
+    /**
+     * Sets the maximum total size of the cached tiles, in bytes
+     */
+    public void setMaxSize(long bytes) {
+        tileCache.setMaxWeight(bytes);
+    }
+
+    /**
+     * Returns the total size of the cached tiles, in bytes
+     */
+    public long getSize() {
+        return tileCache.getWeight();
+    }
+
+    /**
+     * Returns the hit, miss, eviction and size statistics of the cache
+     */
+    public Map<String, Object> getStatistics() {
+        return tileCache.getStatistics();
     }
 
     /**
      * Given a tiled request, builds a key that can be used to access the cache looking for a
-     * specific meta-tile, and also as a synchronization tool to avoid multiple requests to trigger
-     * parallel computation of the same meta-tile
+     * specific meta-tile
      * 
      * @param request
      * @return
@@ -111,11 +210,28 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         Point metaTileCoords = getMetaTileCoordinates(tileCoords);
         ReferencedEnvelope metaTileEnvelope = getMetaTileEnvelope(bbox, tileCoords, metaTileCoords);
         MetaTileKey key = new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope);
+        key.layers = getLayerNames(request);
+        return key;
+    }
 
-        // since this will be used for thread synchronization, we have to make
-        // sure two thread asking for the same meta tile will get the same key
-        // object
-        return (MetaTileKey) metaTileKeys.unique(key);
+    /**
+     * Returns the names of the feature types drawn by the request, the only layers that can be
+     * modified by a WFS transaction
+     */
+    Set<QName> getLayerNames(GetMapRequest request) {
+        List<MapLayerInfo> layers = request.getLayers();
+        if (layers == null || layers.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<QName> names = new HashSet<QName>();
+        for (MapLayerInfo layer : layers) {
+            if (layer != null && layer.getType() == MapLayerInfo.TYPE_VECTOR
+                    && layer.getFeature() != null) {
+                Name name = layer.getFeature().getQualifiedName();
+                names.add(new QName(name.getNamespaceURI(), name.getLocalPart()));
+            }
+        }
+        return names;
     }
 
     private ReferencedEnvelope getMetaTileEnvelope(ReferencedEnvelope bbox, Point tileCoords, Point metaTileCoords) {
@@ -262,6 +378,11 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
 
         ReferencedEnvelope metaTileEnvelope;
 
+        /**
+         * The feature types drawn in the meta-tile, used for invalidation only
+         */
+        Set<QName> layers = Collections.emptySet();
+
         public MetaTileKey(MapKey mapKey, Point metaTileCoords, ReferencedEnvelope metaTileEnvelope) {
             super();
             this.mapKey = mapKey;
@@ -304,6 +425,20 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
             return 256;
         }
 
+        /**
+         * Returns true if the meta-tile can be affected by a change in the specified area,
+         * already expressed in the meta-tile coordinate reference system and axis order. The
+         * meta-tile envelope is buffered by its own size to account for symbols and labels
+         * crossing its borders.
+         */
+        boolean isAffectedBy(Envelope area) {
+            Envelope buffered = new Envelope(metaTileEnvelope.getMinX(),
+                    metaTileEnvelope.getMaxX(), metaTileEnvelope.getMinY(),
+                    metaTileEnvelope.getMaxY());
+            buffered.expandBy(metaTileEnvelope.getWidth(), metaTileEnvelope.getHeight());
+            return buffered.intersects(area);
+        }
+
         public String toString() {
             return mapKey + "\nmtc:" + metaTileCoords.x + "," + metaTileCoords.y;
         }
@@ -316,8 +451,8 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @param request
      * @return
      */
-    public synchronized RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
-        CacheElement ce = (CacheElement) tileCache.get(key);
+    public RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
+        CacheElement ce = tileCache.get(key);
 
         if (ce == null) {
             return null;
@@ -326,6 +461,74 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         return getTile(key, request, ce.tiles);
     }
 
+    /**
+     * Returns the tiles of the specified meta-tile, from the cache if available, otherwise
+     * calling the renderer and caching the results. If another request is already rendering the
+     * same meta-tile the call waits for it to complete and returns its results instead of
+     * rendering the meta-tile again. Should that rendering fail, the waiting requests will try
+     * again on their own.
+     * 
+     * @param key the meta-tile key
+     * @param renderer builds the meta-tile and splits it into tiles
+     * @return the meta-tile tiles
+     */
+    public RenderedImage[] getTiles(MetaTileKey key, Callable<RenderedImage[]> renderer)
+            throws IOException {
+        while (true) {
+            CacheElement ce = tileCache.get(key);
+            if (ce != null) {
+                return ce.tiles;
+            }
+
+            FutureTask<RenderedImage[]> task = new FutureTask<RenderedImage[]>(renderer);
+            FutureTask<RenderedImage[]> pending = renderings.putIfAbsent(key, task);
+            if (pending == null) {
+                // we are in charge of the rendering, do it in the current thread
+                long generation = invalidations.get();
+                try {
+                    task.run();
+                    RenderedImage[] tiles = task.get();
+                    if (generation == invalidations.get()) {
+                        storeTiles(key, tiles);
+                    }
+                    return tiles;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ServiceException("Interrupted while rendering the meta-tile", e);
+                } catch (ExecutionException e) {
+                    throw unwrap(e);
+                } finally {
+                    renderings.remove(key, task);
+                }
+            }
+
+            try {
+                return pending.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServiceException("Interrupted while waiting for the meta-tile rendering",
+                        e);
+            } catch (ExecutionException e) {
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, "Meta-tile rendering failed in another request, "
+                            + "trying again", e.getCause());
+                }
+            }
+        }
+    }
+
+    IOException unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new ServiceException(cause);
+    }
+
     /**
      * 
      * @param key
@@ -353,10 +556,29 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @param tiles
      * @return
      */
-    public synchronized void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
+    public void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
         tileCache.put(key, new CacheElement(tiles));
     }
 
+    /**
+     * Returns the size in bytes of the pixels of the tiles
+     */
+    static int getSizeInBytes(RenderedImage[] tiles) {
+        long size = 0;
+        for (RenderedImage tile : tiles) {
+            if (tile == null) {
+                continue;
+            }
+            SampleModel sm = tile.getSampleModel();
+            int bits = 0;
+            for (int sampleSize : sm.getSampleSize()) {
+                bits += sampleSize;
+            }
+            size += (long) tile.getWidth() * tile.getHeight() * bits / 8;
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
     class CacheElement {
         RenderedImage[] tiles;
 
@@ -366,26 +588,160 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
     }
 
     public void dataStoreChange(TransactionEvent event) throws WFSException {
-        // if anything changes we just wipe out the cache. the mapkey
-        // contains a string with part of the map request where the layer
-        // name is included, but we would have to parse it and consider
-        // also that the namespace may be missing in the getmap request
-        tileCache.clear();
+        if (TransactionEventType.POST_INSERT.equals(event.getType())) {
+            // the inserted features have already been reported by the PRE_INSERT event,
+            // computing their bounds again would cost another query
+            return;
+        }
+        ReferencedEnvelope bounds = null;
+        if (event.getAffectedFeatures() != null) {
+            try {
+                bounds = event.getAffectedFeatures().getBounds();
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Could not compute the bounds of the features affected by "
+                        + "the transaction, invalidating the whole layer", e);
+            }
+        }
+        invalidate(event.getLayerName(), bounds);
+
+        // remember the area, it has to be invalidated again once committed
+        TransactionType transaction = event.getRequest();
+        if (transaction != null) {
+            Map<QName, List<ReferencedEnvelope>> areas = getModifiedAreas(transaction);
+            List<ReferencedEnvelope> layerAreas = areas.get(event.getLayerName());
+            if (layerAreas == null) {
+                layerAreas = new ArrayList<ReferencedEnvelope>();
+                areas.put(event.getLayerName(), layerAreas);
+            }
+            layerAreas.add(bounds);
+        }
+    }
+
+    public TransactionType beforeTransaction(TransactionType request) throws WFSException {
+        return request;
+    }
+
+    public void beforeCommit(TransactionType request) throws WFSException {
+        // nothing to do
+    }
+
+    /**
+     * Invalidates again the areas modified by the transaction, the meta-tiles rendered between
+     * the transaction events and the commit still show the old data
+     */
+    public void afterTransaction(TransactionType request, TransactionResponseType result,
+            boolean committed) {
+        if (!committed) {
+            return;
+        }
+        Map<QName, List<ReferencedEnvelope>> areas = getModifiedAreas(request);
+        for (Entry<QName, List<ReferencedEnvelope>> entry : areas.entrySet()) {
+            for (ReferencedEnvelope bounds : entry.getValue()) {
+                invalidate(entry.getKey(), bounds);
+            }
+        }
+        areas.clear();
+    }
+
+    public int getPriority() {
+        return 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    Map<QName, List<ReferencedEnvelope>> getModifiedAreas(TransactionType transaction) {
+        Map<Object, Object> properties = transaction.getExtendedProperties();
+        Map<QName, List<ReferencedEnvelope>> areas = (Map<QName, List<ReferencedEnvelope>>) properties
+                .get(MODIFIED_AREAS);
+        if (areas == null) {
+            areas = new HashMap<QName, List<ReferencedEnvelope>>();
+            properties.put(MODIFIED_AREAS, areas);
+        }
+        return areas;
+    }
+
+    /**
+     * Removes from the cache the meta-tiles drawing the specified layer in the specified area
+     * 
+     * @param layer the feature type name, or null to invalidate the whole cache
+     * @param bounds the modified area, or null to invalidate all the meta-tiles of the layer
+     */
+    public void invalidate(QName layer, ReferencedEnvelope bounds) {
+        invalidations.incrementAndGet();
+        if (layer == null) {
+            tileCache.clear();
+            return;
+        }
+        if (bounds != null && bounds.isEmpty()) {
+            return;
+        }
+
+        // the modified area in the meta-tiles crs and axis order, computed once for each crs
+        Map<CoordinateReferenceSystem, Envelope> areas = new HashMap<CoordinateReferenceSystem, Envelope>();
+        for (MetaTileKey key : tileCache.keySet()) {
+            if (!key.layers.contains(layer)) {
+                continue;
+            }
+            if (bounds != null) {
+                CoordinateReferenceSystem crs = key.metaTileEnvelope.getCoordinateReferenceSystem();
+                Envelope area = areas.get(crs);
+                if (area == null && !areas.containsKey(crs)) {
+                    area = toMetaTileSpace(bounds, crs);
+                    areas.put(crs, area);
+                }
+                // a null area means we could not reproject, invalidate to be on the safe side
+                if (area != null && !key.isAffectedBy(area)) {
+                    continue;
+                }
+            }
+            tileCache.remove(key);
+        }
+    }
+
+    /**
+     * Reprojects the bounds in the meta-tile crs, flipping the axis the same way as
+     * {@link #getMetaTileKey(GetMapRequest)} does, returns null if the bounds cannot be
+     * reprojected
+     */
+    Envelope toMetaTileSpace(ReferencedEnvelope bounds, CoordinateReferenceSystem crs) {
+        Envelope result = bounds;
+        try {
+            if (crs != null && bounds.getCoordinateReferenceSystem() != null
+                    && !CRS.equalsIgnoreMetadata(crs, bounds.getCoordinateReferenceSystem())) {
+                result = bounds.transform(crs, true);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not reproject the modified area, invalidating "
+                    + "all the meta-tiles of the layer", e);
+            return null;
+        }
+        if (crs != null && CRS.getAxisOrder(crs) == AxisOrder.NORTH_EAST) {
+            result = new Envelope(result.getMinY(), result.getMaxY(), result.getMinX(),
+                    result.getMaxX());
+        }
+        return result;
     }
 
     @Override
     public void onReset() {
         // data might have changed in the meantime
-        tileCache.clear();        
+        clear();
     }
 
     @Override
     public void onDispose() {
-        tileCache.clear();
+        clear();
     }
 
     @Override
     public void onReload() {
+        clear();
+    }
+
+    /**
+     * Removes all the meta-tiles from the cache
+     */
+    public void clear() {
+        invalidations.incrementAndGet();
         tileCache.clear();
     }
 }
@@ -25,6 +25,10 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,6 +48,8 @@ import javax.media.jai.operator.FormatDescriptor;
 import javax.media.jai.operator.LookupDescriptor;
 import javax.media.jai.operator.MosaicDescriptor;
 
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.GetMapOutputFormat;
@@ -63,10 +69,13 @@ import org.geotools.coverage.grid.GridEnvelope2D;
 import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
 import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.filter.function.EnvFunction;
 import org.geotools.gce.imagemosaic.ImageMosaicFormat;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.image.ImageWorker;
 import org.geotools.map.Layer;
+import org.geotools.map.MapContent;
+import org.geotools.map.MapViewport;
 import org.geotools.map.StyleLayer;
 import org.geotools.parameter.Parameter;
 import org.geotools.referencing.CRS;
@@ -86,6 +95,8 @@ import org.opengis.parameter.GeneralParameterValue;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.datum.PixelInCell;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
 import org.vfny.geoserver.global.GeoserverDataDirectory;
 
 
@@ -311,6 +322,17 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
                     + "maximum memory allowed is " + kbMax + "KB");
         }
 
+        // parallel layer rendering uses an extra transparent image per layer, fall back on
+        // sequential rendering if those do not fit in the memory limits. Paletted images are
+        // rendered sequentially as well, compositing the layers on them would cause dithering
+        final ExecutorService layerPool = DefaultWebMapService.getLayerRenderingPool();
+        boolean parallel = false;
+        if (layerPool != null && palette == null && mapContent.layers().size() > 1) {
+            long layersMemory = (long) paintArea.width * paintArea.height * 4
+                    * mapContent.layers().size();
+            parallel = maxMemory <= 0 || memory + layersMemory <= maxMemory;
+        }
+
         // TODO: allow rendering to continue with vector layers
         // TODO: allow rendering to continue with layout
         // TODO: handle rotated rasters
@@ -394,10 +416,6 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         graphic.setRenderingHints(hintsMap);
 
         RenderingHints hints = new RenderingHints(hintsMap);
-        StreamingRenderer renderer = new StreamingRenderer();
-        renderer .setThreadPool(DefaultWebMapService.getRenderingPool());
-        renderer.setMapContent(mapContent);
-        renderer.setJava2DHints(hints);
 
         // setup the renderer hints
         Map<Object, Object> rendererParams = new HashMap<Object, Object>();
@@ -453,6 +471,17 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
                 }
             }
         }
+
+        if (parallel) {
+            paintLayersInParallel(mapContent, graphic, paintArea, hints, rendererParams, layout,
+                    layerPool);
+            return buildMap(mapContent, preparedImage);
+        }
+
+        StreamingRenderer renderer = new StreamingRenderer();
+        renderer .setThreadPool(DefaultWebMapService.getRenderingPool());
+        renderer.setMapContent(mapContent);
+        renderer.setJava2DHints(hints);
         renderer.setRendererHints(rendererParams);
 
         // if abort already requested bail out
@@ -525,6 +554,162 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         return map;
     }
 
+    /**
+     * Renders each layer on its own transparent image using the layer rendering pool, and then
+     * composites the images in layer order on the map graphics, followed by the decoration layout.
+     * The rendering timeout and the max rendering errors are enforced on all the layers together.
+     * <p>
+     * Labels are placed independently in each layer, so in this mode the labels of different
+     * layers are not checked against each other for conflicts, and each layer labels are painted
+     * below the layers that follow it.
+     * </p>
+     */
+    private void paintLayersInParallel(final WMSMapContent mapContent, final Graphics2D graphic,
+            final Rectangle paintArea, final RenderingHints hints,
+            final Map<Object, Object> rendererParams, final MapDecorationLayout layout,
+            final ExecutorService layerPool) throws ServiceException {
+        final List<Layer> layers = mapContent.layers();
+        final List<StreamingRenderer> renderers = new ArrayList<StreamingRenderer>();
+        final List<RenderExceptionStrategy> exceptionListeners = new ArrayList<RenderExceptionStrategy>();
+        final List<BufferedImage> images = new ArrayList<BufferedImage>();
+        final List<Graphics2D> graphics = new ArrayList<Graphics2D>();
+        for (int i = 0; i < layers.size(); i++) {
+            BufferedImage image = new BufferedImage(paintArea.width, paintArea.height,
+                    BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D layerGraphic = image.createGraphics();
+            layerGraphic.setRenderingHints(hints);
+            images.add(image);
+            graphics.add(layerGraphic);
+
+            StreamingRenderer renderer = new StreamingRenderer();
+            renderer.setThreadPool(DefaultWebMapService.getRenderingPool());
+            renderer.setJava2DHints(hints);
+            renderer.setRendererHints(new HashMap<Object, Object>(rendererParams));
+            RenderExceptionStrategy exceptionListener = new RenderExceptionStrategy(renderer);
+            renderer.addRenderListener(exceptionListener);
+            renderers.add(renderer);
+            exceptionListeners.add(exceptionListener);
+        }
+
+        // errors and timeout apply to the whole map, not to the single layers
+        int maxErrors = wms.getMaxRenderingErrors();
+        final MaxErrorEnforcer errorChecker = new MaxErrorEnforcer(renderers, maxErrors);
+        int maxRenderingTime = wms.getMaxRenderingTime() * 1000;
+        final RenderingTimeoutEnforcer timeout = new RenderingTimeoutEnforcer(maxRenderingTime,
+                renderers, graphics);
+
+        // the rendering threads need the same request context as the calling one
+        final Request owsRequest = Dispatcher.REQUEST.get();
+        final Map<String, Object> envValues = EnvFunction.getLocalValues();
+        final SecurityContext securityContext = SecurityContextHolder.getContext();
+
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        Throwable failure = null;
+        timeout.start();
+        try {
+            for (int i = 0; i < layers.size(); i++) {
+                final Layer layer = layers.get(i);
+                final StreamingRenderer renderer = renderers.get(i);
+                final Graphics2D layerGraphic = graphics.get(i);
+                futures.add(layerPool.submit(new Callable<Void>() {
+
+                    public Void call() throws Exception {
+                        // the layer might have been queued past the timeout or the max errors
+                        if (timeout.isTimedOut() || errorChecker.exceedsMaxErrors()) {
+                            return null;
+                        }
+
+                        Dispatcher.REQUEST.set(owsRequest);
+                        EnvFunction.setLocalValues(envValues);
+                        SecurityContextHolder.setContext(securityContext);
+                        // a map content with the same viewport, but just this layer
+                        MapContent layerContent = new MapContent();
+                        layerContent.setViewport(new MapViewport(mapContent.getRenderingArea()));
+                        layerContent.addLayer(layer);
+                        try {
+                            renderer.setMapContent(layerContent);
+                            renderer.paint(layerGraphic, paintArea,
+                                    mapContent.getRenderingArea(),
+                                    mapContent.getRenderingTransform());
+                        } finally {
+                            // remove the layer before disposing, it's still owned by the map
+                            layerContent.removeLayer(layer);
+                            layerContent.dispose();
+                            Dispatcher.REQUEST.remove();
+                            EnvFunction.clearLocalValues();
+                            SecurityContextHolder.clearContext();
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                        // no point in rendering the other layers
+                        for (StreamingRenderer renderer : renderers) {
+                            renderer.stopRendering();
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<Void> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new ServiceException("Interrupted while waiting for the layers to render", e);
+        } finally {
+            timeout.stop();
+            for (Graphics2D layerGraphic : graphics) {
+                layerGraphic.dispose();
+            }
+        }
+
+        try {
+            // same checks as the sequential rendering
+            if (timeout.isTimedOut()) {
+                throw new ServiceException(
+                        "This requested used more time than allowed and has been forcefully stopped. "
+                                + "Max rendering time is " + (maxRenderingTime / 1000.0) + "s");
+            }
+            if (failure != null) {
+                throw new ServiceException("Rendering process failed", failure, "internalError");
+            }
+            for (RenderExceptionStrategy exceptionListener : exceptionListeners) {
+                if (exceptionListener.exceptionOccurred()) {
+                    throw new ServiceException("Rendering process failed",
+                            exceptionListener.getException(), "internalError");
+                }
+            }
+            if (errorChecker.exceedsMaxErrors()) {
+                throw new ServiceException("More than " + maxErrors
+                        + " rendering errors occurred, bailing out.",
+                        errorChecker.getLastException(), "internalError");
+            }
+
+            // composite the layers in order
+            for (BufferedImage image : images) {
+                graphic.drawImage(image, 0, 0, null);
+            }
+
+            // apply watermarking
+            if (layout != null) {
+                try {
+                    layout.paint(graphic, paintArea, mapContent);
+                } catch (Exception e) {
+                    throw new ServiceException("Problem occurred while trying to watermark data", e);
+                }
+            }
+        } finally {
+            graphic.dispose();
+        }
+    }
+
     protected RenderedImageMap buildMap(final WMSMapContent mapContent, RenderedImage image) {
         RenderedImageMap map = new RenderedImageMap(mapContent, image, getMimeType());
         if(extension != null) {
@@ -21,11 +21,10 @@ import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
 import org.geoserver.wms.kvp.PaletteManager;
 import org.geoserver.wms.map.PNGMapResponse.QuantizeMethod;
-import org.geoserver.wms.map.quantize.CachingColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexer;
 import org.geoserver.wms.map.quantize.ColorIndexerDescriptor;
-import org.geoserver.wms.map.quantize.LRUColorIndexer;
 import org.geoserver.wms.map.quantize.Quantizer;
+import org.geoserver.wms.map.quantize.ThreadLocalColorIndexer;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.image.ImageWorker;
 import org.geotools.image.palette.InverseColorMapOp;
@@ -174,7 +173,7 @@ public abstract class RenderedImageMapResponse extends AbstractMapResponse {
                 
                 // user provided palette?
                 if (mapContent.getPalette() != null) {
-                    indexer = new CachingColorIndexer(new LRUColorIndexer(icm, 1024));
+                    indexer = new ThreadLocalColorIndexer(icm);
                 } else if (palettedFormatName.equalsIgnoreCase(format)) {
                     // build the palette and grab the optimized color indexer
                     indexer = new Quantizer(256).subsample().buildColorIndexer(image);
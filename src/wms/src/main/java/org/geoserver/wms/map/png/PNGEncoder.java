@@ -0,0 +1,581 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A PNG encoder writing the scanlines straight out of the image rasters, without going through
+ * the ImageIO writers. Only handles the image layouts produced by the GetMap rendering:
+ * <ul>
+ * <li>8 bit paletted images, backed by a single band byte raster and an {@link IndexColorModel}
+ * </li>
+ * <li>gray, gray/alpha, RGB and RGBA images backed by pixel interleaved byte rasters, e.g.
+ * {@link java.awt.image.BufferedImage#TYPE_4BYTE_ABGR}</li>
+ * <li>RGB and ARGB images backed by packed int rasters, e.g.
+ * {@link java.awt.image.BufferedImage#TYPE_INT_ARGB}</li>
+ * </ul>
+ * Use {@link #isSupported(RenderedImage)} to check if an image can be encoded. Instances are not
+ * thread safe.
+ */
+public class PNGEncoder {
+
+    /**
+     * The PNG scanline filters. {@link #ADAPTIVE} picks, for each scanline, the filter with the
+     * lowest sum of absolute differences, a good choice for true color images, while paletted
+     * images usually compress best without filtering.
+     */
+    public enum FilterType {
+        NONE(0), SUB(1), UP(2), AVERAGE(3), PAETH(4), ADAPTIVE(-1);
+
+        final int code;
+
+        FilterType(int code) {
+            this.code = code;
+        }
+    }
+
+    static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+    static final int COLOR_GRAY = 0;
+
+    static final int COLOR_RGB = 2;
+
+    static final int COLOR_PALETTE = 3;
+
+    static final int COLOR_GRAY_ALPHA = 4;
+
+    static final int COLOR_RGBA = 6;
+
+    /**
+     * Size of the IDAT chunks
+     */
+    static final int CHUNK_SIZE = 32 * 1024;
+
+    int compressionLevel;
+
+    FilterType filter;
+
+    /**
+     * Builds a new encoder
+     *
+     * @param compressionLevel the deflate compression level, between 0 (no compression) and 9
+     *        (best compression)
+     * @param filter the scanline filter, or null to use no filter for paletted and gray images and
+     *        adaptive filtering otherwise
+     */
+    public PNGEncoder(int compressionLevel, FilterType filter) {
+        if (compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException("Invalid compression level " + compressionLevel
+                    + ", it should be between 0 and 9");
+        }
+        this.compressionLevel = compressionLevel;
+        this.filter = filter;
+    }
+
+    /**
+     * Returns true if the image layout is one this encoder can handle
+     */
+    public static boolean isSupported(RenderedImage image) {
+        return getLayout(image) != null;
+    }
+
+    /**
+     * Encodes the image as a PNG
+     *
+     * @throws IllegalArgumentException if the image layout is not supported
+     */
+    public void encode(RenderedImage image, OutputStream out) throws IOException {
+        Layout layout = getLayout(image);
+        if (layout == null) {
+            throw new IllegalArgumentException("Unsupported image layout, sample model "
+                    + image.getSampleModel() + ", color model " + image.getColorModel());
+        }
+
+        out.write(SIGNATURE);
+        ChunkWriter chunks = new ChunkWriter(out);
+        writeHeader(chunks, image, layout);
+        if (layout.colorType == COLOR_PALETTE) {
+            writePalette(chunks, (IndexColorModel) image.getColorModel());
+        }
+        writeData(chunks, image, layout);
+        chunks.start("IEND");
+        chunks.end();
+        out.flush();
+    }
+
+    void writeHeader(ChunkWriter chunks, RenderedImage image, Layout layout) throws IOException {
+        chunks.start("IHDR");
+        chunks.writeInt(image.getWidth());
+        chunks.writeInt(image.getHeight());
+        chunks.write(8); // bit depth
+        chunks.write(layout.colorType);
+        chunks.write(0); // deflate compression
+        chunks.write(0); // adaptive filtering
+        chunks.write(0); // no interlace
+        chunks.end();
+    }
+
+    void writePalette(ChunkWriter chunks, IndexColorModel icm) throws IOException {
+        int size = icm.getMapSize();
+        byte[] r = new byte[size];
+        byte[] g = new byte[size];
+        byte[] b = new byte[size];
+        byte[] a = new byte[size];
+        icm.getReds(r);
+        icm.getGreens(g);
+        icm.getBlues(b);
+        icm.getAlphas(a);
+
+        chunks.start("PLTE");
+        for (int i = 0; i < size; i++) {
+            chunks.write(r[i]);
+            chunks.write(g[i]);
+            chunks.write(b[i]);
+        }
+        chunks.end();
+
+        // the transparency chunk can stop at the last non opaque entry
+        int transparent = 0;
+        if (icm.getTransparency() != Transparency.OPAQUE) {
+            for (int i = 0; i < size; i++) {
+                if (a[i] != (byte) 255) {
+                    transparent = i + 1;
+                }
+            }
+        }
+        if (transparent > 0) {
+            chunks.start("tRNS");
+            chunks.write(a, 0, transparent);
+            chunks.end();
+        }
+    }
+
+    void writeData(ChunkWriter chunks, RenderedImage image, Layout layout) throws IOException {
+        final int width = image.getWidth();
+        final int bpp = layout.bytesPerPixel;
+        final int rowBytes = width * bpp;
+        FilterType rowFilter = filter;
+        if (rowFilter == null) {
+            rowFilter = bpp == 1 ? FilterType.NONE : FilterType.ADAPTIVE;
+        }
+
+        Deflater deflater = new Deflater(compressionLevel);
+        deflater.setStrategy(rowFilter == FilterType.NONE ? Deflater.DEFAULT_STRATEGY
+                : Deflater.FILTERED);
+        try {
+            DeflaterOutputStream dos = new DeflaterOutputStream(new IDATOutputStream(chunks),
+                    deflater, CHUNK_SIZE);
+            RowFilter filters = new RowFilter(rowBytes, bpp);
+            byte[] current = new byte[rowBytes];
+            byte[] previous = new byte[rowBytes];
+
+            final int minX = image.getMinX();
+            final int minY = image.getMinY();
+            final int maxY = minY + image.getHeight();
+            final int tileHeight = image.getTileHeight();
+            final int tileGridY = image.getTileGridYOffset();
+            int y = minY;
+            while (y < maxY) {
+                // grab a strip of rows, straight from the tile if it covers the whole width
+                int tileY = (int) Math.floor((y - tileGridY) / (double) tileHeight);
+                int stripMaxY = Math.min(maxY, tileGridY + (tileY + 1) * tileHeight);
+                Raster strip;
+                if (image.getNumXTiles() == 1) {
+                    strip = image.getTile(image.getMinTileX(), tileY);
+                } else {
+                    strip = image.getData(new Rectangle(minX, y, width, stripMaxY - y));
+                }
+
+                for (; y < stripMaxY; y++) {
+                    layout.copyRow(strip, minX, y, width, current);
+                    byte[] filtered = filters.filter(rowFilter, current, previous);
+                    dos.write(filtered, 0, rowBytes + 1);
+                    byte[] tmp = previous;
+                    previous = current;
+                    current = tmp;
+                }
+            }
+            dos.finish();
+            dos.flush();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Returns the layout of the image, or null if not supported
+     */
+    static Layout getLayout(RenderedImage image) {
+        SampleModel sm = image.getSampleModel();
+        ColorModel cm = image.getColorModel();
+        if (cm == null || cm.isAlphaPremultiplied()) {
+            return null;
+        }
+
+        if (sm instanceof ComponentSampleModel && sm.getDataType() == DataBuffer.TYPE_BYTE) {
+            ComponentSampleModel csm = (ComponentSampleModel) sm;
+            int bands = csm.getNumBands();
+            for (int bank : csm.getBankIndices()) {
+                if (bank != 0) {
+                    return null;
+                }
+            }
+            for (int size : csm.getSampleSize()) {
+                if (size != 8) {
+                    return null;
+                }
+            }
+            if (cm instanceof IndexColorModel) {
+                return bands == 1 ? new ByteLayout(COLOR_PALETTE, 1) : null;
+            } else if (cm instanceof ComponentColorModel) {
+                int type = cm.getColorSpace().getType();
+                boolean gray = type == ColorSpace.TYPE_GRAY;
+                boolean rgb = type == ColorSpace.TYPE_RGB;
+                if (gray && bands == 1 && !cm.hasAlpha()) {
+                    return new ByteLayout(COLOR_GRAY, 1);
+                } else if (gray && bands == 2 && cm.hasAlpha()) {
+                    return new ByteLayout(COLOR_GRAY_ALPHA, 2);
+                } else if (rgb && bands == 3 && !cm.hasAlpha()) {
+                    return new ByteLayout(COLOR_RGB, 3);
+                } else if (rgb && bands == 4 && cm.hasAlpha()) {
+                    return new ByteLayout(COLOR_RGBA, 4);
+                }
+            }
+        } else if (sm instanceof SinglePixelPackedSampleModel
+                && sm.getDataType() == DataBuffer.TYPE_INT && cm instanceof DirectColorModel) {
+            DirectColorModel dcm = (DirectColorModel) cm;
+            if (dcm.getRedMask() == 0xff0000 && dcm.getGreenMask() == 0xff00
+                    && dcm.getBlueMask() == 0xff) {
+                if (!dcm.hasAlpha()) {
+                    return new IntLayout(COLOR_RGB, 3);
+                } else if (dcm.getAlphaMask() == 0xff000000) {
+                    return new IntLayout(COLOR_RGBA, 4);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Knows how to copy a row of pixels from a raster in the PNG byte order
+     */
+    abstract static class Layout {
+        int colorType;
+
+        int bytesPerPixel;
+
+        Layout(int colorType, int bytesPerPixel) {
+            this.colorType = colorType;
+            this.bytesPerPixel = bytesPerPixel;
+        }
+
+        abstract void copyRow(Raster raster, int x, int y, int width, byte[] row);
+    }
+
+    static class ByteLayout extends Layout {
+
+        ByteLayout(int colorType, int bytesPerPixel) {
+            super(colorType, bytesPerPixel);
+        }
+
+        @Override
+        void copyRow(Raster raster, int x, int y, int width, byte[] row) {
+            ComponentSampleModel csm = (ComponentSampleModel) raster.getSampleModel();
+            DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+            byte[] data = buffer.getData(0);
+            int pixelStride = csm.getPixelStride();
+            int[] bandOffsets = csm.getBandOffsets();
+            int base = buffer.getOffset()
+                    + (y - raster.getSampleModelTranslateY()) * csm.getScanlineStride()
+                    + (x - raster.getSampleModelTranslateX()) * pixelStride;
+            int bands = bytesPerPixel;
+            if (bands == 1 && pixelStride == 1) {
+                System.arraycopy(data, base + bandOffsets[0], row, 0, width);
+            } else if (bands == 4) {
+                int o0 = base + bandOffsets[0], o1 = base + bandOffsets[1];
+                int o2 = base + bandOffsets[2], o3 = base + bandOffsets[3];
+                for (int i = 0, j = 0; i < width; i++, j += pixelStride) {
+                    int k = i * 4;
+                    row[k] = data[o0 + j];
+                    row[k + 1] = data[o1 + j];
+                    row[k + 2] = data[o2 + j];
+                    row[k + 3] = data[o3 + j];
+                }
+            } else {
+                for (int i = 0, j = base; i < width; i++, j += pixelStride) {
+                    int k = i * bands;
+                    for (int b = 0; b < bands; b++) {
+                        row[k + b] = data[j + bandOffsets[b]];
+                    }
+                }
+            }
+        }
+    }
+
+    static class IntLayout extends Layout {
+
+        IntLayout(int colorType, int bytesPerPixel) {
+            super(colorType, bytesPerPixel);
+        }
+
+        @Override
+        void copyRow(Raster raster, int x, int y, int width, byte[] row) {
+            SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster
+                    .getSampleModel();
+            DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+            int[] data = buffer.getData(0);
+            int base = buffer.getOffset()
+                    + (y - raster.getSampleModelTranslateY()) * sm.getScanlineStride()
+                    + (x - raster.getSampleModelTranslateX());
+            if (bytesPerPixel == 4) {
+                for (int i = 0, k = 0; i < width; i++, k += 4) {
+                    int argb = data[base + i];
+                    row[k] = (byte) (argb >>> 16);
+                    row[k + 1] = (byte) (argb >>> 8);
+                    row[k + 2] = (byte) argb;
+                    row[k + 3] = (byte) (argb >>> 24);
+                }
+            } else {
+                for (int i = 0, k = 0; i < width; i++, k += 3) {
+                    int rgb = data[base + i];
+                    row[k] = (byte) (rgb >>> 16);
+                    row[k + 1] = (byte) (rgb >>> 8);
+                    row[k + 2] = (byte) rgb;
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the PNG scanline filters, reusing the same buffers for all rows
+     */
+    static class RowFilter {
+        int rowBytes;
+
+        int bpp;
+
+        byte[][] candidates = new byte[5][];
+
+        RowFilter(int rowBytes, int bpp) {
+            this.rowBytes = rowBytes;
+            this.bpp = bpp;
+        }
+
+        /**
+         * Returns a buffer containing the filter type followed by the filtered row
+         */
+        byte[] filter(FilterType type, byte[] row, byte[] previous) {
+            if (type != FilterType.ADAPTIVE) {
+                return apply(type.code, row, previous);
+            }
+
+            byte[] best = null;
+            long bestSum = Long.MAX_VALUE;
+            for (int code = 0; code < 5; code++) {
+                byte[] filtered = apply(code, row, previous);
+                long sum = 0;
+                for (int i = 1; i <= rowBytes && sum < bestSum; i++) {
+                    // sum of the absolute values of the bytes seen as signed
+                    sum += Math.abs((int) filtered[i]);
+                }
+                if (sum < bestSum) {
+                    bestSum = sum;
+                    best = filtered;
+                }
+            }
+            return best;
+        }
+
+        byte[] apply(int code, byte[] row, byte[] previous) {
+            byte[] out = candidates[code];
+            if (out == null) {
+                out = new byte[rowBytes + 1];
+                candidates[code] = out;
+            }
+            out[0] = (byte) code;
+            switch (code) {
+            case 0:
+                System.arraycopy(row, 0, out, 1, rowBytes);
+                break;
+            case 1:
+                for (int i = 0; i < rowBytes; i++) {
+                    int left = i >= bpp ? row[i - bpp] & 0xff : 0;
+                    out[i + 1] = (byte) ((row[i] & 0xff) - left);
+                }
+                break;
+            case 2:
+                for (int i = 0; i < rowBytes; i++) {
+                    out[i + 1] = (byte) ((row[i] & 0xff) - (previous[i] & 0xff));
+                }
+                break;
+            case 3:
+                for (int i = 0; i < rowBytes; i++) {
+                    int left = i >= bpp ? row[i - bpp] & 0xff : 0;
+                    out[i + 1] = (byte) ((row[i] & 0xff) - ((left + (previous[i] & 0xff)) >> 1));
+                }
+                break;
+            default:
+                for (int i = 0; i < rowBytes; i++) {
+                    int a = i >= bpp ? row[i - bpp] & 0xff : 0;
+                    int b = previous[i] & 0xff;
+                    int c = i >= bpp ? previous[i - bpp] & 0xff : 0;
+                    out[i + 1] = (byte) ((row[i] & 0xff) - paeth(a, b, c));
+                }
+            }
+            return out;
+        }
+
+        static int paeth(int a, int b, int c) {
+            int p = a + b - c;
+            int pa = Math.abs(p - a);
+            int pb = Math.abs(p - b);
+            int pc = Math.abs(p - c);
+            if (pa <= pb && pa <= pc) {
+                return a;
+            } else if (pb <= pc) {
+                return b;
+            }
+            return c;
+        }
+    }
+
+    /**
+     * Writes PNG chunks, computing their length and CRC
+     */
+    static class ChunkWriter {
+        OutputStream out;
+
+        byte[] buffer = new byte[CHUNK_SIZE + 4];
+
+        int count;
+
+        CRC32 crc = new CRC32();
+
+        ChunkWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        void start(String type) {
+            count = 0;
+            for (int i = 0; i < 4; i++) {
+                buffer[count++] = (byte) type.charAt(i);
+            }
+        }
+
+        void write(int b) throws IOException {
+            ensureCapacity(1);
+            buffer[count++] = (byte) b;
+        }
+
+        void write(byte[] b, int off, int len) throws IOException {
+            ensureCapacity(len);
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        }
+
+        void writeInt(int v) throws IOException {
+            write(v >>> 24);
+            write(v >>> 16);
+            write(v >>> 8);
+            write(v);
+        }
+
+        /**
+         * Returns the space left for data before the chunk buffer needs to grow
+         */
+        int available() {
+            return buffer.length - count;
+        }
+
+        void ensureCapacity(int len) {
+            if (count + len > buffer.length) {
+                byte[] grown = new byte[Math.max(buffer.length * 2, count + len)];
+                System.arraycopy(buffer, 0, grown, 0, count);
+                buffer = grown;
+            }
+        }
+
+        void end() throws IOException {
+            int length = count - 4;
+            out.write(length >>> 24);
+            out.write(length >>> 16);
+            out.write(length >>> 8);
+            out.write(length);
+            out.write(buffer, 0, count);
+            crc.reset();
+            crc.update(buffer, 0, count);
+            int value = (int) crc.getValue();
+            out.write(value >>> 24);
+            out.write(value >>> 16);
+            out.write(value >>> 8);
+            out.write(value);
+            count = 0;
+        }
+    }
+
+    /**
+     * Splits the compressed stream in IDAT chunks
+     */
+    static class IDATOutputStream extends OutputStream {
+        ChunkWriter chunks;
+
+        boolean open;
+
+        IDATOutputStream(ChunkWriter chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (!open) {
+                    chunks.start("IDAT");
+                    open = true;
+                }
+                int n = Math.min(len, chunks.available());
+                chunks.write(b, off, n);
+                off += n;
+                len -= n;
+                if (chunks.available() == 0) {
+                    chunks.end();
+                    open = false;
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (open) {
+                chunks.end();
+                open = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.quantize;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash table mapping packed RGBA colors to palette indexes, backed by two
+ * primitive arrays, so that lookups and insertions do not allocate any object.
+ * <p>
+ * The table is not thread safe, but can be shared among threads once it's not modified anymore.
+ * </p>
+ */
+final class ColorIndexTable {
+
+    static final float LOAD_FACTOR = 0.5f;
+
+    static final short EMPTY = -1;
+
+    int[] colors;
+
+    short[] indexes;
+
+    int mask;
+
+    int size;
+
+    int threshold;
+
+    ColorIndexTable(int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Builds a table with the same contents as the color map
+     */
+    ColorIndexTable(ColorMap colorMap) {
+        this(colorMap.size());
+        for (ColorMap.ColorEntry ce : colorMap) {
+            put(ce.color, ce.value);
+        }
+    }
+
+    private void allocate(int capacity) {
+        colors = new int[capacity];
+        indexes = new short[capacity];
+        Arrays.fill(indexes, EMPTY);
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Returns the index associated to the color, or -1 if the color is not in the table
+     */
+    int get(int color) {
+        int i = hash(color) & mask;
+        while (true) {
+            short index = indexes[i];
+            if (index == EMPTY) {
+                return -1;
+            } else if (colors[i] == color) {
+                return index;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Associates the index to the specified color
+     *
+     * @param color a packed RGBA color
+     * @param index a palette index, between 0 and {@link Short#MAX_VALUE}
+     */
+    void put(int color, int index) {
+        if (index < 0 || index > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid palette index " + index);
+        }
+        int i = hash(color) & mask;
+        while (indexes[i] != EMPTY) {
+            if (colors[i] == color) {
+                indexes[i] = (short) index;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        colors[i] = color;
+        indexes[i] = (short) index;
+        if (++size > threshold) {
+            rehash();
+        }
+    }
+
+    private void rehash() {
+        int[] oldColors = colors;
+        short[] oldIndexes = indexes;
+        allocate(colors.length * 2);
+        size = 0;
+        for (int i = 0; i < oldColors.length; i++) {
+            if (oldIndexes[i] != EMPTY) {
+                put(oldColors[i], oldIndexes[i]);
+            }
+        }
+    }
+
+    /**
+     * Removes all the entries, keeping the current capacity
+     */
+    void clear() {
+        Arrays.fill(indexes, EMPTY);
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Spreads the color bits, packed colors often differ only in a few low bits of a component
+     */
+    static int hash(int color) {
+        int h = color * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
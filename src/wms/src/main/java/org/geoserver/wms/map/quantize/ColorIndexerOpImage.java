@@ -101,31 +101,33 @@ public class ColorIndexerOpImage extends PointOpImage {
                 + h);
         final int dstMinX = Math.max(src.getMinX(), sourceImage.getMinX());
         final int dstMinY = Math.max(src.getMinY(), sourceImage.getMinY());
-        int srcBands = src.getNumBands();
-        final int[] pixel = new int[srcBands];
-        final byte[] bytes = new byte[srcBands];
+        final int srcBands = src.getNumBands();
+        // the thread specific indexer, if available, avoids any lookup synchronization
+        final ColorIndexer indexer = palette instanceof ThreadLocalColorIndexer ? ((ThreadLocalColorIndexer) palette)
+                .getLocalIndexer() : palette;
+        final int width = srcMaxX - srcMinX;
+        if (width <= 0) {
+            return dest;
+        }
+        final int[] row = new int[width * srcBands];
+        final int[] indexes = new int[width];
         for (int y = srcMinY, y_ = dstMinY; y < srcMaxY; y++, y_++) {
-            for (int x = srcMinX, x_ = dstMinX; x < srcMaxX; x++, x_++) {
-                src.getPixel(x, y, pixel);
-                for (int i = 0; i < srcBands; i++) {
-                    bytes[i] = (byte) (pixel[i] & 0xFF);
-                }
-
+            src.getPixels(srcMinX, y, width, 1, row);
+            for (int i = 0, p = 0; i < width; i++, p += srcBands) {
                 int r, g, b, a;
-
-                if(srcBands == 1 || srcBands == 2) {
-                    r = g = b = pixel[0] & 0xFF;
-                    a = srcBands == 2 ? pixel[1] & 0xFF : 255;
-                } else  {
-                    r = pixel[0] & 0xFF;
-                    g = pixel[1] & 0xFF;
-                    b = pixel[2] & 0xFF;
-                    a = srcBands == 4 ? pixel[3] & 0xFF : 255;
+                if (srcBands == 1 || srcBands == 2) {
+                    r = g = b = row[p] & 0xFF;
+                    a = srcBands == 2 ? row[p + 1] & 0xFF : 255;
+                } else {
+                    r = row[p] & 0xFF;
+                    g = row[p + 1] & 0xFF;
+                    b = row[p + 2] & 0xFF;
+                    a = srcBands == 4 ? row[p + 3] & 0xFF : 255;
                 }
 
-                int idx = palette.getClosestIndex(r, g, b, a);
-                dest.setSample(x_, y_, 0, (byte) (idx & 0xff));
+                indexes[i] = indexer.getClosestIndex(r, g, b, a) & 0xFF;
             }
+            dest.setSamples(dstMinX, y_, width, 1, 0, indexes);
         }
 
         return dest;
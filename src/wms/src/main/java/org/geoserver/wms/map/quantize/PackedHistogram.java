@@ -8,8 +8,16 @@ import static org.geoserver.wms.map.quantize.ColorUtils.*;
 
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.geoserver.wms.map.quantize.ColorMap.ColorEntry;
 
@@ -103,6 +111,20 @@ class PackedHistogram {
         }
     };
 
+    /**
+     * Minimum number of sampled pixels before the histogram gets built in parallel
+     */
+    static final int PARALLEL_THRESHOLD = 512 * 512;
+
+    /**
+     * Minimum number of rows per band when building the histogram in parallel
+     */
+    static final int MIN_BAND_ROWS = 64;
+
+    static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+
+    static ExecutorService executor;
+
     private int shift = 0;
 
     private HistogramBin[] histogram;
@@ -110,19 +132,17 @@ class PackedHistogram {
     ColorMap colorMap;
 
     PackedHistogram(RenderedImage image, int stepX, int stepY) {
-        // build a reduced map of the colors
-        colorMap = new ColorMap();
-
-        final int minX = image.getMinTileX();
-        final int maxX = minX + image.getNumXTiles();
-        final int minY = image.getMinTileY();
-        final int maxY = minY + image.getNumYTiles();
-        this.shift = 0;
-        for (int x = minX; x < maxX; x++) {
-            for (int y = minY; y < maxY; y++) {
-                Raster tile = image.getTile(x, y);
-                shift = updateColorMap(image, tile, colorMap, shift, stepX, stepY);
-            }
+        final long sampled = ((long) image.getWidth() / stepX) * (image.getHeight() / stepY);
+        final int bands = Math.min(PROCESSORS, image.getHeight() / MIN_BAND_ROWS);
+        if (sampled >= PARALLEL_THRESHOLD && bands > 1) {
+            buildParallel(image, stepX, stepY, bands);
+        } else {
+            // build a reduced map of the colors
+            Band band = new Band(image, image.getMinY(), image.getMinY() + image.getHeight(),
+                    stepX, stepY);
+            band.run();
+            colorMap = band.colorMap;
+            shift = band.shift;
         }
 
         // turn it into an array for indexed access and reduced memory consumption
@@ -135,56 +155,187 @@ class PackedHistogram {
         // colorMap.printStats();
     }
 
-    private int updateColorMap(RenderedImage image, Raster tile, ColorMap colorMap, int shift,
-            int stepX, int stepY) {
-        final int minX = Math.max(tile.getMinX(), image.getMinX());
-        final int maxX = Math.min(tile.getWidth() + tile.getMinX(),
-                image.getMinX() + image.getWidth());
-        final int minY = Math.max(tile.getMinY(), image.getMinY());
-        final int maxY = Math.min(tile.getHeight() + tile.getMinY(),
-                image.getMinY() + image.getHeight());
-        int bands = tile.getNumBands();
-        int[] pixel = new int[bands];
-        for (int x = minX; x < maxX; x += stepX) {
-            for (int y = minY; y < maxY; y += stepY) {
-                // grab the pixel and the color
-                tile.getPixel(x, y, pixel);
-                int red, green, blue, alpha;
-
-                if(bands == 1 || bands == 2) {
-                    red = green = blue = pixel[0];
-                    alpha = bands == 2 ? pixel[1] : 255;
-                } else  {
-                    red = pixel[0];
-                    green = pixel[1];
-                    blue = pixel[2];
-                    alpha = bands == 4 ? pixel[3] : 255;
-                }
-
-                // normalize colors with very low alpha = 0 to just one
-                if (alpha <= ALPHA_THRESHOLD) {
-                    red = 255;
-                    green = 255;
-                    blue = 255;
-                    alpha = 0;
-                }
+    /**
+     * Splits the image in horizontal bands, builds a color map for each in parallel, and then
+     * merges them. The calling thread takes care of the first band.
+     */
+    private void buildParallel(RenderedImage image, int stepX, int stepY, int count) {
+        final int minY = image.getMinY();
+        final int height = image.getHeight();
+        Band[] bands = new Band[count];
+        for (int i = 0; i < count; i++) {
+            int bandMinY = minY + (int) ((long) height * i / count);
+            int bandMaxY = minY + (int) ((long) height * (i + 1) / count);
+            bands[i] = new Band(image, bandMinY, bandMaxY, stepX, stepY);
+        }
 
-                if (shift > 0) {
-                    red = shift(red, shift);
-                    green = shift(green, shift);
-                    blue = shift(blue, shift);
-                    alpha = shift(alpha, shift);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        ExecutorService executor = getExecutor();
+        for (int i = 1; i < count; i++) {
+            futures.add(executor.submit(bands[i]));
+        }
+        bands[0].run();
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while building the color histogram", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
                 }
-                colorMap.increment(red, green, blue, alpha);
+                throw new RuntimeException("Failed to build the color histogram", cause);
+            }
+        }
 
+        // merge starting from the coarsest band, so that the others just need to be shifted
+        Band merged = bands[0];
+        for (int i = 1; i < count; i++) {
+            if (bands[i].shift > merged.shift) {
+                merged = bands[i];
+            }
+        }
+        colorMap = merged.colorMap;
+        shift = merged.shift;
+        for (Band band : bands) {
+            if (band == merged) {
+                continue;
+            }
+            for (ColorEntry entry : band.colorMap) {
+                int delta = shift - band.shift;
+                int color = entry.color;
+                colorMap.increment(shift(red(color), delta), shift(green(color), delta),
+                        shift(blue(color), delta), shift(alpha(color), delta), entry.value);
                 if (colorMap.size() > Short.MAX_VALUE) {
                     shift++;
                     shiftColorMap(colorMap);
                 }
             }
         }
+    }
 
-        return shift;
+    static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(PROCESSORS, new ThreadFactory() {
+                final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "PackedHistogram-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Builds the color map of a horizontal band of the image
+     */
+    static final class Band implements Runnable {
+        final RenderedImage image;
+
+        final int minY;
+
+        final int maxY;
+
+        final int stepX;
+
+        final int stepY;
+
+        final ColorMap colorMap = new ColorMap();
+
+        int shift;
+
+        Band(RenderedImage image, int minY, int maxY, int stepX, int stepY) {
+            this.image = image;
+            this.minY = minY;
+            this.maxY = maxY;
+            this.stepX = stepX;
+            this.stepY = stepY;
+        }
+
+        public void run() {
+            final int minTileX = image.getMinTileX();
+            final int maxTileX = minTileX + image.getNumXTiles();
+            final int minTileY = image.getMinTileY();
+            final int maxTileY = minTileY + image.getNumYTiles();
+            for (int y = minTileY; y < maxTileY; y++) {
+                // skip the tile rows that are not in this band
+                int tileMinY = image.getTileGridYOffset() + y * image.getTileHeight();
+                if (tileMinY >= maxY || tileMinY + image.getTileHeight() <= minY) {
+                    continue;
+                }
+                for (int x = minTileX; x < maxTileX; x++) {
+                    Raster tile = image.getTile(x, y);
+                    updateColorMap(tile);
+                }
+            }
+        }
+
+        private void updateColorMap(Raster tile) {
+            final int minX = Math.max(tile.getMinX(), image.getMinX());
+            final int maxX = Math.min(tile.getWidth() + tile.getMinX(),
+                    image.getMinX() + image.getWidth());
+            final int tileMinY = Math.max(tile.getMinY(), image.getMinY());
+            final int tileMaxY = Math.min(tile.getHeight() + tile.getMinY(),
+                    image.getMinY() + image.getHeight());
+            if (maxX <= minX) {
+                return;
+            }
+            // sample the same rows as if the whole tile was scanned
+            int startY = tileMinY;
+            if (startY < minY) {
+                startY += (minY - startY + stepY - 1) / stepY * stepY;
+            }
+            final int endY = Math.min(tileMaxY, maxY);
+            final int bands = tile.getNumBands();
+            final int width = maxX - minX;
+            final int pixelStep = stepX * bands;
+            final int[] row = new int[width * bands];
+            for (int y = startY; y < endY; y += stepY) {
+                tile.getPixels(minX, y, width, 1, row);
+                for (int p = 0; p < row.length; p += pixelStep) {
+                    // grab the pixel and the color
+                    int red, green, blue, alpha;
+
+                    if(bands == 1 || bands == 2) {
+                        red = green = blue = row[p];
+                        alpha = bands == 2 ? row[p + 1] : 255;
+                    } else  {
+                        red = row[p];
+                        green = row[p + 1];
+                        blue = row[p + 2];
+                        alpha = bands == 4 ? row[p + 3] : 255;
+                    }
+
+                    // normalize colors with very low alpha = 0 to just one
+                    if (alpha <= ALPHA_THRESHOLD) {
+                        red = 255;
+                        green = 255;
+                        blue = 255;
+                        alpha = 0;
+                    }
+
+                    if (shift > 0) {
+                        red = shift(red, shift);
+                        green = shift(green, shift);
+                        blue = shift(blue, shift);
+                        alpha = shift(alpha, shift);
+                    }
+                    colorMap.increment(red, green, blue, alpha);
+
+                    if (colorMap.size() > Short.MAX_VALUE) {
+                        shift++;
+                        shiftColorMap(colorMap);
+                    }
+                }
+            }
+        }
     }
 
     /**
@@ -192,7 +343,7 @@ class PackedHistogram {
      * 
      * @param colorMap
      */
-    private void shiftColorMap(ColorMap colorMap) {
+    static void shiftColorMap(ColorMap colorMap) {
         ColorMap shifted = new ColorMap();
         for (ColorEntry entry : colorMap) {
             int color = entry.color;
@@ -210,7 +361,7 @@ class PackedHistogram {
         colorMap.reset(shifted);
     }
 
-    private long countPixels(ColorMap colorMap) {
+    static long countPixels(ColorMap colorMap) {
         long sum = 0;
         for (ColorEntry entry : colorMap) {
             sum += entry.value;
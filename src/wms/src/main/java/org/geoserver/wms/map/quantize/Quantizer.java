@@ -225,8 +225,7 @@ public class Quantizer {
 
         // dumpPalette(rgba);
 
-        ColorIndexer delegate = new MappedColorIndexer(rgba, colorMap, shift);
-        return new CachingColorIndexer(delegate);
+        return new ThreadLocalColorIndexer(rgba, colorMap, shift);
     }
 
     /**
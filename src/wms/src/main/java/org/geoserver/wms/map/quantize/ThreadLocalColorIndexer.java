@@ -0,0 +1,180 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.quantize;
+
+import static org.geoserver.wms.map.quantize.ColorUtils.*;
+
+import java.awt.image.IndexColorModel;
+import java.lang.ref.WeakReference;
+
+/**
+ * A color indexer that can be used by many threads at the same time without locking nor
+ * allocating objects during the lookups.
+ * <p>
+ * The colors known in advance (the ones of the histogram used to build the palette) are kept in a
+ * read only table shared by all threads. Each thread then has its own last match and its own
+ * table of the colors it had to search in the palette, so that no synchronization is needed. The
+ * per thread tables are bounded to {@value #MAX_LOCAL_COLORS} entries, and cleared when full.
+ * </p>
+ * <p>
+ * The per thread state is kept in a static thread local, and is reset whenever the thread
+ * switches to another indexer. It only holds a weak reference to the indexer it has been filled
+ * for, so that the indexers, built for each request, and their palettes can be collected as soon
+ * as the request is done.
+ * </p>
+ * <p>
+ * Code performing many lookups in a row, such as {@link ColorIndexerOpImage}, should grab the
+ * indexer of the current thread once with {@link #getLocalIndexer()} and use it directly.
+ * </p>
+ */
+public class ThreadLocalColorIndexer implements ColorIndexer {
+
+    static final int MAX_LOCAL_COLORS = 4096;
+
+    final IndexColorModel icm;
+
+    final SimpleColorIndexer delegate;
+
+    final ColorIndexTable shared;
+
+    final int shift;
+
+    final boolean normalizeAlpha;
+
+    static final ThreadLocal<LocalState> LOCAL_STATE = new ThreadLocal<LocalState>() {
+        protected LocalState initialValue() {
+            return new LocalState();
+        }
+    };
+
+    /**
+     * Builds an indexer for a palette when nothing is known about the colors to be mapped, for
+     * example for user provided palettes
+     */
+    public ThreadLocalColorIndexer(IndexColorModel icm) {
+        this.icm = icm;
+        this.delegate = new SimpleColorIndexer(icm);
+        this.shared = null;
+        this.shift = 0;
+        this.normalizeAlpha = false;
+    }
+
+    /**
+     * Builds an indexer re-using the color map the palette was built from
+     *
+     * @param colors The target palette
+     * @param colorMap The color map used to build the palette, mapping from shifted colors to the
+     *        palette index
+     * @param shift The bit shift applied while building the palette
+     */
+    ThreadLocalColorIndexer(byte[][] colors, ColorMap colorMap, int shift) {
+        this.delegate = new SimpleColorIndexer(colors);
+        this.icm = delegate.toIndexColorModel();
+        this.shared = new ColorIndexTable(colorMap);
+        this.shift = shift;
+        this.normalizeAlpha = true;
+    }
+
+    public IndexColorModel toIndexColorModel() {
+        return icm;
+    }
+
+    public int getClosestIndex(int r, int g, int b, int a) {
+        return getClosestIndex(getLocalState(), r, g, b, a);
+    }
+
+    /**
+     * Returns the indexer for the current thread, which must not be handed to other threads nor
+     * kept around once the current lookups are done
+     */
+    public ColorIndexer getLocalIndexer() {
+        return new LocalIndexer(this, getLocalState());
+    }
+
+    /**
+     * Returns the state of the current thread, resetting it if it was filled by another indexer
+     */
+    LocalState getLocalState() {
+        LocalState state = LOCAL_STATE.get();
+        if (state.owner == null || state.owner.get() != this) {
+            state.owner = new WeakReference<ThreadLocalColorIndexer>(this);
+            state.lastIndex = -1;
+            state.misses.clear();
+        }
+        return state;
+    }
+
+    int getClosestIndex(LocalState state, int r, int g, int b, int a) {
+        int color = color(r, g, b, a);
+        if (color == state.lastColor && state.lastIndex >= 0) {
+            return state.lastIndex;
+        }
+
+        // same normalization as the histogram the palette was built from
+        int key;
+        if (normalizeAlpha && a <= PackedHistogram.ALPHA_THRESHOLD) {
+            key = color(shift(255, shift), shift(255, shift), shift(255, shift), 0);
+        } else if (shift > 0) {
+            key = color(shift(r, shift), shift(g, shift), shift(b, shift), shift(a, shift));
+        } else {
+            key = color;
+        }
+
+        int idx = shared != null ? shared.get(key) : -1;
+        if (idx < 0) {
+            ColorIndexTable misses = state.misses;
+            idx = misses.get(key);
+            if (idx < 0) {
+                idx = delegate.getClosestIndex(r, g, b, a);
+                if (misses.size() >= MAX_LOCAL_COLORS) {
+                    misses.clear();
+                }
+                misses.put(key, idx);
+            }
+        }
+
+        state.lastColor = color;
+        state.lastIndex = idx;
+        return idx;
+    }
+
+    /**
+     * The thread specific state: last match and colors searched in the palette of the owner
+     */
+    static final class LocalState {
+
+        WeakReference<ThreadLocalColorIndexer> owner;
+
+        int lastColor;
+
+        int lastIndex = -1;
+
+        ColorIndexTable misses = new ColorIndexTable(256);
+    }
+
+    /**
+     * Binds an indexer to the state of the current thread, saving the thread local lookup on
+     * each call
+     */
+    static final class LocalIndexer implements ColorIndexer {
+
+        final ThreadLocalColorIndexer indexer;
+
+        final LocalState state;
+
+        LocalIndexer(ThreadLocalColorIndexer indexer, LocalState state) {
+            this.indexer = indexer;
+            this.state = state;
+        }
+
+        public IndexColorModel toIndexColorModel() {
+            return indexer.icm;
+        }
+
+        public int getClosestIndex(int r, int g, int b, int a) {
+            return indexer.getClosestIndex(state, r, g, b, a);
+        }
+    }
+}
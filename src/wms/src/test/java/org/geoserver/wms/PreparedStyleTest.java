@@ -0,0 +1,117 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import static org.easymock.EasyMock.*;
+import static org.junit.Assert.*;
+
+import java.util.Set;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.event.impl.CatalogPostModifyEventImpl;
+import org.geoserver.catalog.event.impl.CatalogRemoveEventImpl;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.filter.FilterFactory;
+import org.opengis.filter.expression.PropertyName;
+
+public class PreparedStyleTest {
+
+    FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+
+    Style style;
+
+    Rule lines;
+
+    Rule points;
+
+    @Before
+    public void buildStyle() {
+        StyleBuilder sb = new StyleBuilder();
+        lines = sb.createRule(sb.createLineSymbolizer(sb.createStroke(2)));
+        lines.setMaxScaleDenominator(1000);
+
+        points = sb.createRule(sb.createPointSymbolizer(sb.createGraphic(null,
+                sb.createMark("circle"), null, 1, 20, 0)));
+        points.setMinScaleDenominator(500);
+        points.setFilter(ff.equals(ff.property("name"), ff.literal("test")));
+
+        FeatureTypeStyle fts = sb.createFeatureTypeStyle("Feature", new Rule[] { lines, points });
+        style = sb.createStyle();
+        style.featureTypeStyles().add(fts);
+    }
+
+    @Test
+    public void testScaleRanges() {
+        PreparedStyle prepared = new PreparedStyle(style);
+        assertSame(style, prepared.getStyle());
+        // lines only, lines and points, points only
+        int linesRange = prepared.getRangeIndex(0);
+        assertEquals(linesRange, prepared.getRangeIndex(100));
+        int bothRange = prepared.getRangeIndex(500);
+        assertEquals(bothRange, prepared.getRangeIndex(700));
+        int pointsRange = prepared.getRangeIndex(1001);
+        assertEquals(pointsRange, prepared.getRangeIndex(1e9));
+        assertTrue(linesRange < bothRange);
+        assertTrue(bothRange < pointsRange);
+    }
+
+    @Test
+    public void testMetaBuffer() {
+        PreparedStyle prepared = new PreparedStyle(style);
+        int lineBuffer = prepared.getMetaBuffer(100);
+        int pointBuffer = prepared.getMetaBuffer(5000);
+        assertTrue(lineBuffer > 0);
+        assertTrue(pointBuffer > lineBuffer);
+        assertEquals(pointBuffer, prepared.getMetaBuffer(700));
+    }
+
+    @Test
+    public void testAttributesAndTransformation() {
+        PreparedStyle prepared = new PreparedStyle(style);
+        assertFalse(prepared.hasTransformation());
+        Set<PropertyName> attributes = prepared.getAttributes();
+        assertEquals(1, attributes.size());
+        assertEquals("name", attributes.iterator().next().getPropertyName());
+
+        style.featureTypeStyles().get(0).setTransformation(ff.function("test"));
+        assertTrue(new PreparedStyle(style).hasTransformation());
+    }
+
+    @Test
+    public void testCache() {
+        Catalog catalog = createNiceMock(Catalog.class);
+        replay(catalog);
+        PreparedStyleCache cache = new PreparedStyleCache(catalog);
+
+        PreparedStyle prepared = cache.get(style);
+        assertSame(prepared, cache.get(style));
+        assertEquals(1, cache.getStats().missCount());
+        assertEquals(1, cache.getStats().hitCount());
+
+        // unrelated catalog changes leave it alone
+        CatalogRemoveEventImpl remove = new CatalogRemoveEventImpl();
+        remove.setSource(createNiceMock(LayerInfo.class));
+        cache.handleRemoveEvent(remove);
+        assertSame(prepared, cache.get(style));
+
+        // style changes clear it
+        CatalogPostModifyEventImpl modify = new CatalogPostModifyEventImpl();
+        modify.setSource(createNiceMock(StyleInfo.class));
+        cache.handlePostModifyEvent(modify);
+        PreparedStyle reloaded = cache.get(style);
+        assertNotSame(prepared, reloaded);
+
+        cache.reloaded();
+        assertNotSame(reloaded, cache.get(style));
+    }
+}
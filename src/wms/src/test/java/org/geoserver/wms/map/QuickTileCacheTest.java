@@ -8,7 +8,30 @@ import static org.junit.Assert.*;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
-
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.namespace.QName;
+
+import net.opengis.wfs.TransactionType;
+import net.opengis.wfs.WfsFactory;
+
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wfs.request.TransactionRequest;
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.map.QuickTileCache.MapKey;
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.junit.Test;
 
 import com.vividsolutions.jts.geom.Envelope;
@@ -57,4 +80,127 @@ public class QuickTileCacheTest {
         tc = cache.getTileCoordinates(env, origin);
         assertEquals(new Point(-1, -1), tc);
     }
+
+    @Test
+    public void testRenderingCoalescing() throws Exception {
+        final MetaTileKey key = buildKey(0, 0);
+        final AtomicInteger renderings = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<RenderedImage[]> renderer = new Callable<RenderedImage[]>() {
+            public RenderedImage[] call() throws Exception {
+                renderings.incrementAndGet();
+                started.countDown();
+                release.await();
+                return buildTiles();
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<RenderedImage[]> first = executor.submit(new Callable<RenderedImage[]>() {
+                public RenderedImage[] call() throws Exception {
+                    return cache.getTiles(key, renderer);
+                }
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            Future<RenderedImage[]> second = executor.submit(new Callable<RenderedImage[]>() {
+                public RenderedImage[] call() throws Exception {
+                    return cache.getTiles(buildKey(0, 0), renderer);
+                }
+            });
+            // give the second request time to start waiting, then let the rendering complete
+            Thread.sleep(100);
+            release.countDown();
+
+            assertSame(first.get(10, TimeUnit.SECONDS), second.get(10, TimeUnit.SECONDS));
+            assertEquals(1, renderings.get());
+            assertNotNull(cache.getTile(key, buildRequest()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testSizeEviction() throws Exception {
+        RenderedImage[] tiles = buildTiles();
+        int size = QuickTileCache.getSizeInBytes(tiles);
+        assertEquals(9 * 256 * 256 * 4, size);
+
+        cache.setMaxSize(size * 2);
+        cache.storeTiles(buildKey(0, 0), tiles);
+        cache.storeTiles(buildKey(3, 0), buildTiles());
+        assertEquals(size * 2, cache.getSize());
+        cache.storeTiles(buildKey(6, 0), buildTiles());
+        assertEquals(size * 2, cache.getSize());
+        assertNull(cache.getTile(buildKey(0, 0), buildRequest()));
+    }
+
+    @Test
+    public void testTargetedInvalidation() throws Exception {
+        MetaTileKey k1 = buildKey(0, 0);
+        MetaTileKey k2 = buildKey(30, 30);
+        cache.storeTiles(k1, buildTiles());
+        cache.storeTiles(k2, buildTiles());
+
+        // another layer, nothing happens
+        cache.invalidate(new QName("http://www.geoserver.org", "other"),
+                new ReferencedEnvelope(0, 1, 0, 1, DefaultGeographicCRS.WGS84));
+        assertEquals(2, cache.getStatistics().get("size"));
+
+        // only the first meta tile is affected
+        cache.invalidate(new QName("http://www.geoserver.org", "test"),
+                new ReferencedEnvelope(0, 1, 0, 1, DefaultGeographicCRS.WGS84));
+        assertEquals(1, cache.getStatistics().get("size"));
+        assertNotNull(cache.getTile(k2, buildRequest(30, 30)));
+
+        // no bounds, the whole layer goes
+        cache.invalidate(new QName("http://www.geoserver.org", "test"), null);
+        assertEquals(0, cache.getStatistics().get("size"));
+    }
+
+    @Test
+    public void testInvalidationAfterCommit() throws Exception {
+        TransactionType tx = WfsFactory.eINSTANCE.createTransactionType();
+        cache.storeTiles(buildKey(0, 0), buildTiles());
+        cache.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_UPDATE,
+                new TransactionRequest.WFS11(tx), new QName("http://www.geoserver.org", "test"),
+                null));
+        assertEquals(0, cache.getStatistics().get("size"));
+
+        // rendered before the commit, still shows the old data
+        cache.storeTiles(buildKey(0, 0), buildTiles());
+        cache.afterTransaction(tx, null, false);
+        assertEquals(1, cache.getStatistics().get("size"));
+        cache.afterTransaction(tx, null, true);
+        assertEquals(0, cache.getStatistics().get("size"));
+    }
+
+    MetaTileKey buildKey(int x, int y) {
+        // a meta tile made of 3x3 tiles, one degree each
+        MapKey mapKey = new MapKey("LAYERS=test", 1d / 256, new Point2D.Double(0, 0));
+        MetaTileKey key = new MetaTileKey(mapKey, new Point(x, y), new ReferencedEnvelope(x,
+                x + 3, y, y + 3, DefaultGeographicCRS.WGS84));
+        key.layers = Collections.singleton(new QName("http://www.geoserver.org", "test"));
+        return key;
+    }
+
+    RenderedImage[] buildTiles() {
+        RenderedImage[] tiles = new RenderedImage[9];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+        }
+        return tiles;
+    }
+
+    GetMapRequest buildRequest() {
+        return buildRequest(0, 0);
+    }
+
+    GetMapRequest buildRequest(int x, int y) {
+        GetMapRequest request = new GetMapRequest();
+        request.setBbox(new Envelope(x, x + 1, y, y + 1));
+        request.setCrs(DefaultGeographicCRS.WGS84);
+        return request;
+    }
 }
@@ -5,6 +5,7 @@
 package org.geoserver.wms.map;
 
 import static org.geoserver.data.test.SystemTestData.STREAMS;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -27,6 +28,7 @@ import org.geoserver.catalog.StyleInfo;
 import org.geoserver.data.test.MockData;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.security.decorators.DecoratingFeatureSource;
+import org.geoserver.wms.DefaultWebMapService;
 import org.geoserver.wms.GetMapRequest;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
@@ -161,6 +163,61 @@ public class RenderedImageMapOutputFormatTest extends WMSTestSupport {
         assertNotBlank("testBlueLake", image);
     }
 
+    @Test
+    public void testParallelLayerRendering() throws Exception {
+        // label free layers, parallel rendering should give back the same image, save for
+        // rounding in the antialiased pixels composited over the background
+        BufferedImage sequential = renderPolygonLayers();
+        DefaultWebMapService.setLayerRenderingThreads(2);
+        try {
+            BufferedImage parallel = renderPolygonLayers();
+            assertEquals(sequential.getWidth(), parallel.getWidth());
+            assertEquals(sequential.getHeight(), parallel.getHeight());
+            for (int x = 0; x < sequential.getWidth(); x++) {
+                for (int y = 0; y < sequential.getHeight(); y++) {
+                    int expected = sequential.getRGB(x, y);
+                    int actual = parallel.getRGB(x, y);
+                    for (int shift = 0; shift < 32; shift += 8) {
+                        assertEquals("Different pixel at " + x + "," + y,
+                                (expected >> shift) & 0xFF, (actual >> shift) & 0xFF, 2);
+                    }
+                }
+            }
+        } finally {
+            DefaultWebMapService.setLayerRenderingThreads(0);
+        }
+    }
+
+    private BufferedImage renderPolygonLayers() throws Exception {
+        FeatureTypeInfo typeInfo = getCatalog().getFeatureTypeByName(
+                MockData.LAKES.getNamespaceURI(), MockData.LAKES.getLocalPart());
+        Envelope env = typeInfo.getFeatureSource(null, null).getBounds();
+        env.expandBy(env.getWidth() / 6);
+
+        GetMapRequest request = new GetMapRequest();
+        final WMSMapContent map = new WMSMapContent();
+        map.setMapWidth(200);
+        map.setMapHeight(200);
+        map.setBgColor(BG_COLOR);
+        map.setTransparent(false);
+        map.setRequest(request);
+
+        Style style = getCatalog().getStyleByName("Default").getStyle();
+        for (QName name : new QName[] { MockData.FORESTS, MockData.LAKES, MockData.PONDS }) {
+            FeatureTypeInfo info = getCatalog().getFeatureTypeByName(name.getNamespaceURI(),
+                    name.getLocalPart());
+            map.addLayer(new FeatureLayer(info.getFeatureSource(null, null), style));
+        }
+        map.getViewport().setBounds(new ReferencedEnvelope(env, DefaultGeographicCRS.WGS84));
+
+        request.setFormat(getMapFormat());
+        RenderedImageMap imageMap = this.rasterMapProducer.produceMap(map);
+        BufferedImage image = (BufferedImage) imageMap.getImage();
+        imageMap.dispose();
+        assertNotBlank("renderPolygonLayers", image);
+        return image;
+    }
+
     private void addToMap(final WMSMapContent map, final QName typeName) throws IOException {
         final FeatureTypeInfo ftInfo = getCatalog().getFeatureTypeByName(
                 typeName.getNamespaceURI(), typeName.getLocalPart());
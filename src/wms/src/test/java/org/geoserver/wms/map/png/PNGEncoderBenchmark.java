@@ -0,0 +1,112 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import org.geoserver.wms.map.png.PNGEncoder.FilterType;
+import org.geotools.image.ImageWorker;
+
+/**
+ * Compares the {@link PNGEncoder} with the {@link ImageWorker} based encoding used so far by the
+ * PNG map response, on 256x256 and 512x512 RGBA and paletted tiles.
+ * <p>
+ * Not a unit test, run it manually. The number of iterations can be passed as an argument.
+ * </p>
+ */
+public class PNGEncoderBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+
+        System.out.println("image\tencoder\tsize(bytes)\ttime(ms)");
+        for (int size : new int[] { 256, 512 }) {
+            BufferedImage rgba = buildTile(size);
+            RenderedImage paletted = quantize(rgba);
+            run("rgba" + size, rgba, iterations);
+            run("png8-" + size, paletted, iterations);
+        }
+    }
+
+    static RenderedImage quantize(BufferedImage image) {
+        ImageWorker iw = new ImageWorker(image);
+        return iw.forceIndexColorModelForGIF(true).getRenderedImage();
+    }
+
+    static void run(String name, RenderedImage image, int iterations) throws Exception {
+        // the current path, ImageIO writer through ImageWorker
+        bench(name, "imageio", image, iterations, new Encoder() {
+            public void encode(RenderedImage image, ByteArrayOutputStream out) throws Exception {
+                new ImageWorker(image).writePNG(out, "FILTERED", 0.75f, false, false);
+            }
+        });
+        bench(name, "imageio-native", image, iterations, new Encoder() {
+            public void encode(RenderedImage image, ByteArrayOutputStream out) throws Exception {
+                new ImageWorker(image).writePNG(out, "FILTERED", 0.75f, true, false);
+            }
+        });
+        for (final FilterType filter : new FilterType[] { null, FilterType.NONE,
+                FilterType.PAETH, FilterType.ADAPTIVE }) {
+            bench(name, "fast-" + (filter == null ? "auto" : filter.name().toLowerCase()), image,
+                    iterations, new Encoder() {
+                        public void encode(RenderedImage image, ByteArrayOutputStream out)
+                                throws Exception {
+                            new PNGEncoder(2, filter).encode(image, out);
+                        }
+                    });
+        }
+    }
+
+    static void bench(String image, String encoder, RenderedImage ri, int iterations,
+            Encoder e) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // warm up
+        for (int i = 0; i < iterations / 5 + 1; i++) {
+            out.reset();
+            e.encode(ri, out);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            out.reset();
+            e.encode(ri, out);
+        }
+        double avg = (System.nanoTime() - start) / 1e6 / iterations;
+        System.out.println(image + "\t" + encoder + "\t" + out.size() + "\t"
+                + String.format("%.3f", avg));
+    }
+
+    interface Encoder {
+        void encode(RenderedImage image, ByteArrayOutputStream out) throws Exception;
+    }
+
+    /**
+     * A tile looking like a typical vector map, antialiased lines and polygons with some
+     * transparency
+     */
+    static BufferedImage buildTile(int size) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_4BYTE_ABGR);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        Random random = new Random(0);
+        for (int i = 0; i < 50; i++) {
+            g.setColor(new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256),
+                    128 + random.nextInt(128)));
+            int x = random.nextInt(size);
+            int y = random.nextInt(size);
+            g.fillRect(x, y, random.nextInt(size / 4), random.nextInt(size / 4));
+            g.setStroke(new BasicStroke(1 + random.nextInt(3)));
+            g.drawLine(x, y, random.nextInt(size), random.nextInt(size));
+        }
+        g.dispose();
+        return image;
+    }
+}
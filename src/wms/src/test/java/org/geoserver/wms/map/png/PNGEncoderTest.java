@@ -0,0 +1,130 @@
+/* Copyright (c) 2001 - 2013 OpenPlans - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import static org.junit.Assert.*;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.geoserver.wms.map.png.PNGEncoder.FilterType;
+import org.junit.Test;
+
+public class PNGEncoderTest {
+
+    @Test
+    public void testSupported() {
+        assertTrue(PNGEncoder.isSupported(buildImage(BufferedImage.TYPE_4BYTE_ABGR)));
+        assertTrue(PNGEncoder.isSupported(buildImage(BufferedImage.TYPE_INT_ARGB)));
+        assertTrue(PNGEncoder.isSupported(buildImage(BufferedImage.TYPE_3BYTE_BGR)));
+        assertTrue(PNGEncoder.isSupported(buildImage(BufferedImage.TYPE_BYTE_GRAY)));
+        assertTrue(PNGEncoder.isSupported(buildPalettedImage()));
+        // premultiplied and packed sub-byte images are left to ImageIO
+        assertFalse(PNGEncoder.isSupported(buildImage(BufferedImage.TYPE_INT_ARGB_PRE)));
+        assertFalse(PNGEncoder.isSupported(buildImage(BufferedImage.TYPE_BYTE_BINARY)));
+    }
+
+    @Test
+    public void testRoundTripAllFilters() throws Exception {
+        for (FilterType filter : FilterType.values()) {
+            assertRoundTrip(buildImage(BufferedImage.TYPE_4BYTE_ABGR), filter);
+            assertRoundTrip(buildImage(BufferedImage.TYPE_INT_ARGB), filter);
+            assertRoundTrip(buildImage(BufferedImage.TYPE_INT_RGB), filter);
+            assertRoundTrip(buildImage(BufferedImage.TYPE_3BYTE_BGR), filter);
+            assertRoundTrip(buildImage(BufferedImage.TYPE_BYTE_GRAY), filter);
+            assertRoundTrip(buildPalettedImage(), filter);
+        }
+    }
+
+    @Test
+    public void testCompressionLevels() throws Exception {
+        BufferedImage image = buildImage(BufferedImage.TYPE_4BYTE_ABGR);
+        int stored = encode(image, 0, null).length;
+        int compressed = encode(image, 9, null).length;
+        assertTrue(compressed < stored);
+        // stored data, at least the raw pixels plus the filter bytes
+        assertTrue(stored > 256 * 256 * 4);
+    }
+
+    @Test
+    public void testSubImage() throws Exception {
+        // a raster whose data does not start at the beginning of the buffer
+        BufferedImage image = buildImage(BufferedImage.TYPE_4BYTE_ABGR).getSubimage(10, 20, 100,
+                50);
+        assertRoundTrip(image, FilterType.PAETH);
+    }
+
+    void assertRoundTrip(BufferedImage image, FilterType filter) throws Exception {
+        byte[] bytes = encode(image, 5, filter);
+        BufferedImage read = ImageIO.read(new ByteArrayInputStream(bytes));
+        assertNotNull(read);
+        assertEquals(image.getWidth(), read.getWidth());
+        assertEquals(image.getHeight(), read.getHeight());
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                if (image.getRGB(x, y) != read.getRGB(x, y)) {
+                    fail("Pixel " + x + "," + y + " differs with filter " + filter + " on "
+                            + image + ": " + Integer.toHexString(image.getRGB(x, y)) + " vs "
+                            + Integer.toHexString(read.getRGB(x, y)));
+                }
+            }
+        }
+    }
+
+    byte[] encode(RenderedImage image, int level, FilterType filter) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        new PNGEncoder(level, filter).encode(image, bos);
+        return bos.toByteArray();
+    }
+
+    BufferedImage buildImage(int type) {
+        BufferedImage image = new BufferedImage(256, 256, type);
+        draw(image);
+        return image;
+    }
+
+    BufferedImage buildPalettedImage() {
+        byte[] r = new byte[16];
+        byte[] g = new byte[16];
+        byte[] b = new byte[16];
+        byte[] a = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            r[i] = (byte) (i * 16);
+            g[i] = (byte) (255 - i * 16);
+            b[i] = (byte) (i * 8);
+            a[i] = (byte) (i < 4 ? i * 64 : 255);
+        }
+        IndexColorModel icm = new IndexColorModel(8, 16, r, g, b, a);
+        BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_BYTE_INDEXED, icm);
+        for (int y = 0; y < 256; y++) {
+            for (int x = 0; x < 256; x++) {
+                image.getRaster().setSample(x, y, 0, (x / 16 + y / 32) % 16);
+            }
+        }
+        return image;
+    }
+
+    void draw(BufferedImage image) {
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(new Color(255, 0, 0, 128));
+        g.fillOval(20, 20, 150, 100);
+        g.setColor(new Color(0, 0, 255, 200));
+        g.setStroke(new BasicStroke(5));
+        g.drawLine(0, 255, 255, 0);
+        g.setColor(Color.GREEN);
+        g.drawString("GeoServer", 100, 200);
+        g.dispose();
+    }
+}
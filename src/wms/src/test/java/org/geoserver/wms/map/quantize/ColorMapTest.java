@@ -25,6 +25,17 @@ public class ColorMapTest {
         assertEquals(1, map.size());
     }
 
+    @Test
+    public void testIncrementBy() {
+        ColorMap map = new ColorMap();
+
+        map.increment(255, 255, 255, 255, 10);
+        assertEquals(10, map.get(255, 255, 255, 255));
+        map.increment(255, 255, 255, 255, 5);
+        assertEquals(15, map.get(255, 255, 255, 255));
+        assertEquals(1, map.size());
+    }
+
     @Test
     public void testPutIncrement() {
         ColorMap map = new ColorMap();
@@ -13,6 +13,13 @@ import java.awt.Transparency;
 import java.awt.image.BufferedImage;
 import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.media.jai.PlanarImage;
 
@@ -169,6 +176,104 @@ public class QuantizerTest {
         assertImagesSimilar(bi, indexed, 250);
     }
 
+    @Test
+    public void testParallelHistogram() {
+        // large enough to be split in bands, with more colors than the histogram can hold
+        BufferedImage bi = new BufferedImage(1024, 1024, BufferedImage.TYPE_4BYTE_ABGR);
+        for (int y = 0; y < bi.getHeight(); y++) {
+            for (int x = 0; x < bi.getWidth(); x++) {
+                bi.setRGB(x, y, ((x + y) & 0xFF) << 24 | (x / 4) << 16 | (y / 4) << 8 | (x ^ y)
+                        & 0xFF);
+            }
+        }
+
+        PackedHistogram.Band band = new PackedHistogram.Band(bi, 0, bi.getHeight(), 1, 1);
+        band.run();
+        PackedHistogram histogram = new PackedHistogram(bi, 1, 1);
+        assertEquals(band.shift, histogram.getShift());
+        assertEquals(band.colorMap.size(), histogram.size());
+        assertEquals((long) bi.getWidth() * bi.getHeight(), histogram.pixelCount());
+        for (int i = 0; i < histogram.size(); i++) {
+            int color = histogram.getPackedColor(i);
+            assertEquals(band.colorMap.get(ColorUtils.red(color), ColorUtils.green(color),
+                    ColorUtils.blue(color), ColorUtils.alpha(color)), histogram.getCount(i));
+        }
+    }
+
+    @Test
+    public void testThreadLocalIndexer() throws Exception {
+        BufferedImage bi = new BufferedImage(256, 256, BufferedImage.TYPE_4BYTE_ABGR);
+        for (int y = 0; y < bi.getHeight(); y++) {
+            for (int x = 0; x < bi.getWidth(); x++) {
+                bi.setRGB(x, y, y << 24 | x << 16 | (255 - x) << 8 | (x + y) & 0xFF);
+            }
+        }
+        ColorIndexer indexer = new Quantizer(256).buildColorIndexer(bi);
+        assertTrue(indexer instanceof ThreadLocalColorIndexer);
+
+        // concurrent lookups must return the same indexes as a plain palette search
+        final ThreadLocalColorIndexer local = new ThreadLocalColorIndexer(
+                indexer.toIndexColorModel());
+        final SimpleColorIndexer reference = new SimpleColorIndexer(indexer.toIndexColorModel());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < 4; t++) {
+                final int seed = t;
+                futures.add(executor.submit(new Callable<Integer>() {
+
+                    public Integer call() throws Exception {
+                        Random random = new Random(seed);
+                        int mismatches = 0;
+                        for (int i = 0; i < 20000; i++) {
+                            // repeat colors often, to exercise the per thread caches
+                            int r = random.nextInt(64) * 4;
+                            int g = random.nextInt(64) * 4;
+                            int b = random.nextInt(64) * 4;
+                            int a = random.nextInt(256);
+                            if (local.getClosestIndex(r, g, b, a) != reference.getClosestIndex(
+                                    r, g, b, a)) {
+                                mismatches++;
+                            }
+                        }
+                        return mismatches;
+                    }
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                assertEquals(Integer.valueOf(0), future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        // and the indexed image must still be close to the original
+        RenderedImage indexed = ColorIndexerDescriptor.create(bi, indexer, null);
+        assertImagesSimilar(bi, indexed, 250);
+    }
+
+    @Test
+    public void testThreadLocalIndexerSwitch() throws Exception {
+        // two palettes mapping the same colors to different indexes
+        byte[] bw = new byte[] { 0, (byte) 255 };
+        byte[] wb = new byte[] { (byte) 255, 0 };
+        ThreadLocalColorIndexer first = new ThreadLocalColorIndexer(new IndexColorModel(8, 2, bw,
+                bw, bw));
+        ThreadLocalColorIndexer second = new ThreadLocalColorIndexer(new IndexColorModel(8, 2, wb,
+                wb, wb));
+
+        // the thread state is reset when switching from one indexer to the other
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, first.getClosestIndex(10, 10, 10, 255));
+            assertEquals(1, second.getClosestIndex(10, 10, 10, 255));
+            assertEquals(1, first.getLocalIndexer().getClosestIndex(240, 240, 240, 255));
+            assertEquals(0, second.getLocalIndexer().getClosestIndex(240, 240, 240, 255));
+        }
+
+        // the state only refers to the last indexer weakly
+        assertSame(second, ThreadLocalColorIndexer.LOCAL_STATE.get().owner.get());
+    }
+
     /**
      * Checks two images are visually equal given a certain maximum color distance. For a
      * better tool you might want to check out {@link ImageAssert}, but that works only with RGB